@@ -58,6 +58,8 @@ public abstract class CassandraEngineFactory<T extends DependencyInjector> exten
     private List<String> cassandraHosts = Collections.singletonList("localhost");
     private Integer cassandraPort = null;
     private boolean withCache = false;
+    private long maxWorkflowInstanceCacheBytes = StorageCache.DEFAULT_MAX_WORKFLOW_INSTANCE_CACHE_BYTES;
+    private long maxEarlyResponseCacheBytes = StorageCache.DEFAULT_MAX_EARLY_RESPONSE_CACHE_BYTES;
 
     protected final Supplier<CassandraSessionManager> cassandraSessionManager;
     protected final Supplier<ScheduledExecutorService> scheduledExecutorService;
@@ -98,6 +100,20 @@ public abstract class CassandraEngineFactory<T extends DependencyInjector> exten
         this.withCache = withCache;
     }
 
+    /**
+     * Maximum size of the workflow instances cached in bytes, used if withCache is <code>true</code>
+     */
+    public void setMaxWorkflowInstanceCacheBytes(long maxWorkflowInstanceCacheBytes) {
+        this.maxWorkflowInstanceCacheBytes = maxWorkflowInstanceCacheBytes;
+    }
+
+    /**
+     * Maximum size of the early responses cached in bytes, used if withCache is <code>true</code>
+     */
+    public void setMaxEarlyResponseCacheBytes(long maxEarlyResponseCacheBytes) {
+        this.maxEarlyResponseCacheBytes = maxEarlyResponseCacheBytes;
+    }
+
     protected ScheduledExecutorService createScheduledExecutorService() {
         return Executors.newScheduledThreadPool(2);
     }
@@ -105,7 +121,7 @@ public abstract class CassandraEngineFactory<T extends DependencyInjector> exten
     protected Storage createStorage() {
         final CassandraStorage cs = new CassandraStorage(cassandraSessionManager.get(), executorService.get(), statisticCollector.get());
         if (withCache) {
-            final StorageCache storageCache = new StorageCache(cs);
+            final StorageCache storageCache = new StorageCache(cs, maxWorkflowInstanceCacheBytes, maxEarlyResponseCacheBytes);
             scheduledExecutorService.get().scheduleAtFixedRate(new Runnable() {
                 @Override
                 public void run() {
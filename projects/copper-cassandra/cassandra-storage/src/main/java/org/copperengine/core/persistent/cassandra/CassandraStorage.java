@@ -17,17 +17,21 @@ package org.copperengine.core.persistent.cassandra;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.NullArgumentException;
 import org.copperengine.core.CopperRuntimeException;
@@ -42,6 +46,7 @@ import org.copperengine.management.model.WorkflowInstanceFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.KeyspaceMetadata;
@@ -50,14 +55,23 @@ import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.TokenRange;
 import com.datastax.driver.core.policies.DefaultRetryPolicy;
 import com.datastax.driver.core.policies.LoggingRetryPolicy;
 import com.datastax.driver.core.policies.RetryPolicy;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * Implementation of the {@link Storage} interface backed by a Apache Cassandra DB.
+ * <p>
+ * Writes are sent via a {@link CassandraWriteCoalescer}, which groups concurrent writes owned by the same replicas
+ * into unlogged batches and limits the number of write requests in flight.
  * 
  * @author austermann
  *
@@ -67,9 +81,8 @@ public class CassandraStorage implements Storage {
     private static final Logger logger = LoggerFactory.getLogger(CassandraStorage.class);
 
     private static final String CQL_UPD_WORKFLOW_INSTANCE_NOT_WAITING = "UPDATE COP_WORKFLOW_INSTANCE SET PPOOL_ID=?, PRIO=?, CREATION_TS=?, DATA=?, OBJECT_STATE=?, STATE=?, LAST_MOD_TS=toTimestamp(now()), CLASSNAME=? WHERE ID=?";
-    private static final String CQL_UPD_WORKFLOW_INSTANCE_WAITING = "UPDATE COP_WORKFLOW_INSTANCE SET PPOOL_ID=?, PRIO=?, CREATION_TS=?, DATA=?, OBJECT_STATE=?, WAIT_MODE=?, TIMEOUT=?, RESPONSE_MAP_JSON=?, STATE=?, LAST_MOD_TS=toTimestamp(now()), CLASSNAME=? WHERE ID=?";
+    private static final String CQL_UPD_WORKFLOW_INSTANCE_WAITING = "UPDATE COP_WORKFLOW_INSTANCE SET PPOOL_ID=?, PRIO=?, CREATION_TS=?, DATA=?, OBJECT_STATE=?, WAIT_MODE=?, TIMEOUT=?, RESPONSE_MAP=?, STATE=?, LAST_MOD_TS=toTimestamp(now()), CLASSNAME=? WHERE ID=?";
     private static final String CQL_UPD_WORKFLOW_INSTANCE_STATE = "UPDATE COP_WORKFLOW_INSTANCE SET STATE=?, LAST_MOD_TS=toTimestamp(now()) WHERE ID=?";
-    private static final String CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE_MAP = "UPDATE COP_WORKFLOW_INSTANCE SET STATE=?, RESPONSE_MAP_JSON=?, LAST_MOD_TS=toTimestamp(now()) WHERE ID=?";
     private static final String CQL_DEL_WORKFLOW_INSTANCE_WAITING = "DELETE FROM COP_WORKFLOW_INSTANCE WHERE ID=?";
     private static final String CQL_SEL_WORKFLOW_INSTANCE = "SELECT * FROM COP_WORKFLOW_INSTANCE WHERE ID=?";
     private static final String CQL_INS_EARLY_RESPONSE = "INSERT INTO COP_EARLY_RESPONSE (CORRELATION_ID, RESPONSE) VALUES (?,?) USING TTL ?";
@@ -77,7 +90,27 @@ public class CassandraStorage implements Storage {
     private static final String CQL_SEL_EARLY_RESPONSE = "SELECT RESPONSE FROM COP_EARLY_RESPONSE WHERE CORRELATION_ID=?";
     private static final String CQL_INS_WFI_ID = "INSERT INTO COP_WFI_ID (ID) VALUES (?)";
     private static final String CQL_DEL_WFI_ID = "DELETE FROM COP_WFI_ID WHERE ID=?";
-    private static final String CQL_SEL_WFI_ID_ALL = "SELECT * FROM COP_WFI_ID";
+    private static final String CQL_SEL_WFI_ID_TOKEN_RANGE = "SELECT ID FROM COP_WFI_ID WHERE token(ID) > ? AND token(ID) <= ?";
+    private static final String CQL_SEL_WFI_ID_TOKEN_FROM = "SELECT ID FROM COP_WFI_ID WHERE token(ID) > ?";
+    private static final int RECOVERY_READ_AHEAD = 64;
+    private static final String CQL_INS_WFI_BY_STATE = "INSERT INTO COP_WFI_BY_STATE (STATE, BUCKET, ID) VALUES (?,?,?)";
+    private static final String CQL_DEL_WFI_BY_STATE = "DELETE FROM COP_WFI_BY_STATE WHERE STATE=? AND BUCKET=? AND ID=?";
+    private static final String CQL_DEL_WFI_BY_STATE_OLDER = "DELETE FROM COP_WFI_BY_STATE USING TIMESTAMP ? WHERE STATE=? AND BUCKET=? AND ID=?";
+    private static final String CQL_SEL_WFI_BY_STATE = "SELECT ID FROM COP_WFI_BY_STATE WHERE STATE=? AND BUCKET=?";
+    private static final String CQL_INS_WFI_BY_CLASSNAME = "INSERT INTO COP_WFI_BY_CLASSNAME (CLASSNAME, DAY, CREATION_TS, ID) VALUES (?,?,?,?)";
+    private static final String CQL_DEL_WFI_BY_CLASSNAME = "DELETE FROM COP_WFI_BY_CLASSNAME WHERE CLASSNAME=? AND DAY=? AND CREATION_TS=? AND ID=?";
+    private static final String CQL_DEL_WFI_BY_CLASSNAME_OLDER = "DELETE FROM COP_WFI_BY_CLASSNAME USING TIMESTAMP ? WHERE CLASSNAME=? AND DAY=? AND CREATION_TS=? AND ID=?";
+    private static final String CQL_SEL_WFI_BY_CLASSNAME = "SELECT ID, CREATION_TS FROM COP_WFI_BY_CLASSNAME WHERE CLASSNAME=? AND DAY=? AND CREATION_TS>=? AND CREATION_TS<?";
+    private static final String CQL_INS_WFI_CLASSNAME_DAY = "INSERT INTO COP_WFI_CLASSNAME_DAY (CLASSNAME, DAY) VALUES (?,?)";
+    private static final String CQL_SEL_WFI_CLASSNAME_DAY = "SELECT DAY FROM COP_WFI_CLASSNAME_DAY WHERE CLASSNAME=? AND DAY>=? AND DAY<=?";
+    private static final String CQL_SEL_WORKFLOW_INSTANCE_CHECK = "SELECT ID, STATE, PPOOL_ID, PRIO, CREATION_TS, WAIT_MODE, TIMEOUT, RESPONSE_MAP, RESPONSE_MAP_JSON, DATA, OBJECT_STATE, LAST_MOD_TS, CLASSNAME, WRITETIME(STATE) AS STATE_TS, WRITETIME(CLASSNAME) AS CLASSNAME_TS FROM COP_WORKFLOW_INSTANCE WHERE ID=?";
+    private static final String CQL_SEL_WORKFLOW_INSTANCE_ALL = "SELECT * FROM COP_WORKFLOW_INSTANCE";
+    private static final int QUERY_READ_AHEAD = 64;
+    private static final int QUERY_FETCH_SIZE = 500;
+    // query table entries without workflow instance are only removed if they are older, they may belong to an insert in progress
+    private static final long STALE_ENTRY_MIN_AGE_MSEC = 60000;
+    // states an instance usually had when it finishes
+    private static final ProcessingState[] STATES_DELETED_ON_FINISH = { ProcessingState.ENQUEUED, ProcessingState.WAITING };
 
     private final Executor executor;
     private final Session session;
@@ -90,6 +123,16 @@ public class CassandraStorage implements Storage {
     private int ttlEarlyResponseSeconds = 1 * 24 * 60 * 60; // one day
     private int initializationTimeoutSeconds = 1 * 24 * 60 * 60; // one day
     private boolean createSchemaOnStartup = true;
+    private boolean recoverInBackground = true;
+    private volatile boolean recoveryFinished = false;
+    private int maxWriteBatchSize = 16;
+    private int maxWriteBatchBytes = 5 * 1024;
+    private int maxWritesInFlight = 256;
+    private CassandraWriteCoalescer writeCoalescer;
+    private int queryMaxScanRows = 100000;
+    private volatile boolean backfillQueryTables = false;
+    // last day written to COP_WFI_CLASSNAME_DAY per class name
+    private final Map<String, Integer> classnameDays = new ConcurrentHashMap<>();
 
     public CassandraStorage(final CassandraSessionManager sessionManager, final Executor executor, final RuntimeStatisticsCollector runtimeStatisticsCollector) {
         this(sessionManager, executor, runtimeStatisticsCollector, ConsistencyLevel.LOCAL_QUORUM);
@@ -121,6 +164,57 @@ public class CassandraStorage implements Storage {
         this.createSchemaOnStartup = createSchemaOnStartup;
     }
 
+    /**
+     * If <code>true</code> (the default), {@link #initialize(HybridDBStorageAccessor, int)} returns immediately and
+     * the existing workflow instances are resumed in the background. Responses for instances not yet resumed are
+     * stored as early responses and assigned when the instance is resumed. If <code>false</code>, the startup blocks
+     * until all instances are resumed.
+     */
+    public void setRecoverInBackground(boolean recoverInBackground) {
+        this.recoverInBackground = recoverInBackground;
+    }
+
+    /**
+     * Maximum number of writes sent in one unlogged batch, defaults to 16. Only writes owned by the same replicas are
+     * batched, 1 disables batching. See {@link CassandraWriteCoalescer}.
+     */
+    public void setMaxWriteBatchSize(int maxWriteBatchSize) {
+        if (maxWriteBatchSize <= 0)
+            throw new IllegalArgumentException();
+        this.maxWriteBatchSize = maxWriteBatchSize;
+    }
+
+    /**
+     * Maximum estimated size of an unlogged batch in bytes, defaults to 5 KB, i.e. Cassandra's default
+     * <code>batch_size_warn_threshold_in_kb</code>. Larger writes, e.g. of big workflow instances, are sent on their
+     * own.
+     */
+    public void setMaxWriteBatchBytes(int maxWriteBatchBytes) {
+        if (maxWriteBatchBytes <= 0)
+            throw new IllegalArgumentException();
+        this.maxWriteBatchBytes = maxWriteBatchBytes;
+    }
+
+    /**
+     * Maximum number of write requests executed concurrently, defaults to 256. Further writes are queued and sent in
+     * batches.
+     */
+    public void setMaxWritesInFlight(int maxWritesInFlight) {
+        if (maxWritesInFlight <= 0)
+            throw new IllegalArgumentException();
+        this.maxWritesInFlight = maxWritesInFlight;
+    }
+
+    /**
+     * Maximum number of rows {@link #queryWorkflowInstances(WorkflowInstanceFilter)} reads from COP_WORKFLOW_INSTANCE
+     * for filters with neither state nor workflow class name, defaults to 100000.
+     */
+    public void setQueryMaxScanRows(int queryMaxScanRows) {
+        if (queryMaxScanRows <= 0)
+            throw new IllegalArgumentException();
+        this.queryMaxScanRows = queryMaxScanRows;
+    }
+
     protected void prepareStatements() throws Exception {
         prepare(CQL_UPD_WORKFLOW_INSTANCE_NOT_WAITING);
         prepare(CQL_UPD_WORKFLOW_INSTANCE_WAITING);
@@ -130,10 +224,22 @@ public class CassandraStorage implements Storage {
         prepare(CQL_INS_EARLY_RESPONSE);
         prepare(CQL_DEL_EARLY_RESPONSE);
         prepare(CQL_SEL_EARLY_RESPONSE);
-        prepare(CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE_MAP);
         prepare(CQL_INS_WFI_ID);
         prepare(CQL_DEL_WFI_ID);
-        prepare(CQL_SEL_WFI_ID_ALL, DefaultRetryPolicy.INSTANCE);
+        prepare(CQL_SEL_WFI_ID_TOKEN_RANGE, DefaultRetryPolicy.INSTANCE);
+        prepare(CQL_SEL_WFI_ID_TOKEN_FROM, DefaultRetryPolicy.INSTANCE);
+        prepare(CQL_INS_WFI_BY_STATE);
+        prepare(CQL_DEL_WFI_BY_STATE);
+        prepare(CQL_DEL_WFI_BY_STATE_OLDER);
+        prepare(CQL_SEL_WFI_BY_STATE, DefaultRetryPolicy.INSTANCE);
+        prepare(CQL_INS_WFI_BY_CLASSNAME);
+        prepare(CQL_DEL_WFI_BY_CLASSNAME);
+        prepare(CQL_DEL_WFI_BY_CLASSNAME_OLDER);
+        prepare(CQL_SEL_WFI_BY_CLASSNAME, DefaultRetryPolicy.INSTANCE);
+        prepare(CQL_INS_WFI_CLASSNAME_DAY);
+        prepare(CQL_SEL_WFI_CLASSNAME_DAY, DefaultRetryPolicy.INSTANCE);
+        prepare(CQL_SEL_WORKFLOW_INSTANCE_CHECK, DefaultRetryPolicy.INSTANCE);
+        prepare(CQL_SEL_WORKFLOW_INSTANCE_ALL, DefaultRetryPolicy.INSTANCE);
     }
 
     protected void createSchema(Session session, Cluster cluster) throws Exception {
@@ -141,12 +247,23 @@ public class CassandraStorage implements Storage {
             return;
 
         final KeyspaceMetadata metaData = cluster.getMetadata().getKeyspace(session.getLoggedKeyspace());
-        if (metaData.getTable("COP_WORKFLOW_INSTANCE") != null) {
+        final TableMetadata workflowInstanceTable = metaData.getTable("COP_WORKFLOW_INSTANCE");
+        if (workflowInstanceTable != null && workflowInstanceTable.getColumn("RESPONSE_MAP") == null) {
+            logger.info("Adding column RESPONSE_MAP to COP_WORKFLOW_INSTANCE");
+            session.execute("ALTER TABLE COP_WORKFLOW_INSTANCE ADD RESPONSE_MAP blob");
+        }
+        if (metaData.getTable("COP_WFI_BY_STATE") != null) {
             logger.info("skipping schema creation");
             return;
         }
 
-        logger.info("Creating tables...");
+        if (workflowInstanceTable != null) {
+            logger.info("Creating query tables, they are filled while resuming the existing workflow instances...");
+            backfillQueryTables = true;
+        }
+        else {
+            logger.info("Creating tables...");
+        }
         try (final BufferedReader br = new BufferedReader(new InputStreamReader(CassandraStorage.class.getResourceAsStream("copper-schema.cql")))) {
             StringBuilder cql = new StringBuilder();
             String line;
@@ -190,58 +307,84 @@ public class CassandraStorage implements Storage {
         new CassandraOperation<Void>(logger) {
             @Override
             protected Void execute() throws Exception {
+                // both statements have the same routing key, i.e. the same replicas, and are usually sent in one batch
+                final List<ListenableFuture<Void>> futures = new ArrayList<>(5);
                 if (initialInsert) {
                     final PreparedStatement pstmt = preparedStatements.get(CQL_INS_WFI_ID);
-                    final long startTS = System.nanoTime();
-                    session.execute(pstmt.bind(cw.id));
-                    runtimeStatisticsCollector.submit("wfii.ins", 1, System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
+                    futures.add(writeCoalescer.write(pstmt.bind(cw.id), length(cw.id), "wfii.ins"));
                 }
+                final int size = length(cw.id) + length(cw.ppoolId) + length(cw.classname) + length(cw.serializedWorkflow.getData()) + length(cw.serializedWorkflow.getObjectState());
                 if (cw.cid2ResponseMap == null || cw.cid2ResponseMap.isEmpty()) {
                     final PreparedStatement pstmt = preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_NOT_WAITING);
-                    final long startTS = System.nanoTime();
-                    session.execute(pstmt.bind(cw.ppoolId, cw.prio, cw.creationTS, cw.serializedWorkflow.getData(), cw.serializedWorkflow.getObjectState(), cw.state.name(), cw.classname, cw.id));
-                    runtimeStatisticsCollector.submit("wfi.update.nowait", 1, System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
+                    futures.add(writeCoalescer.write(pstmt.bind(cw.ppoolId, cw.prio, cw.creationTS, cw.serializedWorkflow.getData(), cw.serializedWorkflow.getObjectState(), cw.state.name(), cw.classname, cw.id), size, "wfi.update.nowait"));
                 }
                 else {
                     final PreparedStatement pstmt = preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_WAITING);
-                    final String responseMapJson = jsonMapper.toJSON(cw.cid2ResponseMap);
-                    final long startTS = System.nanoTime();
-                    session.execute(pstmt.bind(cw.ppoolId, cw.prio, cw.creationTS, cw.serializedWorkflow.getData(), cw.serializedWorkflow.getObjectState(), cw.waitMode.name(), cw.timeout, responseMapJson, cw.state.name(), cw.classname, cw.id));
-                    runtimeStatisticsCollector.submit("wfi.update.wait", 1, System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
+                    final ByteBuffer responseMap = ResponseMapCodec.encode(cw.cid2ResponseMap);
+                    futures.add(writeCoalescer.write(pstmt.bind(cw.ppoolId, cw.prio, cw.creationTS, cw.serializedWorkflow.getData(), cw.serializedWorkflow.getObjectState(), cw.waitMode.name(), cw.timeout, responseMap, cw.state.name(), cw.classname, cw.id), size + responseMap.remaining(), "wfi.update.wait"));
                 }
+                futures.addAll(writeQueryTables(cw, initialInsert));
+                await(Futures.allAsList(futures));
                 return null;
             }
         }.run();
     }
 
+    private List<ListenableFuture<Void>> writeQueryTables(final WorkflowInstance cw, final boolean initialInsert) {
+        final List<ListenableFuture<Void>> futures = new ArrayList<>(3);
+        futures.add(writeCoalescer.write(preparedStatements.get(CQL_INS_WFI_BY_STATE).bind(cw.state.name(), WorkflowInstanceQueryPlanner.stateBucket(cw.id), cw.id), length(cw.id), "wfi.query.state.ins"));
+        if (initialInsert && cw.classname != null && cw.creationTS != null) {
+            final int day = WorkflowInstanceQueryPlanner.day(cw.creationTS);
+            futures.add(writeCoalescer.write(preparedStatements.get(CQL_INS_WFI_BY_CLASSNAME).bind(cw.classname, day, cw.creationTS, cw.id), length(cw.id) + length(cw.classname), "wfi.query.classname.ins"));
+            final Integer lastDay = classnameDays.put(cw.classname, day);
+            if (lastDay == null || lastDay != day) {
+                final ListenableFuture<Void> future = writeCoalescer.write(preparedStatements.get(CQL_INS_WFI_CLASSNAME_DAY).bind(cw.classname, day), length(cw.classname), "wfi.query.day.ins");
+                Futures.addCallback(future, new FutureCallback<Void>() {
+                    @Override
+                    public void onSuccess(Void result) {
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        // write it again with the next instance
+                        classnameDays.remove(cw.classname, day);
+                    }
+                });
+                futures.add(future);
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Deletes the workflow instance and its entries in the query tables. Only the entries of the states an instance
+     * usually has when it finishes are deleted, any other entry is removed by the next query that finds it.
+     */
     @Override
-    public ListenableFuture<Void> deleteWorkflowInstance(String wfId) throws Exception {
+    public ListenableFuture<Void> deleteWorkflowInstance(String wfId, String classname, Date creationTS) throws Exception {
         logger.debug("deleteWorkflowInstance({})", wfId);
-        session.executeAsync(preparedStatements.get(CQL_DEL_WFI_ID).bind(wfId));
-        final PreparedStatement pstmt = preparedStatements.get(CQL_DEL_WORKFLOW_INSTANCE_WAITING);
-        final long startTS = System.nanoTime();
-        final ResultSetFuture rsf = session.executeAsync(pstmt.bind(wfId));
-        return createSettableFuture(rsf, "wfi.delete", startTS);
+        writeCoalescer.write(preparedStatements.get(CQL_DEL_WFI_ID).bind(wfId), length(wfId), "wfii.delete");
+        for (ProcessingState state : STATES_DELETED_ON_FINISH) {
+            writeCoalescer.write(preparedStatements.get(CQL_DEL_WFI_BY_STATE).bind(state.name(), WorkflowInstanceQueryPlanner.stateBucket(wfId), wfId), length(wfId), "wfi.query.state.del");
+        }
+        if (classname != null && creationTS != null) {
+            writeCoalescer.write(preparedStatements.get(CQL_DEL_WFI_BY_CLASSNAME).bind(classname, WorkflowInstanceQueryPlanner.day(creationTS), creationTS, wfId), length(wfId) + length(classname), "wfi.query.classname.del");
+        }
+        return writeCoalescer.write(preparedStatements.get(CQL_DEL_WORKFLOW_INSTANCE_WAITING).bind(wfId), length(wfId), "wfi.delete");
     }
 
-    private SettableFuture<Void> createSettableFuture(final ResultSetFuture rsf, final String mpId, final long startTsNanos) {
-        final SettableFuture<Void> rv = SettableFuture.create();
-        rsf.addListener(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    runtimeStatisticsCollector.submit(mpId, 1, System.nanoTime() - startTsNanos, TimeUnit.NANOSECONDS);
-                    rsf.get();
-                    rv.set(null);
-                } catch (InterruptedException e) {
-                    rv.setException(e);
-                } catch (ExecutionException e) {
-                    rv.setException(e.getCause());
-                }
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
 
-            }
-        }, executor);
-        return rv;
+    private static void await(ListenableFuture<?> future) throws Exception {
+        try {
+            Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+            throw e;
+        }
     }
 
     @Override
@@ -264,12 +407,30 @@ public class CassandraStorage implements Storage {
         }.run();
     }
 
+    @Override
+    public ListenableFuture<WorkflowInstance> readWorkflowInstanceAsync(final String wfId) throws Exception {
+        logger.debug("readWorkflowInstanceAsync({})", wfId);
+        final PreparedStatement pstmt = preparedStatements.get(CQL_SEL_WORKFLOW_INSTANCE);
+        final long startTS = System.nanoTime();
+        final ResultSetFuture rsf = session.executeAsync(pstmt.bind(wfId));
+        return Futures.transform(rsf, new Function<ResultSet, WorkflowInstance>() {
+            @Override
+            public WorkflowInstance apply(ResultSet rs) {
+                final Row row = rs.one();
+                if (row == null) {
+                    return null;
+                }
+                final WorkflowInstance cw = row2WorkflowInstance(row);
+                runtimeStatisticsCollector.submit("wfi.read.async", 1, System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
+                return cw;
+            }
+        }, executor);
+    }
+
     @Override
     public ListenableFuture<Void> safeEarlyResponse(String correlationId, String serializedResponse) throws Exception {
         logger.debug("safeEarlyResponse({})", correlationId);
-        final long startTS = System.nanoTime();
-        final ResultSetFuture rsf = session.executeAsync(preparedStatements.get(CQL_INS_EARLY_RESPONSE).bind(correlationId, serializedResponse, ttlEarlyResponseSeconds));
-        return createSettableFuture(rsf, "ear.insert", startTS);
+        return writeCoalescer.write(preparedStatements.get(CQL_INS_EARLY_RESPONSE).bind(correlationId, serializedResponse, ttlEarlyResponseSeconds), length(correlationId) + length(serializedResponse), "ear.insert");
     }
 
     @Override
@@ -294,131 +455,158 @@ public class CassandraStorage implements Storage {
     @Override
     public ListenableFuture<Void> deleteEarlyResponse(String correlationId) throws Exception {
         logger.debug("deleteEarlyResponse({})", correlationId);
-        final long startTS = System.nanoTime();
-        final ResultSetFuture rsf = session.executeAsync(preparedStatements.get(CQL_DEL_EARLY_RESPONSE).bind(correlationId));
-        return createSettableFuture(rsf, "ear.delete", startTS);
+        return writeCoalescer.write(preparedStatements.get(CQL_DEL_EARLY_RESPONSE).bind(correlationId), length(correlationId), "ear.delete");
     }
 
+    /**
+     * Reads the ids of all workflow instances from COP_WFI_ID and resumes them. The ids are scanned in parallel per
+     * token range using <code>numberOfThreads</code> threads, each scan reads the workflow instances ahead
+     * asynchronously. If recovery in background is enabled (the default), this happens after this method returned,
+     * i.e. while the engine is already accepting new workflow instances, see
+     * {@link #setRecoverInBackground(boolean)}.
+     */
     @Override
     public void initialize(final HybridDBStorageAccessor internalStorageAccessor, int numberOfThreads) throws Exception {
         createSchema(session, cluster);
 
         prepareStatements();
 
-        // TODO instead of blocking the startup until all active workflow instances are read and resumed, it is
-        // sufficient to read just their existing IDs in COP_WFI_ID and resume them in the background while already
-        // starting the engine an accepting new instances.
+        writeCoalescer = new CassandraWriteCoalescer(session, executor, runtimeStatisticsCollector, maxWriteBatchSize, maxWriteBatchBytes, maxWritesInFlight);
+        writeCoalescer.startup();
+
+        final int numberOfRecoveryThreads = numberOfThreads <= 0 ? 1 : numberOfThreads;
+        if (!recoverInBackground) {
+            recover(internalStorageAccessor, numberOfRecoveryThreads);
+            return;
+        }
+        final Thread thread = new Thread("CassandraStorage-recovery") {
+            @Override
+            public void run() {
+                try {
+                    recover(internalStorageAccessor, numberOfRecoveryThreads);
+                } catch (Exception e) {
+                    logger.error("recovery failed", e);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Sends the writes still queued in the {@link CassandraWriteCoalescer} and stops it.
+     */
+    @Override
+    public void shutdown() {
+        if (writeCoalescer != null) {
+            writeCoalescer.shutdown();
+        }
+    }
+
+    /**
+     * @return true, if all workflow instances existing at startup have been resumed
+     */
+    public boolean isRecoveryFinished() {
+        return recoveryFinished;
+    }
 
-        if (numberOfThreads <= 0)
-            numberOfThreads = 1;
+    private void recover(final HybridDBStorageAccessor internalStorageAccessor, int numberOfThreads) throws Exception {
         logger.info("Starting to initialize with {} threads ...", numberOfThreads);
-        final ExecutorService execService = Executors.newFixedThreadPool(numberOfThreads);
         final long startTS = System.currentTimeMillis();
-        final ResultSet rs = session.execute(preparedStatements.get(CQL_SEL_WFI_ID_ALL).bind().setFetchSize(500).setConsistencyLevel(ConsistencyLevel.ONE));
-        int counter = 0;
-        Row row;
-        while ((row = rs.one()) != null) {
-            counter++;
-            final String wfId = row.getString("ID");
+        final List<TokenRange> tokenRanges = new ArrayList<>();
+        for (TokenRange tokenRange : cluster.getMetadata().getTokenRanges()) {
+            tokenRanges.addAll(tokenRange.unwrap());
+        }
+        final AtomicInteger counter = new AtomicInteger();
+        final ExecutorService execService = Executors.newFixedThreadPool(numberOfThreads);
+        for (final TokenRange tokenRange : tokenRanges) {
             execService.execute(new Runnable() {
                 @Override
                 public void run() {
                     try {
-                        resume(wfId, internalStorageAccessor);
+                        counter.addAndGet(recover(tokenRange, internalStorageAccessor));
                     }
                     catch (Exception e) {
-                        logger.error("resume failed", e);
+                        logger.error("recovery of token range " + tokenRange + " failed", e);
                     }
                 }
             });
         }
-        logger.info("Read {} IDs in {} msec", counter, System.currentTimeMillis() - startTS);
         execService.shutdown();
         final boolean timeoutHappened = !execService.awaitTermination(initializationTimeoutSeconds, TimeUnit.SECONDS);
         if (timeoutHappened) {
+            execService.shutdownNow();
             throw new CopperRuntimeException("initialize timed out!");
         }
-        logger.info("Finished initialization - read {} rows in {} msec", counter, System.currentTimeMillis() - startTS);
-        runtimeStatisticsCollector.submit("storage.init", counter, System.currentTimeMillis() - startTS, TimeUnit.MILLISECONDS);
+        recoveryFinished = true;
+        backfillQueryTables = false;
+        internalStorageAccessor.recoveryFinished();
+        logger.info("Finished initialization - read {} rows in {} msec", counter.get(), System.currentTimeMillis() - startTS);
+        runtimeStatisticsCollector.submit("storage.init", counter.get(), System.currentTimeMillis() - startTS, TimeUnit.MILLISECONDS);
     }
 
-    private void resume(final String wfId, final HybridDBStorageAccessor internalStorageAccessor) throws Exception {
-        logger.trace("resume(wfId={})", wfId);
-
-        final ResultSet rs = session.execute(preparedStatements.get(CQL_SEL_WORKFLOW_INSTANCE).bind(wfId));
-        final Row row = rs.one();
-        if (row == null) {
-            logger.warn("No workflow instance {} found - deleting row in COP_WFI_ID", wfId);
-            session.executeAsync(preparedStatements.get(CQL_DEL_WFI_ID).bind(wfId));
-            return;
+    private int recover(final TokenRange tokenRange, final HybridDBStorageAccessor internalStorageAccessor) throws Exception {
+        // after unwrapping only a range ending with the minimum token has an end not greater than its start
+        final BoundStatement stmt;
+        if (tokenRange.getEnd().compareTo(tokenRange.getStart()) > 0) {
+            stmt = preparedStatements.get(CQL_SEL_WFI_ID_TOKEN_RANGE).bind().setToken(0, tokenRange.getStart()).setToken(1, tokenRange.getEnd());
         }
-
-        final String ppoolId = row.getString("PPOOL_ID");
-        final int prio = row.getInt("PRIO");
-        final WaitMode waitMode = toWaitMode(row.getString("WAIT_MODE"));
-        final Map<String, String> responseMap = toResponseMap(row.getString("RESPONSE_MAP_JSON"));
-        final ProcessingState state = ProcessingState.valueOf(row.getString("STATE"));
-        final Date timeout = row.getTimestamp("TIMEOUT");
-        final boolean timeoutOccured = timeout != null && timeout.getTime() <= System.currentTimeMillis();
-
-        if (state == ProcessingState.ERROR || state == ProcessingState.INVALID) {
-            return;
+        else {
+            stmt = preparedStatements.get(CQL_SEL_WFI_ID_TOKEN_FROM).bind().setToken(0, tokenRange.getStart());
         }
-
-        if (state == ProcessingState.ENQUEUED) {
-            internalStorageAccessor.enqueue(wfId, ppoolId, prio);
-            return;
+        final ResultSet rs = session.execute(stmt.setFetchSize(500).setConsistencyLevel(ConsistencyLevel.ONE));
+        final Queue<String> wfIds = new ArrayDeque<>(RECOVERY_READ_AHEAD);
+        final Queue<ResultSetFuture> reads = new ArrayDeque<>(RECOVERY_READ_AHEAD);
+        int counter = 0;
+        Row row;
+        while ((row = rs.one()) != null) {
+            counter++;
+            final String wfId = row.getString("ID");
+            wfIds.add(wfId);
+            reads.add(session.executeAsync(preparedStatements.get(CQL_SEL_WORKFLOW_INSTANCE).bind(wfId)));
+            if (reads.size() == RECOVERY_READ_AHEAD) {
+                resume(wfIds.poll(), reads.poll(), internalStorageAccessor);
+            }
         }
+        while (!reads.isEmpty()) {
+            resume(wfIds.poll(), reads.poll(), internalStorageAccessor);
+        }
+        return counter;
+    }
 
-        if (responseMap != null) {
-            final List<String> missingResponseCorrelationIds = new ArrayList<String>();
-            int numberOfAvailableResponses = 0;
-            for (Entry<String, String> e : responseMap.entrySet()) {
-                final String correlationId = e.getKey();
-                final String response = e.getValue();
-                internalStorageAccessor.registerCorrelationId(correlationId, wfId);
-                if (response != null) {
-                    numberOfAvailableResponses++;
-                }
-                else {
-                    missingResponseCorrelationIds.add(correlationId);
-                }
+    private void resume(final String wfId, final ResultSetFuture read, final HybridDBStorageAccessor internalStorageAccessor) {
+        logger.trace("resume(wfId={})", wfId);
+        try {
+            final Row row = read.getUninterruptibly().one();
+            if (row == null) {
+                logger.warn("No workflow instance {} found - deleting row in COP_WFI_ID", wfId);
+                session.executeAsync(preparedStatements.get(CQL_DEL_WFI_ID).bind(wfId));
+                return;
             }
-            boolean modified = false;
-            if (!missingResponseCorrelationIds.isEmpty()) {
-                // check for early responses
-                for (String cid : missingResponseCorrelationIds) {
-                    String earlyResponse = readEarlyResponse(cid);
-                    if (earlyResponse != null) {
-                        responseMap.put(cid, earlyResponse);
-                        numberOfAvailableResponses++;
-                        modified = true;
-                    }
-                }
+            final WorkflowInstance wfi = row2WorkflowInstance(row);
+            if (backfillQueryTables) {
+                writeQueryTables(wfi, true);
             }
-            if (modified || timeoutOccured) {
-                final ProcessingState newState = (timeoutOccured || numberOfAvailableResponses == responseMap.size() || (numberOfAvailableResponses == 1 && waitMode == WaitMode.FIRST)) ? ProcessingState.ENQUEUED : ProcessingState.WAITING;
-                final String responseMapJson = jsonMapper.toJSON(responseMap);
-                session.execute(preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE_MAP).bind(newState.name(), responseMapJson, wfId));
-                if (newState == ProcessingState.ENQUEUED) {
-                    internalStorageAccessor.enqueue(wfId, ppoolId, prio);
-                }
-            }
-
+            internalStorageAccessor.resume(wfi);
+        }
+        catch (Exception e) {
+            logger.error("resume failed for workflow instance " + wfId, e);
         }
     }
 
     @Override
     public ListenableFuture<Void> updateWorkflowInstanceState(final String wfId, final ProcessingState state) throws Exception {
         logger.debug("updateWorkflowInstanceState({}, {})", wfId, state);
-        final long startTS = System.nanoTime();
-        final ResultSetFuture rsf = session.executeAsync(preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_STATE).bind(state.name(), wfId));
-        return createSettableFuture(rsf, "wfi.update.state", startTS);
+        final ListenableFuture<Void> update = writeCoalescer.write(preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_STATE).bind(state.name(), wfId), length(wfId), "wfi.update.state");
+        final ListenableFuture<Void> index = writeCoalescer.write(preparedStatements.get(CQL_INS_WFI_BY_STATE).bind(state.name(), WorkflowInstanceQueryPlanner.stateBucket(wfId), wfId), length(wfId), "wfi.query.state.ins");
+        return Futures.transform(Futures.allAsList(update, index), Functions.<Void> constant(null));
     }
 
-    @SuppressWarnings("unchecked")
-    private Map<String, String> toResponseMap(String v) {
-        return v == null ? null : jsonMapper.fromJSON(v, HashMap.class);
+    /**
+     * Reads the binary response map, rows written by former versions only contain the JSON representation
+     */
+    private Map<String, String> toResponseMap(Row row) {
+        return ResponseMapCodec.decode(row.getBytes("RESPONSE_MAP"), row.getString("RESPONSE_MAP_JSON"), jsonMapper);
     }
 
     private WaitMode toWaitMode(String v) {
@@ -438,69 +626,164 @@ public class CassandraStorage implements Storage {
         preparedStatements.put(cql, pstmt);
     }
 
+    /**
+     * Reads the ids of the candidates from the query table chosen by the {@link WorkflowInstanceQueryPlanner}, i.e.
+     * by state or by workflow class name, and checks the candidates against the filter. Outdated entries of the query
+     * tables found on the way are deleted. Filters with neither state nor class name scan COP_WORKFLOW_INSTANCE, at
+     * most {@link #setQueryMaxScanRows(int)} rows.
+     */
     @Override
     public List<WorkflowInstance> queryWorkflowInstances(WorkflowInstanceFilter filter) throws Exception {
-        final List<WorkflowInstance> resultList = new ArrayList<>();
-        final StringBuilder query = new StringBuilder();
-        final List<Object> values = new ArrayList<>();
-        query.append("SELECT * FROM COP_WORKFLOW_INSTANCE");
-        
-        boolean first = true;
-        if (filter.getWorkflowClassname() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("CLASSNAME=?");
-            values.add(filter.getWorkflowClassname());
-        }
-        if (filter.getProcessorPoolId() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("PPOOL_ID=?");
-            values.add(filter.getProcessorPoolId());
-        }
-        if (filter.getState() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("STATE=?");
-            values.add(filter.getState());
-        }
-        if (filter.getCreationTS() != null && filter.getCreationTS().getFrom() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("CREATION_TS>=?");
-            values.add(filter.getCreationTS().getFrom());
-        }
-        if (filter.getCreationTS() != null && filter.getCreationTS().getTo() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("CREATION_TS<?");
-            values.add(filter.getCreationTS().getTo());
-        }
-        if (filter.getLastModTS() != null && filter.getLastModTS().getFrom() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("LAST_MOD_TS>=?");
-            values.add(filter.getLastModTS().getFrom());
-        }
-        if (filter.getLastModTS() != null && filter.getLastModTS().getTo() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("LAST_MOD_TS<?");
-            values.add(filter.getLastModTS().getTo());
-        }
-        query.append(" LIMIT ").append(filter.getMax());
-        query.append(" ALLOW FILTERING");
-        final String cqlQuery = query.toString();
-        logger.info("queryWorkflowInstances - cqlQuery = {}", cqlQuery);
-        final ResultSet resultSet = session.execute(cqlQuery, values.toArray());
-        Row row;
-        while ((row = resultSet.one()) != null) {
-            final WorkflowInstance cw = row2WorkflowInstance(row);
-            resultList.add(cw);
+        final long startTS = System.nanoTime();
+        final WorkflowInstanceQueryPlanner.Index index = WorkflowInstanceQueryPlanner.chooseIndex(filter);
+        logger.debug("queryWorkflowInstances({}) - using index {} of table {}", filter, index, index.table);
+        final QueryCollector collector = new QueryCollector(filter);
+        if (index == WorkflowInstanceQueryPlanner.Index.STATE) {
+            queryByState(filter.getState(), collector);
+        }
+        else if (index == WorkflowInstanceQueryPlanner.Index.CLASSNAME) {
+            queryByClassname(filter, collector);
         }
+        else {
+            scan(filter, collector);
+        }
+        final List<WorkflowInstance> resultList = collector.finish();
+        runtimeStatisticsCollector.submit("wfi.query." + index.name().toLowerCase(), resultList.size(), System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
         return resultList;
     }
 
+    private void queryByState(final String state, final QueryCollector collector) {
+        // read the first page of all partitions in parallel
+        final List<ResultSetFuture> partitions = new ArrayList<>(WorkflowInstanceQueryPlanner.STATE_BUCKETS);
+        for (int bucket = 0; bucket < WorkflowInstanceQueryPlanner.STATE_BUCKETS; bucket++) {
+            partitions.add(session.executeAsync(preparedStatements.get(CQL_SEL_WFI_BY_STATE).bind(state, bucket).setFetchSize(QUERY_FETCH_SIZE)));
+        }
+        for (ResultSetFuture partition : partitions) {
+            final ResultSet rs = partition.getUninterruptibly();
+            Row row;
+            while (!collector.isComplete() && (row = rs.one()) != null) {
+                collector.add(new QueryCandidate(row.getString("ID"), state, null, 0, null));
+            }
+        }
+    }
+
+    private void queryByClassname(final WorkflowInstanceFilter filter, final QueryCollector collector) {
+        final String classname = filter.getWorkflowClassname();
+        final Date from = filter.getCreationTS() != null && filter.getCreationTS().getFrom() != null ? filter.getCreationTS().getFrom() : new Date(Long.MIN_VALUE);
+        final Date to = filter.getCreationTS() != null && filter.getCreationTS().getTo() != null ? filter.getCreationTS().getTo() : new Date(Long.MAX_VALUE);
+        final ResultSet days = session.execute(preparedStatements.get(CQL_SEL_WFI_CLASSNAME_DAY).bind(classname, WorkflowInstanceQueryPlanner.firstDay(filter), WorkflowInstanceQueryPlanner.lastDay(filter)));
+        Row dayRow;
+        while (!collector.isComplete() && (dayRow = days.one()) != null) {
+            final int day = dayRow.getInt("DAY");
+            final ResultSet rs = session.execute(preparedStatements.get(CQL_SEL_WFI_BY_CLASSNAME).bind(classname, day, from, to).setFetchSize(QUERY_FETCH_SIZE));
+            Row row;
+            while (!collector.isComplete() && (row = rs.one()) != null) {
+                collector.add(new QueryCandidate(row.getString("ID"), null, classname, day, row.getTimestamp("CREATION_TS")));
+            }
+        }
+    }
+
+    private void scan(final WorkflowInstanceFilter filter, final QueryCollector collector) {
+        final ResultSet rs = session.execute(preparedStatements.get(CQL_SEL_WORKFLOW_INSTANCE_ALL).bind().setFetchSize(QUERY_FETCH_SIZE));
+        int counter = 0;
+        Row row;
+        while (!collector.isComplete() && (row = rs.one()) != null) {
+            if (counter++ == queryMaxScanRows) {
+                logger.warn("queryWorkflowInstances({}) stopped after scanning {} workflow instances - filter by state or workflow class name", filter, queryMaxScanRows);
+                break;
+            }
+            collector.check(row2WorkflowInstance(row));
+        }
+    }
+
+    /**
+     * An entry of a query table
+     */
+    private static final class QueryCandidate {
+        final String wfId;
+        final String state;
+        final String classname;
+        final int day;
+        final Date creationTS;
+
+        QueryCandidate(String wfId, String state, String classname, int day, Date creationTS) {
+            this.wfId = wfId;
+            this.state = state;
+            this.classname = classname;
+            this.day = day;
+            this.creationTS = creationTS;
+        }
+    }
+
+    /**
+     * Reads the workflow instances of the candidates ahead asynchronously and collects the ones matching the filter
+     */
+    private final class QueryCollector {
+        private final WorkflowInstanceFilter filter;
+        private final List<WorkflowInstance> resultList = new ArrayList<>();
+        private final Queue<QueryCandidate> candidates = new ArrayDeque<>(QUERY_READ_AHEAD);
+        private final Queue<ResultSetFuture> reads = new ArrayDeque<>(QUERY_READ_AHEAD);
+        private final long staleEntryTimestampMicros = (System.currentTimeMillis() - STALE_ENTRY_MIN_AGE_MSEC) * 1000;
+
+        QueryCollector(WorkflowInstanceFilter filter) {
+            this.filter = filter;
+        }
+
+        boolean isComplete() {
+            return resultList.size() >= filter.getMax();
+        }
+
+        void add(QueryCandidate candidate) {
+            candidates.add(candidate);
+            reads.add(session.executeAsync(preparedStatements.get(CQL_SEL_WORKFLOW_INSTANCE_CHECK).bind(candidate.wfId)));
+            if (reads.size() == QUERY_READ_AHEAD) {
+                check(candidates.poll(), reads.poll());
+            }
+        }
+
+        void check(WorkflowInstance wfi) {
+            if (!isComplete() && WorkflowInstanceQueryPlanner.matches(filter, wfi)) {
+                resultList.add(wfi);
+            }
+        }
+
+        List<WorkflowInstance> finish() {
+            while (!reads.isEmpty() && !isComplete()) {
+                check(candidates.poll(), reads.poll());
+            }
+            return resultList;
+        }
+
+        private void check(QueryCandidate candidate, ResultSetFuture read) {
+            final Row row = read.getUninterruptibly().one();
+            if (row == null) {
+                deleteOutdated(candidate, staleEntryTimestampMicros);
+                return;
+            }
+            final WorkflowInstance wfi = row2WorkflowInstance(row);
+            // delete the entry only if it is older than the values read, so that a concurrent update may write it again
+            if (candidate.state != null && !candidate.state.equals(wfi.state.name())) {
+                deleteOutdated(candidate, row.getLong("STATE_TS"));
+                return;
+            }
+            if (candidate.classname != null && !candidate.classname.equals(wfi.classname)) {
+                deleteOutdated(candidate, row.getLong("CLASSNAME_TS"));
+                return;
+            }
+            check(wfi);
+        }
+
+        private void deleteOutdated(QueryCandidate candidate, long timestampMicros) {
+            logger.debug("Deleting outdated query table entry for workflow instance {}", candidate.wfId);
+            if (candidate.state != null) {
+                writeCoalescer.write(preparedStatements.get(CQL_DEL_WFI_BY_STATE_OLDER).bind(timestampMicros, candidate.state, WorkflowInstanceQueryPlanner.stateBucket(candidate.wfId), candidate.wfId), length(candidate.wfId), "wfi.query.state.del");
+            }
+            else {
+                writeCoalescer.write(preparedStatements.get(CQL_DEL_WFI_BY_CLASSNAME_OLDER).bind(timestampMicros, candidate.classname, candidate.day, candidate.creationTS, candidate.wfId), length(candidate.wfId) + length(candidate.classname), "wfi.query.classname.del");
+            }
+        }
+    }
+
     private WorkflowInstance row2WorkflowInstance(Row row) {
         final WorkflowInstance cw = new WorkflowInstance();
         cw.id = row.getString("ID");
@@ -512,7 +795,7 @@ public class CassandraStorage implements Storage {
         cw.serializedWorkflow = new SerializedWorkflow();
         cw.serializedWorkflow.setData(row.getString("DATA"));
         cw.serializedWorkflow.setObjectState(row.getString("OBJECT_STATE"));
-        cw.cid2ResponseMap = toResponseMap(row.getString("RESPONSE_MAP_JSON"));
+        cw.cid2ResponseMap = toResponseMap(row);
         cw.state = ProcessingState.valueOf(row.getString("STATE"));
         cw.lastModTS = row.getTimestamp("LAST_MOD_TS");
         cw.classname = row.getString("CLASSNAME");
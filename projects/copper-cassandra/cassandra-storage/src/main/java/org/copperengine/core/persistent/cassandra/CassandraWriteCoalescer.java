@@ -0,0 +1,363 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.NullArgumentException;
+import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Coalesces the writes of a {@link CassandraStorage}. Writes are queued and sent by a single thread. Writes owned by
+ * the same replicas are grouped into unlogged batches of at most <code>maxBatchSize</code> statements and
+ * <code>maxBatchBytes</code> bytes, so that a burst of writes needs less round trips. At most
+ * <code>maxWritesInFlight</code> requests are executed concurrently, while this limit is reached new writes queue up
+ * and are sent with the next batches. Without load, each write is sent immediately on its own.
+ * <p>
+ * All statements of a batch get the same timestamp, so two writes to the same partition are never put into the same
+ * batch - the later one goes into a later request, which gets a later timestamp from the driver. A partition is
+ * identified by keyspace, table and routing key, writes to different tables with the same key may share a batch.
+ * <p>
+ * For each write the time from {@link #write(Statement, int, String)} until its completion is submitted to the
+ * {@link RuntimeStatisticsCollector} with the measure point id of the write, for each request the number of
+ * statements and the execution time with measure point id {@value #MPID_BATCH}.
+ */
+public class CassandraWriteCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(CassandraWriteCoalescer.class);
+
+    public static final String MPID_BATCH = "cassandra.write.batch";
+
+    // estimated size of a statement without its values
+    private static final int STATEMENT_OVERHEAD_BYTES = 64;
+
+    private static final long SHUTDOWN_TIMEOUT_MSEC = 10000;
+
+    private static final class Write {
+        final Statement statement;
+        final int sizeBytes;
+        final String mpId;
+        final long startTS = System.nanoTime();
+        final SettableFuture<Void> future = SettableFuture.create();
+        Object partitionKey;
+        boolean sent;
+
+        Write(Statement statement, int sizeBytes, String mpId) {
+            this.statement = statement;
+            this.sizeBytes = sizeBytes + STATEMENT_OVERHEAD_BYTES;
+            this.mpId = mpId;
+        }
+    }
+
+    private final Session session;
+    private final Executor executor;
+    private final RuntimeStatisticsCollector runtimeStatisticsCollector;
+    private final int maxBatchSize;
+    private final int maxBatchBytes;
+    private final Semaphore inFlight;
+    private final LinkedBlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    // queued by shutdown, the writes queued before are sent
+    private final Write stop = new Write(null, 0, null);
+    private volatile boolean shutdown = false;
+    private Thread thread;
+
+    /**
+     * @param session
+     *        session to execute the writes
+     * @param executor
+     *        executor to complete the futures returned by {@link #write(Statement, int, String)}
+     * @param runtimeStatisticsCollector
+     *        receives the latency of each write
+     * @param maxBatchSize
+     *        maximum number of statements per batch, 1 disables batching
+     * @param maxBatchBytes
+     *        maximum estimated size of a batch in bytes, should not exceed Cassandra's
+     *        <code>batch_size_warn_threshold_in_kb</code>. A larger write is sent on its own.
+     * @param maxWritesInFlight
+     *        maximum number of requests executed concurrently
+     */
+    public CassandraWriteCoalescer(final Session session, final Executor executor, final RuntimeStatisticsCollector runtimeStatisticsCollector, int maxBatchSize, int maxBatchBytes, int maxWritesInFlight) {
+        if (session == null)
+            throw new NullArgumentException("session");
+        if (executor == null)
+            throw new NullArgumentException("executor");
+        if (runtimeStatisticsCollector == null)
+            throw new NullArgumentException("runtimeStatisticsCollector");
+        if (maxBatchSize <= 0)
+            throw new IllegalArgumentException("maxBatchSize must be > 0");
+        if (maxBatchBytes <= 0)
+            throw new IllegalArgumentException("maxBatchBytes must be > 0");
+        if (maxWritesInFlight <= 0)
+            throw new IllegalArgumentException("maxWritesInFlight must be > 0");
+        this.session = session;
+        this.executor = executor;
+        this.runtimeStatisticsCollector = runtimeStatisticsCollector;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.inFlight = new Semaphore(maxWritesInFlight);
+    }
+
+    public synchronized void startup() {
+        if (thread != null)
+            return;
+        thread = new Thread("CassandraWriteCoalescer") {
+            @Override
+            public void run() {
+                CassandraWriteCoalescer.this.run();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Sends the pending writes and stops. Writes still pending after {@value #SHUTDOWN_TIMEOUT_MSEC} msec and writes
+     * queued after shutdown fail with a {@link CancellationException}.
+     */
+    public void shutdown() {
+        final Thread thread;
+        synchronized (this) {
+            if (this.thread == null)
+                return;
+            thread = this.thread;
+            this.thread = null;
+            shutdown = true;
+            queue.add(stop);
+        }
+        try {
+            thread.join(SHUTDOWN_TIMEOUT_MSEC);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            logger.warn("Pending writes not sent within {} msec - cancelling them", SHUTDOWN_TIMEOUT_MSEC);
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Queues a write.
+     * 
+     * @param statement
+     *        the statement, consistency level and retry policy of a batch are taken from its first statement
+     * @param sizeBytes
+     *        approximate size of the values in bytes
+     * @param mpId
+     *        measure point id for the {@link RuntimeStatisticsCollector}
+     * @return future that completes when the statement has been executed
+     */
+    public ListenableFuture<Void> write(Statement statement, int sizeBytes, String mpId) {
+        if (statement == null)
+            throw new NullArgumentException("statement");
+        final Write write = new Write(statement, sizeBytes, mpId);
+        if (shutdown) {
+            write.future.setException(new CancellationException("CassandraWriteCoalescer has been shut down"));
+            return write.future;
+        }
+        queue.add(write);
+        return write.future;
+    }
+
+    /**
+     * @return number of writes not yet sent
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void run() {
+        logger.info("started");
+        final List<Write> writes = new ArrayList<>();
+        try {
+            boolean stopped = false;
+            while (!stopped && !Thread.currentThread().isInterrupted()) {
+                writes.add(queue.take());
+                queue.drainTo(writes);
+                stopped = writes.remove(stop);
+                flush(writes);
+                writes.clear();
+            }
+        } catch (InterruptedException e) {
+            // shutdown
+        } finally {
+            queue.drainTo(writes);
+            for (Write write : writes) {
+                if (write != stop && !write.sent)
+                    write.future.setException(new CancellationException("CassandraWriteCoalescer has been shut down"));
+            }
+        }
+        logger.info("stopped");
+    }
+
+    private void flush(final List<Write> writes) throws InterruptedException {
+        final Map<Object, List<Write>> groups = new LinkedHashMap<>();
+        for (Write write : writes) {
+            Object key = null;
+            try {
+                write.partitionKey = partitionKey(write.statement);
+                key = write.partitionKey != null ? groupKey(write.statement) : null;
+            } catch (RuntimeException e) {
+                logger.warn("Unable to determine the replicas of " + write.statement, e);
+            }
+            if (key == null) {
+                key = write;
+            }
+            List<Write> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+            group.add(write);
+        }
+        for (List<Write> group : groups.values()) {
+            List<Write> batch = new ArrayList<>();
+            final Set<Object> batchPartitionKeys = new HashSet<>();
+            int batchBytes = 0;
+            for (Write write : group) {
+                if (!batch.isEmpty() && (batch.size() == maxBatchSize || batchBytes + write.sizeBytes > maxBatchBytes || batchPartitionKeys.contains(write.partitionKey))) {
+                    send(batch);
+                    batch = new ArrayList<>();
+                    batchPartitionKeys.clear();
+                    batchBytes = 0;
+                }
+                batch.add(write);
+                batchPartitionKeys.add(write.partitionKey);
+                batchBytes += write.sizeBytes;
+            }
+            send(batch);
+        }
+    }
+
+    private void send(final List<Write> batch) throws InterruptedException {
+        inFlight.acquire();
+        for (Write write : batch) {
+            write.sent = true;
+        }
+        final long startTS = System.nanoTime();
+        final ListenableFuture<?> future;
+        try {
+            future = execute(toStatement(batch));
+        } catch (RuntimeException e) {
+            inFlight.release();
+            for (Write write : batch) {
+                write.future.setException(e);
+            }
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                inFlight.release();
+                final long now = System.nanoTime();
+                runtimeStatisticsCollector.submit(MPID_BATCH, batch.size(), now - startTS, TimeUnit.NANOSECONDS);
+                for (Write write : batch) {
+                    runtimeStatisticsCollector.submit(write.mpId, 1, now - write.startTS, TimeUnit.NANOSECONDS);
+                    write.future.set(null);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                inFlight.release();
+                for (Write write : batch) {
+                    write.future.setException(t);
+                }
+            }
+        }, executor);
+    }
+
+    private Statement toStatement(List<Write> batch) {
+        final Statement first = batch.get(0).statement;
+        if (batch.size() == 1)
+            return first;
+        final BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        for (Write write : batch) {
+            batchStatement.add(write.statement);
+        }
+        batchStatement.setConsistencyLevel(first.getConsistencyLevel());
+        batchStatement.setRetryPolicy(first.getRetryPolicy());
+        return batchStatement;
+    }
+
+    /**
+     * @return the key of the partition the statement writes to, or <code>null</code> if unknown and the statement has
+     *         to be sent on its own
+     */
+    protected Object partitionKey(Statement statement) {
+        final Cluster cluster = session.getCluster();
+        return partitionKey(statement, statement.getRoutingKey(cluster.getConfiguration().getProtocolOptions().getProtocolVersion(), cluster.getConfiguration().getCodecRegistry()));
+    }
+
+    /**
+     * @return keyspace, table and routing key of a bound statement, the routing key only for other statements, since
+     *         their table is unknown
+     */
+    static Object partitionKey(Statement statement, ByteBuffer routingKey) {
+        if (routingKey == null)
+            return null;
+        if (statement instanceof BoundStatement) {
+            final ColumnDefinitions variables = ((BoundStatement) statement).preparedStatement().getVariables();
+            if (variables.size() > 0)
+                return Arrays.asList(variables.getKeyspace(0), variables.getTable(0), routingKey);
+        }
+        return routingKey;
+    }
+
+    /**
+     * @return the key of the group of writes the statement may be batched with, i.e. the set of replicas owning its
+     *         partition, or <code>null</code> if it has to be sent on its own
+     */
+    protected Object groupKey(Statement statement) {
+        final Cluster cluster = session.getCluster();
+        final ByteBuffer routingKey = statement.getRoutingKey(cluster.getConfiguration().getProtocolOptions().getProtocolVersion(), cluster.getConfiguration().getCodecRegistry());
+        final String keyspace = statement.getKeyspace() != null ? statement.getKeyspace() : session.getLoggedKeyspace();
+        if (routingKey == null || keyspace == null)
+            return null;
+        final Set<Host> replicas = cluster.getMetadata().getReplicas(keyspace, routingKey);
+        return replicas.isEmpty() ? null : replicas;
+    }
+
+    protected ListenableFuture<?> execute(Statement statement) {
+        return session.executeAsync(statement);
+    }
+
+}
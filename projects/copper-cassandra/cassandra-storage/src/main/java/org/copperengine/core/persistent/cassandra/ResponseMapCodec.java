@@ -0,0 +1,270 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.cassandra;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary representation of the correlation id to response map of a waiting workflow instance, stored in the
+ * <code>RESPONSE_MAP</code> column of <code>COP_WORKFLOW_INSTANCE</code>.
+ * <p>
+ * The map is written as a format byte and the number of entries followed by the entries. Each entry consists of the
+ * length prefixed UTF-8 bytes of the correlation id, a type byte and the response. Serialized responses usually are
+ * a short format prefix followed by Base64 text, see {@link org.copperengine.core.persistent.StandardJavaSerializer}.
+ * Those are stored as the prefix and the decoded bytes, any other response as UTF-8 text. Lengths are written as
+ * unsigned varints.
+ * <p>
+ * Rows written by former versions contain the map as JSON in the <code>RESPONSE_MAP_JSON</code> column only, see
+ * {@link #decode(ByteBuffer, String, JsonMapper)}.
+ */
+final class ResponseMapCodec {
+
+    private static final byte FORMAT_V1 = 1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_TEXT = 1;
+    private static final byte TYPE_BASE64 = 2;
+
+    private static final char[] BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        for (int i = 0; i < BASE64_VALUES.length; i++) {
+            BASE64_VALUES[i] = -1;
+        }
+        for (int i = 0; i < BASE64_CHARS.length; i++) {
+            BASE64_VALUES[BASE64_CHARS[i]] = i;
+        }
+    }
+
+    private ResponseMapCodec() {
+    }
+
+    static ByteBuffer encode(Map<String, String> map) {
+        final int n = map.size();
+        final byte[][] keys = new byte[n][];
+        final byte[] types = new byte[n];
+        final byte[][] prefixes = new byte[n][];
+        final byte[][] values = new byte[n][];
+        int size = 1 + varintSize(n);
+        int i = 0;
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            keys[i] = e.getKey().getBytes(StandardCharsets.UTF_8);
+            size += varintSize(keys[i].length) + keys[i].length + 1;
+            final String value = e.getValue();
+            if (value == null) {
+                types[i] = TYPE_NULL;
+            } else {
+                final int prefixLength = value.length() & 3;
+                final byte[] decoded = decodeBase64(value, prefixLength);
+                if (decoded != null) {
+                    types[i] = TYPE_BASE64;
+                    prefixes[i] = value.substring(0, prefixLength).getBytes(StandardCharsets.UTF_8);
+                    values[i] = decoded;
+                    size += varintSize(prefixes[i].length) + prefixes[i].length;
+                } else {
+                    types[i] = TYPE_TEXT;
+                    values[i] = value.getBytes(StandardCharsets.UTF_8);
+                }
+                size += varintSize(values[i].length) + values[i].length;
+            }
+            i++;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(FORMAT_V1);
+        putVarint(buffer, n);
+        for (i = 0; i < n; i++) {
+            putBytes(buffer, keys[i]);
+            buffer.put(types[i]);
+            if (types[i] == TYPE_BASE64) {
+                putBytes(buffer, prefixes[i]);
+            }
+            if (types[i] != TYPE_NULL) {
+                putBytes(buffer, values[i]);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes the binary response map or, if there is none, the JSON representation written by former versions.
+     *
+     * @return the map or <code>null</code> if both are <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, String> decode(ByteBuffer data, String legacyJson, JsonMapper jsonMapper) {
+        if (data != null)
+            return decode(data);
+        return legacyJson == null ? null : jsonMapper.fromJSON(legacyJson, HashMap.class);
+    }
+
+    static Map<String, String> decode(ByteBuffer data) {
+        final ByteBuffer buffer = data.duplicate();
+        final byte format = buffer.get();
+        if (format != FORMAT_V1)
+            throw new IllegalArgumentException("Unknown response map format " + format);
+        final int n = getVarint(buffer);
+        final Map<String, String> map = new HashMap<>(Math.max(4, n * 4 / 3 + 1));
+        for (int i = 0; i < n; i++) {
+            final String key = new String(getBytes(buffer), StandardCharsets.UTF_8);
+            final byte type = buffer.get();
+            if (type == TYPE_NULL) {
+                map.put(key, null);
+            } else if (type == TYPE_TEXT) {
+                map.put(key, new String(getBytes(buffer), StandardCharsets.UTF_8));
+            } else if (type == TYPE_BASE64) {
+                final String prefix = new String(getBytes(buffer), StandardCharsets.UTF_8);
+                map.put(key, encodeBase64(prefix, buffer, getVarint(buffer)));
+            } else {
+                throw new IllegalArgumentException("Unknown response type " + type);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Decodes the Base64 text after the prefix if it is reproduced exactly by {@link #encodeBase64}, i.e. if it is
+     * padded, contains no line breaks and the bits after the last encoded byte are zero.
+     *
+     * @return the decoded bytes or <code>null</code>
+     */
+    static byte[] decodeBase64(String s, int offset) {
+        final int length = s.length() - offset;
+        if (length == 0 || (length & 3) != 0)
+            return null;
+        final char[] chars = new char[length];
+        s.getChars(offset, s.length(), chars, 0);
+        final int padding = chars[length - 1] != '=' ? 0 : chars[length - 2] != '=' ? 1 : 2;
+        final byte[] bytes = new byte[length / 4 * 3 - padding];
+        final int end = length - 4;
+        int j = 0;
+        for (int i = 0; i < end; i += 4) {
+            final int bits = value(chars[i]) << 18 | value(chars[i + 1]) << 12 | value(chars[i + 2]) << 6 | value(chars[i + 3]);
+            if (bits < 0)
+                return null;
+            bytes[j] = (byte) (bits >> 16);
+            bytes[j + 1] = (byte) (bits >> 8);
+            bytes[j + 2] = (byte) bits;
+            j += 3;
+        }
+        final int c0 = value(chars[end]);
+        final int c1 = value(chars[end + 1]);
+        final int c2 = padding == 2 ? 0 : value(chars[end + 2]);
+        final int c3 = padding > 0 ? 0 : value(chars[end + 3]);
+        if ((c0 | c1 | c2 | c3) < 0)
+            return null;
+        if (padding == 2 && (c1 & 0x0F) != 0 || padding == 1 && (c2 & 0x03) != 0)
+            return null;
+        final int bits = c0 << 18 | c1 << 12 | c2 << 6 | c3;
+        bytes[j++] = (byte) (bits >> 16);
+        if (padding < 2) {
+            bytes[j++] = (byte) (bits >> 8);
+        }
+        if (padding < 1) {
+            bytes[j] = (byte) bits;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the value of a Base64 character or a negative value
+     */
+    private static int value(char c) {
+        return BASE64_VALUES[c & 0x7F] | (0x7F - c) >> 31;
+    }
+
+    /**
+     * Returns the prefix followed by the padded Base64 encoding of the next <code>length</code> bytes of the buffer
+     */
+    static String encodeBase64(String prefix, ByteBuffer buffer, int length) {
+        final byte[] bytes;
+        int i;
+        if (buffer.hasArray()) {
+            bytes = buffer.array();
+            i = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.position() + length);
+        } else {
+            bytes = new byte[length];
+            buffer.get(bytes);
+            i = 0;
+        }
+        final int end = i + length / 3 * 3;
+        final int prefixLength = prefix.length();
+        final char[] chars = new char[prefixLength + (length + 2) / 3 * 4];
+        prefix.getChars(0, prefixLength, chars, 0);
+        int j = prefixLength;
+        for (; i < end; i += 3) {
+            final int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+            chars[j] = BASE64_CHARS[bits >>> 18];
+            chars[j + 1] = BASE64_CHARS[(bits >>> 12) & 0x3F];
+            chars[j + 2] = BASE64_CHARS[(bits >>> 6) & 0x3F];
+            chars[j + 3] = BASE64_CHARS[bits & 0x3F];
+            j += 4;
+        }
+        final int remaining = length % 3;
+        if (remaining > 0) {
+            final int bits = (bytes[i] & 0xFF) << 16 | (remaining == 2 ? (bytes[i + 1] & 0xFF) << 8 : 0);
+            chars[j] = BASE64_CHARS[bits >>> 18];
+            chars[j + 1] = BASE64_CHARS[(bits >>> 12) & 0x3F];
+            chars[j + 2] = remaining == 2 ? BASE64_CHARS[(bits >>> 6) & 0x3F] : '=';
+            chars[j + 3] = '=';
+        }
+        return new String(chars);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        putVarint(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        final byte[] bytes = new byte[getVarint(buffer)];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+}
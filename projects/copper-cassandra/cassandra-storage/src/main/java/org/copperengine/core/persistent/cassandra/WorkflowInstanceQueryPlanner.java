@@ -0,0 +1,115 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.cassandra;
+
+import java.util.Date;
+
+import org.copperengine.core.ProcessingState;
+import org.copperengine.core.persistent.hybrid.WorkflowInstance;
+import org.copperengine.management.model.HalfOpenTimeInterval;
+import org.copperengine.management.model.WorkflowInstanceFilter;
+
+/**
+ * Chooses the query table {@link CassandraStorage#queryWorkflowInstances(WorkflowInstanceFilter)} reads the ids of
+ * the candidate workflow instances from, and checks the candidates against the complete filter.
+ * <ul>
+ * <li>COP_WFI_BY_STATE contains the ids per state, spread over {@value #STATE_BUCKETS} partitions by the hash of the
+ * id. It is used for states that only few instances have, e.g. ERROR, or if no class name is given.
+ * <li>COP_WFI_BY_CLASSNAME contains the ids per class name and day of creation, ordered by creation timestamp. The
+ * days with instances of a class are listed in COP_WFI_CLASSNAME_DAY.
+ * <li>Without state and class name, COP_WORKFLOW_INSTANCE is scanned.
+ * </ul>
+ * The query tables are maintained by the client, an entry may be outdated. Therefore each candidate is read from
+ * COP_WORKFLOW_INSTANCE and checked with {@link #matches(WorkflowInstanceFilter, WorkflowInstance)}.
+ */
+final class WorkflowInstanceQueryPlanner {
+
+    enum Index {
+        STATE("COP_WFI_BY_STATE"), CLASSNAME("COP_WFI_BY_CLASSNAME"), NONE("COP_WORKFLOW_INSTANCE");
+
+        /** the table the candidates are read from */
+        final String table;
+
+        private Index(String table) {
+            this.table = table;
+        }
+    }
+
+    static final int STATE_BUCKETS = 32;
+
+    private static final long MSEC_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private WorkflowInstanceQueryPlanner() {
+    }
+
+    static Index chooseIndex(WorkflowInstanceFilter filter) {
+        final String state = filter.getState();
+        if (state != null && (ProcessingState.ERROR.name().equals(state) || ProcessingState.INVALID.name().equals(state)))
+            return Index.STATE;
+        if (filter.getWorkflowClassname() != null)
+            return Index.CLASSNAME;
+        if (state != null)
+            return Index.STATE;
+        return Index.NONE;
+    }
+
+    static int stateBucket(String wfId) {
+        return (wfId.hashCode() & Integer.MAX_VALUE) % STATE_BUCKETS;
+    }
+
+    /**
+     * @return days since 1970-01-01 UTC
+     */
+    static int day(Date ts) {
+        return (int) Math.floorDiv(ts.getTime(), MSEC_PER_DAY);
+    }
+
+    /**
+     * @return the first day of the creation interval of the filter
+     */
+    static int firstDay(WorkflowInstanceFilter filter) {
+        final HalfOpenTimeInterval creationTS = filter.getCreationTS();
+        return creationTS == null || creationTS.getFrom() == null ? Integer.MIN_VALUE : day(creationTS.getFrom());
+    }
+
+    /**
+     * @return the last day of the creation interval of the filter
+     */
+    static int lastDay(WorkflowInstanceFilter filter) {
+        final HalfOpenTimeInterval creationTS = filter.getCreationTS();
+        return creationTS == null || creationTS.getTo() == null ? Integer.MAX_VALUE : day(new Date(creationTS.getTo().getTime() - 1));
+    }
+
+    static boolean matches(WorkflowInstanceFilter filter, WorkflowInstance wfi) {
+        if (filter.getState() != null && (wfi.state == null || !filter.getState().equals(wfi.state.name())))
+            return false;
+        if (filter.getProcessorPoolId() != null && !filter.getProcessorPoolId().equals(wfi.ppoolId))
+            return false;
+        if (filter.getWorkflowClassname() != null && !filter.getWorkflowClassname().equals(wfi.classname))
+            return false;
+        return contains(filter.getCreationTS(), wfi.creationTS) && contains(filter.getLastModTS(), wfi.lastModTS);
+    }
+
+    private static boolean contains(HalfOpenTimeInterval interval, Date ts) {
+        if (interval == null)
+            return true;
+        if (interval.getFrom() != null && (ts == null || ts.before(interval.getFrom())))
+            return false;
+        if (interval.getTo() != null && (ts == null || !ts.before(interval.getTo())))
+            return false;
+        return true;
+    }
+}
@@ -13,34 +13,43 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-/*
- * Copyright 2002-2015 SCOOP Software GmbH
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
 package org.copperengine.core.persistent.hybrid;
 
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Statistics of one of the caches of the {@link StorageCache}. The instances returned by the {@link StorageCache} are
+ * snapshots of the statistics recorded by the cache.
+ */
 public class CacheStats {
 
-    private AtomicLong numberOfReads = new AtomicLong();
-    private AtomicLong numberOfCacheHits = new AtomicLong();
-    private AtomicLong numberOfCacheMisses = new AtomicLong();
+    private final AtomicLong numberOfCacheHits;
+    private final AtomicLong numberOfCacheMisses;
+    private final long numberOfEvictions;
+    private final long size;
+    private final long weightedSize;
+
+    /**
+     * Creates empty statistics, to be updated using {@link #incNumberOfReads(boolean)}
+     */
+    public CacheStats() {
+        this(0L, 0L, 0L, 0L, 0L);
+    }
 
+    public CacheStats(long numberOfCacheHits, long numberOfCacheMisses, long numberOfEvictions, long size, long weightedSize) {
+        this.numberOfCacheHits = new AtomicLong(numberOfCacheHits);
+        this.numberOfCacheMisses = new AtomicLong(numberOfCacheMisses);
+        this.numberOfEvictions = numberOfEvictions;
+        this.size = size;
+        this.weightedSize = weightedSize;
+    }
+
+    /**
+     * @deprecated the {@link StorageCache} records its statistics itself and returns snapshots, this method only
+     *             updates this instance
+     */
+    @Deprecated
     public void incNumberOfReads(boolean hit) {
-        numberOfReads.incrementAndGet();
         if (hit)
             numberOfCacheHits.incrementAndGet();
         else
@@ -56,12 +65,39 @@ public class CacheStats {
     }
 
     public long getNumberOfReads() {
-        return numberOfReads.get();
+        return getNumberOfCacheHits() + getNumberOfCacheMisses();
+    }
+
+    public double getHitRate() {
+        final long hits = getNumberOfCacheHits();
+        final long numberOfReads = hits + getNumberOfCacheMisses();
+        return numberOfReads == 0 ? 1.0 : (double) hits / numberOfReads;
+    }
+
+    /**
+     * @return number of entries evicted because the cache exceeded its maximum weight
+     */
+    public long getNumberOfEvictions() {
+        return numberOfEvictions;
+    }
+
+    /**
+     * @return approximate number of entries in the cache
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return approximate size of the cached entries in bytes
+     */
+    public long getWeightedSize() {
+        return weightedSize;
     }
 
     @Override
     public String toString() {
-        return "CacheStats [numberOfReads=" + numberOfReads + ", numberOfCacheHits=" + numberOfCacheHits + ", numberOfCacheMisses=" + numberOfCacheMisses + "]";
+        return "CacheStats [numberOfReads=" + getNumberOfReads() + ", numberOfCacheHits=" + numberOfCacheHits + ", numberOfCacheMisses=" + numberOfCacheMisses + ", numberOfEvictions=" + numberOfEvictions + ", size=" + size + ", weightedSize=" + weightedSize + "]";
     }
 
 }
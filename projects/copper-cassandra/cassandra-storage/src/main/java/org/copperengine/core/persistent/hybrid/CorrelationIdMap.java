@@ -15,78 +15,130 @@
  */
 package org.copperengine.core.persistent.hybrid;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
 
-class CorrelationIdMap {
+/**
+ * Bidirectional index between correlation ids and the ids of the workflow instances waiting for them.
+ * <p>
+ * Both directions are {@link ConcurrentHashMap}s, so lookups do not block and modifications only lock the hash bin of
+ * the workflow id. All modifications for one workflow id are done within its bin lock, i.e. they are atomic. To keep
+ * the memory footprint small with millions of waiting workflow instances, the correlation ids of a workflow instance
+ * are stored as a single <code>String</code> in the common case of one correlation id, else as <code>String[]</code>,
+ * and the same workflow id instance is referenced by all of its correlation ids.
+ */
+public class CorrelationIdMap {
+
+    private final ConcurrentHashMap<String, String> correlationId2wfIdMap;
+    // value is either a String or a String[]
+    private final ConcurrentHashMap<String, Object> wfId2correlationIdMap;
+
+    public CorrelationIdMap() {
+        this(16);
+    }
 
-    private final Object mutex = new Object();
-    private final Map<String, String> correlationId2wfIdMap = new HashMap<>();
-    private final Map<String, List<String>> wfId2correlationIdMap = new HashMap<>();
+    /**
+     * @param initialCapacity
+     *        expected number of correlation ids
+     */
+    public CorrelationIdMap(int initialCapacity) {
+        correlationId2wfIdMap = new ConcurrentHashMap<>(initialCapacity);
+        wfId2correlationIdMap = new ConcurrentHashMap<>(initialCapacity);
+    }
 
     public String getWorkflowId(String correlationId) {
-        synchronized (mutex) {
-            return correlationId2wfIdMap.get(correlationId);
-        }
+        return correlationId2wfIdMap.get(correlationId);
     }
 
     public boolean containsWorkflowId(String workflowId) {
-        synchronized (mutex) {
-            return wfId2correlationIdMap.containsKey(workflowId);
-        }
+        return wfId2correlationIdMap.containsKey(workflowId);
+    }
+
+    /**
+     * @return the number of registered correlation ids
+     */
+    public int size() {
+        return correlationId2wfIdMap.size();
     }
 
     public void removeAll4Workflow(String workflowId) {
-        synchronized (mutex) {
-            List<String> list = wfId2correlationIdMap.remove(workflowId);
-            if (list == null || list.isEmpty())
-                return;
-            for (String cid : list) {
-                correlationId2wfIdMap.remove(cid);
+        wfId2correlationIdMap.computeIfPresent(workflowId, new BiFunction<String, Object, Object>() {
+            @Override
+            public Object apply(String wfId, Object correlationIds) {
+                if (correlationIds instanceof String) {
+                    correlationId2wfIdMap.remove(correlationIds, wfId);
+                }
+                else {
+                    for (String cid : (String[]) correlationIds) {
+                        correlationId2wfIdMap.remove(cid, wfId);
+                    }
+                }
+                return null;
             }
-        }
+        });
     }
 
     public void addCorrelationId(String workflowId, String correlationId) {
-        synchronized (mutex) {
-            List<String> list = wfId2correlationIdMap.remove(workflowId);
-            if (list == null) {
-                list = new ArrayList<String>();
-                wfId2correlationIdMap.put(workflowId, list);
-            }
-            list.add(correlationId);
-            correlationId2wfIdMap.put(correlationId, workflowId);
-        }
+        addCorrelationIds(workflowId, new String[] { correlationId });
     }
 
     public void addCorrelationIds(String workflowId, List<String> correlationIds) {
-        synchronized (mutex) {
-            List<String> list = wfId2correlationIdMap.remove(workflowId);
-            if (list == null) {
-                list = new ArrayList<String>(correlationIds.size());
-                wfId2correlationIdMap.put(workflowId, list);
+        addCorrelationIds(workflowId, correlationIds.toArray(new String[correlationIds.size()]));
+    }
+
+    public void addCorrelationIds(String workflowId, final String[] correlationIds) {
+        if (workflowId == null)
+            throw new NullPointerException();
+        if (correlationIds.length == 0)
+            return;
+        wfId2correlationIdMap.compute(workflowId, new BiFunction<String, Object, Object>() {
+            @Override
+            public Object apply(String wfId, Object existing) {
+                for (String cid : correlationIds) {
+                    correlationId2wfIdMap.put(cid, wfId);
+                }
+                return merge(existing, correlationIds);
             }
-            list.addAll(correlationIds);
-            for (String cid : correlationIds) {
-                correlationId2wfIdMap.put(cid, workflowId);
+        });
+    }
+
+    private static Object merge(Object existing, String[] correlationIds) {
+        String[] result;
+        int size;
+        if (existing == null) {
+            if (correlationIds.length == 1)
+                return correlationIds[0];
+            result = new String[correlationIds.length];
+            size = 0;
+        }
+        else if (existing instanceof String) {
+            result = new String[1 + correlationIds.length];
+            result[0] = (String) existing;
+            size = 1;
+        }
+        else {
+            final String[] existingIds = (String[]) existing;
+            result = Arrays.copyOf(existingIds, existingIds.length + correlationIds.length);
+            size = existingIds.length;
+        }
+        for (String cid : correlationIds) {
+            if (!contains(result, size, cid)) {
+                result[size++] = cid;
             }
         }
+        if (size == 1)
+            return result[0];
+        return size == result.length ? result : Arrays.copyOf(result, size);
     }
 
-    public void addCorrelationIds(String workflowId, String[] correlationIds) {
-        synchronized (mutex) {
-            List<String> list = wfId2correlationIdMap.remove(workflowId);
-            if (list == null) {
-                list = new ArrayList<String>(correlationIds.length);
-                wfId2correlationIdMap.put(workflowId, list);
-            }
-            for (String cid : correlationIds) {
-                list.add(cid);
-                correlationId2wfIdMap.put(cid, workflowId);
-            }
+    private static boolean contains(String[] array, int size, String s) {
+        for (int i = 0; i < size; i++) {
+            if (array[i].equals(s))
+                return true;
         }
+        return false;
     }
 
 }
@@ -16,7 +16,11 @@
 package org.copperengine.core.persistent.hybrid;
 
 import java.sql.Connection;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -24,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -47,7 +52,10 @@ import org.copperengine.management.model.WorkflowInstanceFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 public class HybridDBStorage implements ScottyDBStorageInterface {
 
@@ -65,6 +73,10 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
     private final Object[] mutexArray = new Object[2003];
     private final Set<String> currentlyProcessingEarlyResponses = new HashSet<>();
     private boolean started = false;
+    // ids of the workflow instances written, enqueued or dequeued since startup - the recovery skips them, as the
+    // instance it read from the storage may be outdated. Set to null when the recovery has finished.
+    private volatile Set<String> changedDuringRecovery = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile int dequeueReadAhead = 100;
 
     public HybridDBStorage(Serializer serializer, WorkflowRepository wfRepo, Storage storage, TimeoutManager timeoutManager, final Executor executor) {
         this.ppoolId2queueMap = new ConcurrentHashMap<>();
@@ -96,6 +108,7 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
         cw.state = ProcessingState.ENQUEUED;
         cw.classname = wf.getClass().getName();
 
+        markChanged(cw.id);
         storage.safeWorkflowInstance(cw, true);
 
         _enqueue(wf.getId(), wf.getProcessorPoolId(), wf.getPriority());
@@ -133,8 +146,9 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
             startupBlocker.pass();
 
             final String wfId = w.getId();
+            markChanged(wfId);
             correlationIdMap.removeAll4Workflow(wfId);
-            final ListenableFuture<Void> future = storage.deleteWorkflowInstance(w.getId());
+            final ListenableFuture<Void> future = storage.deleteWorkflowInstance(wfId, w.getClass().getName(), w.getCreationTS());
             future.addListener(new Runnable() {
                 @Override
                 public void run() {
@@ -160,41 +174,89 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
 
         startupBlocker.pass();
 
+        // the workflow instances are read asynchronously, at most dequeueReadAhead at a time, and deserialized by the
+        // executor as soon as they arrive
         final List<Workflow<?>> wfList = new ArrayList<>(max);
-        while (wfList.size() < max) {
+        final Queue<String> wfIds = new ArrayDeque<>();
+        final Queue<ListenableFuture<Workflow<?>>> reads = new ArrayDeque<>();
+        int numberOfElements = 0;
+        while (numberOfElements < max) {
             // block if we read the first element - since we don't want to return an empty list
-            final QueueElement element = wfList.isEmpty() ? _take(ppoolId) : _poll(ppoolId);
+            final QueueElement element = numberOfElements == 0 ? _take(ppoolId) : _poll(ppoolId);
             if (element == null)
                 break;
+            numberOfElements++;
 
-            synchronized (findMutex(element.wfId)) {
+            if (reads.size() >= dequeueReadAhead) {
+                collect(wfIds.poll(), reads.poll(), wfList);
+            }
+            wfIds.add(element.wfId);
+            reads.add(readWorkflow(element.wfId));
+        }
+        while (!reads.isEmpty()) {
+            collect(wfIds.poll(), reads.poll(), wfList);
+        }
+        logger.debug("dequeue({},{}) finished, returning {} elements in {} msec", ppoolId, max, wfList.size(), (System.currentTimeMillis() - startTS));
+        return wfList;
+    }
+
+    private ListenableFuture<Workflow<?>> readWorkflow(final String wfId) {
+        final ListenableFuture<WorkflowInstance> future;
+        // after removing the correlation ids no notify or timeout will modify the instance any more, and one that
+        // is currently in progress has finished writing it when we get the mutex
+        synchronized (findMutex(wfId)) {
+            markChanged(wfId);
+            correlationIdMap.removeAll4Workflow(wfId);
+            try {
+                future = storage.readWorkflowInstanceAsync(wfId);
+            } catch (Exception e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+        return Futures.transform(future, new Function<WorkflowInstance, Workflow<?>>() {
+            @Override
+            public Workflow<?> apply(WorkflowInstance wi) {
+                if (wi == null) {
+                    logger.warn("No workflow instance with id {} found in database", wfId);
+                    // TODO try again later?
+                    return null;
+                }
+                Workflow<?> wf = null;
                 try {
-                    correlationIdMap.removeAll4Workflow(element.wfId);
-                    final WorkflowInstance wi = storage.readWorkflowInstance(element.wfId);
-                    if (wi == null) {
-                        logger.warn("No workflow instance with id {} found in database", element.wfId);
-                        // TODO try again later?
-                    }
-                    else {
-                        Workflow<?> wf = null;
-                        try {
-                            wf = convert2workflow(wi);
-                        } catch (Exception e) {
-                            logger.error("Unable to deserialize workflow instance " + element.wfId + " - setting state to INVALID", e);
-                            storage.updateWorkflowInstanceState(element.wfId, ProcessingState.INVALID);
-                        }
-                        if (wf != null) {
-                            timeoutManager.unregisterTimeout(wi.timeout, wi.id);
-                            wfList.add(wf);
-                        }
-                    }
+                    wf = convert2workflow(wi);
                 } catch (Exception e) {
-                    logger.error("Fatal error: dequeue failed for workflow instance " + element.wfId, e);
+                    logger.error("Unable to deserialize workflow instance " + wfId + " - setting state to INVALID", e);
+                    try {
+                        storage.updateWorkflowInstanceState(wfId, ProcessingState.INVALID);
+                    } catch (Exception e2) {
+                        logger.error("Unable to set state of workflow instance " + wfId + " to INVALID", e2);
+                    }
+                    return null;
                 }
+                timeoutManager.unregisterTimeout(wi.timeout, wi.id);
+                return wf;
+            }
+        }, executor);
+    }
+
+    private void collect(String wfId, ListenableFuture<Workflow<?>> read, List<Workflow<?>> wfList) {
+        try {
+            final Workflow<?> wf = Uninterruptibles.getUninterruptibly(read);
+            if (wf != null) {
+                wfList.add(wf);
             }
+        } catch (ExecutionException e) {
+            logger.error("Fatal error: dequeue failed for workflow instance " + wfId, e.getCause());
         }
-        logger.debug("dequeue({},{}) finished, returning {} elements in {} msec", ppoolId, max, wfList.size(), (System.currentTimeMillis() - startTS));
-        return wfList;
+    }
+
+    /**
+     * Maximum number of workflow instances read concurrently during {@link #dequeue(String, int)}, defaults to 100
+     */
+    public void setDequeueReadAhead(int dequeueReadAhead) {
+        if (dequeueReadAhead <= 0)
+            throw new IllegalArgumentException("dequeueReadAhead must be > 0");
+        this.dequeueReadAhead = dequeueReadAhead;
     }
 
     private Workflow<?> convert2workflow(WorkflowInstance cw) throws Exception {
@@ -244,6 +306,7 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
         }
         cw.classname = rc.workflow.getClass().getName();
 
+        markChanged(wfId);
         storage.safeWorkflowInstance(cw, false);
 
         correlationIdMap.addCorrelationIds(wfId, rc.correlationIds);
@@ -252,19 +315,7 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
         //
         // 1st make sure that all currently working threads writing early responses do NOT write a response with one of
         // our correlationIds
-        synchronized (currentlyProcessingEarlyResponses) {
-            for (;;) {
-                boolean didWait = false;
-                for (String cid : rc.correlationIds) {
-                    if (currentlyProcessingEarlyResponses.contains(cid)) {
-                        currentlyProcessingEarlyResponses.wait();
-                        didWait = true;
-                    }
-                }
-                if (!didWait)
-                    break;
-            }
-        }
+        waitForEarlyResponsesInProgress(Arrays.asList(rc.correlationIds));
         // 2nd read early responses and connect them to the workflow instance
         boolean enqueued = false;
         for (String cid : rc.correlationIds) {
@@ -290,6 +341,95 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
         callback.onSuccess();
     }
 
+    private void waitForEarlyResponsesInProgress(Collection<String> correlationIds) throws InterruptedException {
+        synchronized (currentlyProcessingEarlyResponses) {
+            for (;;) {
+                boolean didWait = false;
+                for (String cid : correlationIds) {
+                    if (currentlyProcessingEarlyResponses.contains(cid)) {
+                        currentlyProcessingEarlyResponses.wait();
+                        didWait = true;
+                    }
+                }
+                if (!didWait)
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Resumes a workflow instance found in the storage during startup. This may happen in the background while the
+     * engine is already running, so responses for this instance may have been stored as early responses in the
+     * meantime. The correlation ids are registered first, so subsequent responses are assigned to the instance
+     * directly, then the early responses are read.
+     * <p>
+     * Instances changed by the engine since startup are skipped, since <code>wfi</code> was read before and may be
+     * outdated, e.g. an instance inserted after startup may already have been dequeued.
+     */
+    private void resume(final WorkflowInstance wfi) throws Exception {
+        logger.trace("resume(wfId={})", wfi.id);
+
+        if (wfi.state != ProcessingState.ENQUEUED && (wfi.state != ProcessingState.WAITING || wfi.cid2ResponseMap == null)) {
+            return;
+        }
+
+        final String wfId = wfi.id;
+        synchronized (findMutex(wfId)) {
+            final Set<String> changedIds = changedDuringRecovery;
+            if (changedIds != null && changedIds.contains(wfId)) {
+                logger.debug("workflow instance {} has been changed since startup - skipping it", wfId);
+                return;
+            }
+            if (wfi.state == ProcessingState.ENQUEUED) {
+                _enqueue(wfi.id, wfi.ppoolId, wfi.prio);
+                return;
+            }
+
+            final List<String> correlationIds = new ArrayList<>(wfi.cid2ResponseMap.keySet());
+            correlationIdMap.addCorrelationIds(wfId, correlationIds);
+            waitForEarlyResponsesInProgress(correlationIds);
+
+            final List<String> earlyResponseCorrelationIds = new ArrayList<>();
+            int numberOfAvailableResponses = 0;
+            for (String cid : correlationIds) {
+                if (wfi.cid2ResponseMap.get(cid) == null) {
+                    final String earlyResponse = storage.readEarlyResponse(cid);
+                    if (earlyResponse != null) {
+                        wfi.cid2ResponseMap.put(cid, earlyResponse);
+                        earlyResponseCorrelationIds.add(cid);
+                    }
+                }
+                if (wfi.cid2ResponseMap.get(cid) != null) {
+                    numberOfAvailableResponses++;
+                }
+            }
+
+            final boolean timeoutOccured = wfi.timeout != null && wfi.timeout.getTime() <= System.currentTimeMillis();
+            final boolean enqueue = timeoutOccured || numberOfAvailableResponses == correlationIds.size() || (numberOfAvailableResponses > 0 && wfi.waitMode == WaitMode.FIRST);
+            if (enqueue) {
+                wfi.state = ProcessingState.ENQUEUED;
+            }
+            if (enqueue || !earlyResponseCorrelationIds.isEmpty()) {
+                storage.safeWorkflowInstance(wfi, false);
+                for (String cid : earlyResponseCorrelationIds) {
+                    storage.deleteEarlyResponse(cid);
+                }
+            }
+
+            if (enqueue) {
+                _enqueue(wfi.id, wfi.ppoolId, wfi.prio);
+            }
+            else if (wfi.timeout != null) {
+                timeoutManager.registerTimeout(wfi.timeout, wfId, new Runnable() {
+                    @Override
+                    public void run() {
+                        onTimeout(wfId);
+                    }
+                });
+            }
+        }
+    }
+
     @Override
     public void notify(Response<?> response, Acknowledge ack) throws Exception {
         logger.debug("notify({})", response);
@@ -319,6 +459,7 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
                 // check if this workflow instance has just been dequeued - in this case we do not find the
                 // correlationId any more...
                 if (correlationIdMap.getWorkflowId(cid) != null) {
+                    markChanged(wfId);
                     WorkflowInstance cw = storage.readWorkflowInstance(wfId);
                     if (cw.cid2ResponseMap.containsKey(cid)) {
                         cw.cid2ResponseMap.put(cid, serializer.serializeResponse(response));
@@ -353,6 +494,7 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
                 // check if this workflow instance has just been dequeued - in this case we do not find the
                 // correlationId any more...
                 if (correlationIdMap.containsWorkflowId(wfId)) {
+                    markChanged(wfId);
                     final WorkflowInstance cw = storage.readWorkflowInstance(wfId);
                     logger.debug("workflow instance={}", cw);
                     final boolean enqueue = cw.state == ProcessingState.WAITING;
@@ -427,6 +569,20 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
                 public void enqueue(String wfId, String ppoolId, int prio) {
                     _enqueue(wfId, ppoolId, prio);
                 }
+
+                @Override
+                public void resume(WorkflowInstance wfi) throws Exception {
+                    HybridDBStorage.this.resume(wfi);
+                }
+
+                @Override
+                public void recoveryFinished() {
+                    final Set<String> changedIds = changedDuringRecovery;
+                    changedDuringRecovery = null;
+                    if (changedIds != null) {
+                        logger.info("Recovery finished, {} workflow instances were changed during the recovery", changedIds.size());
+                    }
+                }
             }, Runtime.getRuntime().availableProcessors());
         } catch (RuntimeException e) {
             logger.error("startup failed", e);
@@ -445,13 +601,14 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
 
     @Override
     public void shutdown() {
-        // empty
+        storage.shutdown();
     }
 
     @Override
     public void error(Workflow<?> w, Throwable t, Acknowledge callback) {
         try {
             startupBlocker.pass();
+            markChanged(w.getId());
             correlationIdMap.removeAll4Workflow(w.getId());
             storage.updateWorkflowInstanceState(w.getId(), ProcessingState.ERROR);
             if (callback != null)
@@ -472,6 +629,7 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
             throw new CopperRuntimeException("No workflow found with id " + workflowInstanceId);
         if (cw.state != ProcessingState.ERROR)
             throw new CopperRuntimeException("Workflow found with id " + workflowInstanceId + " is not in state ERROR");
+        markChanged(cw.id);
         _enqueue(cw.id, cw.ppoolId, cw.prio);
     }
 
@@ -539,6 +697,13 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
         }
     }
 
+    private void markChanged(String wfId) {
+        final Set<String> changedIds = changedDuringRecovery;
+        if (changedIds != null) {
+            changedIds.add(wfId);
+        }
+    }
+
     private void _registerCorrelationId(String correlationId, String wfId) {
         correlationIdMap.addCorrelationId(wfId, correlationId);
     }
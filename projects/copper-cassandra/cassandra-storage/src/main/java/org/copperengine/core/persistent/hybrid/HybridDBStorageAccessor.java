@@ -27,4 +27,18 @@ public interface HybridDBStorageAccessor {
 
     public void registerCorrelationId(String correlationId, String wfId);
 
+    /**
+     * Resumes a workflow instance read from the storage, i.e. enqueues it or registers its correlation ids and
+     * timeout. Responses that arrived in the meantime as early responses are assigned to the instance.
+     * <p>
+     * May be called from background threads after {@link Storage#initialize(HybridDBStorageAccessor, int)} returned,
+     * while the engine is already running.
+     */
+    public void resume(WorkflowInstance wfi) throws Exception;
+
+    /**
+     * Called once all workflow instances existing at startup have been resumed.
+     */
+    public void recoveryFinished();
+
 }
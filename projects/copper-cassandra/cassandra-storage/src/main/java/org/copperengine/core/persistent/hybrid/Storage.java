@@ -15,6 +15,7 @@
  */
 package org.copperengine.core.persistent.hybrid;
 
+import java.util.Date;
 import java.util.List;
 
 import org.copperengine.core.ProcessingState;
@@ -33,12 +34,27 @@ public interface Storage {
 
     public void safeWorkflowInstance(WorkflowInstance cw, boolean initialInsert) throws Exception;
 
-    public ListenableFuture<Void> deleteWorkflowInstance(String wfId) throws Exception;
+    /**
+     * Deletes a workflow instance. <code>classname</code> and <code>creationTS</code> are the values the instance
+     * has been inserted with, a storage may need them to maintain its query tables.
+     */
+    public ListenableFuture<Void> deleteWorkflowInstance(String wfId, String classname, Date creationTS) throws Exception;
 
     public WorkflowInstance readWorkflowInstance(String wfId) throws Exception;
 
+    /**
+     * Reads a workflow instance asynchronously, the future returns <code>null</code> if there is no instance with
+     * this id.
+     */
+    public ListenableFuture<WorkflowInstance> readWorkflowInstanceAsync(String wfId) throws Exception;
+
     public void initialize(HybridDBStorageAccessor internalStorageAccessor, int numberOfThreads) throws Exception;
 
+    /**
+     * Called when the engine is shut down, writes still pending are completed.
+     */
+    public void shutdown();
+
     public ListenableFuture<Void> safeEarlyResponse(String correlationId, String serializedResponse) throws Exception;
 
     public String readEarlyResponse(String correlationId) throws Exception;
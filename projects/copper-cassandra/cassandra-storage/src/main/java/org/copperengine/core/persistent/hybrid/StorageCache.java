@@ -16,107 +16,203 @@
 
 package org.copperengine.core.persistent.hybrid;
 
-import java.lang.ref.SoftReference;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.NullArgumentException;
 import org.copperengine.core.ProcessingState;
-import org.copperengine.core.Workflow;
+import org.copperengine.core.persistent.SerializedWorkflow;
 import org.copperengine.management.model.WorkflowInstanceFilter;
 import org.slf4j.Logger;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * {@link Storage} that caches workflow instances and early responses in front of another storage.
+ * <p>
+ * Both caches are bounded by the approximate size of their entries in bytes, i.e. the length of the serialized
+ * workflow state and responses. When a cache exceeds its maximum size, entries are evicted using the W-TinyLFU policy
+ * of Caffeine, which admits a new entry only if it is used more frequently than the entry it would replace. The
+ * hit, miss and eviction counts are available via {@link #getWorkflowInstanceCacheStats()} and
+ * {@link #getEarlyResponseCacheStats()}.
+ */
 public class StorageCache implements Storage {
 
     private static final Logger logger = org.slf4j.LoggerFactory.getLogger(StorageCache.class);
 
+    public static final long DEFAULT_MAX_WORKFLOW_INSTANCE_CACHE_BYTES = 128L * 1024 * 1024;
+    public static final long DEFAULT_MAX_EARLY_RESPONSE_CACHE_BYTES = 16L * 1024 * 1024;
+
+    // approximate memory used by a cache entry and the objects of a WorkflowInstance apart from its strings
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private static final Weigher<String, WorkflowInstance> WORKFLOW_INSTANCE_WEIGHER = new Weigher<String, WorkflowInstance>() {
+        @Override
+        public int weigh(String key, WorkflowInstance wfi) {
+            long size = ENTRY_OVERHEAD + sizeOf(key) + sizeOf(wfi.ppoolId) + sizeOf(wfi.classname);
+            final SerializedWorkflow sw = wfi.serializedWorkflow;
+            if (sw != null) {
+                size += sizeOf(sw.getData()) + sizeOf(sw.getObjectState());
+            }
+            final Map<String, String> cid2ResponseMap = wfi.cid2ResponseMap;
+            if (cid2ResponseMap != null) {
+                for (Map.Entry<String, String> e : cid2ResponseMap.entrySet()) {
+                    size += ENTRY_OVERHEAD / 4 + sizeOf(e.getKey()) + sizeOf(e.getValue());
+                }
+            }
+            return (int) Math.min(size, Integer.MAX_VALUE);
+        }
+    };
+
+    private static final Weigher<String, String> EARLY_RESPONSE_WEIGHER = new Weigher<String, String>() {
+        @Override
+        public int weigh(String key, String value) {
+            return (int) Math.min(ENTRY_OVERHEAD / 4 + sizeOf(key) + sizeOf(value), Integer.MAX_VALUE);
+        }
+    };
+
     private final Storage delegate;
-    private final Map<String, SoftReference<WorkflowInstance>> wfCache;
-    private final Map<String, SoftReference<String>> earCache;
-    private final CacheStats cacheStatsWfCache = new CacheStats();
-    private final CacheStats cacheStatsEarCache = new CacheStats();
+    private final Cache<String, WorkflowInstance> wfCache;
+    private final Cache<String, String> earCache;
 
     public StorageCache(Storage delegate) {
+        this(delegate, DEFAULT_MAX_WORKFLOW_INSTANCE_CACHE_BYTES, DEFAULT_MAX_EARLY_RESPONSE_CACHE_BYTES);
+    }
+
+    /**
+     * @param maxWorkflowInstanceCacheBytes
+     *        maximum size of the cached workflow instances in bytes
+     * @param maxEarlyResponseCacheBytes
+     *        maximum size of the cached early responses in bytes
+     */
+    public StorageCache(Storage delegate, long maxWorkflowInstanceCacheBytes, long maxEarlyResponseCacheBytes) {
         if (delegate == null)
             throw new NullArgumentException("delegate");
+        if (maxWorkflowInstanceCacheBytes < 0 || maxEarlyResponseCacheBytes < 0)
+            throw new IllegalArgumentException("maximum cache size must be >= 0");
         this.delegate = delegate;
 
-        wfCache = new ConcurrentHashMap<>();
-        earCache = new ConcurrentHashMap<>();
+        // maintenance is done by the calling threads instead of the common fork join pool
+        wfCache = Caffeine.newBuilder()
+                .maximumWeight(maxWorkflowInstanceCacheBytes)
+                .weigher(WORKFLOW_INSTANCE_WEIGHER)
+                .executor(MoreExecutors.directExecutor())
+                .recordStats()
+                .build();
+        earCache = Caffeine.newBuilder()
+                .maximumWeight(maxEarlyResponseCacheBytes)
+                .weigher(EARLY_RESPONSE_WEIGHER)
+                .executor(MoreExecutors.directExecutor())
+                .recordStats()
+                .build();
+    }
+
+    private static long sizeOf(String s) {
+        return s == null ? 0 : 2L * s.length();
+    }
+
+    private static CacheStats createCacheStats(Cache<String, ?> cache) {
+        final com.github.benmanes.caffeine.cache.stats.CacheStats stats = cache.stats();
+        final long weightedSize = cache.policy().eviction().get().weightedSize().orElse(0L);
+        return new CacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount(), cache.estimatedSize(), weightedSize);
+    }
+
+    public CacheStats getWorkflowInstanceCacheStats() {
+        return createCacheStats(wfCache);
+    }
+
+    public CacheStats getEarlyResponseCacheStats() {
+        return createCacheStats(earCache);
     }
 
     public void logCacheStats() {
-        logger.info("cacheStatsWfCache  = {}", cacheStatsWfCache);
-        logger.info("cacheStatsEarCache = {}", cacheStatsEarCache);
+        logger.info("cacheStatsWfCache  = {}", getWorkflowInstanceCacheStats());
+        logger.info("cacheStatsEarCache = {}", getEarlyResponseCacheStats());
     }
 
     @Override
     public void safeWorkflowInstance(WorkflowInstance wfi, boolean initialInsert) throws Exception {
-        wfCache.put(wfi.id, new SoftReference<WorkflowInstance>(wfi));
+        wfCache.put(wfi.id, wfi);
         delegate.safeWorkflowInstance(wfi, initialInsert);
     }
 
     @Override
-    public ListenableFuture<Void> deleteWorkflowInstance(String wfId) throws Exception {
-        wfCache.remove(wfId);
-        return delegate.deleteWorkflowInstance(wfId);
+    public ListenableFuture<Void> deleteWorkflowInstance(String wfId, String classname, Date creationTS) throws Exception {
+        wfCache.invalidate(wfId);
+        return delegate.deleteWorkflowInstance(wfId, classname, creationTS);
     }
 
     @Override
     public WorkflowInstance readWorkflowInstance(String wfId) throws Exception {
-        SoftReference<WorkflowInstance> entry = wfCache.get(wfId);
-        if (entry != null) {
-            WorkflowInstance wfi = entry.get();
-            if (wfi != null) {
-                cacheStatsWfCache.incNumberOfReads(true);
-                return wfi;
-            }
+        WorkflowInstance wfi = wfCache.getIfPresent(wfId);
+        if (wfi != null) {
+            return wfi;
         }
-        WorkflowInstance wfi = delegate.readWorkflowInstance(wfId);
+        wfi = delegate.readWorkflowInstance(wfId);
         if (wfi != null) {
-            wfCache.put(wfi.id, new SoftReference<WorkflowInstance>(wfi));
+            wfCache.put(wfi.id, wfi);
         }
-        cacheStatsWfCache.incNumberOfReads(false);
         return wfi;
     }
 
+    @Override
+    public ListenableFuture<WorkflowInstance> readWorkflowInstanceAsync(String wfId) throws Exception {
+        final WorkflowInstance wfi = wfCache.getIfPresent(wfId);
+        if (wfi != null) {
+            return Futures.immediateFuture(wfi);
+        }
+        return Futures.transform(delegate.readWorkflowInstanceAsync(wfId), new Function<WorkflowInstance, WorkflowInstance>() {
+            @Override
+            public WorkflowInstance apply(WorkflowInstance wfi) {
+                if (wfi != null) {
+                    wfCache.put(wfi.id, wfi);
+                }
+                return wfi;
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
     @Override
     public void initialize(HybridDBStorageAccessor internalStorageAccessor, int numberOfThreads) throws Exception {
         delegate.initialize(internalStorageAccessor, numberOfThreads);
     }
 
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
     @Override
     public ListenableFuture<Void> safeEarlyResponse(String correlationId, String serializedResponse) throws Exception {
-        earCache.put(correlationId, new SoftReference<String>(serializedResponse));
+        earCache.put(correlationId, serializedResponse);
         return delegate.safeEarlyResponse(correlationId, serializedResponse);
     }
 
     @Override
     public String readEarlyResponse(String correlationId) throws Exception {
-        final SoftReference<String> entry = earCache.get(correlationId);
-        if (entry != null) {
-            String resp = entry.get();
-            if (resp != null) {
-                cacheStatsEarCache.incNumberOfReads(true);
-                return resp;
-            }
+        final String resp = earCache.getIfPresent(correlationId);
+        if (resp != null) {
+            return resp;
         }
-        cacheStatsEarCache.incNumberOfReads(false);
         return delegate.readEarlyResponse(correlationId);
     }
 
     @Override
     public ListenableFuture<Void> deleteEarlyResponse(String correlationId) throws Exception {
-        earCache.remove(correlationId);
+        earCache.invalidate(correlationId);
         return delegate.deleteEarlyResponse(correlationId);
     }
 
     @Override
     public ListenableFuture<Void> updateWorkflowInstanceState(String wfId, ProcessingState state) throws Exception {
-        wfCache.remove(wfId);
+        wfCache.invalidate(wfId);
         return delegate.updateWorkflowInstanceState(wfId, state);
     }
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.cassandra;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.ProcessingState;
+import org.copperengine.core.WaitMode;
+import org.copperengine.core.monitoring.NullRuntimeStatisticsCollector;
+import org.copperengine.core.persistent.SerializedWorkflow;
+import org.copperengine.core.persistent.hybrid.HybridDBStorageAccessor;
+import org.copperengine.core.persistent.hybrid.WorkflowInstance;
+import org.copperengine.management.model.HalfOpenTimeInterval;
+import org.copperengine.management.model.WorkflowInstanceFilter;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+
+/**
+ * Needs a Cassandra node on localhost, see {@link CassandraTest}. The choice of the query table is covered without a
+ * node by {@link WorkflowInstanceQueryPlannerTest}.
+ */
+public class CassandraStorageQueryTest extends CassandraTest {
+
+    private static ExecutorService executor;
+    private static CassandraStorage storage;
+    private static Session session;
+
+    @BeforeClass
+    public static void setUpStorage() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        session = factory.cassandraSessionManager.get().getSession();
+        storage = new CassandraStorage(factory.cassandraSessionManager.get(), executor, new NullRuntimeStatisticsCollector());
+        storage.setRecoverInBackground(false);
+        storage.initialize(Mockito.mock(HybridDBStorageAccessor.class), 1);
+    }
+
+    @AfterClass
+    public static void tearDownStorage() {
+        executor.shutdown();
+    }
+
+    private static WorkflowInstance createInstance(String classname, Date creationTS) {
+        final WorkflowInstance wfi = new WorkflowInstance();
+        wfi.id = UUID.randomUUID().toString();
+        wfi.ppoolId = "P#DEFAULT";
+        wfi.prio = 1;
+        wfi.creationTS = creationTS;
+        wfi.serializedWorkflow = new SerializedWorkflow();
+        wfi.serializedWorkflow.setData("data");
+        wfi.state = ProcessingState.ENQUEUED;
+        wfi.classname = classname;
+        return wfi;
+    }
+
+    private static WorkflowInstanceFilter filter(String state, String classname) {
+        final WorkflowInstanceFilter filter = new WorkflowInstanceFilter();
+        filter.setState(state);
+        filter.setWorkflowClassname(classname);
+        filter.setMax(1000);
+        return filter;
+    }
+
+    private static Set<String> query(WorkflowInstanceFilter filter) throws Exception {
+        final List<WorkflowInstance> list = storage.queryWorkflowInstances(filter);
+        final Set<String> ids = new HashSet<>();
+        for (WorkflowInstance wfi : list) {
+            ids.add(wfi.id);
+        }
+        Assert.assertEquals(list.size(), ids.size());
+        return ids;
+    }
+
+    private static boolean existsStateEntry(String state, String wfId) {
+        final Row row = session.execute("SELECT ID FROM COP_WFI_BY_STATE WHERE STATE=? AND BUCKET=? AND ID=?", state, WorkflowInstanceQueryPlanner.stateBucket(wfId), wfId).one();
+        return row != null;
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        final String classname = "test.Query" + UUID.randomUUID().toString().replace("-", "");
+        final long now = System.currentTimeMillis();
+        final WorkflowInstance wfi1 = createInstance(classname, new Date(now - TimeUnit.DAYS.toMillis(3)));
+        final WorkflowInstance wfi2 = createInstance(classname, new Date(now - TimeUnit.DAYS.toMillis(1)));
+        final WorkflowInstance wfi3 = createInstance(classname, new Date(now));
+        for (WorkflowInstance wfi : new WorkflowInstance[] { wfi1, wfi2, wfi3 }) {
+            storage.safeWorkflowInstance(wfi, true);
+        }
+        storage.updateWorkflowInstanceState(wfi3.id, ProcessingState.ERROR).get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(set(wfi1.id, wfi2.id, wfi3.id), query(filter(null, classname)));
+        Assert.assertEquals(set(wfi1.id, wfi2.id), query(filter(ProcessingState.ENQUEUED.name(), classname)));
+        Assert.assertEquals(set(wfi3.id), query(filter(ProcessingState.ERROR.name(), classname)));
+        Assert.assertTrue(query(filter(ProcessingState.ERROR.name(), null)).contains(wfi3.id));
+
+        final WorkflowInstanceFilter creationFilter = filter(null, classname);
+        creationFilter.setCreationTS(new HalfOpenTimeInterval(new Date(now - TimeUnit.DAYS.toMillis(2)), new Date(now)));
+        Assert.assertEquals(set(wfi2.id), query(creationFilter));
+
+        final WorkflowInstanceFilter maxFilter = filter(null, classname);
+        maxFilter.setMax(2);
+        Assert.assertEquals(2, query(maxFilter).size());
+
+        // the ENQUEUED entry of wfi2 is outdated now, the query does not return it and deletes it
+        wfi2.state = ProcessingState.WAITING;
+        wfi2.waitMode = WaitMode.ALL;
+        wfi2.cid2ResponseMap = new HashMap<>();
+        wfi2.cid2ResponseMap.put("cid", null);
+        storage.safeWorkflowInstance(wfi2, false);
+        Assert.assertTrue(existsStateEntry(ProcessingState.ENQUEUED.name(), wfi2.id));
+        final Set<String> enqueued = query(filter(ProcessingState.ENQUEUED.name(), null));
+        Assert.assertTrue(enqueued.contains(wfi1.id));
+        Assert.assertFalse(enqueued.contains(wfi2.id));
+        Assert.assertTrue(query(filter(ProcessingState.WAITING.name(), null)).contains(wfi2.id));
+        for (int i = 0; i < 100 && existsStateEntry(ProcessingState.ENQUEUED.name(), wfi2.id); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertFalse(existsStateEntry(ProcessingState.ENQUEUED.name(), wfi2.id));
+        Assert.assertTrue(existsStateEntry(ProcessingState.WAITING.name(), wfi2.id));
+
+        for (WorkflowInstance wfi : new WorkflowInstance[] { wfi1, wfi2, wfi3 }) {
+            storage.deleteWorkflowInstance(wfi.id, wfi.classname, wfi.creationTS).get(10, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(0, query(filter(null, classname)).size());
+        Assert.assertFalse(existsStateEntry(ProcessingState.WAITING.name(), wfi2.id));
+    }
+
+    private static Set<String> set(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+
+}
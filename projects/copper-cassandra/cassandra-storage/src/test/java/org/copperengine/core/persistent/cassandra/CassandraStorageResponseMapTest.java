@@ -0,0 +1,113 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.cassandra;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.copperengine.core.ProcessingState;
+import org.copperengine.core.WaitMode;
+import org.copperengine.core.monitoring.NullRuntimeStatisticsCollector;
+import org.copperengine.core.persistent.SerializedWorkflow;
+import org.copperengine.core.persistent.hybrid.HybridDBStorageAccessor;
+import org.copperengine.core.persistent.hybrid.WorkflowInstance;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.datastax.driver.core.Session;
+
+/**
+ * Needs a Cassandra node on localhost, see {@link CassandraTest}. Round trip and legacy format of the response map are
+ * covered without a node by {@link ResponseMapCodecTest}.
+ */
+public class CassandraStorageResponseMapTest extends CassandraTest {
+
+    private static ExecutorService executor;
+    private static CassandraStorage storage;
+    private static Session session;
+
+    @BeforeClass
+    public static void setUpStorage() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        session = factory.cassandraSessionManager.get().getSession();
+        storage = new CassandraStorage(factory.cassandraSessionManager.get(), executor, new NullRuntimeStatisticsCollector());
+        storage.setRecoverInBackground(false);
+        storage.initialize(Mockito.mock(HybridDBStorageAccessor.class), 1);
+    }
+
+    @AfterClass
+    public static void tearDownStorage() {
+        executor.shutdown();
+    }
+
+    private static WorkflowInstance createWaitingInstance(Map<String, String> cid2ResponseMap) {
+        final WorkflowInstance wfi = new WorkflowInstance();
+        wfi.id = UUID.randomUUID().toString();
+        wfi.ppoolId = "P#DEFAULT";
+        wfi.prio = 1;
+        wfi.creationTS = new Date();
+        wfi.serializedWorkflow = new SerializedWorkflow();
+        wfi.serializedWorkflow.setData("data");
+        wfi.state = ProcessingState.WAITING;
+        wfi.waitMode = WaitMode.ALL;
+        wfi.classname = CassandraStorageResponseMapTest.class.getName();
+        wfi.cid2ResponseMap = cid2ResponseMap;
+        return wfi;
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        final Map<String, String> cid2ResponseMap = new HashMap<>();
+        cid2ResponseMap.put("cid1", null);
+        cid2ResponseMap.put("cid2", "UrO0ABXQACHJlc3BvbnNl");
+        final WorkflowInstance wfi = createWaitingInstance(cid2ResponseMap);
+        storage.safeWorkflowInstance(wfi, true);
+        Assert.assertEquals(cid2ResponseMap, storage.readWorkflowInstance(wfi.id).cid2ResponseMap);
+
+        cid2ResponseMap.put("cid1", "CeJxLzs8rSc0rAQAJVAKs");
+        storage.safeWorkflowInstance(wfi, false);
+        Assert.assertEquals(cid2ResponseMap, storage.readWorkflowInstance(wfi.id).cid2ResponseMap);
+        Assert.assertNull(session.execute("SELECT RESPONSE_MAP_JSON FROM COP_WORKFLOW_INSTANCE WHERE ID=?", wfi.id).one().getString("RESPONSE_MAP_JSON"));
+        storage.deleteWorkflowInstance(wfi.id, wfi.classname, wfi.creationTS).get();
+    }
+
+    @Test
+    public void testReadJson() throws Exception {
+        final Map<String, String> cid2ResponseMap = new HashMap<>();
+        cid2ResponseMap.put("cid1", null);
+        cid2ResponseMap.put("cid2", "UrO0ABXQACHJlc3BvbnNl");
+        final WorkflowInstance wfi = createWaitingInstance(null);
+        storage.safeWorkflowInstance(wfi, true);
+        // row written by a former version
+        session.execute("UPDATE COP_WORKFLOW_INSTANCE SET WAIT_MODE='ALL', RESPONSE_MAP_JSON=? WHERE ID=?", new JsonMapperImpl().toJSON(cid2ResponseMap), wfi.id);
+        Assert.assertEquals(cid2ResponseMap, storage.readWorkflowInstance(wfi.id).cid2ResponseMap);
+
+        // the binary map takes precedence as soon as the instance is written again
+        cid2ResponseMap.put("cid1", "CeJxLzs8rSc0rAQAJVAKs");
+        wfi.cid2ResponseMap = cid2ResponseMap;
+        storage.safeWorkflowInstance(wfi, false);
+        Assert.assertEquals(cid2ResponseMap, storage.readWorkflowInstance(wfi.id).cid2ResponseMap);
+        storage.deleteWorkflowInstance(wfi.id, wfi.classname, wfi.creationTS).get();
+    }
+
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class CassandraWriteCoalescerTest {
+
+    /**
+     * Groups the simple statements by their query string, the partition key is the first value if any. All bound
+     * statements are in one group. The first request blocks until <code>gate</code> is opened, the futures of all
+     * requests are completed by the test.
+     */
+    private static class TestCoalescer extends CassandraWriteCoalescer {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<Statement> requests = new ArrayList<>();
+        final List<SettableFuture<Void>> futures = new ArrayList<>();
+
+        TestCoalescer(RuntimeStatisticsCollector runtimeStatisticsCollector, int maxBatchSize, int maxBatchBytes, int maxWritesInFlight) {
+            super(Mockito.mock(Session.class), MoreExecutors.directExecutor(), runtimeStatisticsCollector, maxBatchSize, maxBatchBytes, maxWritesInFlight);
+        }
+
+        @Override
+        protected Object groupKey(Statement statement) {
+            if (statement instanceof BoundStatement)
+                return BoundStatement.class;
+            return ((SimpleStatement) statement).getQueryString();
+        }
+
+        @Override
+        protected Object partitionKey(Statement statement) {
+            if (statement instanceof BoundStatement)
+                return partitionKey(statement, statement.getRoutingKey(null, null));
+            final SimpleStatement simpleStatement = (SimpleStatement) statement;
+            return simpleStatement.valuesCount() > 0 ? simpleStatement.getObject(0) : simpleStatement;
+        }
+
+        @Override
+        protected ListenableFuture<?> execute(Statement statement) {
+            final SettableFuture<Void> future = SettableFuture.create();
+            synchronized (this) {
+                requests.add(statement);
+                futures.add(future);
+                notifyAll();
+            }
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return future;
+        }
+
+        synchronized void waitForRequests(int count) throws InterruptedException {
+            final long until = System.currentTimeMillis() + 10000;
+            while (requests.size() < count && System.currentTimeMillis() < until) {
+                wait(100);
+            }
+            Assert.assertEquals(count, requests.size());
+        }
+
+        synchronized void completeAll() {
+            for (SettableFuture<Void> future : futures) {
+                future.set(null);
+            }
+        }
+    }
+
+    private TestCoalescer coalescer;
+
+    @After
+    public void tearDown() {
+        if (coalescer != null) {
+            coalescer.shutdown();
+        }
+    }
+
+    private static int size(Statement statement) {
+        return statement instanceof BatchStatement ? ((BatchStatement) statement).size() : 1;
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final RuntimeStatisticsCollector statisticsCollector = Mockito.mock(RuntimeStatisticsCollector.class);
+        coalescer = new TestCoalescer(statisticsCollector, 4, 64 * 1024, 16);
+        coalescer.startup();
+
+        final List<ListenableFuture<Void>> futures = new ArrayList<>();
+        futures.add(coalescer.write(new SimpleStatement("A"), 10, "first"));
+        coalescer.waitForRequests(1);
+        // the flusher is blocked in the first request, the following writes are queued meanwhile
+        for (int i = 0; i < 6; i++) {
+            futures.add(coalescer.write(new SimpleStatement("A"), 10, "a"));
+        }
+        futures.add(coalescer.write(new SimpleStatement("B"), 10, "b"));
+        coalescer.gate.countDown();
+
+        // first, A * 4, A * 2, B
+        coalescer.waitForRequests(4);
+        Assert.assertEquals(1, size(coalescer.requests.get(0)));
+        Assert.assertEquals(4, size(coalescer.requests.get(1)));
+        Assert.assertEquals(2, size(coalescer.requests.get(2)));
+        Assert.assertEquals(1, size(coalescer.requests.get(3)));
+        Assert.assertEquals("B", ((SimpleStatement) coalescer.requests.get(3)).getQueryString());
+
+        for (ListenableFuture<Void> future : futures) {
+            Assert.assertFalse(future.isDone());
+        }
+        coalescer.completeAll();
+        Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+
+        Mockito.verify(statisticsCollector).submit(Mockito.eq("first"), Mockito.eq(1), Mockito.anyLong(), Mockito.eq(TimeUnit.NANOSECONDS));
+        Mockito.verify(statisticsCollector, Mockito.times(6)).submit(Mockito.eq("a"), Mockito.eq(1), Mockito.anyLong(), Mockito.eq(TimeUnit.NANOSECONDS));
+        Mockito.verify(statisticsCollector).submit(Mockito.eq(CassandraWriteCoalescer.MPID_BATCH), Mockito.eq(4), Mockito.anyLong(), Mockito.eq(TimeUnit.NANOSECONDS));
+        Mockito.verify(statisticsCollector).submit(Mockito.eq(CassandraWriteCoalescer.MPID_BATCH), Mockito.eq(2), Mockito.anyLong(), Mockito.eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testMaxBatchBytes() throws Exception {
+        coalescer = new TestCoalescer(Mockito.mock(RuntimeStatisticsCollector.class), 100, 1000, 16);
+        coalescer.startup();
+        coalescer.write(new SimpleStatement("A"), 0, "first");
+        coalescer.waitForRequests(1);
+        coalescer.write(new SimpleStatement("A"), 400, "a");
+        coalescer.write(new SimpleStatement("A"), 400, "a");
+        coalescer.write(new SimpleStatement("A"), 400, "a");
+        coalescer.write(new SimpleStatement("A"), 5000, "a");
+        coalescer.gate.countDown();
+
+        // size of each write is the given size plus the statement overhead
+        coalescer.waitForRequests(4);
+        Assert.assertEquals(2, size(coalescer.requests.get(1)));
+        Assert.assertEquals(1, size(coalescer.requests.get(2)));
+        Assert.assertEquals(1, size(coalescer.requests.get(3)));
+    }
+
+    @Test
+    public void testMaxWritesInFlight() throws Exception {
+        coalescer = new TestCoalescer(Mockito.mock(RuntimeStatisticsCollector.class), 1, 1000, 2);
+        coalescer.gate.countDown();
+        coalescer.startup();
+        for (int i = 0; i < 5; i++) {
+            coalescer.write(new SimpleStatement("A"), 0, "a");
+        }
+        coalescer.waitForRequests(2);
+        Thread.sleep(100);
+        Assert.assertEquals(2, coalescer.requests.size());
+        coalescer.completeAll();
+        coalescer.waitForRequests(4);
+        coalescer.completeAll();
+        coalescer.waitForRequests(5);
+    }
+
+    @Test
+    public void testSamePartition() throws Exception {
+        coalescer = new TestCoalescer(Mockito.mock(RuntimeStatisticsCollector.class), 100, 64 * 1024, 16);
+        coalescer.startup();
+        coalescer.write(new SimpleStatement("A"), 0, "first");
+        coalescer.waitForRequests(1);
+        coalescer.write(new SimpleStatement("A", "p1"), 0, "a");
+        coalescer.write(new SimpleStatement("A", "p2"), 0, "a");
+        coalescer.write(new SimpleStatement("A", "p1"), 0, "a");
+        coalescer.write(new SimpleStatement("A", "p3"), 0, "a");
+        coalescer.gate.countDown();
+
+        // the second write to p1 starts a new batch, since all statements of a batch get the same timestamp
+        coalescer.waitForRequests(3);
+        Assert.assertEquals(2, size(coalescer.requests.get(1)));
+        Assert.assertEquals(2, size(coalescer.requests.get(2)));
+        Assert.assertEquals("p1", ((SimpleStatement) ((BatchStatement) coalescer.requests.get(2)).getStatements().iterator().next()).getObject(0));
+    }
+
+    private static BoundStatement boundStatement(String table, String id) throws Exception {
+        final BoundStatement statement = boundStatement(table);
+        Mockito.when(statement.getRoutingKey(Mockito.any(ProtocolVersion.class), Mockito.any(CodecRegistry.class))).thenReturn(ByteBuffer.wrap(id.getBytes("UTF-8")));
+        return statement;
+    }
+
+    private static BoundStatement boundStatement(String table) {
+        final ColumnDefinitions variables = Mockito.mock(ColumnDefinitions.class);
+        Mockito.when(variables.size()).thenReturn(1);
+        Mockito.when(variables.getKeyspace(0)).thenReturn("copper");
+        Mockito.when(variables.getTable(0)).thenReturn(table);
+        final PreparedStatement preparedStatement = Mockito.mock(PreparedStatement.class);
+        Mockito.when(preparedStatement.getVariables()).thenReturn(variables);
+        final BoundStatement statement = Mockito.mock(BoundStatement.class);
+        Mockito.when(statement.preparedStatement()).thenReturn(preparedStatement);
+        return statement;
+    }
+
+    @Test
+    public void testPartitionKey() throws Exception {
+        final ByteBuffer id = ByteBuffer.wrap("WF-1".getBytes("UTF-8"));
+        final Object wfiIdKey = CassandraWriteCoalescer.partitionKey(boundStatement("cop_wfi_id"), id);
+        final Object wfiKey = CassandraWriteCoalescer.partitionKey(boundStatement("cop_workflow_instance"), id.duplicate());
+
+        // the insert into COP_WFI_ID and the update of COP_WORKFLOW_INSTANCE may share a batch
+        Assert.assertFalse(wfiIdKey.equals(wfiKey));
+        Assert.assertEquals(wfiKey, CassandraWriteCoalescer.partitionKey(boundStatement("cop_workflow_instance"), ByteBuffer.wrap("WF-1".getBytes("UTF-8"))));
+        Assert.assertFalse(wfiKey.equals(CassandraWriteCoalescer.partitionKey(boundStatement("cop_workflow_instance"), ByteBuffer.wrap("WF-2".getBytes("UTF-8")))));
+
+        // the table of other statements is unknown
+        Assert.assertEquals(id, CassandraWriteCoalescer.partitionKey(new SimpleStatement("A"), id));
+        Assert.assertNull(CassandraWriteCoalescer.partitionKey(boundStatement("cop_wfi_id"), null));
+    }
+
+    @Test
+    public void testSameKeyInTwoTables() throws Exception {
+        coalescer = new TestCoalescer(Mockito.mock(RuntimeStatisticsCollector.class), 100, 64 * 1024, 16);
+        coalescer.startup();
+        coalescer.write(new SimpleStatement("A"), 0, "first");
+        coalescer.waitForRequests(1);
+        coalescer.write(boundStatement("cop_wfi_id", "WF-1"), 0, "wfii.ins");
+        coalescer.write(boundStatement("cop_workflow_instance", "WF-1"), 0, "wfi.update.nowait");
+        coalescer.write(boundStatement("cop_workflow_instance", "WF-1"), 0, "wfi.update.nowait");
+        coalescer.gate.countDown();
+
+        // insert and first update go into one batch, the second update of the same partition into the next request
+        coalescer.waitForRequests(3);
+        Assert.assertEquals(2, size(coalescer.requests.get(1)));
+        Assert.assertEquals(1, size(coalescer.requests.get(2)));
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        coalescer = new TestCoalescer(Mockito.mock(RuntimeStatisticsCollector.class), 2, 64 * 1024, 16);
+        coalescer.startup();
+        coalescer.write(new SimpleStatement("A"), 0, "first");
+        coalescer.waitForRequests(1);
+        for (int i = 0; i < 3; i++) {
+            coalescer.write(new SimpleStatement("A"), 0, "a");
+        }
+        coalescer.gate.countDown();
+
+        // the pending writes are sent before the shutdown returns, later writes fail
+        coalescer.shutdown();
+        Assert.assertEquals(3, coalescer.requests.size());
+        final ListenableFuture<Void> future = coalescer.write(new SimpleStatement("A"), 0, "a");
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Assert.fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof CancellationException);
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        coalescer = new TestCoalescer(Mockito.mock(RuntimeStatisticsCollector.class), 16, 1000, 16);
+        coalescer.startup();
+        final ListenableFuture<Void> first = coalescer.write(new SimpleStatement("A"), 0, "a");
+        coalescer.waitForRequests(1);
+        final ListenableFuture<Void> second = coalescer.write(new SimpleStatement("A"), 0, "a");
+        final ListenableFuture<Void> third = coalescer.write(new SimpleStatement("A"), 0, "a");
+        coalescer.gate.countDown();
+        coalescer.waitForRequests(2);
+        final RuntimeException error = new RuntimeException("write failed");
+        synchronized (coalescer) {
+            coalescer.futures.get(0).set(null);
+            coalescer.futures.get(1).setException(error);
+        }
+        first.get(10, TimeUnit.SECONDS);
+        for (ListenableFuture<Void> future : Arrays.asList(second, third)) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                Assert.fail("ExecutionException expected");
+            } catch (ExecutionException e) {
+                Assert.assertSame(error, e.getCause());
+            }
+        }
+    }
+
+}
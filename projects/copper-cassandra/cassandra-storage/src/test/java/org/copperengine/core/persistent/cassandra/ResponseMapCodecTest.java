@@ -0,0 +1,124 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.copperengine.core.util.Base64;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResponseMapCodecTest {
+
+    private static String serializedResponse(char format, int size) {
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return format + Base64.encode(data);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final Map<String, String> map = new HashMap<>();
+        map.put("cid1", null);
+        map.put("cid2", serializedResponse('U', 100));
+        map.put("cid3", serializedResponse('C', 101));
+        map.put("cid4", serializedResponse('C', 102));
+        map.put("cid5", "Z0a" + Base64.encode(new byte[] { 1, 2, 3, 4, 5 }));
+        map.put("cid6", "");
+        map.put("cid7", "no base64 \u00e4\u00f6\u00fc");
+        map.put("\u20ac", "U");
+        Assert.assertEquals(map, ResponseMapCodec.decode(ResponseMapCodec.encode(map)));
+        Assert.assertEquals(new HashMap<String, String>(), ResponseMapCodec.decode(ResponseMapCodec.encode(new HashMap<String, String>())));
+    }
+
+    @Test
+    public void testNonCanonicalBase64() {
+        final Map<String, String> map = new HashMap<>();
+        map.put("padding", "UQR==");
+        map.put("unpadded", "UQUI");
+        map.put("trailingBits", "UQR==".replace('R', 'B'));
+        map.put("lineBreak", "UQUJD\nREVG");
+        map.put("invalidPadding", "UQ=QQ");
+        map.put("equals", "U====");
+        Assert.assertEquals(map, ResponseMapCodec.decode(ResponseMapCodec.encode(map)));
+
+        Assert.assertArrayEquals(new byte[] { 'A' }, ResponseMapCodec.decodeBase64("UQQ==", 1));
+        Assert.assertNull(ResponseMapCodec.decodeBase64("UQR==", 1));
+        Assert.assertArrayEquals(new byte[] { 'A', 'B' }, ResponseMapCodec.decodeBase64("UQUI=", 1));
+        Assert.assertNull(ResponseMapCodec.decodeBase64("UQUJ=", 1));
+        Assert.assertNull(ResponseMapCodec.decodeBase64("U", 1));
+        Assert.assertNull(ResponseMapCodec.decodeBase64("U\u00e4BCD", 1));
+    }
+
+    @Test
+    public void testBase64() {
+        for (int size = 0; size < 100; size++) {
+            final String serialized = serializedResponse('C', size);
+            final byte[] decoded = ResponseMapCodec.decodeBase64(serialized, 1);
+            if (size == 0) {
+                Assert.assertNull(decoded);
+            } else {
+                Assert.assertArrayEquals(Base64.decode(serialized.substring(1)), decoded);
+                Assert.assertEquals(serialized, ResponseMapCodec.encodeBase64("C", ByteBuffer.wrap(decoded), decoded.length));
+            }
+        }
+    }
+
+    @Test
+    public void testSmallerThanJson() {
+        final Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            map.put("correlationId-" + i, i % 2 == 0 ? null : serializedResponse('C', 200));
+        }
+        final ByteBuffer encoded = ResponseMapCodec.encode(map);
+        final String json = new JsonMapperImpl().toJSON(map);
+        Assert.assertTrue(encoded.remaining() + " < " + json.length(), encoded.remaining() < json.length() * 4 / 5);
+        Assert.assertEquals(0, encoded.position());
+        Assert.assertEquals(map, ResponseMapCodec.decode(encoded));
+        Assert.assertEquals(map, ResponseMapCodec.decode(encoded));
+    }
+
+    @Test
+    public void testLegacyJson() {
+        final Map<String, String> map = new HashMap<>();
+        map.put("cid1", null);
+        map.put("cid2", serializedResponse('C', 150));
+        map.put("cid3", "no base64 \u00e4\u00f6\u00fc");
+        final JsonMapper jsonMapper = new JsonMapperImpl();
+        final String json = jsonMapper.toJSON(map);
+
+        // rows written by former versions contain the JSON representation only
+        Assert.assertEquals(map, ResponseMapCodec.decode(null, json, jsonMapper));
+        Assert.assertEquals(ResponseMapCodec.decode(ResponseMapCodec.encode(map)), ResponseMapCodec.decode(null, json, jsonMapper));
+        Assert.assertEquals(new HashMap<String, String>(), ResponseMapCodec.decode(null, jsonMapper.toJSON(new HashMap<String, String>()), jsonMapper));
+
+        // the binary column takes precedence
+        final Map<String, String> newer = new HashMap<>(map);
+        newer.put("cid1", serializedResponse('U', 10));
+        Assert.assertEquals(newer, ResponseMapCodec.decode(ResponseMapCodec.encode(newer), json, jsonMapper));
+        Assert.assertNull(ResponseMapCodec.decode(null, null, jsonMapper));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFormat() {
+        ResponseMapCodec.decode(ByteBuffer.wrap(new byte[] { 42, 0 }));
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.cassandra;
+
+import java.util.Date;
+
+import org.copperengine.core.ProcessingState;
+import org.copperengine.core.persistent.cassandra.WorkflowInstanceQueryPlanner.Index;
+import org.copperengine.core.persistent.hybrid.WorkflowInstance;
+import org.copperengine.management.model.HalfOpenTimeInterval;
+import org.copperengine.management.model.WorkflowInstanceFilter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WorkflowInstanceQueryPlannerTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private static WorkflowInstanceFilter filter(String state, String classname) {
+        final WorkflowInstanceFilter filter = new WorkflowInstanceFilter();
+        filter.setState(state);
+        filter.setWorkflowClassname(classname);
+        return filter;
+    }
+
+    @Test
+    public void testChooseIndex() {
+        Assert.assertEquals(Index.NONE, WorkflowInstanceQueryPlanner.chooseIndex(filter(null, null)));
+        Assert.assertEquals(Index.STATE, WorkflowInstanceQueryPlanner.chooseIndex(filter("WAITING", null)));
+        Assert.assertEquals(Index.CLASSNAME, WorkflowInstanceQueryPlanner.chooseIndex(filter(null, "a.b.C")));
+        // rare states are more selective than the class name
+        Assert.assertEquals(Index.STATE, WorkflowInstanceQueryPlanner.chooseIndex(filter("ERROR", "a.b.C")));
+        Assert.assertEquals(Index.STATE, WorkflowInstanceQueryPlanner.chooseIndex(filter("INVALID", "a.b.C")));
+        Assert.assertEquals(Index.CLASSNAME, WorkflowInstanceQueryPlanner.chooseIndex(filter("WAITING", "a.b.C")));
+
+        final WorkflowInstanceFilter ppoolFilter = filter(null, null);
+        ppoolFilter.setProcessorPoolId("P#DEFAULT");
+        Assert.assertEquals(Index.NONE, WorkflowInstanceQueryPlanner.chooseIndex(ppoolFilter));
+    }
+
+    @Test
+    public void testChooseTable() {
+        for (ProcessingState state : ProcessingState.values()) {
+            final boolean rare = state == ProcessingState.ERROR || state == ProcessingState.INVALID;
+            Assert.assertEquals(state.name(), "COP_WFI_BY_STATE", WorkflowInstanceQueryPlanner.chooseIndex(filter(state.name(), null)).table);
+            Assert.assertEquals(state.name(), rare ? "COP_WFI_BY_STATE" : "COP_WFI_BY_CLASSNAME", WorkflowInstanceQueryPlanner.chooseIndex(filter(state.name(), "a.b.C")).table);
+        }
+        Assert.assertEquals("COP_WFI_BY_CLASSNAME", WorkflowInstanceQueryPlanner.chooseIndex(filter(null, "a.b.C")).table);
+
+        // time intervals alone need a scan of COP_WORKFLOW_INSTANCE
+        final WorkflowInstanceFilter filter = filter(null, null);
+        filter.setCreationTS(new HalfOpenTimeInterval(new Date(0), new Date(DAY)));
+        filter.setLastModTS(new HalfOpenTimeInterval(new Date(0), null));
+        Assert.assertEquals(Index.NONE, WorkflowInstanceQueryPlanner.chooseIndex(filter));
+        Assert.assertEquals("COP_WORKFLOW_INSTANCE", Index.NONE.table);
+    }
+
+    @Test
+    public void testStateBucket() {
+        for (String wfId : new String[] { "", "1", "a9b9c9d9-0000-4711-8888-1234567890ab", "\u00e4\u00f6\u00fc" }) {
+            final int bucket = WorkflowInstanceQueryPlanner.stateBucket(wfId);
+            Assert.assertTrue(bucket >= 0 && bucket < WorkflowInstanceQueryPlanner.STATE_BUCKETS);
+            Assert.assertEquals(bucket, WorkflowInstanceQueryPlanner.stateBucket(new String(wfId)));
+        }
+    }
+
+    @Test
+    public void testDays() {
+        Assert.assertEquals(0, WorkflowInstanceQueryPlanner.day(new Date(0)));
+        Assert.assertEquals(0, WorkflowInstanceQueryPlanner.day(new Date(DAY - 1)));
+        Assert.assertEquals(1, WorkflowInstanceQueryPlanner.day(new Date(DAY)));
+        Assert.assertEquals(-1, WorkflowInstanceQueryPlanner.day(new Date(-1)));
+
+        final WorkflowInstanceFilter filter = filter(null, "a.b.C");
+        Assert.assertEquals(Integer.MIN_VALUE, WorkflowInstanceQueryPlanner.firstDay(filter));
+        Assert.assertEquals(Integer.MAX_VALUE, WorkflowInstanceQueryPlanner.lastDay(filter));
+
+        // the end of the interval is exclusive
+        filter.setCreationTS(new HalfOpenTimeInterval(new Date(10 * DAY + 5), new Date(12 * DAY)));
+        Assert.assertEquals(10, WorkflowInstanceQueryPlanner.firstDay(filter));
+        Assert.assertEquals(11, WorkflowInstanceQueryPlanner.lastDay(filter));
+        filter.setCreationTS(new HalfOpenTimeInterval(null, new Date(12 * DAY + 1)));
+        Assert.assertEquals(Integer.MIN_VALUE, WorkflowInstanceQueryPlanner.firstDay(filter));
+        Assert.assertEquals(12, WorkflowInstanceQueryPlanner.lastDay(filter));
+    }
+
+    @Test
+    public void testMatches() {
+        final WorkflowInstance wfi = new WorkflowInstance();
+        wfi.id = "1";
+        wfi.state = ProcessingState.WAITING;
+        wfi.ppoolId = "P#DEFAULT";
+        wfi.classname = "a.b.C";
+        wfi.creationTS = new Date(1000);
+        wfi.lastModTS = new Date(2000);
+
+        Assert.assertTrue(WorkflowInstanceQueryPlanner.matches(filter(null, null), wfi));
+        Assert.assertTrue(WorkflowInstanceQueryPlanner.matches(filter("WAITING", "a.b.C"), wfi));
+        Assert.assertFalse(WorkflowInstanceQueryPlanner.matches(filter("ENQUEUED", null), wfi));
+        Assert.assertFalse(WorkflowInstanceQueryPlanner.matches(filter(null, "a.b.D"), wfi));
+
+        final WorkflowInstanceFilter filter = filter(null, null);
+        filter.setProcessorPoolId("P#OTHER");
+        Assert.assertFalse(WorkflowInstanceQueryPlanner.matches(filter, wfi));
+        filter.setProcessorPoolId("P#DEFAULT");
+        filter.setCreationTS(new HalfOpenTimeInterval(new Date(1000), new Date(1001)));
+        Assert.assertTrue(WorkflowInstanceQueryPlanner.matches(filter, wfi));
+        filter.setCreationTS(new HalfOpenTimeInterval(null, new Date(1000)));
+        Assert.assertFalse(WorkflowInstanceQueryPlanner.matches(filter, wfi));
+        filter.setCreationTS(null);
+        filter.setLastModTS(new HalfOpenTimeInterval(new Date(2001), null));
+        Assert.assertFalse(WorkflowInstanceQueryPlanner.matches(filter, wfi));
+        filter.setLastModTS(new HalfOpenTimeInterval(new Date(2000), null));
+        Assert.assertTrue(WorkflowInstanceQueryPlanner.matches(filter, wfi));
+    }
+
+}
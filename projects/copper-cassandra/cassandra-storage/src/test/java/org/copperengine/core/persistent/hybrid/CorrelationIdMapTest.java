@@ -0,0 +1,106 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CorrelationIdMapTest {
+
+    @Test
+    public void testAddAndRemove() {
+        final CorrelationIdMap map = new CorrelationIdMap();
+        map.addCorrelationId("wf1", "cid1");
+        map.addCorrelationIds("wf2", new String[] { "cid2", "cid3" });
+        map.addCorrelationIds("wf3", Arrays.asList("cid4"));
+        Assert.assertEquals(4, map.size());
+        Assert.assertEquals("wf1", map.getWorkflowId("cid1"));
+        Assert.assertEquals("wf2", map.getWorkflowId("cid2"));
+        Assert.assertEquals("wf2", map.getWorkflowId("cid3"));
+        Assert.assertEquals("wf3", map.getWorkflowId("cid4"));
+        Assert.assertTrue(map.containsWorkflowId("wf2"));
+
+        map.removeAll4Workflow("wf2");
+        Assert.assertFalse(map.containsWorkflowId("wf2"));
+        Assert.assertNull(map.getWorkflowId("cid2"));
+        Assert.assertNull(map.getWorkflowId("cid3"));
+        Assert.assertEquals(2, map.size());
+
+        map.removeAll4Workflow("unknown");
+        Assert.assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testAddTwice() {
+        final CorrelationIdMap map = new CorrelationIdMap();
+        map.addCorrelationId("wf1", "cid1");
+        map.addCorrelationId("wf1", "cid2");
+        map.addCorrelationIds("wf1", new String[] { "cid2", "cid3" });
+        map.addCorrelationIds("wf1", new String[0]);
+        Assert.assertTrue(map.containsWorkflowId("wf1"));
+        Assert.assertEquals(3, map.size());
+
+        map.removeAll4Workflow("wf1");
+        Assert.assertFalse(map.containsWorkflowId("wf1"));
+        Assert.assertEquals(0, map.size());
+    }
+
+    @Test
+    public void testConcurrentModification() throws Exception {
+        final CorrelationIdMap map = new CorrelationIdMap();
+        final int numbOfThreads = 4;
+        final int numbOfWorkflows = 10000;
+        final ExecutorService executor = Executors.newFixedThreadPool(numbOfThreads);
+        try {
+            final Future<?>[] futures = new Future<?>[numbOfThreads];
+            for (int t = 0; t < numbOfThreads; t++) {
+                final int thread = t;
+                futures[t] = executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < numbOfWorkflows; i++) {
+                            final String wfId = "wf" + i;
+                            map.addCorrelationId(wfId, "cid" + i + "_" + thread);
+                            if (i % 2 == 0 && thread == numbOfThreads - 1) {
+                                map.removeAll4Workflow("wf" + (i / 2));
+                            }
+                        }
+                    }
+                });
+            }
+            for (Future<?> f : futures) {
+                f.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // no correlation id may outlive the removal of its workflow
+        for (int i = 0; i < numbOfWorkflows; i++) {
+            map.removeAll4Workflow("wf" + i);
+            for (int t = 0; t < numbOfThreads; t++) {
+                Assert.assertNull(map.getWorkflowId("cid" + i + "_" + t));
+            }
+        }
+        Assert.assertEquals(0, map.size());
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.Acknowledge;
+import org.copperengine.core.ProcessingState;
+import org.copperengine.core.Response;
+import org.copperengine.core.WaitHook;
+import org.copperengine.core.WaitMode;
+import org.copperengine.core.Workflow;
+import org.copperengine.core.common.WorkflowRepository;
+import org.copperengine.core.persistent.RegisterCall;
+import org.copperengine.core.persistent.SerializedWorkflow;
+import org.copperengine.core.persistent.Serializer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class HybridDBStorageRecoveryTest {
+
+    private static final String PPOOL_ID = "P#DEFAULT";
+    private static final Acknowledge ACK = new Acknowledge.BestEffortAcknowledge();
+
+    private static WorkflowInstance createWorkflowInstance(String id, ProcessingState state, Date timeout, String... correlationIds) {
+        final WorkflowInstance wfi = new WorkflowInstance();
+        wfi.id = id;
+        wfi.ppoolId = PPOOL_ID;
+        wfi.prio = 5;
+        wfi.creationTS = new Date();
+        wfi.state = state;
+        wfi.waitMode = WaitMode.ALL;
+        wfi.timeout = timeout;
+        if (correlationIds.length > 0) {
+            wfi.cid2ResponseMap = new HashMap<>();
+            for (String cid : correlationIds) {
+                wfi.cid2ResponseMap.put(cid, null);
+            }
+        }
+        return wfi;
+    }
+
+    private static Workflow<?> createWorkflow(String id) {
+        final Workflow<?> wf = Mockito.mock(Workflow.class, Mockito.CALLS_REAL_METHODS);
+        wf.setId(id);
+        wf.setProcessorPoolId(PPOOL_ID);
+        return wf;
+    }
+
+    @Test
+    public void testBackgroundRecovery() throws Exception {
+        final InMemoryStorage storage = new InMemoryStorage();
+        final Date timeout = new Date(System.currentTimeMillis() + 3600000L);
+        storage.safeWorkflowInstance(createWorkflowInstance("wf1", ProcessingState.WAITING, null, "c1", "c2"), true);
+        storage.safeWorkflowInstance(createWorkflowInstance("wf2", ProcessingState.ENQUEUED, null), true);
+        storage.safeWorkflowInstance(createWorkflowInstance("wf3", ProcessingState.ERROR, null), true);
+        storage.safeWorkflowInstance(createWorkflowInstance("wf4", ProcessingState.WAITING, timeout, "c4"), true);
+        storage.safeWorkflowInstance(createWorkflowInstance("wf5", ProcessingState.WAITING, new Date(System.currentTimeMillis() - 1000L), "c5"), true);
+
+        final Serializer serializer = Mockito.mock(Serializer.class);
+        Mockito.when(serializer.serializeResponse(Mockito.any(Response.class))).thenReturn("response");
+        final TimeoutManager timeoutManager = Mockito.mock(TimeoutManager.class);
+        final HybridDBStorage dbStorage = new HybridDBStorage(serializer, Mockito.mock(WorkflowRepository.class), storage, timeoutManager, MoreExecutors.directExecutor());
+
+        // startup does not wait for the recovery
+        dbStorage.startup();
+        Assert.assertEquals(0, dbStorage.queryQueueSize(PPOOL_ID));
+
+        // the workflow instance waiting for c1 is not yet resumed, so the response is stored as early response
+        dbStorage.notify(new Response<>("c1"), ACK);
+        Assert.assertEquals("response", storage.earlyResponses.get("c1"));
+
+        storage.recoveryGate.countDown();
+        storage.resumeGate.countDown();
+        Assert.assertTrue(storage.recoveryFinished.await(10, TimeUnit.SECONDS));
+
+        // wf2 was enqueued, wf5 has timed out, wf1 still waits for c2 and got the early response
+        Assert.assertEquals(2, dbStorage.queryQueueSize(PPOOL_ID));
+        Assert.assertEquals(ProcessingState.ENQUEUED, storage.workflowInstances.get("wf5").state);
+        final WorkflowInstance wf1 = storage.workflowInstances.get("wf1");
+        Assert.assertEquals(ProcessingState.WAITING, wf1.state);
+        Assert.assertEquals("response", wf1.cid2ResponseMap.get("c1"));
+        Assert.assertFalse(storage.earlyResponses.containsKey("c1"));
+        Mockito.verify(timeoutManager).registerTimeout(Mockito.eq(timeout), Mockito.eq("wf4"), Mockito.any(Runnable.class));
+
+        // responses for resumed instances are assigned directly
+        dbStorage.notify(new Response<>("c2"), ACK);
+        Assert.assertEquals(ProcessingState.ENQUEUED, storage.workflowInstances.get("wf1").state);
+        Assert.assertEquals(3, dbStorage.queryQueueSize(PPOOL_ID));
+        Assert.assertTrue(storage.earlyResponses.isEmpty());
+    }
+
+    @Test
+    public void testRecoveryOverlapsEngine() throws Exception {
+        final InMemoryStorage storage = new InMemoryStorage();
+        storage.safeWorkflowInstance(createWorkflowInstance("wf1", ProcessingState.ENQUEUED, null), true);
+
+        final Serializer serializer = Mockito.mock(Serializer.class);
+        Mockito.when(serializer.serializeResponse(Mockito.any(Response.class))).thenReturn("response");
+        Mockito.when(serializer.serializeWorkflow(Mockito.any(Workflow.class))).thenReturn(new SerializedWorkflow());
+        Mockito.doReturn(Mockito.mock(Workflow.class, Mockito.CALLS_REAL_METHODS)).when(serializer).deserializeWorkflow(Mockito.any(SerializedWorkflow.class), Mockito.any(WorkflowRepository.class));
+        final TimeoutManager timeoutManager = Mockito.mock(TimeoutManager.class);
+        final HybridDBStorage dbStorage = new HybridDBStorage(serializer, Mockito.mock(WorkflowRepository.class), storage, timeoutManager, MoreExecutors.directExecutor());
+        dbStorage.startup();
+
+        // new1 is enqueued and new2 waits for n2, both are written to the storage before the recovery reads it
+        dbStorage.insert(createWorkflow("new1"), ACK);
+        dbStorage.registerCallback(new RegisterCall(createWorkflow("new2"), WaitMode.ALL, 3600000L, new String[] { "n2" }, Collections.<WaitHook> emptyList()), ACK);
+        storage.recoveryGate.countDown();
+        Assert.assertTrue(storage.snapshotTaken.await(10, TimeUnit.SECONDS));
+
+        // new1 is dequeued and new2 is enqueued by a response before the recovery resumes them
+        final List<Workflow<?>> wfList = dbStorage.dequeue(PPOOL_ID, 10);
+        Assert.assertEquals(1, wfList.size());
+        dbStorage.notify(new Response<>("n2"), ACK);
+        Assert.assertEquals(ProcessingState.ENQUEUED, storage.workflowInstances.get("new2").state);
+
+        storage.resumeGate.countDown();
+        Assert.assertTrue(storage.recoveryFinished.await(10, TimeUnit.SECONDS));
+
+        // only wf1 was resumed - new1 is not enqueued again, the outdated WAITING state of new2 is ignored
+        Assert.assertEquals(2, dbStorage.queryQueueSize(PPOOL_ID));
+        Mockito.verify(timeoutManager).registerTimeout(Mockito.any(Date.class), Mockito.eq("new2"), Mockito.any(Runnable.class));
+        Assert.assertEquals(ProcessingState.ENQUEUED, storage.workflowInstances.get("new2").state);
+    }
+
+}
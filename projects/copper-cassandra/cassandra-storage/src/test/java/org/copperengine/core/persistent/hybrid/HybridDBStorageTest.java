@@ -15,6 +15,9 @@
  */
 package org.copperengine.core.persistent.hybrid;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
@@ -22,13 +25,19 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.copperengine.core.ProcessingState;
+import org.copperengine.core.Workflow;
 import org.copperengine.core.common.WorkflowRepository;
+import org.copperengine.core.persistent.SerializedWorkflow;
+import org.copperengine.core.persistent.Serializer;
 import org.copperengine.core.persistent.StandardJavaSerializer;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class HybridDBStorageTest {
 
@@ -96,4 +105,54 @@ public class HybridDBStorageTest {
 
         Assert.assertEquals(max, counter.intValue());
     }
+
+    @Test
+    public void test_dequeue_read_ahead() throws Exception {
+        final String ppoolId = "DEFAULT";
+        final int max = 200;
+        final InMemoryStorage storage = new InMemoryStorage();
+        storage.readLatencyMSec = 20;
+        storage.recoveryGate.countDown();
+        final Serializer serializer = Mockito.mock(Serializer.class);
+        Mockito.when(serializer.deserializeWorkflow(Mockito.any(SerializedWorkflow.class), Mockito.any(WorkflowRepository.class))).thenAnswer(new Answer<Workflow<?>>() {
+            @Override
+            public Workflow<?> answer(InvocationOnMock invocation) throws Throwable {
+                // not instantiated, since workflow classes have to be transformed first
+                return Mockito.mock(Workflow.class, Mockito.CALLS_REAL_METHODS);
+            }
+        });
+        final ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            final HybridDBStorage dbStorage = new HybridDBStorage(serializer, Mockito.mock(WorkflowRepository.class), storage, Mockito.mock(TimeoutManager.class), exec);
+            dbStorage.startup();
+            for (int i = 0; i < max; i++) {
+                final WorkflowInstance wfi = new WorkflowInstance();
+                wfi.id = Integer.toString(i);
+                wfi.ppoolId = ppoolId;
+                wfi.prio = 1;
+                wfi.state = ProcessingState.ENQUEUED;
+                wfi.serializedWorkflow = new SerializedWorkflow();
+                storage.safeWorkflowInstance(wfi, true);
+                dbStorage._enqueue(wfi.id, ppoolId, wfi.prio);
+            }
+            // remove one instance from the storage, it is skipped
+            storage.deleteWorkflowInstance("7", null, null);
+
+            final long startTS = System.currentTimeMillis();
+            final List<Workflow<?>> wfList = dbStorage.dequeue(ppoolId, max);
+            final long elapsed = System.currentTimeMillis() - startTS;
+
+            // reading the instances one after the other would take max * readLatencyMSec = 4 seconds
+            Assert.assertTrue("dequeue took " + elapsed + " msec", elapsed < 2000);
+            Assert.assertEquals(max - 1, wfList.size());
+            final Set<String> ids = new HashSet<>();
+            for (Workflow<?> wf : wfList) {
+                ids.add(wf.getId());
+            }
+            Assert.assertEquals(max - 1, ids.size());
+            Assert.assertFalse(ids.contains("7"));
+        } finally {
+            exec.shutdown();
+        }
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.ProcessingState;
+import org.copperengine.core.persistent.SerializedWorkflow;
+import org.copperengine.management.model.WorkflowInstanceFilter;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * {@link Storage} keeping everything in memory, for tests without a Cassandra cluster.
+ * <p>
+ * After {@link #initialize(HybridDBStorageAccessor, int)} the workflow instances are recovered in a background thread:
+ * as soon as {@link #recoveryGate} is opened, all workflow instances existing at that time are read, like a scan of
+ * the storage running concurrently with the engine, and they are resumed as soon as {@link #resumeGate} is opened.
+ * Reading a workflow instance takes
+ * {@link #readLatencyMSec}, simulating the round trip to the database.
+ */
+class InMemoryStorage implements Storage {
+
+    final ConcurrentMap<String, WorkflowInstance> workflowInstances = new ConcurrentHashMap<>();
+    final ConcurrentMap<String, String> earlyResponses = new ConcurrentHashMap<>();
+    final CountDownLatch recoveryGate = new CountDownLatch(1);
+    final CountDownLatch snapshotTaken = new CountDownLatch(1);
+    final CountDownLatch resumeGate = new CountDownLatch(1);
+    final CountDownLatch recoveryFinished = new CountDownLatch(1);
+    volatile long readLatencyMSec = 0;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "InMemoryStorage-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static WorkflowInstance copy(WorkflowInstance wfi) {
+        if (wfi == null)
+            return null;
+        final WorkflowInstance copy = new WorkflowInstance();
+        copy.id = wfi.id;
+        copy.ppoolId = wfi.ppoolId;
+        copy.prio = wfi.prio;
+        copy.creationTS = wfi.creationTS;
+        if (wfi.serializedWorkflow != null) {
+            copy.serializedWorkflow = new SerializedWorkflow();
+            copy.serializedWorkflow.setData(wfi.serializedWorkflow.getData());
+            copy.serializedWorkflow.setObjectState(wfi.serializedWorkflow.getObjectState());
+        }
+        copy.cid2ResponseMap = wfi.cid2ResponseMap == null ? null : new HashMap<>(wfi.cid2ResponseMap);
+        copy.waitMode = wfi.waitMode;
+        copy.timeout = wfi.timeout;
+        copy.state = wfi.state;
+        copy.lastModTS = wfi.lastModTS;
+        copy.classname = wfi.classname;
+        return copy;
+    }
+
+    @Override
+    public void safeWorkflowInstance(WorkflowInstance cw, boolean initialInsert) throws Exception {
+        workflowInstances.put(cw.id, copy(cw));
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteWorkflowInstance(String wfId, String classname, Date creationTS) throws Exception {
+        workflowInstances.remove(wfId);
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public WorkflowInstance readWorkflowInstance(String wfId) throws Exception {
+        if (readLatencyMSec > 0) {
+            Thread.sleep(readLatencyMSec);
+        }
+        return copy(workflowInstances.get(wfId));
+    }
+
+    @Override
+    public ListenableFuture<WorkflowInstance> readWorkflowInstanceAsync(final String wfId) throws Exception {
+        final WorkflowInstance wfi = copy(workflowInstances.get(wfId));
+        if (readLatencyMSec <= 0) {
+            return Futures.immediateFuture(wfi);
+        }
+        final SettableFuture<WorkflowInstance> future = SettableFuture.create();
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                future.set(wfi);
+            }
+        }, readLatencyMSec, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    @Override
+    public void initialize(final HybridDBStorageAccessor internalStorageAccessor, int numberOfThreads) throws Exception {
+        final Thread thread = new Thread("InMemoryStorage-recovery") {
+            @Override
+            public void run() {
+                try {
+                    recoveryGate.await();
+                    final List<WorkflowInstance> existing = new ArrayList<>();
+                    for (WorkflowInstance wfi : workflowInstances.values()) {
+                        existing.add(copy(wfi));
+                    }
+                    snapshotTaken.countDown();
+                    resumeGate.await();
+                    for (WorkflowInstance wfi : existing) {
+                        internalStorageAccessor.resume(wfi);
+                    }
+                    internalStorageAccessor.recoveryFinished();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    recoveryFinished.countDown();
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Override
+    public ListenableFuture<Void> safeEarlyResponse(String correlationId, String serializedResponse) throws Exception {
+        earlyResponses.put(correlationId, serializedResponse);
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public String readEarlyResponse(String correlationId) throws Exception {
+        return earlyResponses.get(correlationId);
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteEarlyResponse(String correlationId) throws Exception {
+        earlyResponses.remove(correlationId);
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public ListenableFuture<Void> updateWorkflowInstanceState(String wfId, ProcessingState state) throws Exception {
+        final WorkflowInstance wfi = workflowInstances.get(wfId);
+        if (wfi != null) {
+            wfi.state = state;
+        }
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public List<WorkflowInstance> queryWorkflowInstances(WorkflowInstanceFilter filter) throws Exception {
+        final List<WorkflowInstance> result = new ArrayList<>();
+        for (WorkflowInstance wfi : workflowInstances.values()) {
+            if (filter.getState() == null || filter.getState().equals(wfi.state.name())) {
+                result.add(copy(wfi));
+            }
+        }
+        return result;
+    }
+
+}
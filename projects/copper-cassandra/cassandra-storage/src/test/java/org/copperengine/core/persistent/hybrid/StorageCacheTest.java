@@ -0,0 +1,107 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import java.util.HashMap;
+
+import org.copperengine.core.persistent.SerializedWorkflow;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class StorageCacheTest {
+
+    private static WorkflowInstance createWorkflowInstance(String id, int stateLength) {
+        final StringBuilder sb = new StringBuilder(stateLength);
+        for (int i = 0; i < stateLength; i++) {
+            sb.append('x');
+        }
+        final WorkflowInstance wfi = new WorkflowInstance();
+        wfi.id = id;
+        wfi.ppoolId = "DEFAULT";
+        wfi.serializedWorkflow = new SerializedWorkflow();
+        wfi.serializedWorkflow.setObjectState(sb.toString());
+        wfi.cid2ResponseMap = new HashMap<String, String>();
+        return wfi;
+    }
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        final Storage delegate = Mockito.mock(Storage.class);
+        final StorageCache cache = new StorageCache(delegate);
+        final WorkflowInstance wfi = createWorkflowInstance("1", 100);
+        Mockito.when(delegate.readWorkflowInstance("1")).thenReturn(wfi);
+
+        Assert.assertSame(wfi, cache.readWorkflowInstance("1"));
+        Assert.assertSame(wfi, cache.readWorkflowInstance("1"));
+        Mockito.verify(delegate, Mockito.times(1)).readWorkflowInstance("1");
+
+        cache.updateWorkflowInstanceState("1", null);
+        Assert.assertSame(wfi, cache.readWorkflowInstance("1"));
+        Mockito.verify(delegate, Mockito.times(2)).readWorkflowInstance("1");
+
+        final CacheStats stats = cache.getWorkflowInstanceCacheStats();
+        Assert.assertEquals(3, stats.getNumberOfReads());
+        Assert.assertEquals(1, stats.getNumberOfCacheHits());
+        Assert.assertEquals(2, stats.getNumberOfCacheMisses());
+        Assert.assertEquals(1, stats.getSize());
+        Assert.assertTrue(stats.getWeightedSize() >= 200);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testCacheStatsCounter() {
+        final CacheStats stats = new CacheStats();
+        stats.incNumberOfReads(true);
+        stats.incNumberOfReads(true);
+        stats.incNumberOfReads(false);
+        Assert.assertEquals(3, stats.getNumberOfReads());
+        Assert.assertEquals(2, stats.getNumberOfCacheHits());
+        Assert.assertEquals(1, stats.getNumberOfCacheMisses());
+    }
+
+    @Test
+    public void testEarlyResponses() throws Exception {
+        final Storage delegate = Mockito.mock(Storage.class);
+        final StorageCache cache = new StorageCache(delegate);
+        cache.safeEarlyResponse("cid", "response");
+        Assert.assertEquals("response", cache.readEarlyResponse("cid"));
+        cache.deleteEarlyResponse("cid");
+        Assert.assertNull(cache.readEarlyResponse("cid"));
+        Mockito.verify(delegate).safeEarlyResponse("cid", "response");
+        Mockito.verify(delegate).readEarlyResponse("cid");
+
+        final CacheStats stats = cache.getEarlyResponseCacheStats();
+        Assert.assertEquals(1, stats.getNumberOfCacheHits());
+        Assert.assertEquals(1, stats.getNumberOfCacheMisses());
+    }
+
+    @Test
+    public void testBoundedBySize() throws Exception {
+        final Storage delegate = Mockito.mock(Storage.class);
+        final long maxBytes = 1024 * 1024;
+        final StorageCache cache = new StorageCache(delegate, maxBytes, maxBytes);
+        for (int i = 0; i < 1000; i++) {
+            cache.safeWorkflowInstance(createWorkflowInstance(Integer.toString(i), 5000), true);
+        }
+        final CacheStats stats = cache.getWorkflowInstanceCacheStats();
+        Assert.assertTrue(stats.toString(), stats.getWeightedSize() <= maxBytes);
+        Assert.assertTrue(stats.toString(), stats.getSize() < 110);
+        Assert.assertTrue(stats.toString(), stats.getNumberOfEvictions() > 890);
+        Mockito.verify(delegate, Mockito.times(1000)).safeWorkflowInstance(Mockito.any(WorkflowInstance.class), Mockito.eq(true));
+    }
+
+}
@@ -0,0 +1,18 @@
+--
+-- indexes for the keyset paginated queries of the AuditTrailQueryEngine
+--
+create index IDX_COP_AUDIT_TX on COP_AUDIT_TRAIL_EVENT (
+   TRANSACTION_ID, SEQ_ID
+);
+
+create index IDX_COP_AUDIT_CONV on COP_AUDIT_TRAIL_EVENT (
+   CONVERSATION_ID, SEQ_ID
+);
+
+create index IDX_COP_AUDIT_CORR on COP_AUDIT_TRAIL_EVENT (
+   CORRELATION_ID, SEQ_ID
+);
+
+create index IDX_COP_AUDIT_OCC on COP_AUDIT_TRAIL_EVENT (
+   OCCURRENCE, SEQ_ID
+);
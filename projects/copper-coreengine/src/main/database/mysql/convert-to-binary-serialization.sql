@@ -0,0 +1,8 @@
+--
+-- Converts the serialized workflow instances and responses into MEDIUMBLOB columns. Use this together with a
+-- BinarySerializer, e.g. org.copperengine.core.persistent.BinaryJavaSerializer.
+-- Existing rows keep their Base64 text content and are still readable by the BinaryJavaSerializer.
+--
+ALTER TABLE COP_WORKFLOW_INSTANCE MODIFY DATA MEDIUMBLOB null;
+ALTER TABLE COP_WORKFLOW_INSTANCE MODIFY OBJECT_STATE MEDIUMBLOB null;
+ALTER TABLE COP_RESPONSE MODIFY RESPONSE MEDIUMBLOB;
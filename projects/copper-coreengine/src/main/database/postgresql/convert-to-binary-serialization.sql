@@ -0,0 +1,8 @@
+--
+-- Converts the serialized workflow instances and responses into BYTEA columns. Use this together with a
+-- BinarySerializer, e.g. org.copperengine.core.persistent.BinaryJavaSerializer.
+-- Existing rows keep their Base64 text content and are still readable by the BinaryJavaSerializer.
+--
+ALTER TABLE COP_WORKFLOW_INSTANCE ALTER COLUMN DATA TYPE BYTEA USING convert_to(DATA, 'UTF8');
+ALTER TABLE COP_WORKFLOW_INSTANCE ALTER COLUMN OBJECT_STATE TYPE BYTEA USING convert_to(OBJECT_STATE, 'UTF8');
+ALTER TABLE COP_RESPONSE ALTER COLUMN RESPONSE TYPE BYTEA USING convert_to(RESPONSE, 'UTF8');
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Binary representation of audit trail events in the segment files of {@link SegmentedFileAuditTrail}. Instances of
+ * {@link AuditTrailEvent} itself are written field by field, instances of subclasses are written using java
+ * serialization.
+ */
+final class AuditTrailEventCodec {
+
+    private static final byte TYPE_AUDIT_TRAIL_EVENT = 1;
+    private static final byte TYPE_SERIALIZED = 2;
+
+    private AuditTrailEventCodec() {
+    }
+
+    static byte[] encode(AuditTrailEvent e) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        final DataOutputStream dos = new DataOutputStream(bos);
+        if (e.getClass() == AuditTrailEvent.class) {
+            dos.writeByte(TYPE_AUDIT_TRAIL_EVENT);
+            dos.writeInt(e.logLevel);
+            dos.writeLong(e.occurrence.getTime());
+            writeString(dos, e.conversationId);
+            writeString(dos, e.context);
+            writeString(dos, e.instanceId);
+            writeString(dos, e.correlationId);
+            writeString(dos, e.transactionId);
+            writeString(dos, e.message);
+            writeString(dos, e.messageType);
+            dos.writeBoolean(e.sequenceId != null);
+            if (e.sequenceId != null) {
+                dos.writeLong(e.sequenceId);
+            }
+        } else {
+            dos.writeByte(TYPE_SERIALIZED);
+            final ObjectOutputStream oos = new ObjectOutputStream(dos);
+            oos.writeObject(e);
+            oos.close();
+        }
+        dos.flush();
+        return bos.toByteArray();
+    }
+
+    static AuditTrailEvent decode(byte[] data) throws IOException, ClassNotFoundException {
+        final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        final byte type = dis.readByte();
+        if (type == TYPE_AUDIT_TRAIL_EVENT) {
+            final int logLevel = dis.readInt();
+            final Date occurrence = new Date(dis.readLong());
+            final String conversationId = readString(dis);
+            final String context = readString(dis);
+            final String instanceId = readString(dis);
+            final String correlationId = readString(dis);
+            final String transactionId = readString(dis);
+            final String message = readString(dis);
+            final String messageType = readString(dis);
+            final Long sequenceId = dis.readBoolean() ? Long.valueOf(dis.readLong()) : null;
+            return new AuditTrailEvent(logLevel, occurrence, conversationId, context, instanceId, correlationId, transactionId, message, messageType, sequenceId);
+        }
+        if (type == TYPE_SERIALIZED) {
+            final ObjectInputStream ois = new ObjectInputStream(dis);
+            try {
+                return (AuditTrailEvent) ois.readObject();
+            } finally {
+                ois.close();
+            }
+        }
+        throw new IOException("Unknown record type " + type);
+    }
+
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        if (s == null) {
+            dos.writeInt(-1);
+        } else {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            dos.writeInt(bytes.length);
+            dos.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        final int length = dis.readInt();
+        if (length < 0)
+            return null;
+        final byte[] bytes = new byte[length];
+        dis.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
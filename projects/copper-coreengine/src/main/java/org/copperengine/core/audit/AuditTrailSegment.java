@@ -0,0 +1,233 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A memory mapped segment file of {@link SegmentedFileAuditTrail}.
+ * <p>
+ * The file starts with a header containing a magic number and the offset up to which the records have been drained
+ * into the database. It is followed by the records, each consisting of the length and the CRC32 checksum of the
+ * record data and the data itself. A record with length 0 marks the end of the segment, as do a record exceeding the
+ * file or with a wrong checksum, which is what remains of a write interrupted by a crash.
+ * <p>
+ * The mapping is released by {@link #close()}, it must not be used afterwards.
+ */
+final class AuditTrailSegment {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditTrailSegment.class);
+
+    static final int MAGIC = 0x43415453;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_OVERHEAD = 8;
+    private static final int DRAINED_OFFSET_POS = 8;
+    private static final String PREFIX = "audit-";
+    private static final String SUFFIX = ".seg";
+
+    final File file;
+    final long sequence;
+    final long createdTS = System.currentTimeMillis();
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+
+    private AuditTrailSegment(File file, long sequence, RandomAccessFile raf, MappedByteBuffer buffer) {
+        this.file = file;
+        this.sequence = sequence;
+        this.raf = raf;
+        this.buffer = buffer;
+    }
+
+    static String fileName(long sequence) {
+        return String.format("%s%020d%s", PREFIX, sequence, SUFFIX);
+    }
+
+    /**
+     * @return the sequence number of the segment file or -1, if the file is not a segment file
+     */
+    static long sequenceOf(File file) {
+        final String name = file.getName();
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX))
+            return -1;
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Creates a new segment file of the specified size for appending records
+     */
+    static AuditTrailSegment create(File directory, long sequence, int size) throws IOException {
+        final File file = new File(directory, fileName(sequence));
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(0);
+            buffer.putLong(HEADER_SIZE);
+            return new AuditTrailSegment(file, sequence, raf, buffer);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing segment file for draining
+     */
+    static AuditTrailSegment open(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+                throw new IOException("Not an audit trail segment: " + file);
+            buffer.position((int) buffer.getLong(DRAINED_OFFSET_POS));
+            return new AuditTrailSegment(file, sequenceOf(file), raf, buffer);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    static int requiredSize(byte[] record) {
+        return HEADER_SIZE + RECORD_OVERHEAD + record.length;
+    }
+
+    boolean isEmpty() {
+        return buffer.position() == HEADER_SIZE;
+    }
+
+    /**
+     * Appends a record, the caller has to {@link #force()} the segment to make it durable.
+     *
+     * @return <code>false</code>, if the record does not fit into the segment
+     */
+    boolean append(byte[] record) {
+        if (buffer.remaining() < RECORD_OVERHEAD + record.length)
+            return false;
+        final CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        buffer.putInt(record.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(record);
+        return true;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Reads up to <code>max</code> records, starting after the last record marked as drained.
+     *
+     * @return the offset following the last record read
+     */
+    int read(List<byte[]> records, int max) {
+        final ByteBuffer buf = buffer.duplicate();
+        int n = 0;
+        while (n < max && buf.remaining() >= RECORD_OVERHEAD) {
+            final int length = buf.getInt();
+            final int checksum = buf.getInt();
+            if (length <= 0 || length > buf.remaining()) {
+                buf.position(buf.limit());
+                break;
+            }
+            final byte[] record = new byte[length];
+            buf.get(record);
+            final CRC32 crc = new CRC32();
+            crc.update(record, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                buf.position(buf.limit());
+                break;
+            }
+            records.add(record);
+            n++;
+        }
+        if (buf.remaining() < RECORD_OVERHEAD) {
+            buf.position(buf.limit());
+        }
+        return buf.position();
+    }
+
+    boolean isDrained() {
+        return buffer.remaining() < RECORD_OVERHEAD || buffer.getInt(buffer.position()) <= 0;
+    }
+
+    /**
+     * Durably marks the records up to the specified offset as drained
+     */
+    void markDrained(int offset) throws IOException {
+        final ByteBuffer b = ByteBuffer.allocate(8);
+        b.putLong(0, offset);
+        raf.getChannel().write(b, DRAINED_OFFSET_POS);
+        raf.getChannel().force(false);
+        buffer.position(offset);
+    }
+
+    void close() throws IOException {
+        try {
+            raf.close();
+        } finally {
+            unmap(buffer);
+        }
+    }
+
+    /**
+     * Releases the mapping immediately instead of waiting for the garbage collector, which may keep the address space
+     * and the file (on Windows) for a long time, if segments are created faster than the buffers are collected.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            try {
+                // Java 9 and later
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                // Java 8
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("Unable to unmap audit trail segment, the mapping is released by the garbage collector", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath();
+    }
+}
@@ -154,6 +154,8 @@ public class BatchInsertIntoAutoTrail {
             return Types.NUMERIC;
         if (type == Timestamp.class || type == Date.class || type == java.sql.Date.class)
             return Types.TIMESTAMP;
+        if (type == byte[].class)
+            return Types.VARBINARY;
         throw new UnsupportedOperationException("no mapping for type " + type);
     }
 
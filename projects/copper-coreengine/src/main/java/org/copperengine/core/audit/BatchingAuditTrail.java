@@ -87,7 +87,10 @@ public class BatchingAuditTrail implements AuditTrail, AuditTrailMXBean {
     private final List<Method> propertyGetters = new ArrayList<Method>();
     // TODO: do not explore the database type, set it as an parameter (isOracle)
     private boolean isOracle;
+    private boolean isPostgreSQL;
     private String sqlStmt;
+    private boolean bulkInsert;
+    private BulkInsertIntoAuditTrail.InsertStatement bulkInsertStmt;
 
     public BatchingAuditTrail() {
         mapping = createDefaultMapping();
@@ -147,15 +150,44 @@ public class BatchingAuditTrail implements AuditTrail, AuditTrailMXBean {
         this.mapping = newMapping;
     }
 
+    /**
+     * If set to <code>true</code>, asynchronously logged events are written using {@link BulkInsertIntoAuditTrail},
+     * i.e. with <code>COPY</code> for PostgreSQL and multi-row inserts for other databases. Not supported for Oracle,
+     * where the default batch insert is used anyway. Must be set before {@link #startup()}.
+     *
+     * @param bulkInsert
+     *        defaults to <code>false</code>
+     */
+    public void setBulkInsert(boolean bulkInsert) {
+        this.bulkInsert = bulkInsert;
+    }
+
+    public boolean isBulkInsert() {
+        return bulkInsert;
+    }
+
     public void startup() throws Exception {
         logger.info("Starting up...");
         final Connection con = dataSource.getConnection();
         try {
-            isOracle = con.getMetaData().getDatabaseProductName().equalsIgnoreCase("oracle");
+            final String databaseProductName = con.getMetaData().getDatabaseProductName();
+            isOracle = databaseProductName.equalsIgnoreCase("oracle");
+            isPostgreSQL = databaseProductName.equalsIgnoreCase("postgresql");
         } finally {
             JdbcUtils.closeConnection(con);
         }
         sqlStmt = createSqlStmt();
+        if (bulkInsert) {
+            if (isOracle) {
+                logger.warn("Bulk insert is not supported for Oracle - using batch insert");
+            } else {
+                final List<String> columnNames = new ArrayList<String>(mapping.size());
+                for (Property2ColumnMapping entry : mapping) {
+                    columnNames.add(entry.getColumnName());
+                }
+                bulkInsertStmt = new BulkInsertIntoAuditTrail.InsertStatement(dbTable, columnNames, propertyGetters, isPostgreSQL);
+            }
+        }
     }
 
     private String createSqlStmt() throws IntrospectionException {
@@ -204,6 +236,10 @@ public class BatchingAuditTrail implements AuditTrail, AuditTrailMXBean {
         return sqlStmt;
     }
 
+    BulkInsertIntoAuditTrail.InsertStatement getBulkInsertStmt() {
+        return bulkInsertStmt;
+    }
+
     @Override
     public int getLevel() {
         return level;
@@ -254,7 +290,11 @@ public class BatchingAuditTrail implements AuditTrail, AuditTrailMXBean {
         if (isEnabled(e.logLevel)) {
             logger.debug("doLog({})", e);
             e.setMessage(messagePostProcessor.serialize(e.message));
-            batcher.submitBatchCommand(createBatchCommand(e, immediate, callback));
+            if (bulkInsertStmt != null && !immediate) {
+                batcher.submitBatchCommand(createBulkInsertCommand(e, callback));
+            } else {
+                batcher.submitBatchCommand(createBatchCommand(e, immediate, callback));
+            }
             return true;
         }
         return false;
@@ -265,6 +305,20 @@ public class BatchingAuditTrail implements AuditTrail, AuditTrailMXBean {
         return new BatchInsertIntoAutoTrail.Command(e, isOracle, sqlStmt, propertyGetters, callback, immediate ? 0 : 250);
     }
 
+    private BulkInsertIntoAuditTrail.Command createBulkInsertCommand(AuditTrailEvent e, final CommandCallback<BatchInsertIntoAutoTrail.Command> callback) {
+        return new BulkInsertIntoAuditTrail.Command(e, bulkInsertStmt, new CommandCallback<BulkInsertIntoAuditTrail.Command>() {
+            @Override
+            public void commandCompleted() {
+                callback.commandCompleted();
+            }
+
+            @Override
+            public void unhandledException(Exception e) {
+                callback.unhandledException(e);
+            }
+        }, 250);
+    }
+
     @Override
     public void asynchLog(final AuditTrailEvent e, final AuditTrailCallback cb) {
         CommandCallback<BatchInsertIntoAutoTrail.Command> callback = new CommandCallback<BatchInsertIntoAutoTrail.Command>() {
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.copperengine.core.batcher.AbstractBatchCommand;
+import org.copperengine.core.batcher.BatchCommand;
+import org.copperengine.core.batcher.BatchExecutor;
+import org.copperengine.core.batcher.CommandCallback;
+import org.copperengine.core.db.utility.JdbcUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Alternative to {@link BatchInsertIntoAutoTrail}, that writes a batch of audit trail events with as few statements
+ * as possible: using <code>COPY ... FROM STDIN</code> for PostgreSQL and multi-row
+ * <code>INSERT ... VALUES (...),(...)</code> statements for other databases. The properties of the events are read
+ * by generated accessors instead of reflection, see {@link PropertyAccessor}.
+ * <p>
+ * Not supported for Oracle, as Oracle neither supports multi-row VALUES clauses nor the sequence based ids used by
+ * {@link BatchInsertIntoAutoTrail}.
+ */
+public class BulkInsertIntoAuditTrail {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkInsertIntoAuditTrail.class);
+
+    /**
+     * maximum number of bind parameters of a multi-row insert statement
+     */
+    static final int MAX_PARAMETERS = 1000;
+
+    /**
+     * Target table, columns and property accessors, shared by all commands of one {@link BatchingAuditTrail}
+     */
+    static final class InsertStatement {
+
+        final List<String> columnNames;
+        final List<PropertyAccessor> accessors;
+        final boolean copy;
+        final String copyStmt;
+        final int rowsPerStmt;
+        private final String insertPrefix;
+        private final String valuesRow;
+
+        InsertStatement(String dbTable, List<String> columnNames, List<Method> propertyGetters, boolean copy) {
+            if (columnNames.size() != propertyGetters.size() || columnNames.isEmpty())
+                throw new IllegalArgumentException();
+            this.columnNames = new ArrayList<String>(columnNames);
+            this.accessors = new ArrayList<PropertyAccessor>(propertyGetters.size());
+            for (Method m : propertyGetters) {
+                accessors.add(new PropertyAccessor(m));
+            }
+            this.copy = copy;
+            final StringBuilder columns = new StringBuilder();
+            final StringBuilder row = new StringBuilder("(");
+            for (int i = 0; i < columnNames.size(); i++) {
+                if (i > 0) {
+                    columns.append(",");
+                    row.append(",");
+                }
+                columns.append(columnNames.get(i));
+                row.append("?");
+            }
+            row.append(")");
+            this.copyStmt = "COPY " + dbTable + " (" + columns + ") FROM STDIN";
+            this.insertPrefix = "INSERT INTO " + dbTable + " (" + columns + ") VALUES ";
+            this.valuesRow = row.toString();
+            this.rowsPerStmt = Math.max(1, MAX_PARAMETERS / columnNames.size());
+        }
+
+        String createInsertStmt(int numbOfRows) {
+            final StringBuilder sql = new StringBuilder(insertPrefix.length() + numbOfRows * (valuesRow.length() + 1));
+            sql.append(insertPrefix);
+            for (int i = 0; i < numbOfRows; i++) {
+                if (i > 0) {
+                    sql.append(",");
+                }
+                sql.append(valuesRow);
+            }
+            return sql.toString();
+        }
+    }
+
+    public static final class Command extends AbstractBatchCommand<Executor, Command> {
+
+        final AuditTrailEvent data;
+        final InsertStatement stmt;
+
+        Command(AuditTrailEvent data, InsertStatement stmt, CommandCallback<Command> callback, int timeout) {
+            super(callback, System.currentTimeMillis() + timeout);
+            if (data == null)
+                throw new NullPointerException();
+            if (stmt == null)
+                throw new NullPointerException();
+            this.data = data;
+            this.stmt = stmt;
+        }
+
+        @Override
+        public Executor executor() {
+            return Executor.INSTANCE;
+        }
+
+    }
+
+    public static final class Executor extends BatchExecutor<Executor, Command> {
+
+        private static final Executor INSTANCE = new Executor();
+
+        @Override
+        public int maximumBatchSize() {
+            return 500;
+        }
+
+        @Override
+        public int preferredBatchSize() {
+            return 50;
+        }
+
+        @Override
+        public void doExec(final Collection<BatchCommand<Executor, Command>> commands, final Connection con) throws Exception {
+            if (commands.isEmpty())
+                return;
+
+            // usually all commands belong to the same audit trail
+            final Map<InsertStatement, List<AuditTrailEvent>> events = new LinkedHashMap<InsertStatement, List<AuditTrailEvent>>(2);
+            for (BatchCommand<Executor, Command> _cmd : commands) {
+                final Command cmd = (Command) _cmd;
+                if (cmd.data.getSequenceId() != null)
+                    throw new UnsupportedOperationException("Custom SequenceId currently not supported for this DBMS");
+                List<AuditTrailEvent> list = events.get(cmd.stmt);
+                if (list == null) {
+                    list = new ArrayList<AuditTrailEvent>(commands.size());
+                    events.put(cmd.stmt, list);
+                }
+                list.add(cmd.data);
+            }
+            for (Map.Entry<InsertStatement, List<AuditTrailEvent>> entry : events.entrySet()) {
+                if (entry.getKey().copy) {
+                    copy(entry.getKey(), entry.getValue(), con);
+                } else {
+                    insert(entry.getKey(), entry.getValue(), con);
+                }
+            }
+        }
+
+    }
+
+    static void insert(final InsertStatement stmt, final List<AuditTrailEvent> events, final Connection con) throws Exception {
+        final int numbOfColumns = stmt.accessors.size();
+        PreparedStatement preparedStmt = null;
+        int preparedRows = 0;
+        try {
+            for (int offset = 0; offset < events.size(); offset += stmt.rowsPerStmt) {
+                final int rows = Math.min(stmt.rowsPerStmt, events.size() - offset);
+                if (rows != preparedRows) {
+                    JdbcUtils.closeStatement(preparedStmt);
+                    preparedStmt = null;
+                    preparedStmt = con.prepareStatement(stmt.createInsertStmt(rows));
+                    preparedRows = rows;
+                }
+                int idx = 1;
+                for (int i = 0; i < rows; i++) {
+                    final AuditTrailEvent data = events.get(offset + i);
+                    for (int c = 0; c < numbOfColumns; c++) {
+                        final PropertyAccessor accessor = stmt.accessors.get(c);
+                        Object value = accessor.get(data);
+                        if (value != null) {
+                            if (value instanceof Date && !(value instanceof Timestamp)) {
+                                value = new Timestamp(((Date) value).getTime());
+                            }
+                            preparedStmt.setObject(idx++, value, accessor.jdbcType);
+                        } else {
+                            preparedStmt.setNull(idx++, accessor.jdbcType);
+                        }
+                    }
+                }
+                preparedStmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            logger.error("Multi-row insert of " + events.size() + " audit trail events failed", e);
+            throw e;
+        } finally {
+            JdbcUtils.closeStatement(preparedStmt);
+        }
+    }
+
+    static void copy(final InsertStatement stmt, final List<AuditTrailEvent> events, final Connection con) throws Exception {
+        final StringBuilder data = new StringBuilder(events.size() * 256);
+        for (AuditTrailEvent event : events) {
+            appendCopyRow(data, stmt, event);
+        }
+        try {
+            PostgreSQLCopy.copyIn(con, stmt.copyStmt, new StringReader(data.toString()));
+        } catch (SQLException e) {
+            logger.error(stmt.copyStmt + " of " + events.size() + " audit trail events failed", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Appends a row in the text format of the PostgreSQL COPY command
+     */
+    static void appendCopyRow(final StringBuilder sb, final InsertStatement stmt, final AuditTrailEvent event) throws Exception {
+        for (int c = 0; c < stmt.accessors.size(); c++) {
+            if (c > 0) {
+                sb.append('\t');
+            }
+            final Object value = stmt.accessors.get(c).get(event);
+            if (value == null) {
+                sb.append("\\N");
+            } else if (value instanceof Timestamp) {
+                sb.append(value.toString());
+            } else if (value instanceof Date) {
+                sb.append(new Timestamp(((Date) value).getTime()).toString());
+            } else if (value instanceof Number) {
+                sb.append(value.toString());
+            } else if (value instanceof byte[]) {
+                appendBytea(sb, (byte[]) value);
+            } else {
+                appendEscaped(sb, value.toString());
+            }
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * Appends bytes in the hex format of bytea, with the backslash escaped for the COPY text format
+     */
+    private static void appendBytea(final StringBuilder sb, final byte[] data) {
+        sb.append("\\\\x");
+        for (byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+    }
+
+    private static void appendEscaped(final StringBuilder sb, final String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Calls the copy API of the PostgreSQL JDBC driver via reflection, so that COPPER does not depend on the driver at
+     * compile time.
+     */
+    static final class PostgreSQLCopy {
+
+        private static volatile Class<?> pgConnectionClass;
+        private static volatile Method getCopyAPI;
+        private static volatile Method copyIn;
+
+        static long copyIn(Connection con, String sql, Reader reader) throws Exception {
+            try {
+                if (copyIn == null) {
+                    init();
+                }
+                final Object copyManager = getCopyAPI.invoke(con.unwrap(pgConnectionClass));
+                return ((Number) copyIn.invoke(copyManager, sql, reader)).longValue();
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof Exception)
+                    throw (Exception) e.getCause();
+                throw e;
+            }
+        }
+
+        private static synchronized void init() throws Exception {
+            if (copyIn != null)
+                return;
+            final Class<?> c = loadClass("org.postgresql.PGConnection");
+            getCopyAPI = c.getMethod("getCopyAPI");
+            pgConnectionClass = c;
+            copyIn = getCopyAPI.getReturnType().getMethod("copyIn", String.class, Reader.class);
+        }
+
+        private static Class<?> loadClass(String name) throws ClassNotFoundException {
+            try {
+                return Class.forName(name);
+            } catch (ClassNotFoundException e) {
+                final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+                if (cl == null)
+                    throw e;
+                return Class.forName(name, true, cl);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.copperengine.core.util.Base64;
+
+/**
+ * {@link MessagePostProcessor} that deflates the UTF-8 bytes of a message using a preset dictionary and encodes
+ * the result in Base64. Compared to {@link CompressedBase64PostProcessor} it does not serialize the message as java
+ * object and reuses the {@link Deflater} and {@link Inflater} instances of the calling thread.
+ * <p>
+ * The dictionary contains byte sequences that are likely to occur in the messages. By default a dictionary with
+ * typical XML, SOAP and JSON fragments, stack traces and COPPER log phrases is used. A dictionary trained on sample
+ * messages of the application, see {@link #createDictionary(Collection, int)}, usually compresses considerably
+ * better. Messages must be read with the dictionary they have been written with.
+ * <p>
+ * Serialized messages start with 'D' for compressed and 'U' for uncompressed content. Messages shorter than the
+ * compress threshold or not getting smaller are stored uncompressed.
+ * <p>
+ * The compressed bytes are also available via {@link #compress(String)}, e.g. to store them in a binary column via
+ * a custom {@link AuditTrailEvent} property, see {@link BatchingAuditTrail#setAdditionalMapping(List)}.
+ */
+public class DeflatePostProcessor implements MessagePostProcessor {
+
+    /**
+     * Class path resource of the default dictionary, relative to this class
+     */
+    public static final String DEFAULT_DICTIONARY_RESOURCE = "audit-message-dictionary.txt";
+
+    /**
+     * maximum dictionary size used by deflate, i.e. the size of its window
+     */
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final char COMPRESSED = 'D';
+    private static final char UNCOMPRESSED = 'U';
+    private static final int HEADER_SIZE = 4;
+
+    private static final class Dictionary {
+        final byte[] bytes;
+        final int id;
+
+        Dictionary(byte[] bytes) {
+            final Adler32 adler = new Adler32();
+            adler.update(bytes, 0, bytes.length);
+            this.bytes = bytes;
+            this.id = (int) adler.getValue();
+        }
+    }
+
+    private volatile int compressionLevel = Deflater.BEST_SPEED;
+    private volatile int compressThresholdSize = 64;
+    private volatile Dictionary dictionary;
+
+    private final ThreadLocal<Deflater> deflaterTL = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(compressionLevel, true);
+        }
+    };
+
+    private final ThreadLocal<Inflater> inflaterTL = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private final ThreadLocal<byte[]> bufferTL = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[4 * 1024];
+        }
+    };
+
+    public DeflatePostProcessor() {
+        try {
+            setDictionary(loadDictionary(DEFAULT_DICTIONARY_RESOURCE));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to load default dictionary", e);
+        }
+    }
+
+    /**
+     * @param compressionLevel
+     *        see {@link Deflater}, defaults to {@link Deflater#BEST_SPEED}
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("invalid compression level " + compressionLevel);
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Messages with less characters are stored uncompressed, defaults to 64
+     */
+    public void setCompressThresholdSize(int compressThresholdSize) {
+        if (compressThresholdSize < 0)
+            throw new IllegalArgumentException("compressThresholdSize must be >= 0");
+        this.compressThresholdSize = compressThresholdSize;
+    }
+
+    /**
+     * Sets the preset dictionary, only the last {@value #MAX_DICTIONARY_SIZE} bytes are used.
+     *
+     * @param dictionary
+     *        the dictionary or <code>null</code> to compress without dictionary
+     */
+    public void setDictionary(byte[] dictionary) {
+        if (dictionary != null && dictionary.length > MAX_DICTIONARY_SIZE) {
+            dictionary = Arrays.copyOfRange(dictionary, dictionary.length - MAX_DICTIONARY_SIZE, dictionary.length);
+        }
+        this.dictionary = dictionary == null ? null : new Dictionary(dictionary);
+    }
+
+    /**
+     * Sets the preset dictionary from a class path resource
+     */
+    public void setDictionaryResource(String resource) throws IOException {
+        setDictionary(loadDictionary(resource));
+    }
+
+    public byte[] getDictionary() {
+        final Dictionary dictionary = this.dictionary;
+        return dictionary == null ? null : dictionary.bytes;
+    }
+
+    @Override
+    public String serialize(String msg) {
+        if (msg == null)
+            return null;
+        if (msg.length() >= compressThresholdSize) {
+            final byte[] compressed = compress(msg);
+            // Base64 needs 4 characters per 3 bytes
+            if ((compressed.length + 2) / 3 * 4 < msg.length()) {
+                return COMPRESSED + Base64.encode(compressed);
+            }
+        }
+        return UNCOMPRESSED + msg;
+    }
+
+    @Override
+    public String deserialize(String msg) {
+        if (msg == null || msg.isEmpty())
+            return msg;
+        final char format = msg.charAt(0);
+        if (format == UNCOMPRESSED)
+            return msg.substring(1);
+        if (format == COMPRESSED)
+            return uncompress(Base64.decode(msg.substring(1)));
+        throw new IllegalArgumentException("Unknown message format '" + format + "'");
+    }
+
+    /**
+     * Compresses the UTF-8 bytes of the message. The result starts with the id of the dictionary.
+     */
+    public byte[] compress(String msg) {
+        final byte[] data = msg.getBytes(StandardCharsets.UTF_8);
+        final Dictionary dictionary = this.dictionary;
+        final Deflater deflater = deflaterTL.get();
+        byte[] buffer = bufferTL.get();
+        try {
+            deflater.setLevel(compressionLevel);
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary.bytes);
+            }
+            deflater.setInput(data);
+            deflater.finish();
+            final int id = dictionary == null ? 0 : dictionary.id;
+            buffer[0] = (byte) (id >>> 24);
+            buffer[1] = (byte) (id >>> 16);
+            buffer[2] = (byte) (id >>> 8);
+            buffer[3] = (byte) id;
+            int count = HEADER_SIZE;
+            while (!deflater.finished()) {
+                if (count == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length << 1);
+                    bufferTL.set(buffer);
+                }
+                count += deflater.deflate(buffer, count, buffer.length - count);
+            }
+            return Arrays.copyOf(buffer, count);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    /**
+     * Uncompresses data written by {@link #compress(String)}
+     */
+    public String uncompress(byte[] data) {
+        if (data.length < HEADER_SIZE)
+            throw new IllegalArgumentException("data too short");
+        final int id = ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+        final Dictionary dictionary = this.dictionary;
+        if (id != 0 && (dictionary == null || id != dictionary.id))
+            throw new IllegalStateException("Message has been compressed with an unknown dictionary (id=" + Integer.toHexString(id) + ")");
+        final Inflater inflater = inflaterTL.get();
+        byte[] buffer = bufferTL.get();
+        try {
+            if (id != 0) {
+                inflater.setDictionary(dictionary.bytes);
+            }
+            inflater.setInput(data, HEADER_SIZE, data.length - HEADER_SIZE);
+            int count = 0;
+            while (!inflater.finished()) {
+                if (count == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length << 1);
+                    bufferTL.set(buffer);
+                }
+                final int n = inflater.inflate(buffer, count, buffer.length - count);
+                if (n == 0 && !inflater.finished() && inflater.needsInput())
+                    throw new IllegalArgumentException("truncated deflate data");
+                count += n;
+            }
+            return new String(buffer, 0, count, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    private static byte[] loadDictionary(String resource) throws IOException {
+        final InputStream is = DeflatePostProcessor.class.getResourceAsStream(resource);
+        if (is == null)
+            throw new IOException("Resource " + resource + " not found");
+        try {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream(4 * 1024);
+            final byte[] buffer = new byte[4 * 1024];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                bos.write(buffer, 0, n);
+            }
+            return bos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Creates a dictionary from sample messages. It consists of the fragments occurring in most of the samples,
+     * the most common fragments at the end, where deflate finds them with the shortest distance.
+     *
+     * @param samples
+     *        typical messages
+     * @param maxSize
+     *        maximum size of the dictionary in bytes, at most {@value #MAX_DICTIONARY_SIZE}
+     */
+    public static byte[] createDictionary(Collection<String> samples, int maxSize) {
+        final int fragmentLength = 16;
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (String sample : samples) {
+            final Set<String> fragments = new HashSet<String>();
+            for (int i = 0; i + fragmentLength <= sample.length(); i += fragmentLength / 2) {
+                fragments.add(sample.substring(i, i + fragmentLength));
+            }
+            for (String fragment : fragments) {
+                final Integer count = counts.get(fragment);
+                counts.put(fragment, count == null ? 1 : count + 1);
+            }
+        }
+        final List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2) {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+        final int size = Math.min(maxSize, MAX_DICTIONARY_SIZE);
+        final List<byte[]> selected = new ArrayList<byte[]>();
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : entries) {
+            final byte[] fragment = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (total + fragment.length > size)
+                break;
+            selected.add(fragment);
+            total += fragment.length;
+        }
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(total);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            bos.write(selected.get(i), 0, selected.get(i).length);
+        }
+        return bos.toByteArray();
+    }
+
+}
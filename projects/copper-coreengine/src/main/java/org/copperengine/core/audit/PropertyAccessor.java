@@ -0,0 +1,82 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a property of an audit trail event. For public getters of public classes, the JVM generates an accessor class
+ * that calls the getter directly, which the JIT compiler is able to inline, instead of calling it via
+ * {@link Method#invoke(Object, Object...)}. Other getters are still called using reflection.
+ */
+final class PropertyAccessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(PropertyAccessor.class);
+
+    final Method getter;
+    final int jdbcType;
+    private final Class<?> declaringClass;
+    private final Function<Object, Object> accessor;
+
+    PropertyAccessor(Method getter) {
+        this.getter = getter;
+        this.jdbcType = BatchInsertIntoAutoTrail.guessJdbcType(getter);
+        this.declaringClass = getter.getDeclaringClass();
+        this.accessor = createAccessor(getter);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> createAccessor(Method getter) {
+        if (!Modifier.isPublic(getter.getModifiers()) || !Modifier.isPublic(getter.getDeclaringClass().getModifiers()))
+            return null;
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            final MethodHandle getterHandle = lookup.unreflect(getter);
+            final CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    getterHandle,
+                    MethodType.methodType(getterHandle.type().wrap().returnType(), getter.getDeclaringClass()));
+            return (Function<Object, Object>) site.getTarget().invoke();
+        } catch (Throwable e) {
+            logger.warn("Unable to create accessor for {}, using reflection", getter, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the property value or <code>null</code>, if the event is not an instance of the class declaring the
+     *         property
+     */
+    Object get(Object event) throws Exception {
+        if (!declaringClass.isInstance(event))
+            return null;
+        if (accessor != null)
+            return accessor.apply(event);
+        return getter.invoke(event, (Object[]) null);
+    }
+
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copperengine.core.Acknowledge;
+import org.copperengine.core.CopperRuntimeException;
+import org.copperengine.management.AuditTrailMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Audit trail that decouples the callers from the database. Events are appended to memory mapped segment files in a
+ * local directory by a writer thread, which forces all events written in one go to disk at once (group commit) before
+ * it acknowledges them. A segment is sealed when it is full or older than <code>maxSegmentAgeMSec</code>. A drainer
+ * thread ships the sealed segments to a target audit trail, usually a {@link BatchingAuditTrail} writing to
+ * <code>COP_AUDIT_TRAIL_EVENT</code>, and deletes them afterwards. If the database is not available, the drainer
+ * retries and the segments pile up on disk without slowing down the callers.
+ * <p>
+ * <code>asynchLog</code> only encodes the event and hands it over to the writer thread, the callback is called once
+ * the event is durably written to the segment file. <code>synchLog</code> waits for this. Segments, which have not
+ * been drained completely, are drained after a restart. Events are delivered at least once: after a crash, the events
+ * of the chunk that was in progress may be written twice.
+ * <p>
+ * Events rejected by the target are retried on their own every <code>drainRetryDelayMSec</code>. After
+ * <code>maxDrainAttempts</code> attempts they are logged and moved to a segment file in the subdirectory
+ * {@value #DEAD_LETTER_DIRECTORY}, so that a permanently rejected event does not block the events behind it. This
+ * applies to an unavailable target as well, i.e. the number of attempts should cover the expected database downtime.
+ */
+public class SegmentedFileAuditTrail implements AuditTrail, AuditTrailMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedFileAuditTrail.class);
+
+    static final String DEAD_LETTER_DIRECTORY = "dead-letter";
+
+    private static final class Entry {
+        final byte[] record;
+        final Acknowledge ack;
+
+        Entry(byte[] record, Acknowledge ack) {
+            this.record = record;
+            this.ack = ack;
+        }
+    }
+
+    private AuditTrail target;
+    private File directory;
+    private int level = 5;
+    private int segmentSize = 16 * 1024 * 1024;
+    private long maxSegmentAgeMSec = 1000;
+    private int queueCapacity = 10000;
+    private int drainChunkSize = 500;
+    private long drainRetryDelayMSec = 5000;
+    private int maxDrainAttempts = 720;
+
+    private BlockingQueue<Entry> queue;
+    private final BlockingQueue<File> sealedSegments = new LinkedBlockingQueue<File>();
+    private final AtomicInteger numbOfPendingSegments = new AtomicInteger();
+    private AuditTrailSegment currentSegment;
+    private long nextSequence;
+    private Thread writer;
+    private Thread drainer;
+    private volatile boolean shutdown;
+
+    /**
+     * Sets the audit trail, that receives the events from the segment files, usually a {@link BatchingAuditTrail}
+     */
+    public void setTarget(AuditTrail target) {
+        this.target = target;
+    }
+
+    /**
+     * Sets the directory of the segment files. It must not be shared with other instances.
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public int getLevel() {
+        return level;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        if (segmentSize <= AuditTrailSegment.HEADER_SIZE)
+            throw new IllegalArgumentException("segmentSize too small");
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Sets the maximum time, that a non empty segment is open for writing, i.e. the delay until an event becomes
+     * eligible for draining into the database.
+     */
+    public void setMaxSegmentAgeMSec(long maxSegmentAgeMSec) {
+        if (maxSegmentAgeMSec <= 0)
+            throw new IllegalArgumentException("maxSegmentAgeMSec must be > 0");
+        this.maxSegmentAgeMSec = maxSegmentAgeMSec;
+    }
+
+    /**
+     * Sets the maximum number of events waiting for the writer thread, before the callers are blocked
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException("queueCapacity must be > 0");
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets the maximum number of events handed over to the target at once. The drained position in the segment is
+     * updated after each chunk.
+     */
+    public void setDrainChunkSize(int drainChunkSize) {
+        if (drainChunkSize <= 0)
+            throw new IllegalArgumentException("drainChunkSize must be > 0");
+        this.drainChunkSize = drainChunkSize;
+    }
+
+    public void setDrainRetryDelayMSec(long drainRetryDelayMSec) {
+        if (drainRetryDelayMSec < 0)
+            throw new IllegalArgumentException("drainRetryDelayMSec must be >= 0");
+        this.drainRetryDelayMSec = drainRetryDelayMSec;
+    }
+
+    /**
+     * Sets the number of attempts to hand over an event to the target, before it is moved to the dead letter
+     * directory. The default is 720, i.e. one hour with the default retry delay. 0 means no limit.
+     */
+    public void setMaxDrainAttempts(int maxDrainAttempts) {
+        if (maxDrainAttempts < 0)
+            throw new IllegalArgumentException("maxDrainAttempts must be >= 0");
+        this.maxDrainAttempts = maxDrainAttempts;
+    }
+
+    /**
+     * @return the number of sealed segments not yet drained completely
+     */
+    public int getNumberOfPendingSegments() {
+        return numbOfPendingSegments.get();
+    }
+
+    public synchronized void startup() throws IOException {
+        if (writer != null)
+            throw new IllegalStateException("already started");
+        if (target == null)
+            throw new NullPointerException("target is null");
+        if (directory == null)
+            throw new NullPointerException("directory is null");
+        logger.info("Starting up...");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create directory " + directory);
+
+        final File[] files = directory.listFiles();
+        if (files == null)
+            throw new IOException("Unable to list directory " + directory);
+        Arrays.sort(files);
+        sealedSegments.clear();
+        numbOfPendingSegments.set(0);
+        for (File f : files) {
+            final long sequence = AuditTrailSegment.sequenceOf(f);
+            if (sequence >= 0) {
+                logger.info("Found undrained segment {}", f);
+                sealedSegments.add(f);
+                numbOfPendingSegments.incrementAndGet();
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            }
+        }
+        queue = new LinkedBlockingQueue<Entry>(queueCapacity);
+        shutdown = false;
+
+        writer = new Thread("AuditTrailSegmentWriter") {
+            @Override
+            public void run() {
+                write();
+            }
+        };
+        drainer = new Thread("AuditTrailSegmentDrainer") {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+        writer.start();
+        drainer.start();
+    }
+
+    /**
+     * Writes the pending events and stops the writer and the drainer thread. The remaining segments are drained after
+     * the next startup.
+     */
+    public synchronized void shutdown() {
+        if (writer == null)
+            return;
+        logger.info("Shutting down...");
+        shutdown = true;
+        try {
+            writer.join();
+            drainer.interrupt();
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+        drainer = null;
+    }
+
+    @Override
+    public boolean isEnabled(int level) {
+        return this.level >= level;
+    }
+
+    @Override
+    public void synchLog(int logLevel, Date occurrence, String conversationId, String context, String instanceId, String correlationId, String transactionId, String message, String messageType) {
+        synchLog(new AuditTrailEvent(logLevel, occurrence, conversationId, context, instanceId, correlationId, transactionId, message, messageType, null));
+    }
+
+    @Override
+    public void asynchLog(int logLevel, Date occurrence, String conversationId, String context, String instanceId, String correlationId, String transactionId, String message, String messageType) {
+        asynchLog(new AuditTrailEvent(logLevel, occurrence, conversationId, context, instanceId, correlationId, transactionId, message, messageType, null));
+    }
+
+    @Override
+    public void asynchLog(int logLevel, Date occurrence, String conversationId, String context, String instanceId, String correlationId, String transactionId, String message, String messageType, AuditTrailCallback cb) {
+        asynchLog(new AuditTrailEvent(logLevel, occurrence, conversationId, context, instanceId, correlationId, transactionId, message, messageType, null), cb);
+    }
+
+    @Override
+    public void asynchLog(AuditTrailEvent e) {
+        doLog(e, new Acknowledge.BestEffortAcknowledge());
+    }
+
+    @Override
+    public void asynchLog(AuditTrailEvent e, final AuditTrailCallback cb) {
+        doLog(e, new Acknowledge() {
+            @Override
+            public void onSuccess() {
+                cb.done();
+            }
+
+            @Override
+            public void onException(Throwable t) {
+                cb.error(t instanceof Exception ? (Exception) t : new CopperRuntimeException(t));
+            }
+        });
+    }
+
+    @Override
+    public void synchLog(AuditTrailEvent e) {
+        final Acknowledge.DefaultAcknowledge ack = new Acknowledge.DefaultAcknowledge();
+        if (doLog(e, ack)) {
+            ack.waitForAcknowledge();
+        }
+    }
+
+    private boolean doLog(AuditTrailEvent e, Acknowledge ack) {
+        if (!isEnabled(e.logLevel))
+            return false;
+        if (shutdown || queue == null)
+            throw new IllegalStateException("audit trail is not running");
+        logger.debug("doLog({})", e);
+        final byte[] record;
+        try {
+            record = AuditTrailEventCodec.encode(e);
+        } catch (IOException ex) {
+            throw new CopperRuntimeException("Unable to encode audit trail event", ex);
+        }
+        try {
+            queue.put(new Entry(record, ack));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CopperRuntimeException(ex);
+        }
+        return true;
+    }
+
+    private void write() {
+        final List<Entry> group = new ArrayList<Entry>();
+        while (!shutdown || !queue.isEmpty()) {
+            try {
+                final Entry first = queue.poll(Math.min(100, maxSegmentAgeMSec), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    group.add(first);
+                    queue.drainTo(group);
+                    writeGroup(group);
+                    group.clear();
+                }
+                if (currentSegment != null && !currentSegment.isEmpty() && System.currentTimeMillis() - currentSegment.createdTS >= maxSegmentAgeMSec) {
+                    sealCurrentSegment();
+                }
+            } catch (InterruptedException e) {
+                // ignore, the thread is stopped by the shutdown flag
+            } catch (Exception e) {
+                logger.error("writing audit trail segment failed", e);
+            }
+        }
+        if (currentSegment != null) {
+            sealCurrentSegment();
+        }
+        queue.drainTo(group);
+        for (Entry entry : group) {
+            entry.ack.onException(new IllegalStateException("audit trail is not running"));
+        }
+        logger.info("Writer stopped");
+    }
+
+    private void writeGroup(final List<Entry> group) {
+        try {
+            for (Entry entry : group) {
+                if (currentSegment == null || !currentSegment.append(entry.record)) {
+                    if (currentSegment != null) {
+                        sealCurrentSegment();
+                    }
+                    currentSegment = AuditTrailSegment.create(directory, nextSequence++, Math.max(segmentSize, AuditTrailSegment.requiredSize(entry.record)));
+                    currentSegment.append(entry.record);
+                }
+            }
+            currentSegment.force();
+        } catch (Exception e) {
+            logger.error("writing " + group.size() + " audit trail events failed", e);
+            if (currentSegment != null) {
+                sealCurrentSegment();
+            }
+            for (Entry entry : group) {
+                entry.ack.onException(e);
+            }
+            return;
+        }
+        for (Entry entry : group) {
+            try {
+                entry.ack.onSuccess();
+            } catch (Exception e) {
+                logger.error("callback failed", e);
+            }
+        }
+    }
+
+    private void sealCurrentSegment() {
+        final AuditTrailSegment segment = currentSegment;
+        currentSegment = null;
+        final boolean empty = segment.isEmpty();
+        try {
+            segment.force();
+            segment.close();
+        } catch (Exception e) {
+            logger.error("closing audit trail segment " + segment + " failed", e);
+        }
+        if (empty) {
+            if (!segment.file.delete()) {
+                logger.warn("Unable to delete empty segment {}", segment);
+            }
+            return;
+        }
+        logger.debug("Sealed segment {}", segment);
+        numbOfPendingSegments.incrementAndGet();
+        sealedSegments.add(segment.file);
+    }
+
+    private void drain() {
+        while (!shutdown) {
+            File file = null;
+            try {
+                file = sealedSegments.take();
+                if (drain(file)) {
+                    numbOfPendingSegments.decrementAndGet();
+                    logger.debug("Drained segment {}", file);
+                    if (!file.delete()) {
+                        logger.error("Unable to delete drained segment {}", file);
+                    }
+                } else {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                // ignore, the thread is stopped by the shutdown flag
+            } catch (Exception e) {
+                if (file.exists()) {
+                    // retry later, the other segments are drained meanwhile
+                    logger.error("draining audit trail segment " + file + " failed, retrying in " + drainRetryDelayMSec + " msec", e);
+                    sealedSegments.add(file);
+                    try {
+                        Thread.sleep(drainRetryDelayMSec);
+                    } catch (InterruptedException ignore) {
+                        // the thread is stopped by the shutdown flag
+                    }
+                } else {
+                    logger.error("audit trail segment " + file + " no longer exists", e);
+                    numbOfPendingSegments.decrementAndGet();
+                }
+            }
+        }
+        logger.info("Drainer stopped");
+    }
+
+    /**
+     * @return <code>true</code>, if the segment has been drained completely
+     */
+    private boolean drain(File file) throws IOException, InterruptedException {
+        final AuditTrailSegment segment = AuditTrailSegment.open(file);
+        try {
+            final List<byte[]> records = new ArrayList<byte[]>(drainChunkSize);
+            while (!segment.isDrained()) {
+                records.clear();
+                final int offset = segment.read(records, drainChunkSize);
+                // retry the rejected events only
+                List<byte[]> pending = records;
+                for (int attempt = 1;; attempt++) {
+                    pending = ship(pending);
+                    if (pending == null)
+                        return false;
+                    if (pending.isEmpty())
+                        break;
+                    if (maxDrainAttempts > 0 && attempt >= maxDrainAttempts) {
+                        deadLetter(pending, attempt);
+                        break;
+                    }
+                    if (shutdown)
+                        return false;
+                    Thread.sleep(drainRetryDelayMSec);
+                }
+                segment.markDrained(offset);
+            }
+            return true;
+        } finally {
+            segment.close();
+        }
+    }
+
+    /**
+     * @return the records of the events rejected by the target or <code>null</code>, if interrupted by a shutdown
+     */
+    private List<byte[]> ship(List<byte[]> records) throws InterruptedException {
+        final List<byte[]> shippedRecords = new ArrayList<byte[]>(records.size());
+        final List<AuditTrailEvent> events = new ArrayList<AuditTrailEvent>(records.size());
+        for (byte[] record : records) {
+            try {
+                final AuditTrailEvent e = AuditTrailEventCodec.decode(record);
+                if (target.isEnabled(e.logLevel)) {
+                    shippedRecords.add(record);
+                    events.add(e);
+                }
+            } catch (Exception e) {
+                logger.error("Unable to decode audit trail event - skipping it", e);
+            }
+        }
+        final CountDownLatch latch = new CountDownLatch(events.size());
+        final List<byte[]> failedRecords = Collections.synchronizedList(new ArrayList<byte[]>());
+        for (int i = 0; i < events.size(); i++) {
+            final byte[] record = shippedRecords.get(i);
+            target.asynchLog(events.get(i), new AuditTrailCallback() {
+                @Override
+                public void done() {
+                    latch.countDown();
+                }
+
+                @Override
+                public void error(Exception e) {
+                    if (failedRecords.isEmpty()) {
+                        logger.warn("Draining audit trail events failed", e);
+                    }
+                    failedRecords.add(record);
+                    latch.countDown();
+                }
+            });
+        }
+        while (!latch.await(100, TimeUnit.MILLISECONDS)) {
+            if (shutdown)
+                return null;
+        }
+        synchronized (failedRecords) {
+            return new ArrayList<byte[]>(failedRecords);
+        }
+    }
+
+    /**
+     * Writes the records to a new segment file in the dead letter directory, from where they can be drained again by
+     * moving the file back to the directory of this audit trail.
+     */
+    private void deadLetter(List<byte[]> records, int attempts) throws IOException {
+        final File deadLetterDirectory = new File(directory, DEAD_LETTER_DIRECTORY);
+        if (!deadLetterDirectory.isDirectory() && !deadLetterDirectory.mkdirs())
+            throw new IOException("Unable to create directory " + deadLetterDirectory);
+        final File[] files = deadLetterDirectory.listFiles();
+        if (files == null)
+            throw new IOException("Unable to list directory " + deadLetterDirectory);
+        long sequence = 0;
+        for (File f : files) {
+            sequence = Math.max(sequence, AuditTrailSegment.sequenceOf(f) + 1);
+        }
+        int size = AuditTrailSegment.HEADER_SIZE;
+        for (byte[] record : records) {
+            size += AuditTrailSegment.RECORD_OVERHEAD + record.length;
+        }
+        final AuditTrailSegment segment = AuditTrailSegment.create(deadLetterDirectory, sequence, size);
+        try {
+            for (byte[] record : records) {
+                segment.append(record);
+            }
+            segment.force();
+        } finally {
+            segment.close();
+        }
+        for (byte[] record : records) {
+            try {
+                logger.error("Moved audit trail event {} to {} after {} failed attempts", AuditTrailEventCodec.decode(record), segment.file, attempts);
+            } catch (ClassNotFoundException e) {
+                logger.error("Moved audit trail event to {} after {} failed attempts", segment.file, attempts);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.batcher;
+
+import java.util.Arrays;
+
+/**
+ * {@link BatchCutPolicy} that keeps the commit latency of a batch executor below a target.
+ * <p>
+ * The latency of a command is the time it waits for its batch plus the execution time of the batch. The policy
+ * computes the 99th percentile of the execution times of the last {@value #NUMB_OF_SAMPLES} batches and limits the
+ * wait time to the remaining part of the target latency. The preferred batch size starts with the preferred batch
+ * size of the executor and is adjusted between 1 and its maximum batch size: it is decreased by a quarter if the
+ * execution time percentile exceeds half of the target latency, and increased by an eighth if the execution time
+ * percentile is below a quarter of the target latency and more commands are queued than fit into one batch.
+ * <p>
+ * The byte limits are only effective for commands implementing {@link SizedBatchCommand}, e.g. the register callback
+ * commands of the persistent engine, or if {@link #sizeOf(BatchCommand)} is overridden to estimate the size of the
+ * commands.
+ */
+public class AdaptiveBatchCutPolicy implements BatchCutPolicy {
+
+    /**
+     * Creates an {@link AdaptiveBatchCutPolicy} with the same configuration for each executor
+     */
+    public static class Factory implements BatchCutPolicy.Factory {
+
+        private long targetLatencyMSec = 500;
+        private long preferredBatchBytes = Long.MAX_VALUE;
+        private long maximumBatchBytes = Long.MAX_VALUE;
+
+        public void setTargetLatencyMSec(long targetLatencyMSec) {
+            if (targetLatencyMSec <= 0)
+                throw new IllegalArgumentException("targetLatencyMSec must be > 0");
+            this.targetLatencyMSec = targetLatencyMSec;
+        }
+
+        public void setPreferredBatchBytes(long preferredBatchBytes) {
+            if (preferredBatchBytes <= 0)
+                throw new IllegalArgumentException("preferredBatchBytes must be > 0");
+            this.preferredBatchBytes = preferredBatchBytes;
+        }
+
+        public void setMaximumBatchBytes(long maximumBatchBytes) {
+            if (maximumBatchBytes <= 0)
+                throw new IllegalArgumentException("maximumBatchBytes must be > 0");
+            this.maximumBatchBytes = maximumBatchBytes;
+        }
+
+        @Override
+        public BatchCutPolicy create(BatchExecutorBase<?, ?> executor) {
+            return new AdaptiveBatchCutPolicy(executor, targetLatencyMSec, preferredBatchBytes, maximumBatchBytes);
+        }
+    }
+
+    static final int NUMB_OF_SAMPLES = 128;
+
+    private final int maximumBatchSize;
+    private final long targetLatencyMSec;
+    private final long preferredBatchBytes;
+    private final long maximumBatchBytes;
+    private final long[] execTimes = new long[NUMB_OF_SAMPLES];
+    private int numbOfSamples;
+    private int nextSample;
+    private volatile int preferredBatchSize;
+    private volatile long maxWaitMSec;
+    private volatile long execTimePercentile;
+
+    public AdaptiveBatchCutPolicy(BatchExecutorBase<?, ?> executor, long targetLatencyMSec, long preferredBatchBytes, long maximumBatchBytes) {
+        if (targetLatencyMSec <= 0)
+            throw new IllegalArgumentException("targetLatencyMSec must be > 0");
+        this.maximumBatchSize = executor.maximumBatchSize();
+        this.targetLatencyMSec = targetLatencyMSec;
+        this.preferredBatchBytes = preferredBatchBytes;
+        this.maximumBatchBytes = maximumBatchBytes;
+        this.preferredBatchSize = Math.max(1, Math.min(executor.preferredBatchSize(), maximumBatchSize));
+        this.maxWaitMSec = targetLatencyMSec;
+    }
+
+    /**
+     * Returns the estimated size of a {@link SizedBatchCommand} and 0 for other commands.
+     */
+    @Override
+    public int sizeOf(BatchCommand<?, ?> cmd) {
+        return cmd instanceof SizedBatchCommand ? ((SizedBatchCommand) cmd).getEstimatedSize() : 0;
+    }
+
+    @Override
+    public int preferredBatchSize() {
+        return preferredBatchSize;
+    }
+
+    @Override
+    public long preferredBatchBytes() {
+        return preferredBatchBytes;
+    }
+
+    @Override
+    public long maximumBatchBytes() {
+        return maximumBatchBytes;
+    }
+
+    @Override
+    public long maxWaitMSec() {
+        return maxWaitMSec;
+    }
+
+    /**
+     * @return the 99th percentile of the recent execution times
+     */
+    public long getExecTimePercentile() {
+        return execTimePercentile;
+    }
+
+    @Override
+    public synchronized void batchExecuted(int numbOfCommands, long execMSec, int queueDepth) {
+        execTimes[nextSample] = execMSec;
+        nextSample = (nextSample + 1) % NUMB_OF_SAMPLES;
+        if (numbOfSamples < NUMB_OF_SAMPLES) {
+            numbOfSamples++;
+        }
+        final long[] samples = Arrays.copyOf(execTimes, numbOfSamples);
+        Arrays.sort(samples);
+        final long p99 = samples[(numbOfSamples * 99 - 1) / 100];
+        execTimePercentile = p99;
+        maxWaitMSec = Math.max(0L, targetLatencyMSec - p99);
+
+        final int current = preferredBatchSize;
+        if (p99 > targetLatencyMSec / 2) {
+            preferredBatchSize = Math.max(1, current - Math.max(1, current / 4));
+        } else if (p99 < targetLatencyMSec / 4 && queueDepth > current) {
+            preferredBatchSize = Math.min(maximumBatchSize, current + Math.max(1, current / 8));
+        }
+    }
+
+}
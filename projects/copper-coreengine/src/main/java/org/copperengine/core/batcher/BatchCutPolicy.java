@@ -0,0 +1,82 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.batcher;
+
+/**
+ * Decides when the batcher cuts the batch of an executor. Without a policy, a batch is due when the preferred batch
+ * size of its executor or the earliest target time of its commands is reached. A policy may additionally consider
+ * the accumulated size of the commands in bytes and limit the time a command waits for its batch, and it may change
+ * these values at runtime based on the observed execution times.
+ * <p>
+ * There is one instance per batch executor, created by a {@link Factory}. The getters are called by the threads
+ * submitting commands and by the batcher threads concurrently, so they should be cheap and must be thread safe.
+ */
+public interface BatchCutPolicy {
+
+    /**
+     * Creates the policies of the batch executors, see
+     * {@link org.copperengine.core.batcher.impl.BatcherImpl#setBatchCutPolicyFactory(Factory)}
+     */
+    public interface Factory {
+
+        /**
+         * @return the policy for the given executor or <code>null</code>, if the fixed batch sizes of the executor
+         *         shall be used
+         */
+        BatchCutPolicy create(BatchExecutorBase<?, ?> executor);
+
+    }
+
+    /**
+     * @return the estimated size of the command in bytes or 0, if unknown
+     */
+    int sizeOf(BatchCommand<?, ?> cmd);
+
+    /**
+     * @return the number of commands, at which the batch is due. Values above the maximum batch size of the executor
+     *         are ignored.
+     */
+    int preferredBatchSize();
+
+    /**
+     * @return the accumulated size of the commands in bytes, at which the batch is due
+     */
+    long preferredBatchBytes();
+
+    /**
+     * @return the maximum size of a batch in bytes. A batch always contains at least one command.
+     */
+    long maximumBatchBytes();
+
+    /**
+     * @return the maximum time in milliseconds a command waits for its batch. The batch is still due earlier, if the
+     *         target time of the command is reached.
+     */
+    long maxWaitMSec();
+
+    /**
+     * Called by the batcher after a batch of the executor was executed.
+     *
+     * @param numbOfCommands
+     *        the size of the batch
+     * @param execMSec
+     *        the execution time of the batch including the commit
+     * @param queueDepth
+     *        the number of commands of the executor waiting in the batcher queue
+     */
+    void batchExecuted(int numbOfCommands, long execMSec, int queueDepth);
+
+}
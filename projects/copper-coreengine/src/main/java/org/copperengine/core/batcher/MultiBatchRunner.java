@@ -0,0 +1,32 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.batcher;
+
+import java.util.List;
+
+/**
+ * A {@link BatchRunner} that is able to execute the batches of several executors together, e.g. within one database
+ * transaction.
+ */
+public interface MultiBatchRunner<E extends BatchExecutorBase<E, T>, T extends BatchCommand<E, T>> extends BatchRunner<E, T> {
+
+    /**
+     * Executes the batches in the given order. All commands of a batch belong to the same executor, the batches
+     * belong to different executors.
+     */
+    public void runAll(final List<List<BatchCommand<?, ?>>> batches);
+
+}
@@ -15,21 +15,40 @@
  */
 package org.copperengine.core.batcher;
 
+import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
 import org.copperengine.core.db.utility.RetryingTransaction;
+import org.copperengine.core.monitoring.NullRuntimeStatisticsCollector;
+import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class RetryingTxnBatchRunner<E extends BatchExecutorBase<E, T>, T extends BatchCommand<E, T>> implements BatchRunner<E, T> {
+/**
+ * Executes a batch within one transaction. If the batch fails, it is split into two halves and each half is executed
+ * in a transaction of its own, recursively, so that a single failing command costs O(log n) additional transactions
+ * instead of one transaction per command. Batches with at most {@link #setBisectFloor(int) bisectFloor} commands are
+ * no longer split but executed command by command.
+ * <p>
+ * If a statistics collector is set, each split is submitted as measure point <code>&lt;executor id&gt;.split</code>,
+ * with the size and the execution time of the failed batch, and each command that failed on its own as
+ * <code>&lt;executor id&gt;.isolatedFailure</code>.
+ * <p>
+ * {@link #runAll(List)} executes the batches of several executors within one transaction. If that fails, each batch
+ * is executed on its own as described above.
+ */
+public class RetryingTxnBatchRunner<E extends BatchExecutorBase<E, T>, T extends BatchCommand<E, T>> implements MultiBatchRunner<E, T> {
 
     private static final Logger logger = LoggerFactory.getLogger(RetryingTxnBatchRunner.class);
 
     private DataSource dataSource;
+    private int bisectFloor = 1;
+    private RuntimeStatisticsCollector statisticsCollector = new NullRuntimeStatisticsCollector();
 
     public RetryingTxnBatchRunner() {
     }
@@ -43,10 +62,32 @@ public class RetryingTxnBatchRunner<E extends BatchExecutorBase<E, T>, T extends
         this.dataSource = dataSource;
     }
 
+    /**
+     * Sets the size up to which a failed batch is retried command by command instead of being split into halves.
+     * Defaults to 1, i.e. failed batches are split until the failing commands are isolated. Use
+     * {@link Integer#MAX_VALUE} to retry each command of a failed batch separately, like prior versions did.
+     */
+    public void setBisectFloor(int bisectFloor) {
+        if (bisectFloor < 1)
+            throw new IllegalArgumentException("bisectFloor must be at least 1");
+        this.bisectFloor = bisectFloor;
+    }
+
+    public int getBisectFloor() {
+        return bisectFloor;
+    }
+
+    public void setStatisticsCollector(RuntimeStatisticsCollector statisticsCollector) {
+        if (statisticsCollector == null)
+            throw new NullPointerException();
+        this.statisticsCollector = statisticsCollector;
+    }
+
     public void run(final Collection<BatchCommand<E, T>> commands, final BatchExecutorBase<E, T> base) {
         if (commands.isEmpty())
             return;
 
+        final long startTS = System.nanoTime();
         try {
             if (dataSource == null) {
                 base.doExec(commands, null);
@@ -64,15 +105,70 @@ public class RetryingTxnBatchRunner<E extends BatchExecutorBase<E, T>, T extends
             }
         } catch (Exception e) {
             if (commands.size() == 1) {
+                statisticsCollector.submit(base.id() + ".isolatedFailure", 1, System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
                 BatchCommand<?, ?> cmd = commands.iterator().next();
                 cmd.callback().unhandledException(e);
-            } else {
+            } else if (commands.size() <= bisectFloor) {
                 logger.warn("batch execution failed - trying execution of separate commands ", e);
                 for (BatchCommand<E, T> cmd : commands) {
                     List<BatchCommand<E, T>> l = new ArrayList<BatchCommand<E, T>>();
                     l.add(cmd);
                     run(l, base);
                 }
+            } else {
+                logger.warn("execution of batch with {} commands failed - splitting it into halves", commands.size(), e);
+                statisticsCollector.submit(base.id() + ".split", commands.size(), System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
+                final List<BatchCommand<E, T>> l = new ArrayList<BatchCommand<E, T>>(commands);
+                final int middle = l.size() / 2;
+                run(new ArrayList<BatchCommand<E, T>>(l.subList(0, middle)), base);
+                run(new ArrayList<BatchCommand<E, T>>(l.subList(middle, l.size())), base);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void runAll(final List<List<BatchCommand<?, ?>>> batches) {
+        if (batches.size() == 1) {
+            final List<BatchCommand<?, ?>> commands = batches.get(0);
+            if (!commands.isEmpty()) {
+                run((Collection) commands, (BatchExecutorBase) commands.get(0).executor());
+            }
+            return;
+        }
+
+        try {
+            if (dataSource == null) {
+                execAll(batches, null);
+            } else {
+                new RetryingTransaction<Void>(dataSource) {
+                    @Override
+                    protected Void execute() throws Exception {
+                        execAll(batches, getConnection());
+                        return null;
+                    }
+                }.run();
+            }
+            for (List<BatchCommand<?, ?>> commands : batches) {
+                for (BatchCommand<?, ?> cmd : commands) {
+                    cmd.callback().commandCompleted();
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("execution of {} batches within one transaction failed - trying execution of separate batches", batches.size(), e);
+            for (List<BatchCommand<?, ?>> commands : batches) {
+                if (!commands.isEmpty()) {
+                    run((Collection) commands, (BatchExecutorBase) commands.get(0).executor());
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static void execAll(List<List<BatchCommand<?, ?>>> batches, Connection con) throws Exception {
+        for (List<BatchCommand<?, ?>> commands : batches) {
+            if (!commands.isEmpty()) {
+                ((BatchExecutorBase) commands.get(0).executor()).doExec((Collection) commands, con);
             }
         }
     }
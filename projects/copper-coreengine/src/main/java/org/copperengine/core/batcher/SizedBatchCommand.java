@@ -0,0 +1,30 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.batcher;
+
+/**
+ * Implemented by batch commands that know the approximate number of bytes they write, so that a
+ * {@link BatchCutPolicy} can limit the accumulated size of a batch, see {@link AdaptiveBatchCutPolicy#sizeOf(BatchCommand)}.
+ */
+public interface SizedBatchCommand {
+
+    /**
+     * @return the estimated size of the data written by this command in bytes or 0, if unknown. Called by the
+     *         threads submitting commands and by the batcher threads, so it has to be cheap.
+     */
+    int getEstimatedSize();
+
+}
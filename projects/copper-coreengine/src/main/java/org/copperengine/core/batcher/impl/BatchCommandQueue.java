@@ -0,0 +1,72 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.batcher.impl;
+
+import java.util.List;
+
+import org.copperengine.core.batcher.BatchCommand;
+import org.copperengine.core.batcher.BatchCutPolicy;
+import org.copperengine.core.batcher.BatchExecutorBase;
+import org.copperengine.core.batcher.impl.BatcherQueue.State;
+
+/**
+ * Queue of the {@link BatcherImpl}, collecting the submitted commands per executor until their batch is due.
+ */
+interface BatchCommandQueue {
+
+    void submitBatchCommand(BatchCommand<?, ?> cmd);
+
+    /**
+     * Waits until the batch of one executor is due, i.e. its preferred size or the earliest target time of its
+     * commands is reached.
+     *
+     * @return the commands of the batch or <code>null</code>, if the queue is stopped
+     */
+    List<BatchCommand<?, ?>> poll() throws InterruptedException;
+
+    /**
+     * Returns the batch of an executor, that is due now, without waiting.
+     *
+     * @return the commands of the batch or <code>null</code>, if there is no batch due
+     */
+    List<BatchCommand<?, ?>> pollDue();
+
+    /**
+     * Flushes all pending commands and returns, once the queue is empty.
+     */
+    void stop() throws InterruptedException;
+
+    int size();
+
+    /**
+     * @return the number of pending commands of the executor
+     */
+    int size(BatchExecutorBase<?, ?> executor);
+
+    /**
+     * Sets the factory of the {@link BatchCutPolicy} of each executor, must be called before the first command is
+     * submitted.
+     */
+    void setBatchCutPolicyFactory(BatchCutPolicy.Factory batchCutPolicyFactory);
+
+    /**
+     * @return the policy of the executor or <code>null</code>, if it has none
+     */
+    BatchCutPolicy getBatchCutPolicy(BatchExecutorBase<?, ?> executor);
+
+    State getState();
+
+}
@@ -16,14 +16,19 @@
 package org.copperengine.core.batcher.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import org.copperengine.core.batcher.AdaptiveBatchCutPolicy;
 import org.copperengine.core.batcher.BatchCommand;
+import org.copperengine.core.batcher.BatchCutPolicy;
 import org.copperengine.core.batcher.BatchExecutor;
 import org.copperengine.core.batcher.BatchExecutorBase;
 import org.copperengine.core.batcher.BatchRunner;
 import org.copperengine.core.batcher.Batcher;
+import org.copperengine.core.batcher.MultiBatchRunner;
 import org.copperengine.core.batcher.impl.BatcherQueue.State;
 import org.copperengine.core.monitoring.NullRuntimeStatisticsCollector;
 import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
@@ -60,10 +65,17 @@ public class BatcherImpl implements Batcher, BatcherMXBean {
                     if (commands == null) {
                         return;
                     }
+                    final int maxBatches = maxBatchesPerTransaction;
+                    if (maxBatches > 1 && batchRunner instanceof MultiBatchRunner) {
+                        runAll(commands, maxBatches);
+                        continue;
+                    }
                     final BatchExecutorBase e = commands.get(0).executor();
                     final long startTS = System.currentTimeMillis();
                     batchRunner.run(commands, e);
-                    statisticsCollector.submit(e.id(), commands.size(), System.currentTimeMillis() - startTS, TimeUnit.MILLISECONDS);
+                    final long et = System.currentTimeMillis() - startTS;
+                    statisticsCollector.submit(e.id(), commands.size(), et, TimeUnit.MILLISECONDS);
+                    batchExecuted(e, commands.size(), et);
 
                 } catch (InterruptedException e) {
                     logger.warn("Interrupted", e);
@@ -71,13 +83,67 @@ public class BatcherImpl implements Batcher, BatcherMXBean {
             }
         }
 
+        /**
+         * Adds the batches of other executors that are due now and executes them together.
+         */
+        @SuppressWarnings("rawtypes")
+        private void runAll(List<BatchCommand<?, ?>> commands, int maxBatches) {
+            final List<List<BatchCommand<?, ?>>> batches = new ArrayList<List<BatchCommand<?, ?>>>(maxBatches);
+            batches.add(commands);
+            List<BatchCommand<?, ?>> next;
+            while (batches.size() < maxBatches && (next = queue.pollDue()) != null) {
+                batches.add(next);
+            }
+            if (batches.size() > 1) {
+                // a stable order of the executors within the transactions, so that concurrent transactions acquire
+                // their locks in the same order
+                Collections.sort(batches, executorIdComparator);
+            }
+            final long startTS = System.currentTimeMillis();
+            ((MultiBatchRunner) batchRunner).runAll(batches);
+            final long et = System.currentTimeMillis() - startTS;
+            // the statistics get the execution time split by the number of commands, so that the sum over all
+            // executors is the time of the transaction
+            int numbOfCommands = 0;
+            for (List<BatchCommand<?, ?>> batch : batches) {
+                numbOfCommands += batch.size();
+            }
+            long remainingTime = et;
+            int remainingCommands = numbOfCommands;
+            for (List<BatchCommand<?, ?>> batch : batches) {
+                final long share = remainingTime * batch.size() / remainingCommands;
+                remainingTime -= share;
+                remainingCommands -= batch.size();
+                statisticsCollector.submit(batch.get(0).executor().id(), batch.size(), share, TimeUnit.MILLISECONDS);
+                batchExecuted(batch.get(0).executor(), batch.size(), et);
+            }
+        }
+
+        private void batchExecuted(BatchExecutorBase<?, ?> executor, int numbOfCommands, long et) {
+            if (batchCutPolicyFactory == null)
+                return;
+            final BatchCutPolicy policy = queue.getBatchCutPolicy(executor);
+            if (policy != null) {
+                policy.batchExecuted(numbOfCommands, et, queue.size(executor));
+            }
+        }
+
         public synchronized void waitForStartup() throws InterruptedException {
             while (!started)
                 wait();
         }
     }
 
-    BatcherQueue queue = new BatcherQueue();
+    private static final Comparator<List<BatchCommand<?, ?>>> executorIdComparator = new Comparator<List<BatchCommand<?, ?>>>() {
+        @Override
+        public int compare(List<BatchCommand<?, ?>> o1, List<BatchCommand<?, ?>> o2) {
+            return o1.get(0).executor().id().compareTo(o2.get(0).executor().id());
+        }
+    };
+
+    BatchCommandQueue queue = new BatcherQueue();
+    private volatile int maxBatchesPerTransaction = 1;
+    private BatchCutPolicy.Factory batchCutPolicyFactory;
     private RuntimeStatisticsCollector statisticsCollector = new NullRuntimeStatisticsCollector();
     private List<WorkerThread> threads = new ArrayList<WorkerThread>();
     private int numThreads;
@@ -93,6 +159,53 @@ public class BatcherImpl implements Batcher, BatcherMXBean {
         this.batchRunner = batchRunner;
     }
 
+    /**
+     * Replaces the default queue by a lock-free queue with one lane per batch executor, see
+     * {@link LaneBatcherQueue}. Use it if many threads submit batch commands concurrently, so that the lock of the
+     * default queue becomes a bottleneck. Must be called before {@link #startup()}.
+     */
+    public synchronized void setLockFreeQueue(boolean lockFreeQueue) {
+        if (!threads.isEmpty())
+            throw new IllegalStateException("Batcher is already started");
+        queue = lockFreeQueue ? new LaneBatcherQueue() : new BatcherQueue();
+        queue.setBatchCutPolicyFactory(batchCutPolicyFactory);
+    }
+
+    /**
+     * Sets the factory of the {@link BatchCutPolicy} of each executor, e.g. an {@link AdaptiveBatchCutPolicy.Factory}.
+     * Without a policy, a batch is due when the preferred batch size of its executor or the earliest target time of
+     * its commands is reached. Must be called before {@link #startup()}.
+     */
+    public synchronized void setBatchCutPolicyFactory(BatchCutPolicy.Factory batchCutPolicyFactory) {
+        if (!threads.isEmpty())
+            throw new IllegalStateException("Batcher is already started");
+        this.batchCutPolicyFactory = batchCutPolicyFactory;
+        queue.setBatchCutPolicyFactory(batchCutPolicyFactory);
+    }
+
+    public synchronized boolean isLockFreeQueue() {
+        return queue instanceof LaneBatcherQueue;
+    }
+
+    /**
+     * Sets the maximum number of batches, each of a different executor, that a worker thread executes together. With
+     * a value greater than 1, a worker thread adds the batches of other executors that are due at the same time, e.g.
+     * the audit trail and the response registration of a finished workflow, and the batch runner executes them within
+     * one transaction, if it is a {@link MultiBatchRunner}. This reduces the number of commits on the database. The
+     * commands of a batch keep their order, the batches are ordered by executor id.
+     * <p>
+     * Defaults to 1, i.e. one transaction per batch. All executors have to use the data source of the batch runner.
+     */
+    public void setMaxBatchesPerTransaction(int maxBatchesPerTransaction) {
+        if (maxBatchesPerTransaction < 1)
+            throw new IllegalArgumentException("maxBatchesPerTransaction must be at least 1");
+        this.maxBatchesPerTransaction = maxBatchesPerTransaction;
+    }
+
+    public int getMaxBatchesPerTransaction() {
+        return maxBatchesPerTransaction;
+    }
+
     public synchronized int getNumThreads() {
         return numThreads;
     }
@@ -144,7 +257,7 @@ public class BatcherImpl implements Batcher, BatcherMXBean {
     }
 
     public <E extends BatchExecutor<E, T>, T extends BatchCommand<E, T>> void submitBatchCommand(BatchCommand<E, T> cmd) {
-        if (queue.state != State.STARTED)
+        if (queue.getState() != State.STARTED)
             throw new IllegalStateException("Batcher is shutting down");
         queue.submitBatchCommand(cmd);
     }
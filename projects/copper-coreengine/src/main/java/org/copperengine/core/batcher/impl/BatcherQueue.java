@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -27,9 +28,10 @@ import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.copperengine.core.batcher.BatchCommand;
+import org.copperengine.core.batcher.BatchCutPolicy;
 import org.copperengine.core.batcher.BatchExecutorBase;
 
-class BatcherQueue {
+class BatcherQueue implements BatchCommandQueue {
 
     enum State {
         STARTED, STOPPING, STOPPED
@@ -53,36 +55,91 @@ class BatcherQueue {
         int maximumSize;
         BatchCommandArray batch;
         Condition signaller;
+        final BatchCutPolicy policy;
+        long bytes;
+        // with a policy, the due time of each command is computed once at submission
+        final Map<BatchCommand<?, ?>, Long> dueTimes = new IdentityHashMap<BatchCommand<?, ?>, Long>();
 
         BatchInfo(BatchExecutorBase<?, ?> executor) {
+            this(executor, null);
+        }
+
+        BatchInfo(BatchExecutorBase<?, ?> executor, BatchCutPolicy policy) {
             this.preferredSize = executor.preferredBatchSize();
             this.maximumSize = executor.maximumBatchSize();
+            this.policy = policy;
             if (maximumSize < preferredSize)
                 throw new IllegalArgumentException(
                         "Preferred batch size must not exceed maximum batch size");
             this.batch = new BatchCommandArray(executor.prioritize(), initialArraySize());
         }
 
+        int preferredSize() {
+            return policy == null ? preferredSize : Math.min(maximumSize, policy.preferredBatchSize());
+        }
+
+        boolean isDue() {
+            return batch.size() >= preferredSize() || (policy != null && bytes >= policy.preferredBatchBytes());
+        }
+
+        /**
+         * the target time of a command, limited by the maximum wait time of the policy counted from now
+         */
+        long targetTime(BatchCommand<?, ?> cmd) {
+            if (policy == null)
+                return cmd.targetTime();
+            return Math.min(cmd.targetTime(), System.currentTimeMillis() + policy.maxWaitMSec());
+        }
+
         int initialArraySize() {
             return Math.min(preferredSize * 2, maximumSize);
         }
 
         public List<BatchCommand<?, ?>> removeCommands(boolean stopped) {
             int batchSize = batch.size();
-            if (batchSize <= maximumSize) {
+            int n = Math.min(batchSize, maximumSize);
+            long removedBytes = bytes;
+            if (policy != null && batchSize > 0) {
+                // cut the batch at the maximum number of bytes, at least one command
+                final long maximumBytes = policy.maximumBatchBytes();
+                removedBytes = policy.sizeOf(batch.get(0));
+                int i = 1;
+                for (; i < n; i++) {
+                    final int size = policy.sizeOf(batch.get(i));
+                    if (removedBytes + size > maximumBytes)
+                        break;
+                    removedBytes += size;
+                }
+                n = i;
+            }
+            if (n == batchSize) {
                 BatchCommandArray commands = this.batch;
                 minTargetTime = Long.MAX_VALUE;
+                bytes = 0;
+                dueTimes.clear();
                 batch = new BatchCommandArray(commands.sorted, initialArraySize());
                 signaller = null;
                 return commands;
             }
-            BatchCommand<?, ?>[] commands = new BatchCommand<?, ?>[maximumSize];
+            BatchCommand<?, ?>[] commands = new BatchCommand<?, ?>[n];
             batch.removeElementsFromStart(commands);
+            bytes = Math.max(0, bytes - removedBytes);
+            if (policy != null) {
+                for (BatchCommand<?, ?> cmd : commands) {
+                    dueTimes.remove(cmd);
+                }
+            }
             minTargetTime = 0;
-            if (!stopped && batch.size() < preferredSize) {
+            if (!stopped && !isDue()) {
                 minTargetTime = Long.MAX_VALUE;
-                if (batch.size() > 0)
-                    minTargetTime = batch.get(0).targetTime();
+                if (policy == null) {
+                    if (batch.size() > 0)
+                        minTargetTime = batch.get(0).targetTime();
+                } else {
+                    for (Long dueTime : dueTimes.values()) {
+                        minTargetTime = Math.min(minTargetTime, dueTime);
+                    }
+                }
             }
             signaller = null;
             return Arrays.asList(commands);
@@ -98,10 +155,20 @@ class BatcherQueue {
          */
         Long add(BatchCommand<?, ?> cmd) {
             batch.add(cmd);
-            if (this.preferredSize == batch.size() && minTargetTime > 0)
+            if (policy == null) {
+                if (this.preferredSize == batch.size() && minTargetTime > 0)
+                    return (minTargetTime = 0);
+                if (cmd.targetTime() < minTargetTime)
+                    return (minTargetTime = cmd.targetTime());
+                return null;
+            }
+            bytes += policy.sizeOf(cmd);
+            final long targetTime = targetTime(cmd);
+            dueTimes.put(cmd, targetTime);
+            if (minTargetTime > 0 && isDue())
                 return (minTargetTime = 0);
-            if (cmd.targetTime() < minTargetTime)
-                return (minTargetTime = cmd.targetTime());
+            if (targetTime < minTargetTime)
+                return (minTargetTime = targetTime);
             return null;
         }
 
@@ -114,6 +181,7 @@ class BatcherQueue {
     ReentrantLock lock;
     int numThreads;
     State state;
+    BatchCutPolicy.Factory batchCutPolicyFactory;
 
     public BatcherQueue() {
         this.numThreads = 0;
@@ -125,12 +193,13 @@ class BatcherQueue {
         state = State.STARTED;
     }
 
+    @Override
     public void submitBatchCommand(BatchCommand<?, ?> cmd) {
         lock.lock();
         try {
             BatchInfo batchInfo = batchMap.get(cmd.executor());
             if (batchInfo == null) {
-                batchInfo = new BatchInfo(cmd.executor());
+                batchInfo = new BatchInfo(cmd.executor(), batchCutPolicyFactory == null ? null : batchCutPolicyFactory.create(cmd.executor()));
                 batchMap.put(cmd.executor(), batchInfo);
                 batches.add(batchInfo);
             } else {
@@ -149,6 +218,7 @@ class BatcherQueue {
         }
     }
 
+    @Override
     public int size() {
         lock.lock();
         try {
@@ -162,6 +232,17 @@ class BatcherQueue {
         }
     }
 
+    @Override
+    public int size(BatchExecutorBase<?, ?> executor) {
+        lock.lock();
+        try {
+            final BatchInfo batchInfo = batchMap.get(executor);
+            return batchInfo == null ? 0 : batchInfo.batch.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     void enqueueBatch(BatchInfo batchInfo, Long targetTime) {
         if (targetTime != null && targetTime.longValue() == Long.MAX_VALUE)
             targetTime = null;
@@ -214,7 +295,8 @@ class BatcherQueue {
         return i;
     }
 
-    void stop() throws InterruptedException {
+    @Override
+    public void stop() throws InterruptedException {
         while (true) {
             lock.lock();
             try {
@@ -249,6 +331,54 @@ class BatcherQueue {
         }
     }
 
+    @Override
+    public List<BatchCommand<?, ?>> pollDue() {
+        lock.lock();
+        try {
+            for (int queuePosition = 0; queuePosition < batches.size(); queuePosition++) {
+                final BatchInfo batchInfo = batches.get(queuePosition);
+                if (batchInfo.batch.size() == 0 || (state != State.STOPPED && batchInfo.waitDelay() > 0))
+                    continue;
+                final Condition signaller = batchInfo.signaller;
+                final List<BatchCommand<?, ?>> commands = batchInfo.removeCommands(state == State.STOPPING);
+                batches.remove(queuePosition);
+                batches.add(batchInfo);
+                if (signaller != null) {
+                    // the thread waiting for this batch has to wait for another one
+                    freeConditions.add(signaller);
+                    signaller.signal();
+                }
+                enqueueBatch(batchInfo, batchInfo.minTargetTime);
+                return commands;
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setBatchCutPolicyFactory(BatchCutPolicy.Factory batchCutPolicyFactory) {
+        this.batchCutPolicyFactory = batchCutPolicyFactory;
+    }
+
+    @Override
+    public BatchCutPolicy getBatchCutPolicy(BatchExecutorBase<?, ?> executor) {
+        lock.lock();
+        try {
+            final BatchInfo batchInfo = batchMap.get(executor);
+            return batchInfo == null ? null : batchInfo.policy;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public State getState() {
+        return state;
+    }
+
+    @Override
     public List<BatchCommand<?, ?>> poll() throws InterruptedException {
         lock.lockInterruptibly();
         try {
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.batcher.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.copperengine.core.batcher.BatchCommand;
+import org.copperengine.core.batcher.BatchCutPolicy;
+import org.copperengine.core.batcher.BatchExecutorBase;
+import org.copperengine.core.batcher.impl.BatcherQueue.State;
+
+/**
+ * Lock-free alternative to {@link BatcherQueue}. Each executor has its own lane, a {@link ConcurrentLinkedQueue}
+ * with an atomic size and an atomic minimum target time, so submitting threads never block each other.
+ * <p>
+ * A batch is due with the same rules as in {@link BatcherQueue}: as soon as the lane holds the preferred batch size of
+ * its executor or the earliest target time of its commands is reached. Idle worker threads are parked until the
+ * earliest due time of all lanes. A submitter unparks one of them only if its command makes a lane due earlier, i.e.
+ * when it is the first command after a batch was taken or when it completes the preferred batch size, so there is
+ * about one hand-off per batch instead of one lock acquisition per command.
+ * <p>
+ * A lane is drained by one worker at a time, at most the maximum batch size of its executor per batch. For
+ * prioritizing executors the batch is sorted by target time, but unlike {@link BatcherQueue} the commands are taken
+ * in submission order, not the earliest target times of the whole lane first.
+ */
+class LaneBatcherQueue implements BatchCommandQueue {
+
+    /**
+     * A command in a lane together with its due time, which is computed once at submission.
+     */
+    static final class Entry {
+        final BatchCommand<?, ?> cmd;
+        final long dueTime;
+
+        Entry(BatchCommand<?, ?> cmd, long dueTime) {
+            this.cmd = cmd;
+            this.dueTime = dueTime;
+        }
+    }
+
+    static final class Lane {
+        final int preferredSize;
+        final int maximumSize;
+        final boolean prioritize;
+        final ConcurrentLinkedQueue<Entry> commands = new ConcurrentLinkedQueue<Entry>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicLong minTargetTime = new AtomicLong(Long.MAX_VALUE);
+        final AtomicBoolean claimed = new AtomicBoolean(false);
+        final BatchCutPolicy policy;
+        final AtomicLong bytes = new AtomicLong();
+
+        Lane(BatchExecutorBase<?, ?> executor, BatchCutPolicy policy) {
+            this.preferredSize = executor.preferredBatchSize();
+            this.maximumSize = executor.maximumBatchSize();
+            this.prioritize = executor.prioritize();
+            this.policy = policy;
+            if (maximumSize < preferredSize)
+                throw new IllegalArgumentException("Preferred batch size must not exceed maximum batch size");
+        }
+
+        int preferredSize() {
+            return policy == null ? preferredSize : Math.min(maximumSize, policy.preferredBatchSize());
+        }
+
+        boolean isDue(int n) {
+            return n >= preferredSize() || (policy != null && bytes.get() >= policy.preferredBatchBytes());
+        }
+
+        /**
+         * the target time of a command, limited by the maximum wait time of the policy counted from now
+         */
+        long targetTime(BatchCommand<?, ?> cmd) {
+            if (policy == null)
+                return cmd.targetTime();
+            return Math.min(cmd.targetTime(), System.currentTimeMillis() + policy.maxWaitMSec());
+        }
+
+        /**
+         * @return <code>true</code>, if the lane became due earlier by this command
+         */
+        boolean add(BatchCommand<?, ?> cmd) {
+            final Entry entry = new Entry(cmd, targetTime(cmd));
+            if (policy == null) {
+                commands.offer(entry);
+                final int n = size.incrementAndGet();
+                final boolean earlier = lowerMinTargetTime(entry.dueTime);
+                return earlier || n == preferredSize;
+            }
+            final int cmdSize = policy.sizeOf(cmd);
+            commands.offer(entry);
+            final int n = size.incrementAndGet();
+            final long b = bytes.addAndGet(cmdSize);
+            final boolean earlier = lowerMinTargetTime(entry.dueTime);
+            final long preferredBytes = policy.preferredBatchBytes();
+            return earlier || n == preferredSize() || (b >= preferredBytes && b - cmdSize < preferredBytes);
+        }
+
+        /**
+         * @return the time in java milliseconds when the next batch of this lane is due, {@link Long#MAX_VALUE} if the
+         *         lane is empty
+         */
+        long dueTime(boolean flush) {
+            final int n = size.get();
+            if (n <= 0)
+                return Long.MAX_VALUE;
+            if (flush || isDue(n))
+                return 0L;
+            return minTargetTime.get();
+        }
+
+        List<BatchCommand<?, ?>> drain() {
+            minTargetTime.set(Long.MAX_VALUE);
+            final List<BatchCommand<?, ?>> batch = new ArrayList<BatchCommand<?, ?>>(Math.max(1, Math.min(size.get(), maximumSize)));
+            if (policy == null) {
+                Entry entry;
+                while (batch.size() < maximumSize && (entry = commands.poll()) != null) {
+                    batch.add(entry.cmd);
+                }
+            } else {
+                // cut the batch at the maximum number of bytes, at least one command
+                final long maximumBytes = policy.maximumBatchBytes();
+                long drainedBytes = 0;
+                Entry entry;
+                while (batch.size() < maximumSize && (entry = commands.peek()) != null) {
+                    final int cmdSize = policy.sizeOf(entry.cmd);
+                    if (!batch.isEmpty() && drainedBytes + cmdSize > maximumBytes)
+                        break;
+                    commands.poll();
+                    batch.add(entry.cmd);
+                    drainedBytes += cmdSize;
+                }
+                bytes.addAndGet(-drainedBytes);
+            }
+            // the minimum due time of the remaining commands - not needed as long as the lane is due, the next
+            // drain computes it
+            if (!isDue(size.addAndGet(-batch.size()))) {
+                for (Entry e : commands) {
+                    lowerMinTargetTime(e.dueTime);
+                }
+            }
+            if (prioritize) {
+                Collections.sort(batch, BatcherQueue.BatchInfo.comparator);
+            }
+            return batch;
+        }
+
+        private boolean lowerMinTargetTime(long targetTime) {
+            for (;;) {
+                final long current = minTargetTime.get();
+                if (targetTime >= current)
+                    return false;
+                if (minTargetTime.compareAndSet(current, targetTime))
+                    return true;
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<BatchExecutorBase<?, ?>, Lane> laneMap = new ConcurrentHashMap<BatchExecutorBase<?, ?>, Lane>();
+    private final CopyOnWriteArrayList<Lane> lanes = new CopyOnWriteArrayList<Lane>();
+    private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+    private volatile State state = State.STARTED;
+    private volatile BatchCutPolicy.Factory batchCutPolicyFactory;
+
+    @Override
+    public void submitBatchCommand(BatchCommand<?, ?> cmd) {
+        Lane lane = laneMap.get(cmd.executor());
+        if (lane == null) {
+            lane = createLane(cmd.executor());
+        }
+        // no need to signal for each command of a due lane, the worker draining it signals the next one
+        if (lane.add(cmd)) {
+            signal();
+        }
+    }
+
+    private synchronized Lane createLane(BatchExecutorBase<?, ?> executor) {
+        Lane lane = laneMap.get(executor);
+        if (lane == null) {
+            lane = new Lane(executor, batchCutPolicyFactory == null ? null : batchCutPolicyFactory.create(executor));
+            lanes.add(lane);
+            laneMap.put(executor, lane);
+        }
+        return lane;
+    }
+
+    @Override
+    public List<BatchCommand<?, ?>> poll() throws InterruptedException {
+        final Thread currentThread = Thread.currentThread();
+        while (true) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            final State s = state;
+            final boolean flush = s != State.STARTED;
+            final long now = System.currentTimeMillis();
+            long nextDueTime = Long.MAX_VALUE;
+            for (Lane lane : lanes) {
+                final long dueTime = lane.dueTime(flush);
+                if (dueTime > now) {
+                    nextDueTime = Math.min(nextDueTime, dueTime);
+                    continue;
+                }
+                if (!lane.claimed.compareAndSet(false, true)) {
+                    // the worker draining this lane signals another worker, if the lane is still due
+                    continue;
+                }
+                List<BatchCommand<?, ?>> batch;
+                try {
+                    batch = lane.drain();
+                } finally {
+                    lane.claimed.set(false);
+                }
+                if (lane.dueTime(flush) <= now) {
+                    signal();
+                }
+                if (!batch.isEmpty()) {
+                    return batch;
+                }
+            }
+            if (s == State.STOPPED && nextDueTime == Long.MAX_VALUE && size() == 0) {
+                return null;
+            }
+
+            waiters.add(currentThread);
+            try {
+                // check again after registration, a submitter may have missed this thread
+                final long dueTime = nextUnclaimedDueTime(state != State.STARTED);
+                final long waitMSec = Math.min(dueTime, nextDueTime) - System.currentTimeMillis();
+                if (waitMSec > 0 && state != State.STOPPED) {
+                    if (dueTime == Long.MAX_VALUE && nextDueTime == Long.MAX_VALUE) {
+                        LockSupport.park(this);
+                    }
+                    else {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(waitMSec));
+                    }
+                }
+            } finally {
+                waiters.remove(currentThread);
+            }
+        }
+    }
+
+    @Override
+    public List<BatchCommand<?, ?>> pollDue() {
+        final boolean flush = state != State.STARTED;
+        final long now = System.currentTimeMillis();
+        for (Lane lane : lanes) {
+            if (lane.dueTime(flush) > now || !lane.claimed.compareAndSet(false, true))
+                continue;
+            List<BatchCommand<?, ?>> batch;
+            try {
+                batch = lane.drain();
+            } finally {
+                lane.claimed.set(false);
+            }
+            if (lane.dueTime(flush) <= now) {
+                signal();
+            }
+            if (!batch.isEmpty()) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private long nextUnclaimedDueTime(boolean flush) {
+        long nextDueTime = Long.MAX_VALUE;
+        for (Lane lane : lanes) {
+            if (!lane.claimed.get()) {
+                nextDueTime = Math.min(nextDueTime, lane.dueTime(flush));
+            }
+        }
+        return nextDueTime;
+    }
+
+    private void signal() {
+        final Thread t = waiters.poll();
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    private void signalAll() {
+        for (Thread t : waiters) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        state = State.STOPPING;
+        while (true) {
+            signalAll();
+            if (size() == 0) {
+                state = State.STOPPED;
+                signalAll();
+                return;
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Lane lane : lanes) {
+            size += Math.max(0, lane.size.get());
+        }
+        return size;
+    }
+
+    @Override
+    public int size(BatchExecutorBase<?, ?> executor) {
+        final Lane lane = laneMap.get(executor);
+        return lane == null ? 0 : Math.max(0, lane.size.get());
+    }
+
+    @Override
+    public void setBatchCutPolicyFactory(BatchCutPolicy.Factory batchCutPolicyFactory) {
+        this.batchCutPolicyFactory = batchCutPolicyFactory;
+    }
+
+    @Override
+    public BatchCutPolicy getBatchCutPolicy(BatchExecutorBase<?, ?> executor) {
+        final Lane lane = laneMap.get(executor);
+        return lane == null ? null : lane.policy;
+    }
+
+    @Override
+    public State getState() {
+        return state;
+    }
+
+}
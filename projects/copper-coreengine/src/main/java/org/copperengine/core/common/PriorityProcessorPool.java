@@ -79,6 +79,43 @@ public abstract class PriorityProcessorPool implements ProcessorPool, ProcessorP
         return new WfPriorityQueue();
     }
 
+    /**
+     * Creates a new instance of {@link WfMultiLevelQueue}
+     */
+    protected WfMultiLevelQueue createMultiLevelQueue() {
+        return new WfMultiLevelQueue();
+    }
+
+    /**
+     * Replaces the default queue of this processor pool by a {@link WfMultiLevelQueue}, i.e. a lock-free queue, so
+     * that the processor threads and the threads enqueuing workflow instances do not contend on the monitor of the
+     * queue. The processors created by any {@link ProcessorFactory} detect the queue type and wait for new workflow
+     * instances accordingly. Must be called before {@link #startup()}.
+     */
+    public synchronized void setMultiLevelQueue(boolean multiLevelQueue) {
+        if (started)
+            throw new IllegalStateException("processor pool " + id + " is already started");
+        if (multiLevelQueue != isMultiLevelQueue()) {
+            queue.setQueue(multiLevelQueue ? createMultiLevelQueue() : createQueue());
+        }
+    }
+
+    public boolean isMultiLevelQueue() {
+        return queue.getQueue() instanceof WfMultiLevelQueue;
+    }
+
+    /**
+     * Wakes up all processor threads waiting for new workflow instances.
+     */
+    protected void signalAll() {
+        synchronized (queue) {
+            queue.notifyAll();
+        }
+        if (queue.getQueue() instanceof WfMultiLevelQueue) {
+            ((WfMultiLevelQueue) queue.getQueue()).signalAll();
+        }
+    }
+
     /**
      * This processor pool wait up to the specified number of milliseconds until all of its Processors are terminated.
      * A value &le; 0 means, that the processor pool will not wait at all.
@@ -169,9 +206,7 @@ public abstract class PriorityProcessorPool implements ProcessorPool, ProcessorP
         state = ProcessorPoolState.shuttingDown;
 
         shutdown = true;
-        synchronized (queue) {
-            queue.notifyAll();
-        }
+        signalAll();
 
         for (Processor p : workerThreads) {
             p.shutdown();
@@ -223,9 +258,9 @@ public abstract class PriorityProcessorPool implements ProcessorPool, ProcessorP
     public void resume() {
         synchronized (queue) {
             queue.setSuspended(false);
-            queue.notifyAll();
             state = ProcessorPoolState.running;
         }
+        signalAll();
     }
 
     @Override
@@ -20,6 +20,7 @@ import java.util.Queue;
 import org.copperengine.core.ProcessingEngine;
 import org.copperengine.core.Workflow;
 import org.copperengine.core.instrument.Transformed;
+import org.copperengine.core.internal.SuspendableQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,7 +36,7 @@ public abstract class Processor extends Thread {
     protected volatile boolean shutdown = false;
     protected final ProcessingEngine engine;
     protected ProcessingHook processingHook = new MDCProcessingHook();
-    private boolean idle = false; 
+    private volatile boolean idle = false;
 
     public Processor(String name, Queue<Workflow<?>> queue, int prio, final ProcessingEngine engine) {
         super(name);
@@ -59,20 +60,10 @@ public abstract class Processor extends Thread {
     @Override
     public void run() {
         logger.info("started");
+        final WfMultiLevelQueue multiLevelQueue = getMultiLevelQueue();
         while (!shutdown) {
             try {
-                Workflow<?> wf = null;
-                synchronized (queue) {
-                    wf = queue.poll();
-                    if (wf == null) {
-                        logger.trace("queue is empty - waiting");
-                        idle = true;
-                        queue.wait();
-                        idle = false;
-                        logger.trace("waking up again...");
-                        wf = queue.poll();
-                    }
-                }
+                final Workflow<?> wf = multiLevelQueue != null ? poll(multiLevelQueue) : poll();
                 if (!shutdown && wf != null) {
                     if (wf.getClass().getAnnotation(Transformed.class) == null) {
                         throw new RuntimeException(wf.getClass().getName() + " has not been transformed");
@@ -94,6 +85,49 @@ public abstract class Processor extends Thread {
         logger.info("stopped");
     }
 
+    private Workflow<?> poll() throws InterruptedException {
+        synchronized (queue) {
+            Workflow<?> wf = queue.poll();
+            if (wf == null) {
+                logger.trace("queue is empty - waiting");
+                idle = true;
+                queue.wait();
+                idle = false;
+                logger.trace("waking up again...");
+                wf = queue.poll();
+            }
+            return wf;
+        }
+    }
+
+    private Workflow<?> poll(WfMultiLevelQueue multiLevelQueue) throws InterruptedException {
+        Workflow<?> wf = queue.poll();
+        if (wf == null) {
+            logger.trace("queue is empty - waiting");
+            idle = true;
+            try {
+                multiLevelQueue.await(queue);
+            } finally {
+                idle = false;
+            }
+            logger.trace("waking up again...");
+            wf = queue.poll();
+        }
+        return wf;
+    }
+
+    /**
+     * @return the {@link WfMultiLevelQueue} backing the queue of this processor or <code>null</code>, if the queue
+     *         has to be guarded by its monitor
+     */
+    private WfMultiLevelQueue getMultiLevelQueue() {
+        Queue<Workflow<?>> q = queue;
+        if (q instanceof SuspendableQueue) {
+            q = ((SuspendableQueue<Workflow<?>>) q).getQueue();
+        }
+        return q instanceof WfMultiLevelQueue ? (WfMultiLevelQueue) q : null;
+    }
+
     protected void postProcess(Workflow<?> wf) {
         if (processingHook != null) {
             processingHook.postProcess(wf);
@@ -109,8 +143,6 @@ public abstract class Processor extends Thread {
     protected abstract void process(Workflow<?> wf);
     
     public boolean isIdle() {
-        synchronized (queue) {
-            return idle;
-        }
+        return idle;
     }
 }
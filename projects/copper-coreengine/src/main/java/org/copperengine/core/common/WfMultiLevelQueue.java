@@ -0,0 +1,335 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.common;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.copperengine.core.Workflow;
+
+/**
+ * Lock-free priority queue for {@link Workflow} instances, an alternative to {@link WfPriorityQueue} that does not
+ * need to be guarded by a monitor.
+ * <p>
+ * There is one {@link ConcurrentLinkedQueue} per priority level plus a bitmap of the non-empty levels, so that
+ * {@link #poll()} finds the highest priority in constant time. Entries with the same priority are returned in
+ * enqueue order. Priorities are expected to be small numbers - entries with a priority below 0 or above
+ * {@link #MAX_PRIORITY} are kept in ordered overflow buckets, which are slower but preserve the order of
+ * {@link WfPriorityQueue}.
+ * <p>
+ * The {@link #iterator() iterator} is weakly consistent, like the iterator of {@link ConcurrentLinkedQueue}.
+ * <p>
+ * Processor threads wait for new entries using {@link #await(Queue)}, they are parked and unparked by
+ * {@link #offer(Workflow)} instead of waiting on the monitor of the queue.
+ */
+public class WfMultiLevelQueue extends AbstractQueue<Workflow<?>> {
+
+    public static final int MAX_PRIORITY = 63;
+
+    @SuppressWarnings("unchecked")
+    private final ConcurrentLinkedQueue<Workflow<?>>[] levels = new ConcurrentLinkedQueue[MAX_PRIORITY + 1];
+    private final AtomicLong nonEmptyLevels = new AtomicLong();
+    private final AtomicInteger size = new AtomicInteger();
+    private final ConcurrentSkipListMap<Integer, ConcurrentLinkedQueue<Workflow<?>>> overflow = new ConcurrentSkipListMap<Integer, ConcurrentLinkedQueue<Workflow<?>>>();
+    private final AtomicInteger overflowSize = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+
+    public WfMultiLevelQueue() {
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new ConcurrentLinkedQueue<Workflow<?>>();
+        }
+    }
+
+    private static boolean isLevel(int priority) {
+        return priority >= 0 && priority <= MAX_PRIORITY;
+    }
+
+    @Override
+    public boolean offer(Workflow<?> wf) {
+        if (wf == null)
+            throw new NullPointerException();
+        final int priority = wf.getPriority();
+        if (isLevel(priority)) {
+            levels[priority].offer(wf);
+            size.incrementAndGet();
+            setBit(priority);
+        } else {
+            overflowBucket(priority).offer(wf);
+            overflowSize.incrementAndGet();
+            size.incrementAndGet();
+        }
+        signal();
+        return true;
+    }
+
+    private ConcurrentLinkedQueue<Workflow<?>> overflowBucket(int priority) {
+        // buckets are never removed, there is one per distinct priority ever used
+        ConcurrentLinkedQueue<Workflow<?>> bucket = overflow.get(priority);
+        if (bucket == null) {
+            final ConcurrentLinkedQueue<Workflow<?>> newBucket = new ConcurrentLinkedQueue<Workflow<?>>();
+            bucket = overflow.putIfAbsent(priority, newBucket);
+            if (bucket == null)
+                bucket = newBucket;
+        }
+        return bucket;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Workflow<?>> c) {
+        for (Workflow<?> wf : c) {
+            offer(wf);
+        }
+        return !c.isEmpty();
+    }
+
+    @Override
+    public Workflow<?> poll() {
+        Workflow<?> wf = null;
+        if (overflowSize.get() > 0) {
+            wf = pollOverflow(overflow.headMap(0));
+        }
+        if (wf == null) {
+            wf = pollLevels();
+        }
+        if (wf == null && overflowSize.get() > 0) {
+            wf = pollOverflow(overflow.tailMap(MAX_PRIORITY, false));
+        }
+        if (wf != null) {
+            size.decrementAndGet();
+        }
+        return wf;
+    }
+
+    private Workflow<?> pollLevels() {
+        for (;;) {
+            final long bits = nonEmptyLevels.get();
+            if (bits == 0L)
+                return null;
+            final int level = Long.numberOfTrailingZeros(bits);
+            final Workflow<?> wf = levels[level].poll();
+            if (wf != null) {
+                return wf;
+            }
+            // the level is empty - clear its bit and set it again, if an entry was added meanwhile
+            clearBit(level);
+            if (!levels[level].isEmpty()) {
+                setBit(level);
+            }
+        }
+    }
+
+    private Workflow<?> pollOverflow(ConcurrentNavigableMap<Integer, ConcurrentLinkedQueue<Workflow<?>>> buckets) {
+        for (ConcurrentLinkedQueue<Workflow<?>> bucket : buckets.values()) {
+            final Workflow<?> wf = bucket.poll();
+            if (wf != null) {
+                overflowSize.decrementAndGet();
+                return wf;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Workflow<?> peek() {
+        Workflow<?> wf = null;
+        if (overflowSize.get() > 0) {
+            wf = peekOverflow(overflow.headMap(0));
+        }
+        if (wf == null) {
+            wf = peekLevels();
+        }
+        if (wf == null && overflowSize.get() > 0) {
+            wf = peekOverflow(overflow.tailMap(MAX_PRIORITY, false));
+        }
+        return wf;
+    }
+
+    private Workflow<?> peekLevels() {
+        long bits = nonEmptyLevels.get();
+        while (bits != 0L) {
+            final int level = Long.numberOfTrailingZeros(bits);
+            final Workflow<?> wf = levels[level].peek();
+            if (wf != null)
+                return wf;
+            bits &= ~(1L << level);
+        }
+        return null;
+    }
+
+    private static Workflow<?> peekOverflow(ConcurrentNavigableMap<Integer, ConcurrentLinkedQueue<Workflow<?>>> buckets) {
+        for (ConcurrentLinkedQueue<Workflow<?>> bucket : buckets.values()) {
+            final Workflow<?> wf = bucket.peek();
+            if (wf != null)
+                return wf;
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return Math.max(0, size.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Workflow))
+            return false;
+        final int priority = ((Workflow<?>) o).getPriority();
+        final boolean removed;
+        if (isLevel(priority)) {
+            removed = levels[priority].remove(o);
+        } else {
+            final ConcurrentLinkedQueue<Workflow<?>> bucket = overflow.get(priority);
+            removed = bucket != null && bucket.remove(o);
+            if (removed)
+                overflowSize.decrementAndGet();
+        }
+        if (removed)
+            size.decrementAndGet();
+        return removed;
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the entries in the order of {@link #poll()}. It never throws a
+     * {@link java.util.ConcurrentModificationException} and may or may not reflect modifications after its creation.
+     */
+    @Override
+    public Iterator<Workflow<?>> iterator() {
+        final List<Iterator<Workflow<?>>> iterators = new ArrayList<Iterator<Workflow<?>>>();
+        for (ConcurrentLinkedQueue<Workflow<?>> bucket : overflow.headMap(0).values()) {
+            iterators.add(bucket.iterator());
+        }
+        for (ConcurrentLinkedQueue<Workflow<?>> level : levels) {
+            iterators.add(level.iterator());
+        }
+        for (ConcurrentLinkedQueue<Workflow<?>> bucket : overflow.tailMap(MAX_PRIORITY, false).values()) {
+            iterators.add(bucket.iterator());
+        }
+        final Iterator<Iterator<Workflow<?>>> outer = iterators.iterator();
+        return new Iterator<Workflow<?>>() {
+            private Iterator<Workflow<?>> current = Collections.<Workflow<?>> emptyList().iterator();
+            private Workflow<?> lastReturned;
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (!outer.hasNext())
+                        return false;
+                    current = outer.next();
+                }
+                return true;
+            }
+
+            @Override
+            public Workflow<?> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                lastReturned = current.next();
+                return lastReturned;
+            }
+
+            @Override
+            public void remove() {
+                if (lastReturned == null)
+                    throw new IllegalStateException();
+                WfMultiLevelQueue.this.remove(lastReturned);
+                lastReturned = null;
+            }
+        };
+    }
+
+    @Override
+    public void clear() {
+        while (poll() != null) {
+            // drain
+        }
+    }
+
+    /**
+     * Parks the calling thread until an entry is offered or {@link #signalAll()} is called, unless
+     * <code>source.peek()</code> already returns an entry. <code>source</code> is this queue or a view of it, e.g. a
+     * suspendable wrapper that hides the entries while suspended. The caller has to poll again after this method
+     * returned, because another thread may have taken the entry meanwhile.
+     *
+     * @throws InterruptedException
+     *         if the calling thread was interrupted
+     */
+    public void await(Queue<Workflow<?>> source) throws InterruptedException {
+        final Thread t = Thread.currentThread();
+        waiters.add(t);
+        try {
+            if (source.peek() == null) {
+                LockSupport.park(this);
+            }
+        } finally {
+            waiters.remove(t);
+        }
+        if (Thread.interrupted())
+            throw new InterruptedException();
+    }
+
+    /**
+     * Unparks all threads waiting in {@link #await(Queue)}, e.g. when the processor pool is resumed or shut down.
+     */
+    public void signalAll() {
+        for (Thread t : waiters) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    private void signal() {
+        final Thread t = waiters.poll();
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    private void setBit(int level) {
+        final long mask = 1L << level;
+        for (;;) {
+            final long bits = nonEmptyLevels.get();
+            if ((bits & mask) != 0L || nonEmptyLevels.compareAndSet(bits, bits | mask))
+                return;
+        }
+    }
+
+    private void clearBit(int level) {
+        final long mask = 1L << level;
+        for (;;) {
+            final long bits = nonEmptyLevels.get();
+            if ((bits & mask) == 0L || nonEmptyLevels.compareAndSet(bits, bits & ~mask))
+                return;
+        }
+    }
+
+}
@@ -28,7 +28,7 @@ public class SuspendableQueue<T> implements Queue<T> {
     private static final Logger logger = LoggerFactory.getLogger(SuspendableQueue.class);
 
     private Queue<T> queue;
-    private boolean suspended = false;
+    private volatile boolean suspended = false;
 
     public SuspendableQueue(Queue<T> queue) {
         if (queue == null)
@@ -45,6 +45,25 @@ public class SuspendableQueue<T> implements Queue<T> {
         return suspended;
     }
 
+    /**
+     * @return the wrapped queue
+     */
+    public Queue<T> getQueue() {
+        return queue;
+    }
+
+    /**
+     * Replaces the wrapped queue. Only allowed as long as the wrapped queue is empty and not yet in use by other
+     * threads.
+     */
+    public void setQueue(Queue<T> queue) {
+        if (queue == null)
+            throw new NullPointerException();
+        if (!this.queue.isEmpty())
+            throw new IllegalStateException("queue is not empty");
+        this.queue = queue;
+    }
+
     @Override
     public int size() {
         return queue.size();
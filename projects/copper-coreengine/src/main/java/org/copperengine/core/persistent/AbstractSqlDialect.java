@@ -18,6 +18,7 @@ package org.copperengine.core.persistent;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -67,6 +68,19 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
      */
     protected boolean multiEngineMode;
     protected final boolean supportsMultipleEngines;
+    /**
+     * if turned on, dequeue claims the queue entries with row locks (<code>FOR UPDATE SKIP LOCKED</code>) instead of
+     * serializing all engines on the dequeue lock of the processor pool
+     */
+    protected boolean dequeueSkipLocked;
+    /**
+     * number of workflow ids per query when loading the responses of dequeued workflow instances
+     */
+    protected int responseLoadingChunkSize = 25;
+    /**
+     * if turned on, notify and register callback move the workflow instances with fulfilled waits directly into COP_QUEUE
+     */
+    protected boolean directEnqueue;
     protected long defaultStaleResponseRemovalTimeout = 60 * 60 * 1000;
     protected final int ACQUIRE_BLOCKING_WAIT_SEC = 10;
     protected Serializer serializer = new StandardJavaSerializer();
@@ -77,6 +91,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
 
     private StmtStatistic dequeueStmtStatistic;
     private StmtStatistic queueDeleteStmtStatistic;
+    private StmtStatistic dequeueQueryResponsesStmtStatistic;
     private StmtStatistic enqueueUpdateStateStmtStatistic;
     private StmtStatistic insertStmtStatistic;
     private StmtStatistic deleteStaleResponsesStmtStatistic;
@@ -144,6 +159,20 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
         this.serializer = serializer;
     }
 
+    /**
+     * Returns whether the DATA, OBJECT_STATE and RESPONSE columns of this dialect can be converted into binary
+     * columns, i.e. whether there is a <code>convert-to-binary-serialization.sql</code> script for it. Only then a
+     * {@link BinarySerializer} is used with its binary methods, otherwise with its text methods. Defaults to
+     * <code>false</code>.
+     */
+    protected boolean supportsBinarySerialization() {
+        return false;
+    }
+
+    protected boolean isBinarySerialization() {
+        return supportsBinarySerialization() && SerializationUtil.isBinary(serializer);
+    }
+
     public void setRuntimeStatisticsCollector(RuntimeStatisticsCollector runtimeStatisticsCollector) {
         this.runtimeStatisticsCollector = runtimeStatisticsCollector;
     }
@@ -151,6 +180,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
     private void initStats() {
         dequeueStmtStatistic = new StmtStatistic("DBStorage.dequeue.fullquery", runtimeStatisticsCollector);
         queueDeleteStmtStatistic = new StmtStatistic("DBStorage.queue.delete", runtimeStatisticsCollector);
+        dequeueQueryResponsesStmtStatistic = new StmtStatistic("DBStorage.dequeue.queryResponses.roundtrips", runtimeStatisticsCollector);
         enqueueUpdateStateStmtStatistic = new StmtStatistic("DBStorage.enqueue.updateState", runtimeStatisticsCollector);
         insertStmtStatistic = new StmtStatistic("DBStorage.insert", runtimeStatisticsCollector);
         deleteStaleResponsesStmtStatistic = new StmtStatistic("DBStorage.deleteStaleResponses", runtimeStatisticsCollector);
@@ -225,15 +255,17 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
     @Override
     public List<Workflow<?>> dequeue(String ppoolId, int max, Connection con) throws Exception {
         logger.trace("dequeue({},{})", ppoolId, max);
+        final boolean binary = isBinarySerialization();
 
         PreparedStatement dequeueStmt = null;
         PreparedStatement updateQueueStmt = null;
-        PreparedStatement selectResponsesStmt = null;
         PreparedStatement updateBpStmt = null;
         final String lockContext = "dequeue#" + ppoolId;
+        final boolean useLock = !dequeueSkipLocked;
         try {
             final long startTS = System.currentTimeMillis();
-            lock(con, lockContext);
+            if (useLock)
+                lock(con, lockContext);
             final List<Workflow<?>> rv = new ArrayList<Workflow<?>>(max);
             final List<BatchCommand> invalidWorkflowInstances = new ArrayList<BatchCommand>();
 
@@ -251,10 +283,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
                 updateQueueStmt.addBatch();
 
                 try {
-                    SerializedWorkflow sw = new SerializedWorkflow();
-                    sw.setData(rs.getString(3));
-                    sw.setObjectState(rs.getString(4));
-                    PersistentWorkflow<?> wf = (PersistentWorkflow<?>) serializer.deserializeWorkflow(sw, wfRepository);
+                    PersistentWorkflow<?> wf = (PersistentWorkflow<?>) SerializationUtil.getWorkflow(rs, 3, 4, serializer, binary, wfRepository);
                     wf.setId(id);
                     wf.setProcessorPoolId(ppoolId);
                     wf.setPriority(prio);
@@ -271,36 +300,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
             dequeueStmtStatistic.stop(map.size());
 
             if (!map.isEmpty()) {
-                selectResponsesStmt = con.prepareStatement("select w.WORKFLOW_INSTANCE_ID, w.correlation_id, w.timeout_ts, r.response from (select WORKFLOW_INSTANCE_ID, correlation_id, timeout_ts from COP_WAIT where WORKFLOW_INSTANCE_ID in (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)) w LEFT OUTER JOIN COP_RESPONSE r ON w.correlation_id = r.correlation_id order by r.correlation_id, r.response_id");
-                List<List<String>> ids = splitt(map.keySet(), 25);
-                for (List<String> id : ids) {
-                    selectResponsesStmt.clearParameters();
-                    for (int i = 0; i < 25; i++) {
-                        selectResponsesStmt.setString(i + 1, id.size() >= i + 1 ? id.get(i) : null);
-                    }
-                    ResultSet rsResponses = selectResponsesStmt.executeQuery();
-                    while (rsResponses.next()) {
-                        String bpId = rsResponses.getString(1);
-                        String cid = rsResponses.getString(2);
-                        final Timestamp timeoutTS = rsResponses.getTimestamp(3);
-                        boolean isTimeout = timeoutTS != null ? timeoutTS.getTime() <= System.currentTimeMillis() : false;
-                        String response = rsResponses.getString(4);
-                        PersistentWorkflow<?> wf = (PersistentWorkflow<?>) map.get(bpId);
-                        Response<?> r = null;
-                        if (response != null) {
-                            r = serializer.deserializeResponse(response);
-                            wf.addResponseId(r.getResponseId());
-                        } else if (isTimeout) {
-                            // timeout
-                            r = new Response<Object>(cid);
-                        }
-                        if (r != null) {
-                            wf.putResponse(r);
-                        }
-                        wf.addWaitCorrelationId(cid);
-                    }
-                    rsResponses.close();
-                }
+                loadResponses(con, map);
 
                 queueDeleteStmtStatistic.start();
                 updateQueueStmt.executeBatch();
@@ -321,8 +321,8 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
             JdbcUtils.closeStatement(updateBpStmt);
             JdbcUtils.closeStatement(dequeueStmt);
             JdbcUtils.closeStatement(updateQueueStmt);
-            JdbcUtils.closeStatement(selectResponsesStmt);
-            releaseLock(con, lockContext);
+            if (useLock)
+                releaseLock(con, lockContext);
         }
     }
 
@@ -351,30 +351,41 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
             enqueueUpdateStateStmtStatistic.start();
             queryStmt = createUpdateStateStmt(con, max);
             ResultSet rs = queryStmt.executeQuery();
-            updStmt = con.prepareStatement("update COP_WAIT set state=1, timeout_ts=timeout_ts where WORKFLOW_INSTANCE_ID=?");
+            updStmt = con.prepareStatement("update COP_WAIT set state=1, timeout_ts=timeout_ts where WORKFLOW_INSTANCE_ID=? and state=0");
             insStmt = con.prepareStatement("INSERT INTO COP_QUEUE (PPOOL_ID, PRIORITY, LAST_MOD_TS, WORKFLOW_INSTANCE_ID) VALUES (?,?,?,?)");
+            final List<String> wfiIds = new ArrayList<String>();
+            final List<String> ppoolIds = new ArrayList<String>();
+            final List<Integer> prios = new ArrayList<Integer>();
             while (rs.next()) {
-                rowcount++;
-
                 final String wfiId = rs.getString(1);
-                final String ppoolId = rs.getString(2);
-                final int prio = rs.getInt(3);
+                wfiIds.add(wfiId);
+                ppoolIds.add(rs.getString(2));
+                prios.add(rs.getInt(3));
 
                 updStmt.setString(1, wfiId);
                 updStmt.addBatch();
-
-                insStmt.setString(1, ppoolId);
-                insStmt.setInt(2, prio);
-                insStmt.setTimestamp(3, NOW);
-                insStmt.setString(4, wfiId);
-                insStmt.addBatch();
-
-                logger.debug("Inserting {} into COP_QUEUE", wfiId);
             }
             rs.close();
-            if (rowcount > 0) {
-                insStmt.executeBatch();
-                updStmt.executeBatch();
+            if (!wfiIds.isEmpty()) {
+                // a concurrent notify in direct enqueue mode may have queued some of the candidates in the meantime
+                final int[] updateCounts = updStmt.executeBatch();
+                for (int i = 0; i < wfiIds.size(); i++) {
+                    if (updateCounts[i] == 0)
+                        continue;
+                    rowcount++;
+
+                    final String wfiId = wfiIds.get(i);
+                    insStmt.setString(1, ppoolIds.get(i));
+                    insStmt.setInt(2, prios.get(i));
+                    insStmt.setTimestamp(3, NOW);
+                    insStmt.setString(4, wfiId);
+                    insStmt.addBatch();
+
+                    logger.debug("Inserting {} into COP_QUEUE", wfiId);
+                }
+                if (rowcount > 0) {
+                    insStmt.executeBatch();
+                }
             }
             enqueueUpdateStateStmtStatistic.stop(rowcount == 0 ? 1 : rowcount);
             logger.debug("Queue update in {} msec", (System.currentTimeMillis() - startTS));
@@ -551,7 +562,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
         if (response == null)
             throw new NullPointerException();
         if (response.isEarlyResponseHandling())
-            return new SqlNotify.Command(response, serializer, defaultStaleResponseRemovalTimeout, System.currentTimeMillis() + dbBatchingLatencyMSec, ack);
+            return new SqlNotify.Command(response, serializer, isBinarySerialization(), defaultStaleResponseRemovalTimeout, directEnqueue, System.currentTimeMillis() + dbBatchingLatencyMSec, ack);
         else
             return createBatchCommand4NotifyNoEarlyResponseHandling(response, ack);
     }
@@ -564,7 +575,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
     public BatchCommand createBatchCommand4registerCallback(RegisterCall rc, ScottyDBStorageInterface dbStorageInterface, Acknowledge ack) throws Exception {
         if (rc == null)
             throw new NullPointerException();
-        return new SqlRegisterCallback.Command(rc, serializer, dbStorageInterface, System.currentTimeMillis() + dbBatchingLatencyMSec, workflowPersistencePlugin, ack);
+        return new SqlRegisterCallback.Command(rc, serializer, isBinarySerialization(), dbStorageInterface, System.currentTimeMillis() + dbBatchingLatencyMSec, workflowPersistencePlugin, directEnqueue, ack);
     }
 
     @Override
@@ -579,14 +590,12 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
             for (int i = 0; i < wfs.size(); i++) {
                 Workflow<?> wf = wfs.get(i);
                 logger.debug("insert({})", wf.getId());
-                final SerializedWorkflow sw = serializer.serializeWorkflow(wf);
                 stmtWF.setString(1, wf.getId());
                 stmtWF.setInt(2, DBProcessingState.ENQUEUED.ordinal());
                 stmtWF.setInt(3, wf.getPriority());
                 stmtWF.setTimestamp(4, NOW);
                 stmtWF.setString(5, wf.getProcessorPoolId());
-                stmtWF.setString(6, sw.getData());
-                stmtWF.setString(7, sw.getObjectState());
+                SerializationUtil.setWorkflow(stmtWF, 6, 7, serializer, isBinarySerialization(), wf);
                 stmtWF.setTimestamp(8, new Timestamp(wf.getCreationTS().getTime()));
                 stmtWF.setString(9, wf.getClass().getName());
                 stmtWF.addBatch();
@@ -622,6 +631,115 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
         insert(wfs, con);
     }
 
+    /**
+     * Loads the responses and wait correlation ids of the dequeued workflow instances in chunks of
+     * {@link #getResponseLoadingChunkSize()} ids. The number of queries is submitted as element count of the measure
+     * point <code>DBStorage.dequeue.queryResponses.roundtrips</code>.
+     * <p>
+     * Smaller dequeues use a chunk size of the next power of ten, so there are only a few distinct statements for the
+     * statement cache of the driver.
+     */
+    private void loadResponses(Connection con, Map<String, Workflow<?>> map) throws Exception {
+        final int chunkSize = chunkSize(map.size(), getResponseLoadingChunkSize());
+        final boolean binary = isBinarySerialization();
+        final PreparedStatement selectResponsesStmt = createSelectResponsesStmt(con, chunkSize);
+        try {
+            int roundtrips = 0;
+            dequeueQueryResponsesStmtStatistic.start();
+            for (List<String> ids : splitt(map.keySet(), chunkSize)) {
+                selectResponsesStmt.clearParameters();
+                final Array array = bindSelectResponsesStmt(con, selectResponsesStmt, ids, chunkSize);
+                final ResultSet rsResponses;
+                try {
+                    rsResponses = selectResponsesStmt.executeQuery();
+                } finally {
+                    if (array != null) {
+                        array.free();
+                    }
+                }
+                roundtrips++;
+                while (rsResponses.next()) {
+                    String bpId = rsResponses.getString(1);
+                    String cid = rsResponses.getString(2);
+                    final Timestamp timeoutTS = rsResponses.getTimestamp(3);
+                    boolean isTimeout = timeoutTS != null ? timeoutTS.getTime() <= System.currentTimeMillis() : false;
+                    PersistentWorkflow<?> wf = (PersistentWorkflow<?>) map.get(bpId);
+                    Response<?> r = SerializationUtil.getResponse(rsResponses, 4, serializer, binary);
+                    if (r != null) {
+                        wf.addResponseId(r.getResponseId());
+                    } else if (isTimeout) {
+                        // timeout
+                        r = new Response<Object>(cid);
+                    }
+                    if (r != null) {
+                        wf.putResponse(r);
+                    }
+                    wf.addWaitCorrelationId(cid);
+                }
+                rsResponses.close();
+            }
+            dequeueQueryResponsesStmtStatistic.stop(roundtrips);
+        } finally {
+            JdbcUtils.closeStatement(selectResponsesStmt);
+        }
+    }
+
+    /**
+     * Creates the statement loading the responses for up to <code>chunkSize</code> workflow ids. The statement returns
+     * WORKFLOW_INSTANCE_ID, CORRELATION_ID, TIMEOUT_TS and RESPONSE, ordered by correlation id and response id.
+     */
+    protected PreparedStatement createSelectResponsesStmt(Connection con, int chunkSize) throws SQLException {
+        final StringBuilder sql = new StringBuilder(200 + 2 * chunkSize);
+        sql.append("select w.WORKFLOW_INSTANCE_ID, w.correlation_id, w.timeout_ts, r.response from (select WORKFLOW_INSTANCE_ID, correlation_id, timeout_ts from COP_WAIT where WORKFLOW_INSTANCE_ID in (");
+        for (int i = 0; i < chunkSize; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(")) w LEFT OUTER JOIN COP_RESPONSE r ON w.correlation_id = r.correlation_id order by r.correlation_id, r.response_id");
+        return con.prepareStatement(sql.toString());
+    }
+
+    /**
+     * Binds the workflow ids of one chunk to a statement created by {@link #createSelectResponsesStmt(Connection, int)}.
+     * The last chunk may contain less than <code>chunkSize</code> ids, the remaining parameters are set to null.
+     *
+     * @return the {@link Array} bound to the statement, which is freed after the statement has been executed, or
+     *         <code>null</code>
+     */
+    protected Array bindSelectResponsesStmt(Connection con, PreparedStatement stmt, List<String> ids, int chunkSize) throws SQLException {
+        for (int i = 0; i < chunkSize; i++) {
+            stmt.setString(i + 1, i < ids.size() ? ids.get(i) : null);
+        }
+        return null;
+    }
+
+    /**
+     * @return the smallest power of ten not less than <code>numberOfIds</code>, at most <code>maxChunkSize</code>
+     */
+    static int chunkSize(int numberOfIds, int maxChunkSize) {
+        long chunkSize = 1;
+        while (chunkSize < numberOfIds && chunkSize < maxChunkSize) {
+            chunkSize *= 10;
+        }
+        return (int) Math.min(chunkSize, maxChunkSize);
+    }
+
+    /**
+     * Sets the number of workflow ids per query when loading the responses of dequeued workflow instances. Larger
+     * chunks need less round trips, but the database has to parse and plan a longer IN list. Defaults to 25.
+     *
+     * @param responseLoadingChunkSize
+     *        number of workflow ids per query
+     */
+    public void setResponseLoadingChunkSize(int responseLoadingChunkSize) {
+        if (responseLoadingChunkSize <= 0)
+            throw new IllegalArgumentException("responseLoadingChunkSize must be positive");
+        this.responseLoadingChunkSize = responseLoadingChunkSize;
+    }
+
+    public int getResponseLoadingChunkSize() {
+        return responseLoadingChunkSize;
+    }
+
     protected List<List<String>> splitt(Collection<String> keySet, int n) {
         if (keySet.isEmpty())
             return Collections.emptyList();
@@ -656,6 +774,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
         if (multiEngineMode) {
             logger.warn("Checking DB consistency when multiEngineMode is turned on!");
         }
+        final boolean binary = isBinarySerialization();
         final PreparedStatement dequeueStmt = con.prepareStatement("select id,priority,data,object_state,PPOOL_ID from COP_WORKFLOW_INSTANCE where state not in (?,?)");
         try {
             final List<String> idsOfBadWorkflows = new ArrayList<String>();
@@ -666,13 +785,8 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
                 final String id = rs.getString(1);
                 try {
                     final int prio = rs.getInt(2);
-                    final String data = rs.getString(3);
-                    final String objectState = rs.getString(4);
                     final String ppoolId = rs.getString(5);
-                    final SerializedWorkflow sw = new SerializedWorkflow();
-                    sw.setData(data);
-                    sw.setObjectState(objectState);
-                    final PersistentWorkflow<?> wf = (PersistentWorkflow<?>) serializer.deserializeWorkflow(sw, wfRepository);
+                    final PersistentWorkflow<?> wf = (PersistentWorkflow<?>) SerializationUtil.getWorkflow(rs, 3, 4, serializer, binary, wfRepository);
                     wf.setId(id);
                     wf.setProcessorPoolId(ppoolId);
                     wf.setPriority(prio);
@@ -706,6 +820,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
     @Override
     public Workflow<?> read(String workflowInstanceId, Connection con) throws Exception {
         logger.trace("read({})", workflowInstanceId);
+        final boolean binary = isBinarySerialization();
 
         PreparedStatement readStmt = null;
         PreparedStatement selectResponsesStmt = null;
@@ -721,10 +836,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
             final String id = rs.getString(1);
             final int prio = rs.getInt(2);
 
-            SerializedWorkflow sw = new SerializedWorkflow();
-            sw.setData(rs.getString(3));
-            sw.setObjectState(rs.getString(4));
-            wf = (PersistentWorkflow<?>) serializer.deserializeWorkflow(sw, wfRepository);
+            wf = (PersistentWorkflow<?>) SerializationUtil.getWorkflow(rs, 3, 4, serializer, binary, wfRepository);
             wf.setId(id);
             wf.setPriority(prio);
             wf.setProcessorPoolId(rs.getString(6));
@@ -743,10 +855,8 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
                 String cid = rsResponses.getString(2);
                 final Timestamp timeoutTS = rsResponses.getTimestamp(3);
                 boolean isTimeout = timeoutTS != null ? timeoutTS.getTime() <= System.currentTimeMillis() : false;
-                String response = rsResponses.getString(4);
-                Response<?> r = null;
-                if (response != null) {
-                    r = serializer.deserializeResponse(response);
+                Response<?> r = SerializationUtil.getResponse(rsResponses, 4, serializer, binary);
+                if (r != null) {
                     wf.addResponseId(r.getResponseId());
                 } else if (isTimeout) {
                     // timeout
@@ -776,6 +886,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
 
     @Override
     public List<Workflow<?>> queryAllActive(final String className, final Connection c, final int max) throws SQLException {
+        final boolean binary = isBinarySerialization();
         final PreparedStatement queryStmt = createQueryAllActiveStmt(c, className, max);
         try {
             final ResultSet rs = queryStmt.executeQuery();
@@ -785,10 +896,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
                 final int prio = rs.getInt(3);
                 final String ppoolId = rs.getString(4);
                 try {
-                    SerializedWorkflow sw = new SerializedWorkflow();
-                    sw.setData(rs.getString(5));
-                    sw.setObjectState(rs.getString(6));
-                    PersistentWorkflow<?> wf = (PersistentWorkflow<?>) serializer.deserializeWorkflow(sw, wfRepository);
+                    PersistentWorkflow<?> wf = (PersistentWorkflow<?>) SerializationUtil.getWorkflow(rs, 5, 6, serializer, binary, wfRepository);
                     wf.setId(id);
                     wf.setProcessorPoolId(ppoolId);
                     wf.setPriority(prio);
@@ -815,6 +923,66 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
         }
         this.multiEngineMode = multiEngineMode;
     }
+
+    /**
+     * Turns on the direct enqueue mode. Notify and register callback batch commands check the waits of the affected
+     * workflow instances within their transaction and insert the workflow instances, whose waits are fulfilled, directly
+     * into COP_QUEUE, so they do not have to wait for the next run of {@link #updateQueueState(int, Connection)}.
+     * Timeouts are still detected by {@link #updateQueueState(int, Connection)}.
+     * Usually turned on by {@link ScottyDBStorage#setEventDrivenEnqueue(boolean)}.
+     *
+     * @param directEnqueue
+     *        <code>true</code> to turn on the direct enqueue mode
+     */
+    public void setDirectEnqueue(boolean directEnqueue) {
+        if (directEnqueue && !supportsDirectEnqueue()) {
+            throw new IllegalArgumentException("Direct enqueue not supported by " + getDialectDescription());
+        }
+        this.directEnqueue = directEnqueue;
+    }
+
+    public boolean isDirectEnqueue() {
+        return directEnqueue;
+    }
+
+    /**
+     * The direct enqueue reads COP_WAIT and COP_RESPONSE within the notify and register callback transactions, which
+     * is only reasonable with non blocking (MVCC) reads.
+     *
+     * @return <code>true</code> if this dialect supports the direct enqueue mode, see {@link #setDirectEnqueue(boolean)}
+     */
+    protected boolean supportsDirectEnqueue() {
+        return true;
+    }
+
+    /**
+     * Turns on the SKIP LOCKED dequeue mode. In this mode {@link #createDequeueStmt(Connection, String, int)} has to
+     * lock the returned queue entries and skip entries that are locked by other transactions, so several engines
+     * dequeue the same processor pool concurrently without waiting for each other.
+     * Requires a database that supports <code>SELECT ... FOR UPDATE SKIP LOCKED</code>, e.g. PostgreSQL 9.5+,
+     * MySQL 8.0+ or Oracle.
+     *
+     * @param dequeueSkipLocked
+     *        <code>true</code> to turn on the SKIP LOCKED dequeue mode
+     */
+    public void setDequeueSkipLocked(boolean dequeueSkipLocked) {
+        if (dequeueSkipLocked && !supportsSkipLocked()) {
+            throw new IllegalArgumentException("SKIP LOCKED dequeue not supported by " + getDialectDescription());
+        }
+        this.dequeueSkipLocked = dequeueSkipLocked;
+    }
+
+    public boolean isDequeueSkipLocked() {
+        return dequeueSkipLocked;
+    }
+
+    /**
+     * @return <code>true</code> if this dialect implements the SKIP LOCKED dequeue mode, see
+     *         {@link #setDequeueSkipLocked(boolean)}
+     */
+    protected boolean supportsSkipLocked() {
+        return false;
+    }
     
     @Override
     public Date readDatabaseClock(Connection con) throws SQLException {
@@ -922,10 +1090,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
         final String id = rs.getString("ID");
         final int prio = rs.getInt("PRIORITY");
         final String ppoolId = rs.getString("PPOOL_ID");
-        final SerializedWorkflow sw = new SerializedWorkflow();
-        sw.setData(rs.getString("DATA"));
-        sw.setObjectState(rs.getString("OBJECT_STATE"));
-        final PersistentWorkflow<?> wf = (PersistentWorkflow<?>) serializer.deserializeWorkflow(sw, wfRepository);
+        final PersistentWorkflow<?> wf = (PersistentWorkflow<?>) SerializationUtil.getWorkflow(rs, "DATA", "OBJECT_STATE", serializer, isBinarySerialization(), wfRepository);
         wf.setId(id);
         wf.setProcessorPoolId(ppoolId);
         wf.setPriority(prio);
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes dequeue bulk size and queue thresholds of a {@link PersistentPriorityProcessorPool} from the measured
+ * processing rate of the pool and the measured duration of a dequeue round trip to the database.
+ * <p>
+ * The lower threshold is the number of workflow instances the pool processes while a dequeue is in progress, so that
+ * the memory queue does not run empty before the next bulk arrives. The bulk size is chosen such that the single DB
+ * reader thread is able to fetch faster than the pool processes. Whenever a dequeue returns a full bulk, there is a
+ * backlog in the database and the bulk size is doubled until the measured values catch up.
+ * <p>
+ * All methods except {@link #incProcessed()} are called by the DB reader thread of the pool only.
+ */
+class AdaptiveDequeueController {
+
+    /** weight of the newest sample in the moving averages */
+    static final double ALPHA = 0.3;
+    /** minimum length of a sampling interval for the processing rate */
+    static final long MIN_SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    /** headroom applied to the computed values */
+    static final int SAFETY_FACTOR = 2;
+    static final int MIN_DEQUEUE_BULK_SIZE = 10;
+
+    private final AtomicLong processed = new AtomicLong();
+    private long lastProcessed;
+    private long lastSampleTS;
+
+    private double avgProcessingRate = -1.0; // workflow instances per millisecond
+    private double avgRoundtripMSec = -1.0;
+
+    private int dequeueBulkSize;
+    private int lowerThreshold;
+    private int upperThreshold;
+
+    AdaptiveDequeueController(long nowNanos, int initialDequeueBulkSize, int initialLowerThreshold, int initialUpperThreshold) {
+        this.lastSampleTS = nowNanos;
+        this.dequeueBulkSize = initialDequeueBulkSize;
+        this.lowerThreshold = initialLowerThreshold;
+        this.upperThreshold = initialUpperThreshold;
+    }
+
+    /**
+     * Called for each workflow instance that is taken from the memory queue for processing.
+     */
+    void incProcessed() {
+        processed.incrementAndGet();
+    }
+
+    /**
+     * Records a dequeue round trip and recomputes bulk size and thresholds. The duration of a dequeue that returned
+     * nothing is not taken into account, as it may contain time the storage spent waiting for new work.
+     *
+     * @param maxDequeueBulkSize
+     *        upper bound of the bulk size, i.e. the configured bulk size of the pool
+     * @param numberOfThreads
+     *        number of worker threads of the pool, each of them should find work in the memory queue
+     */
+    void dequeued(int requested, int received, long durationNanos, long nowNanos, int maxDequeueBulkSize, int numberOfThreads) {
+        if (received > 0) {
+            final double roundtripMSec = durationNanos / 1000000.0;
+            avgRoundtripMSec = avgRoundtripMSec < 0 ? roundtripMSec : ALPHA * roundtripMSec + (1.0 - ALPHA) * avgRoundtripMSec;
+        }
+        sample(nowNanos);
+
+        final int minBulkSize = Math.min(maxDequeueBulkSize, Math.max(MIN_DEQUEUE_BULK_SIZE, numberOfThreads));
+        final double rate = Math.max(0.0, avgProcessingRate);
+        final long demand = (long) Math.ceil(rate * Math.max(0.0, avgRoundtripMSec) * SAFETY_FACTOR);
+
+        long bulkSize = demand;
+        if (received >= requested) {
+            bulkSize = Math.max(bulkSize, 2L * requested);
+        }
+        dequeueBulkSize = (int) Math.max(minBulkSize, Math.min(maxDequeueBulkSize, bulkSize));
+        lowerThreshold = (int) Math.min(Integer.MAX_VALUE / 2, Math.max(numberOfThreads, demand + numberOfThreads));
+        upperThreshold = lowerThreshold + dequeueBulkSize;
+    }
+
+    /**
+     * @return the time in milliseconds it takes the pool to process the memory queue from its current size down to the
+     *         lower threshold, bounded by <code>maxWaitMSec</code>
+     */
+    long getWaitMSec(int queueSize, long maxWaitMSec) {
+        if (avgProcessingRate <= 0.0)
+            return maxWaitMSec;
+        final long t = (long) ((queueSize - lowerThreshold) / avgProcessingRate);
+        return Math.max(1L, Math.min(maxWaitMSec, t));
+    }
+
+    private void sample(long nowNanos) {
+        final long interval = nowNanos - lastSampleTS;
+        if (interval < MIN_SAMPLE_INTERVAL_NANOS)
+            return;
+        final long p = processed.get();
+        final double rate = (p - lastProcessed) * 1000000.0 / interval;
+        avgProcessingRate = avgProcessingRate < 0 ? rate : ALPHA * rate + (1.0 - ALPHA) * avgProcessingRate;
+        lastProcessed = p;
+        lastSampleTS = nowNanos;
+    }
+
+    int getDequeueBulkSize() {
+        return dequeueBulkSize;
+    }
+
+    int getLowerThreshold() {
+        return lowerThreshold;
+    }
+
+    int getUpperThreshold() {
+        return upperThreshold;
+    }
+
+    /**
+     * @return the average number of workflow instances processed per second or 0, if nothing was measured yet
+     */
+    double getAvgProcessingRate() {
+        return Math.max(0.0, avgProcessingRate * 1000.0);
+    }
+
+    /**
+     * @return the average duration of a dequeue in milliseconds or 0, if nothing was measured yet
+     */
+    double getAvgRoundtripMSec() {
+        return Math.max(0.0, avgRoundtripMSec);
+    }
+}
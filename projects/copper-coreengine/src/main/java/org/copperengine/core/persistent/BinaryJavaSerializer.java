@@ -0,0 +1,183 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+import org.copperengine.core.Response;
+import org.copperengine.core.Workflow;
+import org.copperengine.core.common.WorkflowRepository;
+import org.copperengine.core.persistent.compression.CompressionCodec;
+
+/**
+ * Implementation of the {@link BinarySerializer} interface using java's standard object serialization.
+ * <p>
+ * Objects are serialized into raw bytes, prefixed by one format byte. Payloads larger than the configured
+ * threshold are compressed with the configured {@link CompressionCodec}, in this case the format byte is the
+ * id of the codec. Serialization and compression work on thread local buffers, so there is only one copy of the
+ * result per call.
+ * <p>
+ * Data that was written by {@link StandardJavaSerializer}, i.e. 'C' or 'U' prefixed Base64 text, is still
+ * readable when it is passed in as bytes. This is what a text column contains after it has been converted into
+ * a BLOB/BYTEA column, see the <code>convert-to-binary-serialization.sql</code> scripts.
+ * <p>
+ * The text based methods inherited from {@link StandardJavaSerializer} are unchanged.
+ */
+public class BinaryJavaSerializer extends StandardJavaSerializer implements BinarySerializer {
+
+    static final byte FORMAT_UNCOMPRESSED = 0x01;
+
+    private static final byte LEGACY_FORMAT_UNCOMPRESSED = 'U';
+    private static final byte LEGACY_FORMAT_COMPRESSED = 'C';
+    private static final byte LEGACY_FORMAT_CODEC = 'Z';
+
+    private int maxRetainedBufferSize = 256 * 1024;
+
+    private final ThreadLocal<Buffers> buffersTL = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    /**
+     * Thread local buffers that have grown above this size are released after use instead of being kept for
+     * the next call.
+     */
+    public void setMaxRetainedBufferSize(int maxRetainedBufferSize) {
+        this.maxRetainedBufferSize = maxRetainedBufferSize;
+    }
+
+    private byte[] serializeBinary(final Object o) throws IOException {
+        if (o == null)
+            return null;
+        final Buffers buffers = buffersTL.get();
+        try {
+            final ReusableByteArrayOutputStream plain = buffers.plain;
+            plain.write(FORMAT_UNCOMPRESSED);
+            final ObjectOutputStream oos = new ObjectOutputStream(plain);
+            oos.writeObject(o);
+            oos.close();
+            final int length = plain.size() - 1;
+            if (isCompress() && getCompressThresholdSize() <= length && length <= getCompressorMaxSize()) {
+                final CompressionCodec codec = getCompressionCodec();
+                final ReusableByteArrayOutputStream compressed = buffers.compressed;
+                compressed.write(codec.getId());
+                getCompressionStatistics().compress(codec, plain.buffer(), 1, length, compressed);
+                if (compressed.size() < plain.size()) {
+                    return compressed.toByteArray();
+                }
+            }
+            return plain.toByteArray();
+        } finally {
+            buffers.release(maxRetainedBufferSize);
+        }
+    }
+
+    private Serializable deserializeBinary(final byte[] data, final WorkflowRepository wfRepo) throws Exception {
+        if (data == null)
+            return null;
+        if (data.length == 0)
+            throw new IOException("empty data");
+        switch (data[0]) {
+        case FORMAT_UNCOMPRESSED:
+            return readObject(new ByteArrayInputStream(data, 1, data.length - 1), wfRepo);
+        case LEGACY_FORMAT_UNCOMPRESSED:
+        case LEGACY_FORMAT_COMPRESSED:
+        case LEGACY_FORMAT_CODEC:
+            return deserializeBase64(new String(data, StandardCharsets.US_ASCII), wfRepo);
+        default:
+            final byte[] uncompressed = getCompressionStatistics().uncompress(getCodec(data[0]), data, 1, data.length - 1);
+            return readObject(new ByteArrayInputStream(uncompressed), wfRepo);
+        }
+    }
+
+    private Serializable readObject(final InputStream in, final WorkflowRepository wfRepo) throws IOException, ClassNotFoundException {
+        final ObjectInputStream ois = createObjectInputStream(in, wfRepo);
+        try {
+            return (Serializable) ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+    @Override
+    public BinarySerializedWorkflow serializeWorkflowBinary(Workflow<?> o) throws Exception {
+        BinarySerializedWorkflow sw = new BinarySerializedWorkflow();
+        sw.setData(serializeBinary(o.getData()));
+        sw.setObjectState(serializeBinary(o));
+        return sw;
+    }
+
+    @Override
+    public Workflow<?> deserializeWorkflowBinary(BinarySerializedWorkflow sw, WorkflowRepository wfRepo) throws Exception {
+        PersistentWorkflow<?> wf = (PersistentWorkflow<?>) deserializeBinary(sw.getObjectState(), wfRepo);
+        wf.setDataAsObject(deserializeBinary(sw.getData(), null));
+        return wf;
+    }
+
+    @Override
+    public byte[] serializeResponseBinary(Response<?> r) throws Exception {
+        return serializeBinary(r);
+    }
+
+    @Override
+    public Response<?> deserializeResponseBinary(byte[] _data) throws Exception {
+        return (Response<?>) deserializeBinary(_data, null);
+    }
+
+    private static final class Buffers {
+
+        final ReusableByteArrayOutputStream plain = new ReusableByteArrayOutputStream();
+        final ReusableByteArrayOutputStream compressed = new ReusableByteArrayOutputStream();
+
+        void release(int maxRetainedBufferSize) {
+            plain.release(maxRetainedBufferSize);
+            compressed.release(maxRetainedBufferSize);
+        }
+    }
+
+    /**
+     * A {@link ByteArrayOutputStream} that exposes its buffer and that is reset instead of being reallocated.
+     */
+    static final class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+
+        private static final int INITIAL_SIZE = 4 * 1024;
+
+        ReusableByteArrayOutputStream() {
+            super(INITIAL_SIZE);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        void release(int maxRetainedSize) {
+            reset();
+            if (buf.length > maxRetainedSize) {
+                buf = new byte[INITIAL_SIZE];
+            }
+        }
+    }
+
+}
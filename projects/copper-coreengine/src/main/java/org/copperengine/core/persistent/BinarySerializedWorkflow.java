@@ -0,0 +1,42 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent;
+
+/**
+ * Binary counterpart of {@link SerializedWorkflow}, see {@link BinarySerializer}.
+ */
+public class BinarySerializedWorkflow {
+
+    private byte[] data;
+    private byte[] objectState;
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    public byte[] getObjectState() {
+        return objectState;
+    }
+
+    public void setObjectState(byte[] objectState) {
+        this.objectState = objectState;
+    }
+
+}
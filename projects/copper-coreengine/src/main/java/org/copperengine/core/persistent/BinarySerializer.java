@@ -0,0 +1,38 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent;
+
+import org.copperengine.core.Response;
+import org.copperengine.core.Workflow;
+import org.copperengine.core.common.WorkflowRepository;
+
+/**
+ * A {@link Serializer} that is able to serialize workflow instances and responses into raw bytes.
+ * SQL dialects store the output of a binary serializer in BLOB/BYTEA columns instead of text columns,
+ * see {@link SerializationUtil}. The text based methods of {@link Serializer} are still used by storages
+ * that are bound to text columns.
+ */
+public interface BinarySerializer extends Serializer {
+
+    public BinarySerializedWorkflow serializeWorkflowBinary(final Workflow<?> o) throws Exception;
+
+    public Workflow<?> deserializeWorkflowBinary(BinarySerializedWorkflow serializedWorkflow, final WorkflowRepository wfRepo) throws Exception;
+
+    public byte[] serializeResponseBinary(final Response<?> r) throws Exception;
+
+    public Response<?> deserializeResponseBinary(byte[] _data) throws Exception;
+
+}
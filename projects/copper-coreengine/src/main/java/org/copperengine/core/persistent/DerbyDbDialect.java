@@ -97,7 +97,7 @@ public class DerbyDbDialect extends AbstractSqlDialect {
     @SuppressWarnings("rawtypes")
     @Override
     public BatchCommand createBatchCommand4NotifyNoEarlyResponseHandling(Response<?> response, Acknowledge ack) throws Exception {
-        return new SqlNotifyNoEarlyResponseHandling.Command(response, serializer, defaultStaleResponseRemovalTimeout, System.currentTimeMillis() + dbBatchingLatencyMSec, ack);
+        return new SqlNotifyNoEarlyResponseHandling.Command(response, serializer, isBinarySerialization(), defaultStaleResponseRemovalTimeout, directEnqueue, System.currentTimeMillis() + dbBatchingLatencyMSec, ack);
     }
 
     @Override
@@ -112,6 +112,14 @@ public class DerbyDbDialect extends AbstractSqlDialect {
         }
     }
 
+    /**
+     * Derby reads with shared row locks, so reading the waits within the notify transactions would deadlock
+     */
+    @Override
+    protected boolean supportsDirectEnqueue() {
+        return false;
+    }
+
     @Override
     public String getDialectDescription() {
         return "DerbyDB";
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.copperengine.core.Acknowledge;
+
+/**
+ * Acknowledge of a notify or register callback batch command in direct enqueue mode. While the command is executed,
+ * the processor pools of the workflow instances it moved into COP_QUEUE are added, {@link #onSuccess()} is called
+ * after the transaction has been committed and may signal the dequeuers of exactly these pools.
+ */
+abstract class DirectEnqueueAcknowledge implements Acknowledge {
+
+    private final Set<String> enqueuedPpoolIds = new HashSet<String>();
+
+    synchronized void addEnqueuedPpoolIds(Collection<String> ppoolIds) {
+        enqueuedPpoolIds.addAll(ppoolIds);
+    }
+
+    /**
+     * @return the processor pools workflow instances have been enqueued for, empty if none
+     */
+    synchronized Set<String> getEnqueuedPpoolIds() {
+        return new HashSet<String>(enqueuedPpoolIds);
+    }
+
+}
@@ -104,7 +104,7 @@ public class H2Dialect extends AbstractSqlDialect {
     @SuppressWarnings("rawtypes")
     @Override
     public BatchCommand createBatchCommand4NotifyNoEarlyResponseHandling(Response<?> response, Acknowledge ack) throws Exception {
-        return new SqlNotifyNoEarlyResponseHandling.Command(response, serializer, defaultStaleResponseRemovalTimeout, System.currentTimeMillis() + dbBatchingLatencyMSec, ack);
+        return new SqlNotifyNoEarlyResponseHandling.Command(response, serializer, isBinarySerialization(), defaultStaleResponseRemovalTimeout, directEnqueue, System.currentTimeMillis() + dbBatchingLatencyMSec, ack);
     }
 
     @Override
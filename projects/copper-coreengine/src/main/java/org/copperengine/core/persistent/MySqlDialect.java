@@ -45,6 +45,11 @@ public class MySqlDialect extends AbstractSqlDialect {
         super(true, false);
     }
 
+    @Override
+    protected boolean supportsBinarySerialization() {
+        return true;
+    }
+
     @Override
     protected PreparedStatement createUpdateStateStmt(final Connection c, final int max) throws SQLException {
         final Timestamp NOW = new Timestamp(System.currentTimeMillis());
@@ -56,6 +61,11 @@ public class MySqlDialect extends AbstractSqlDialect {
 
     @Override
     protected PreparedStatement createDequeueStmt(final Connection c, final String ppoolId, final int max) throws SQLException {
+        if (dequeueSkipLocked) {
+            PreparedStatement dequeueStmt = c.prepareStatement("select w.id,w.priority,w.data,w.object_state,w.creation_ts,w.last_mod_ts from COP_QUEUE q join COP_WORKFLOW_INSTANCE w on w.id = q.WORKFLOW_INSTANCE_ID where q.ppool_id = ? and q.engine_id is NULL order by q.priority, q.last_mod_ts LIMIT 0," + max + " FOR UPDATE OF q SKIP LOCKED");
+            dequeueStmt.setString(1, ppoolId);
+            return dequeueStmt;
+        }
         PreparedStatement dequeueStmt = c.prepareStatement("select id,priority,data,object_state,creation_ts,last_mod_ts from COP_WORKFLOW_INSTANCE where id in (select WORKFLOW_INSTANCE_ID from COP_QUEUE where ppool_id = ?  and engine_id is NULL order by priority, last_mod_ts) LIMIT 0," + max);
         dequeueStmt.setString(1, ppoolId);
         return dequeueStmt;
@@ -77,7 +87,7 @@ public class MySqlDialect extends AbstractSqlDialect {
     @SuppressWarnings("rawtypes")
     @Override
     public BatchCommand createBatchCommand4NotifyNoEarlyResponseHandling(Response<?> response, Acknowledge ack) throws Exception {
-        return new MySqlNotifyNoEarlyResponseHandling.Command(response, serializer, defaultStaleResponseRemovalTimeout, System.currentTimeMillis() + dbBatchingLatencyMSec, ack);
+        return new MySqlNotifyNoEarlyResponseHandling.Command(response, serializer, isBinarySerialization(), defaultStaleResponseRemovalTimeout, directEnqueue, System.currentTimeMillis() + dbBatchingLatencyMSec, ack);
     }
 
     @Override
@@ -92,6 +102,14 @@ public class MySqlDialect extends AbstractSqlDialect {
         }
     }
 
+    /**
+     * SKIP LOCKED is available since MySQL 8.0
+     */
+    @Override
+    protected boolean supportsSkipLocked() {
+        return true;
+    }
+
     @Override
     public String getDialectDescription() {
         return "MySQL";
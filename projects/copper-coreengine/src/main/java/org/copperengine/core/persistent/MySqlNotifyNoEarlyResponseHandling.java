@@ -19,7 +19,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.copperengine.core.Acknowledge;
 import org.copperengine.core.Response;
@@ -47,13 +49,19 @@ class MySqlNotifyNoEarlyResponseHandling {
 
         final Response<?> response;
         final Serializer serializer;
+        final boolean binary;
         final long defaultStaleResponseRemovalTimeout;
+        final boolean directEnqueue;
+        final Acknowledge ack;
 
-        public Command(Response<?> response, Serializer serializer, long defaultStaleResponseRemovalTimeout, final long targetTime, Acknowledge ack) {
+        public Command(Response<?> response, Serializer serializer, boolean binary, long defaultStaleResponseRemovalTimeout, boolean directEnqueue, final long targetTime, Acknowledge ack) {
             super(new AcknowledgeCallbackWrapper<Command>(ack), targetTime);
             this.response = response;
             this.serializer = serializer;
+            this.binary = binary;
             this.defaultStaleResponseRemovalTimeout = defaultStaleResponseRemovalTimeout;
+            this.directEnqueue = directEnqueue;
+            this.ack = ack;
         }
 
         @Override
@@ -84,18 +92,25 @@ class MySqlNotifyNoEarlyResponseHandling {
             final PreparedStatement stmt = con.prepareStatement(SQL);
             try {
                 final Timestamp now = new Timestamp(System.currentTimeMillis());
+                final List<String> directEnqueueCids = new ArrayList<String>();
+                final List<Acknowledge> directEnqueueAcks = new ArrayList<Acknowledge>();
                 for (BatchCommand<Executor, Command> _cmd : commands) {
                     Command cmd = (Command) _cmd;
                     stmt.setString(1, cmd.response.getCorrelationId());
                     stmt.setString(2, cmd.response.getCorrelationId());
                     stmt.setTimestamp(3, now);
-                    stmt.setString(4, cmd.serializer.serializeResponse(cmd.response));
+                    SerializationUtil.setResponse(stmt, 4, cmd.serializer, cmd.binary, cmd.response);
                     stmt.setTimestamp(5, TimeoutProcessor.processTimout(cmd.response.getInternalProcessingTimeout(), cmd.defaultStaleResponseRemovalTimeout));
                     stmt.setString(6, cmd.response.getMetaData());
                     stmt.setString(7, cmd.response.getResponseId());
                     stmt.addBatch();
+                    if (cmd.directEnqueue) {
+                        directEnqueueCids.add(cmd.response.getCorrelationId());
+                        directEnqueueAcks.add(cmd.ack);
+                    }
                 }
                 stmt.executeBatch();
+                SqlDirectEnqueue.enqueueReadyWorkflows(con, directEnqueueCids, directEnqueueAcks);
             } catch (SQLException e) {
                 logger.error("doExec failed", e);
                 logger.error("NextException=", e.getNextException());
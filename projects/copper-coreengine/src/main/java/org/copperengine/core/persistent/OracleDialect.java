@@ -85,6 +85,7 @@ public class OracleDialect implements DatabaseDialect, DatabaseDialectMXBean {
     private long defaultStaleResponseRemovalTimeout = 60 * 60 * 1000;
     private int dbBatchingLatencyMSec = 0;
     private boolean concurrentResponseLoading = true;
+    private boolean dequeueSkipLocked = false;
 
     public OracleDialect() {
     }
@@ -151,6 +152,22 @@ public class OracleDialect implements DatabaseDialect, DatabaseDialectMXBean {
         this.multiEngineMode = multiEngineMode;
     }
 
+    /**
+     * Turns on the SKIP LOCKED dequeue mode. Instead of serializing all engines on the dequeue lock of the processor
+     * pool, the queue entries are claimed with <code>SELECT ... FOR UPDATE SKIP LOCKED</code>, so several engines
+     * dequeue the same processor pool concurrently without waiting for each other.
+     *
+     * @param dequeueSkipLocked
+     *        <code>true</code> to turn on the SKIP LOCKED dequeue mode
+     */
+    public void setDequeueSkipLocked(boolean dequeueSkipLocked) {
+        this.dequeueSkipLocked = dequeueSkipLocked;
+    }
+
+    public boolean isDequeueSkipLocked() {
+        return dequeueSkipLocked;
+    }
+
     public void setRuntimeStatisticsCollector(RuntimeStatisticsCollector runtimeStatisticsCollector) {
         this.runtimeStatisticsCollector = runtimeStatisticsCollector;
         initStmtStats();
@@ -198,7 +215,8 @@ public class OracleDialect implements DatabaseDialect, DatabaseDialectMXBean {
         final long startTS = System.currentTimeMillis();
         final List<Workflow<?>> rv = new ArrayList<Workflow<?>>(max);
 
-        lock(con, "dequeue#" + ppoolId);
+        if (!dequeueSkipLocked)
+            lock(con, "dequeue#" + ppoolId);
 
         ResponseLoader responseLoader = getResponseLoader(ppoolId);
         responseLoader.setCon(con);
@@ -207,12 +225,9 @@ public class OracleDialect implements DatabaseDialect, DatabaseDialectMXBean {
         responseLoader.beginTxn();
 
         final List<OracleSetToError.Command> invalidWorkflowInstances = new ArrayList<OracleSetToError.Command>();
-        final PreparedStatement dequeueStmt = con.prepareStatement("select id,priority,data,rowid,long_data,creation_ts,object_state,long_object_state,last_mod_ts from COP_WORKFLOW_INSTANCE where rowid in (select * from (select WFI_ROWID from COP_QUEUE where ppool_id=? and engine_id is null order by ppool_id, priority, last_mod_ts) where rownum <= ?)");
+        final PreparedStatement dequeueStmt = createDequeueStmt(con, ppoolId, max);
         final Map<String, Workflow<?>> map = new HashMap<String, Workflow<?>>(max * 3);
         try {
-            dequeueStmt.setString(1, ppoolId);
-            dequeueStmt.setInt(2, max);
-            dequeueStmt.setFetchSize(500);
             dequeueAllStmtStatistic.start();
             logger.trace("Query next {} elements from queue", max);
             dequeueQueryBPsStmtStatistic.start();
@@ -273,6 +288,23 @@ public class OracleDialect implements DatabaseDialect, DatabaseDialectMXBean {
         return rv;
     }
 
+    private PreparedStatement createDequeueStmt(final Connection con, final String ppoolId, final int max) throws SQLException {
+        if (dequeueSkipLocked) {
+            // Oracle locks the rows of a SKIP LOCKED cursor when they are fetched, so the number of rows is limited by
+            // maxRows instead of rownum, which would be applied before skipping the locked rows
+            final PreparedStatement dequeueStmt = con.prepareStatement("select w.id,w.priority,w.data,w.rowid,w.long_data,w.creation_ts,w.object_state,w.long_object_state,w.last_mod_ts from COP_QUEUE q, COP_WORKFLOW_INSTANCE w where q.ppool_id=? and q.engine_id is null and w.rowid = q.WFI_ROWID order by q.ppool_id, q.priority, q.last_mod_ts for update of q.engine_id skip locked");
+            dequeueStmt.setString(1, ppoolId);
+            dequeueStmt.setMaxRows(max);
+            dequeueStmt.setFetchSize(Math.min(max, 500));
+            return dequeueStmt;
+        }
+        final PreparedStatement dequeueStmt = con.prepareStatement("select id,priority,data,rowid,long_data,creation_ts,object_state,long_object_state,last_mod_ts from COP_WORKFLOW_INSTANCE where rowid in (select * from (select WFI_ROWID from COP_QUEUE where ppool_id=? and engine_id is null order by ppool_id, priority, last_mod_ts) where rownum <= ?)");
+        dequeueStmt.setString(1, ppoolId);
+        dequeueStmt.setInt(2, max);
+        dequeueStmt.setFetchSize(500);
+        return dequeueStmt;
+    }
+
     @SuppressWarnings({ "rawtypes", "unchecked" })
     private void handleInvalidWorkflowInstances(Connection con, final List invalidWorkflowInstances) throws Exception {
         logger.debug("invalidWorkflowInstances.size()={}", invalidWorkflowInstances.size());
@@ -51,6 +51,15 @@ public class OracleSimpleDialect extends AbstractSqlDialect {
 
     @Override
     protected PreparedStatement createDequeueStmt(final Connection c, final String ppoolId, final int max) throws SQLException {
+        if (dequeueSkipLocked) {
+            // Oracle locks the rows of a SKIP LOCKED cursor when they are fetched, so the number of rows is limited by
+            // maxRows instead of rownum, which would be applied before skipping the locked rows
+            PreparedStatement dequeueStmt = c.prepareStatement("select w.id,w.priority,w.data,w.object_state,w.creation_ts,w.last_mod_ts from COP_QUEUE q, COP_WORKFLOW_INSTANCE w where q.ppool_id = ? and q.engine_id is NULL and w.id = q.WORKFLOW_INSTANCE_ID order by q.priority, q.last_mod_ts for update of q.engine_id skip locked");
+            dequeueStmt.setString(1, ppoolId);
+            dequeueStmt.setMaxRows(max);
+            dequeueStmt.setFetchSize(max);
+            return dequeueStmt;
+        }
         String sql = "select id,priority,data,object_state,creation_ts,last_mod_ts from COP_WORKFLOW_INSTANCE where id in (select * from (select WORKFLOW_INSTANCE_ID from COP_QUEUE where ppool_id = ? and engine_id is NULL order by priority, last_mod_ts) where rownum <= " + max + ")";
         PreparedStatement dequeueStmt = c.prepareStatement(sql);
         dequeueStmt.setString(1, ppoolId);
@@ -73,7 +82,12 @@ public class OracleSimpleDialect extends AbstractSqlDialect {
     @SuppressWarnings("rawtypes")
     @Override
     public BatchCommand createBatchCommand4NotifyNoEarlyResponseHandling(Response<?> response, Acknowledge ack) throws Exception {
-        return new OracleSimpleNotifyNoEarlyResponseHandling.Command(response, serializer, defaultStaleResponseRemovalTimeout, System.currentTimeMillis() + dbBatchingLatencyMSec, ack);
+        return new OracleSimpleNotifyNoEarlyResponseHandling.Command(response, serializer, defaultStaleResponseRemovalTimeout, directEnqueue, System.currentTimeMillis() + dbBatchingLatencyMSec, ack);
+    }
+
+    @Override
+    protected boolean supportsSkipLocked() {
+        return true;
     }
 
     @Override
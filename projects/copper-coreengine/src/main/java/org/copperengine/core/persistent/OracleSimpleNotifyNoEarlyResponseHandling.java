@@ -18,7 +18,9 @@ package org.copperengine.core.persistent;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.copperengine.core.Acknowledge;
 import org.copperengine.core.Response;
@@ -41,12 +43,16 @@ class OracleSimpleNotifyNoEarlyResponseHandling {
         final Response<?> response;
         final Serializer serializer;
         final long defaultStaleResponseRemovalTimeout;
+        final boolean directEnqueue;
+        final Acknowledge ack;
 
-        public Command(Response<?> response, Serializer serializer, long defaultStaleResponseRemovalTimeout, final long targetTime, Acknowledge ack) {
+        public Command(Response<?> response, Serializer serializer, long defaultStaleResponseRemovalTimeout, boolean directEnqueue, final long targetTime, Acknowledge ack) {
             super(new AcknowledgeCallbackWrapper<Command>(ack), targetTime);
             this.response = response;
             this.serializer = serializer;
             this.defaultStaleResponseRemovalTimeout = defaultStaleResponseRemovalTimeout;
+            this.directEnqueue = directEnqueue;
+            this.ack = ack;
         }
 
         @Override
@@ -73,6 +79,8 @@ class OracleSimpleNotifyNoEarlyResponseHandling {
         @Override
         public void doExec(final Collection<BatchCommand<Executor, Command>> commands, final Connection con) throws Exception {
             final Timestamp now = new Timestamp(System.currentTimeMillis());
+            final List<String> directEnqueueCids = new ArrayList<String>();
+            final List<Acknowledge> directEnqueueAcks = new ArrayList<Acknowledge>();
             try (final PreparedStatement stmt = con.prepareStatement(SQL)) {
                 for (BatchCommand<Executor, Command> _cmd : commands) {
                     Command cmd = (Command) _cmd;
@@ -84,9 +92,14 @@ class OracleSimpleNotifyNoEarlyResponseHandling {
                     stmt.setTimestamp(5, TimeoutProcessor.processTimout(cmd.response.getInternalProcessingTimeout(), cmd.defaultStaleResponseRemovalTimeout));
                     stmt.setString(6, cmd.response.getMetaData());
                     stmt.addBatch();
+                    if (cmd.directEnqueue) {
+                        directEnqueueCids.add(cmd.response.getCorrelationId());
+                        directEnqueueAcks.add(cmd.ack);
+                    }
                 }
                 stmt.executeBatch();
             }
+            SqlDirectEnqueue.enqueueReadyWorkflows(con, directEnqueueCids, directEnqueueAcks);
         }
 
     }
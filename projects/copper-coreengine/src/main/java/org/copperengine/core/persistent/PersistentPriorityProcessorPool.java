@@ -18,10 +18,12 @@ package org.copperengine.core.persistent;
 import java.util.Collections;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.copperengine.core.ProcessingState;
 import org.copperengine.core.Workflow;
 import org.copperengine.core.common.PriorityProcessorPool;
+import org.copperengine.core.common.WfMultiLevelQueue;
 import org.copperengine.core.common.WfPriorityQueue;
 import org.copperengine.core.internal.WorkflowAccessor;
 import org.copperengine.core.persistent.txn.TransactionController;
@@ -53,6 +55,8 @@ public class PersistentPriorityProcessorPool extends PriorityProcessorPool imple
     private volatile int emptyQueueWaitMSec = 50;
     private volatile int _dequeueBulkSize = DEFAULT_DEQUEUE_SIZE;
     private Integer oldDequeueBulkSize = null;
+    private volatile AdaptiveDequeueController adaptiveDequeueController = null;
+    private final AtomicBoolean notifiedLowerThreshold = new AtomicBoolean(false);
 
     /**
      * Creates a new {@link PersistentPriorityProcessorPool} with as many worker threads as processors available on the
@@ -88,24 +92,43 @@ public class PersistentPriorityProcessorPool extends PriorityProcessorPool imple
     @Override
     protected Queue<Workflow<?>> createQueue() {
         return new WfPriorityQueue() {
-            private boolean notifiedLowerThreshold = false;
+            @Override
+            public Workflow<?> poll() {
+                Workflow<?> wf = super.poll();
+                polled(wf, size());
+                return wf;
+            }
 
+        };
+    }
+
+    @Override
+    protected WfMultiLevelQueue createMultiLevelQueue() {
+        return new WfMultiLevelQueue() {
             @Override
             public Workflow<?> poll() {
                 Workflow<?> wf = super.poll();
-                if (!notifiedLowerThreshold && size() < lowerThreshold) {
-                    signalQueueSizeBelowLowerThreshold();
-                    notifiedLowerThreshold = true;
-                }
-                if (notifiedLowerThreshold && size() > lowerThreshold) {
-                    notifiedLowerThreshold = false;
-                }
+                polled(wf, size());
                 return wf;
             }
 
         };
     }
 
+    private void polled(Workflow<?> wf, int queueSize) {
+        final AdaptiveDequeueController controller = adaptiveDequeueController;
+        if (wf != null && controller != null) {
+            controller.incProcessed();
+        }
+        final int lowerThreshold = getEffectiveLowerThreshold();
+        if (!notifiedLowerThreshold.get() && queueSize < lowerThreshold && notifiedLowerThreshold.compareAndSet(false, true)) {
+            signalQueueSizeBelowLowerThreshold();
+        }
+        if (queueSize > lowerThreshold && notifiedLowerThreshold.get()) {
+            notifiedLowerThreshold.set(false);
+        }
+    }
+
     @Override
     public synchronized void startup() {
         super.startup();
@@ -133,20 +156,28 @@ public class PersistentPriorityProcessorPool extends PriorityProcessorPool imple
         final ScottyDBStorageInterface dbStorage = engine.getDbStorage();
         while (!shutdown) {
             try {
+                final AdaptiveDequeueController controller = adaptiveDequeueController;
                 while (!shutdown) {
-                    int queueSize = 0;
-                    synchronized (queue) {
-                        queueSize = queue.size();
-                    }
+                    final int queueSize = queueSize();
+                    final int upperThreshold = controller != null ? controller.getUpperThreshold() : this.upperThreshold;
                     if (queueSize < upperThreshold) {
                         break;
                     }
                     logger.trace("Queue size {} >= upper threshold {}. Waiting...", queueSize, upperThreshold);
-                    wait4QueueSizeBelowLowerThreshold();
+                    wait4QueueSizeBelowLowerThreshold(controller != null ? controller.getWaitMSec(queueSize, upperThresholdReachedWaitMSec) : upperThresholdReachedWaitMSec);
                 }
                 List<Workflow<?>> rv;
                 final int dequeueBulkSize = _dequeueBulkSize;
-                if (dequeueBulkSize > 0) {
+                if (dequeueBulkSize > 0 && controller != null) {
+                    final int n = Math.min(dequeueBulkSize, controller.getDequeueBulkSize());
+                    logger.trace("Dequeueing up to {} elements from DB...", n);
+                    final long startTS = System.nanoTime();
+                    rv = dbStorage.dequeue(getId(), n);
+                    final long now = System.nanoTime();
+                    // ScottyDBStorage waits for an enqueue within dequeue, this idle time is no database round trip
+                    final long durationNanos = dbStorage instanceof ScottyDBStorage ? ((ScottyDBStorage) dbStorage).getLastDequeueStatementNanos() : now - startTS;
+                    controller.dequeued(n, rv.size(), durationNanos, now, dequeueBulkSize, getNumberOfThreads());
+                } else if (dequeueBulkSize > 0) {
                     logger.trace("Dequeueing elements from DB...");
                     rv = dbStorage.dequeue(getId(), dequeueBulkSize);
                 } else {
@@ -165,9 +196,13 @@ public class PersistentPriorityProcessorPool extends PriorityProcessorPool imple
                         WorkflowAccessor.setProcessingState(wf, ProcessingState.DEQUEUED);
                         engine.register(wf);
                     }
-                    synchronized (queue) {
+                    if (isMultiLevelQueue()) {
                         queue.addAll(rv);
-                        queue.notifyAll();
+                    } else {
+                        synchronized (queue) {
+                            queue.addAll(rv);
+                            queue.notifyAll();
+                        }
                     }
                 }
             } catch (InterruptedException e) {
@@ -179,6 +214,14 @@ public class PersistentPriorityProcessorPool extends PriorityProcessorPool imple
         logger.info("stopped");
     }
 
+    private int queueSize() {
+        if (isMultiLevelQueue())
+            return queue.size();
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
     @Override
     public void doNotify() {
         logger.trace("doNotify");
@@ -244,6 +287,49 @@ public class PersistentPriorityProcessorPool extends PriorityProcessorPool imple
         this._dequeueBulkSize = dequeueBulkSize;
     }
 
+    /**
+     * Enables or disables the adaptive dequeue mode. In adaptive mode, the pool computes its dequeue bulk size and its
+     * lower and upper threshold from the measured processing rate and the measured duration of a dequeue. The values
+     * configured by {@link #setLowerThreshold(int)} and {@link #setUpperThreshold(int)} are ignored and
+     * {@link #getDequeueBulkSize()} is used as upper bound of the bulk size.
+     * Default is <code>false</code>.
+     */
+    public synchronized void setAdaptiveDequeue(boolean adaptiveDequeue) {
+        if (adaptiveDequeue == isAdaptiveDequeue())
+            return;
+        adaptiveDequeueController = adaptiveDequeue ? new AdaptiveDequeueController(System.nanoTime(), _dequeueBulkSize, lowerThreshold, upperThreshold) : null;
+        logger.info("adaptive dequeue {}", adaptiveDequeue ? "enabled" : "disabled");
+    }
+
+    public boolean isAdaptiveDequeue() {
+        return adaptiveDequeueController != null;
+    }
+
+    public int getEffectiveLowerThreshold() {
+        final AdaptiveDequeueController controller = adaptiveDequeueController;
+        return controller != null ? controller.getLowerThreshold() : lowerThreshold;
+    }
+
+    public int getEffectiveUpperThreshold() {
+        final AdaptiveDequeueController controller = adaptiveDequeueController;
+        return controller != null ? controller.getUpperThreshold() : upperThreshold;
+    }
+
+    public int getEffectiveDequeueBulkSize() {
+        final AdaptiveDequeueController controller = adaptiveDequeueController;
+        return controller != null ? Math.min(_dequeueBulkSize, controller.getDequeueBulkSize()) : _dequeueBulkSize;
+    }
+
+    public double getAvgProcessingRate() {
+        final AdaptiveDequeueController controller = adaptiveDequeueController;
+        return controller != null ? controller.getAvgProcessingRate() : 0.0;
+    }
+
+    public double getAvgDequeueRoundtripMSec() {
+        final AdaptiveDequeueController controller = adaptiveDequeueController;
+        return controller != null ? controller.getAvgRoundtripMSec() : 0.0;
+    }
+
     protected TransactionController getTransactionController() {
         return transactionController;
     }
@@ -274,9 +360,9 @@ public class PersistentPriorityProcessorPool extends PriorityProcessorPool imple
         }
     }
 
-    private void wait4QueueSizeBelowLowerThreshold() throws InterruptedException {
+    private void wait4QueueSizeBelowLowerThreshold(long t) throws InterruptedException {
         synchronized (mutexQueueSize) {
-            mutexQueueSize.wait(upperThresholdReachedWaitMSec);
+            mutexQueueSize.wait(t);
         }
     }
 
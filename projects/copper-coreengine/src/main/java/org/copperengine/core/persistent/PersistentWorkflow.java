@@ -48,6 +48,7 @@ public abstract class PersistentWorkflow<E extends Serializable> extends Workflo
     transient ArrayList<Acknowledge.DefaultAcknowledge> checkpointAcknowledges = null;
     transient ArrayList<SavepointAware> savepointAwares = null;
     transient ErrorData errorData;
+    transient int serializedSize;
 
     void addWaitCorrelationId(final String cid) {
         if (waitCidList == null)
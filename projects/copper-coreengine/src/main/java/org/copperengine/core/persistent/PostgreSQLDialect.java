@@ -15,6 +15,7 @@
  */
 package org.copperengine.core.persistent;
 
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
@@ -39,10 +40,17 @@ public class PostgreSQLDialect extends AbstractSqlDialect {
 
     private static final Logger logger = LoggerFactory.getLogger(PostgreSQLDialect.class);
 
+    private boolean responseLoadingArrayBinding = true;
+
     public PostgreSQLDialect() {
         super(true, false);
     }
 
+    @Override
+    protected boolean supportsBinarySerialization() {
+        return true;
+    }
+
     @Override
     protected PreparedStatement createUpdateStateStmt(final Connection c, final int max) throws SQLException {
         final Timestamp NOW = new Timestamp(System.currentTimeMillis());
@@ -54,11 +62,55 @@ public class PostgreSQLDialect extends AbstractSqlDialect {
 
     @Override
     protected PreparedStatement createDequeueStmt(final Connection c, final String ppoolId, final int max) throws SQLException {
+        if (dequeueSkipLocked) {
+            PreparedStatement dequeueStmt = c.prepareStatement("select w.id,w.priority,w.data,w.object_state,w.creation_ts,w.last_mod_ts from COP_QUEUE q join COP_WORKFLOW_INSTANCE w on w.id = q.WORKFLOW_INSTANCE_ID where q.ppool_id = ? and q.engine_id is NULL order by q.priority, q.last_mod_ts LIMIT " + max + " FOR UPDATE OF q SKIP LOCKED");
+            dequeueStmt.setString(1, ppoolId);
+            return dequeueStmt;
+        }
         PreparedStatement dequeueStmt = c.prepareStatement("select id,priority,data,object_state,creation_ts,last_mod_ts from COP_WORKFLOW_INSTANCE where id in (select WORKFLOW_INSTANCE_ID from COP_QUEUE where ppool_id = ?  and engine_id is NULL order by priority, last_mod_ts) LIMIT " + max);
         dequeueStmt.setString(1, ppoolId);
         return dequeueStmt;
     }
 
+    /**
+     * If turned on (default), the responses of all dequeued workflow instances are loaded with a single query,
+     * binding the workflow ids as one array parameter (<code>WORKFLOW_INSTANCE_ID = ANY(?)</code>) instead of chunked
+     * IN lists. The response loading chunk size is ignored in this case.
+     *
+     * @param responseLoadingArrayBinding
+     *        <code>true</code> to bind the workflow ids as array
+     */
+    public void setResponseLoadingArrayBinding(boolean responseLoadingArrayBinding) {
+        this.responseLoadingArrayBinding = responseLoadingArrayBinding;
+    }
+
+    public boolean isResponseLoadingArrayBinding() {
+        return responseLoadingArrayBinding;
+    }
+
+    @Override
+    public int getResponseLoadingChunkSize() {
+        return responseLoadingArrayBinding ? Integer.MAX_VALUE : super.getResponseLoadingChunkSize();
+    }
+
+    @Override
+    protected PreparedStatement createSelectResponsesStmt(Connection con, int chunkSize) throws SQLException {
+        if (!responseLoadingArrayBinding) {
+            return super.createSelectResponsesStmt(con, chunkSize);
+        }
+        return con.prepareStatement("select w.WORKFLOW_INSTANCE_ID, w.correlation_id, w.timeout_ts, r.response from (select WORKFLOW_INSTANCE_ID, correlation_id, timeout_ts from COP_WAIT where WORKFLOW_INSTANCE_ID = ANY(?)) w LEFT OUTER JOIN COP_RESPONSE r ON w.correlation_id = r.correlation_id order by r.correlation_id, r.response_id");
+    }
+
+    @Override
+    protected Array bindSelectResponsesStmt(Connection con, PreparedStatement stmt, List<String> ids, int chunkSize) throws SQLException {
+        if (!responseLoadingArrayBinding) {
+            return super.bindSelectResponsesStmt(con, stmt, ids, chunkSize);
+        }
+        final Array array = con.createArrayOf("varchar", ids.toArray());
+        stmt.setArray(1, array);
+        return array;
+    }
+
     @Override
     protected PreparedStatement createDeleteStaleResponsesStmt(final Connection c, final int MAX_ROWS) throws SQLException {
         PreparedStatement stmt = c.prepareStatement("delete from COP_RESPONSE where response_timeout < ? and not exists (select * from COP_WAIT w where w.correlation_id = COP_RESPONSE.correlation_id LIMIT " + MAX_ROWS + ")");
@@ -75,7 +127,15 @@ public class PostgreSQLDialect extends AbstractSqlDialect {
     @SuppressWarnings("rawtypes")
     @Override
     public BatchCommand createBatchCommand4NotifyNoEarlyResponseHandling(Response<?> response, Acknowledge ack) throws Exception {
-        return new PostgreSQLNotifyNoEarlyResponseHandling.Command(response, serializer, defaultStaleResponseRemovalTimeout, System.currentTimeMillis() + dbBatchingLatencyMSec, ack);
+        return new PostgreSQLNotifyNoEarlyResponseHandling.Command(response, serializer, isBinarySerialization(), defaultStaleResponseRemovalTimeout, directEnqueue, System.currentTimeMillis() + dbBatchingLatencyMSec, ack);
+    }
+
+    /**
+     * SKIP LOCKED is available since PostgreSQL 9.5
+     */
+    @Override
+    protected boolean supportsSkipLocked() {
+        return true;
     }
 
     @Override
@@ -19,7 +19,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.copperengine.core.Acknowledge;
 import org.copperengine.core.Response;
@@ -35,25 +37,36 @@ class PostgreSQLNotifyNoEarlyResponseHandling {
 
     private static final Logger logger = LoggerFactory.getLogger(PostgreSQLNotifyNoEarlyResponseHandling.class);
 
-    static final String SQL =
-            "INSERT INTO COP_RESPONSE (CORRELATION_ID, RESPONSE_TS, RESPONSE, RESPONSE_TIMEOUT, RESPONSE_META_DATA, RESPONSE_ID) " +
-                    "SELECT D.* FROM " +
-                    "(select correlation_id from COP_WAIT where correlation_id = ?) W, " +
-                    "(select ?::text correlation_id, ?::timestamp response_ts, ?::text response, ?::timestamp as response_timeout, ?::text as response_meta_data, ?::text as RESPONSE_ID) D " +
-                    "WHERE D.correlation_id = W.correlation_id";
+    static final String SQL = createSql("text");
+
+    static final String SQL_BINARY = createSql("bytea");
+
+    private static String createSql(String responseType) {
+        return "INSERT INTO COP_RESPONSE (CORRELATION_ID, RESPONSE_TS, RESPONSE, RESPONSE_TIMEOUT, RESPONSE_META_DATA, RESPONSE_ID) " +
+                "SELECT D.* FROM " +
+                "(select correlation_id from COP_WAIT where correlation_id = ?) W, " +
+                "(select ?::text correlation_id, ?::timestamp response_ts, ?::" + responseType + " response, ?::timestamp as response_timeout, ?::text as response_meta_data, ?::text as RESPONSE_ID) D " +
+                "WHERE D.correlation_id = W.correlation_id";
+    }
 
 
     static final class Command extends AbstractBatchCommand<Executor, Command> {
 
         final Response<?> response;
         final Serializer serializer;
+        final boolean binary;
         final long defaultStaleResponseRemovalTimeout;
+        final boolean directEnqueue;
+        final Acknowledge ack;
 
-        public Command(Response<?> response, Serializer serializer, long defaultStaleResponseRemovalTimeout, final long targetTime, Acknowledge ack) {
+        public Command(Response<?> response, Serializer serializer, boolean binary, long defaultStaleResponseRemovalTimeout, boolean directEnqueue, final long targetTime, Acknowledge ack) {
             super(new AcknowledgeCallbackWrapper<Command>(ack), targetTime);
             this.response = response;
             this.serializer = serializer;
+            this.binary = binary;
             this.defaultStaleResponseRemovalTimeout = defaultStaleResponseRemovalTimeout;
+            this.directEnqueue = directEnqueue;
+            this.ack = ack;
         }
 
         @Override
@@ -81,21 +94,29 @@ class PostgreSQLNotifyNoEarlyResponseHandling {
         public void doExec(final Collection<BatchCommand<Executor, Command>> commands, final Connection con) throws Exception {
             if (commands.isEmpty())
                 return;
-            final PreparedStatement stmt = con.prepareStatement(SQL);
+            final Command first = (Command) commands.iterator().next();
+            final PreparedStatement stmt = con.prepareStatement(first.binary ? SQL_BINARY : SQL);
             try {
                 final Timestamp now = new Timestamp(System.currentTimeMillis());
+                final List<String> directEnqueueCids = new ArrayList<String>();
+                final List<Acknowledge> directEnqueueAcks = new ArrayList<Acknowledge>();
                 for (BatchCommand<Executor, Command> _cmd : commands) {
                     Command cmd = (Command) _cmd;
                     stmt.setString(1, cmd.response.getCorrelationId());
                     stmt.setString(2, cmd.response.getCorrelationId());
                     stmt.setTimestamp(3, now);
-                    stmt.setString(4, cmd.serializer.serializeResponse(cmd.response));
+                    SerializationUtil.setResponse(stmt, 4, cmd.serializer, cmd.binary, cmd.response);
                     stmt.setTimestamp(5, TimeoutProcessor.processTimout(cmd.response.getInternalProcessingTimeout(), cmd.defaultStaleResponseRemovalTimeout));
                     stmt.setString(6, cmd.response.getMetaData());
                     stmt.setString(7, cmd.response.getResponseId());
                     stmt.addBatch();
+                    if (cmd.directEnqueue) {
+                        directEnqueueCids.add(cmd.response.getCorrelationId());
+                        directEnqueueAcks.add(cmd.ack);
+                    }
                 }
                 stmt.executeBatch();
+                SqlDirectEnqueue.enqueueReadyWorkflows(con, directEnqueueCids, directEnqueueAcks);
             } catch (SQLException e) {
                 logger.error("doExec failed", e);
                 logger.error("NextException=", e.getNextException());
@@ -17,9 +17,14 @@ package org.copperengine.core.persistent;
 
 import java.sql.Connection;
 import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -50,8 +55,18 @@ public class ScottyDBStorage implements ScottyDBStorageInterface, ScottyDBStorag
 
     private final IdCache cidStore4responses = new IdCache(10000, 10, TimeUnit.SECONDS);
     private final QueueNotifier queueState = new QueueNotifier();
-    private final Object enqueueSignal = new Object();
+    // one signal per processor pool, an enqueue wakes up a dequeuer of its pool only
+    private final ConcurrentMap<String, Object> enqueueSignals = new ConcurrentHashMap<String, Object>();
+    // duration of the dequeue statement that produced the last result of dequeue, without time spent waiting
+    private final ThreadLocal<long[]> dequeueStatementNanosTL = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
     private int waitForEnqueueMSec = 500;
+    private boolean eventDrivenEnqueue = false;
+    private int eventDrivenPollingIntervalMSec = 5000;
     private volatile int clocksAllowedDeltaMSec = 100;
     private int clocksCheckIntervalSeconds = 60;
 
@@ -118,6 +133,35 @@ public class ScottyDBStorage implements ScottyDBStorageInterface, ScottyDBStorag
         this.waitForEnqueueMSec = waitForEnqueueMSec;
     }
 
+    /**
+     * Turns on the event driven enqueue mode. Notify and register callback move workflow instances, whose waits are
+     * fulfilled, into the queue within their own transaction and afterwards wake up one waiting dequeuer of each
+     * processor pool that workflow instances were enqueued for. The ENQUEUE
+     * thread is no longer triggered by responses and only polls every {@link #setEventDrivenPollingIntervalMSec(int)
+     * eventDrivenPollingIntervalMSec} when idle, to detect timeouts and responses that were committed concurrently
+     * with the corresponding wait.
+     * Requires a dialect derived from {@link AbstractSqlDialect}, see {@link AbstractSqlDialect#setDirectEnqueue(boolean)}.
+     *
+     * @param eventDrivenEnqueue
+     *        <code>true</code> to turn on the event driven enqueue mode
+     */
+    public void setEventDrivenEnqueue(boolean eventDrivenEnqueue) {
+        this.eventDrivenEnqueue = eventDrivenEnqueue;
+    }
+
+    /**
+     * Sets the maximum idle polling interval of the ENQUEUE thread in event driven enqueue mode. This is the maximum
+     * delay for detecting timeouts in this mode.
+     *
+     * @param eventDrivenPollingIntervalMSec
+     *        polling interval in milliseconds
+     */
+    public void setEventDrivenPollingIntervalMSec(int eventDrivenPollingIntervalMSec) {
+        if (eventDrivenPollingIntervalMSec <= 0)
+            throw new IllegalArgumentException("eventDrivenPollingIntervalMSec must be positive");
+        this.eventDrivenPollingIntervalMSec = eventDrivenPollingIntervalMSec;
+    }
+
     private void resumeBrokenBusinessProcesses() throws Exception {
         logger.info("resumeBrokenBusinessProcesses");
         run(new DatabaseTransaction<Void>() {
@@ -141,7 +185,7 @@ public class ScottyDBStorage implements ScottyDBStorageInterface, ScottyDBStorag
                 }
             });
             ack.onSuccess();
-            signalEnqueue();
+            signalEnqueue(wf.getProcessorPoolId());
         } catch (Exception e) {
             ack.onException(e);
             throw e;
@@ -160,7 +204,7 @@ public class ScottyDBStorage implements ScottyDBStorageInterface, ScottyDBStorag
                 }
             });
             ack.onSuccess();
-            signalEnqueue();
+            signalEnqueue(wfs);
         } catch (Exception e) {
             ack.onException(e);
             throw e;
@@ -173,31 +217,88 @@ public class ScottyDBStorage implements ScottyDBStorageInterface, ScottyDBStorag
             return Collections.emptyList();
 
         while (true) {
+            final long startTS = System.nanoTime();
             List<Workflow<?>> ret = run(new DatabaseTransaction<List<Workflow<?>>>() {
                 @Override
                 public List<Workflow<?>> run(Connection con) throws Exception {
                     return dialect.dequeue(ppoolId, max, con);
                 }
             });
+            dequeueStatementNanosTL.get()[0] = System.nanoTime() - startTS;
             if (!ret.isEmpty()) {
+                if (ret.size() == max) {
+                    // there may be more, pass the signal on to the next dequeuer of this pool
+                    signalEnqueue(ppoolId);
+                }
                 return ret;
             }
-            waitForEnqueue();
+            waitForEnqueue(ppoolId);
+        }
+    }
+
+    /**
+     * @return the duration in nanoseconds of the database round trip that produced the result of the last call to
+     *         {@link #dequeue(String, int)} by the current thread, excluding the time spent waiting for an enqueue
+     */
+    long getLastDequeueStatementNanos() {
+        return dequeueStatementNanosTL.get()[0];
+    }
+
+    private Object findEnqueueSignal(String ppoolId) {
+        Object signal = enqueueSignals.get(ppoolId);
+        if (signal == null) {
+            final Object newSignal = new Object();
+            signal = enqueueSignals.putIfAbsent(ppoolId, newSignal);
+            if (signal == null) {
+                signal = newSignal;
+            }
+        }
+        return signal;
+    }
+
+    private void waitForEnqueue(String ppoolId) throws InterruptedException {
+        logger.trace("waitForEnqueue({})...", ppoolId);
+        final Object signal = findEnqueueSignal(ppoolId);
+        synchronized (signal) {
+            signal.wait(waitForEnqueueMSec);
+        }
+        logger.trace("waitForEnqueue({}) DONE", ppoolId);
+    }
+
+    /**
+     * Wakes up one dequeuer of the processor pool
+     */
+    private void signalEnqueue(String ppoolId) {
+        logger.trace("signalEnqueue({})", ppoolId);
+        final Object signal = findEnqueueSignal(ppoolId);
+        synchronized (signal) {
+            signal.notify();
         }
     }
 
-    private void waitForEnqueue() throws InterruptedException {
-        logger.trace("waitForEnqueue...");
-        synchronized (enqueueSignal) {
-            enqueueSignal.wait(waitForEnqueueMSec);
+    private void signalEnqueue(Collection<String> ppoolIds) {
+        for (String ppoolId : ppoolIds) {
+            signalEnqueue(ppoolId);
         }
-        logger.trace("waitForEnqueue DONE");
     }
 
-    private void signalEnqueue() {
-        logger.trace("signalEnqueue");
-        synchronized (enqueueSignal) {
-            enqueueSignal.notify();
+    private void signalEnqueue(List<Workflow<?>> wfs) {
+        final Set<String> ppoolIds = new LinkedHashSet<String>();
+        for (Workflow<?> wf : wfs) {
+            ppoolIds.add(wf.getProcessorPoolId());
+        }
+        signalEnqueue(ppoolIds);
+    }
+
+    /**
+     * Wakes up all dequeuers, used when the processor pools of the enqueued workflow instances are unknown
+     */
+    private void signalEnqueueAll() {
+        logger.trace("signalEnqueueAll");
+        for (Object signal : enqueueSignals.values()) {
+            synchronized (signal) {
+                signal.notifyAll();
+            }
         }
     }
 
@@ -218,6 +319,11 @@ public class ScottyDBStorage implements ScottyDBStorageInterface, ScottyDBStorag
     @Override
     public synchronized void startup() {
         try {
+            if (eventDrivenEnqueue) {
+                if (!(dialect instanceof AbstractSqlDialect))
+                    throw new IllegalStateException("Event driven enqueue is not supported by " + dialect.getClass().getName());
+                ((AbstractSqlDialect) dialect).setDirectEnqueue(true);
+            }
             dialect.startup();
 
             checkDbConsistencyAtStartup();
@@ -323,7 +429,7 @@ public class ScottyDBStorage implements ScottyDBStorageInterface, ScottyDBStorag
         final int lowTraffic = 100;
         logger.info("started");
         int sleepTime = 0;
-        int sleepTimeMaxIdle = 2000;
+        int sleepTimeMaxIdle = eventDrivenEnqueue ? eventDrivenPollingIntervalMSec : 2000;
         int sleepTimeMaxLowTraffic = 500;
         while (!shutdown) {
             int x = 0;
@@ -340,7 +446,7 @@ public class ScottyDBStorage implements ScottyDBStorageInterface, ScottyDBStorag
             }
             logger.trace("updateQueueState returned x={}", x);
             if (x > 0) {
-                signalEnqueue();
+                signalEnqueueAll();
             }
             if (x == 0) {
                 sleepTime = Math.max(10, Math.min(3 * sleepTime / 2, sleepTimeMaxIdle));
@@ -367,7 +473,7 @@ public class ScottyDBStorage implements ScottyDBStorageInterface, ScottyDBStorag
         }
         else {
             dialect.insert(wf, con);
-            signalEnqueue();
+            signalEnqueue(wf.getProcessorPoolId());
         }
     }
 
@@ -378,7 +484,7 @@ public class ScottyDBStorage implements ScottyDBStorageInterface, ScottyDBStorag
         }
         else {
             dialect.insert(wfs, con);
-            signalEnqueue();
+            signalEnqueue(wfs);
         }
     }
 
@@ -460,7 +566,7 @@ public class ScottyDBStorage implements ScottyDBStorageInterface, ScottyDBStorag
         if (rc == null)
             throw new NullPointerException();
 
-        Acknowledge ack = new Acknowledge() {
+        Acknowledge ack = new DirectEnqueueAcknowledge() {
             @Override
             public void onException(Throwable t) {
                 if (callback != null)
@@ -473,7 +579,11 @@ public class ScottyDBStorage implements ScottyDBStorageInterface, ScottyDBStorag
 
                 // Sometimes the responses arrive _before_ wait is called in the workflow
                 // In this case, we want the queue to be updated immediately to have short latency times
-                if (cidStore4responses.contains(rc.correlationIds)) {
+                if (eventDrivenEnqueue) {
+                    // the command may have moved the workflow instance into the queue, e.g. for a response of another
+                    // engine that is not in cidStore4responses
+                    signalEnqueue(getEnqueuedPpoolIds());
+                } else if (cidStore4responses.contains(rc.correlationIds)) {
                     signalQueueState();
                 }
 
@@ -500,13 +610,16 @@ public class ScottyDBStorage implements ScottyDBStorageInterface, ScottyDBStorag
         if (response == null)
             throw new NullPointerException();
 
-        Acknowledge notify = new Acknowledge() {
+        Acknowledge notify = new DirectEnqueueAcknowledge() {
             @Override
             public void onSuccess() {
                 logger.trace("notify successfully finished for response {}", response);
                 if (response.isEarlyResponseHandling())
                     cidStore4responses.put(response.getResponseId(), response.getCorrelationId());
-                signalQueueState();
+                if (eventDrivenEnqueue)
+                    signalEnqueue(getEnqueuedPpoolIds());
+                else
+                    signalQueueState();
                 callback.onSuccess();
             }
 
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.copperengine.core.Response;
+import org.copperengine.core.Workflow;
+import org.copperengine.core.common.WorkflowRepository;
+
+/**
+ * Binds serialized workflow instances and responses to JDBC statements and result sets.
+ * In binary mode, the serializer is a {@link BinarySerializer} and the columns are accessed as bytes (BLOB/BYTEA),
+ * otherwise as strings. Binary mode requires converted columns, so it is chosen by the dialect, see
+ * {@link AbstractSqlDialect#supportsBinarySerialization()}.
+ */
+public final class SerializationUtil {
+
+    private SerializationUtil() {
+    }
+
+    public static boolean isBinary(final Serializer serializer) {
+        return serializer instanceof BinarySerializer;
+    }
+
+    public static void setWorkflow(final PreparedStatement stmt, final int dataIdx, final int objectStateIdx, final Serializer serializer, final boolean binary, final Workflow<?> wf) throws Exception {
+        if (binary) {
+            final BinarySerializedWorkflow sw = ((BinarySerializer) serializer).serializeWorkflowBinary(wf);
+            stmt.setBytes(dataIdx, sw.getData());
+            stmt.setBytes(objectStateIdx, sw.getObjectState());
+            setSerializedSize(wf, length(sw.getData()) + length(sw.getObjectState()));
+        } else {
+            final SerializedWorkflow sw = serializer.serializeWorkflow(wf);
+            stmt.setString(dataIdx, sw.getData());
+            stmt.setString(objectStateIdx, sw.getObjectState());
+            setSerializedSize(wf, length(sw.getData()) + length(sw.getObjectState()));
+        }
+    }
+
+    public static Workflow<?> getWorkflow(final ResultSet rs, final int dataIdx, final int objectStateIdx, final Serializer serializer, final boolean binary, final WorkflowRepository wfRepo) throws Exception {
+        if (binary) {
+            final BinarySerializedWorkflow sw = new BinarySerializedWorkflow();
+            sw.setData(rs.getBytes(dataIdx));
+            sw.setObjectState(rs.getBytes(objectStateIdx));
+            final Workflow<?> wf = ((BinarySerializer) serializer).deserializeWorkflowBinary(sw, wfRepo);
+            setSerializedSize(wf, length(sw.getData()) + length(sw.getObjectState()));
+            return wf;
+        } else {
+            final SerializedWorkflow sw = new SerializedWorkflow();
+            sw.setData(rs.getString(dataIdx));
+            sw.setObjectState(rs.getString(objectStateIdx));
+            final Workflow<?> wf = serializer.deserializeWorkflow(sw, wfRepo);
+            setSerializedSize(wf, length(sw.getData()) + length(sw.getObjectState()));
+            return wf;
+        }
+    }
+
+    public static Workflow<?> getWorkflow(final ResultSet rs, final String dataColumn, final String objectStateColumn, final Serializer serializer, final boolean binary, final WorkflowRepository wfRepo) throws Exception {
+        return getWorkflow(rs, rs.findColumn(dataColumn), rs.findColumn(objectStateColumn), serializer, binary, wfRepo);
+    }
+
+    /**
+     * Records the size of the serialized workflow instance, used as estimate for the next write of the instance, see
+     * {@link SqlRegisterCallback.Command#getEstimatedSize()}.
+     */
+    private static void setSerializedSize(final Workflow<?> wf, final int size) {
+        if (wf instanceof PersistentWorkflow) {
+            ((PersistentWorkflow<?>) wf).serializedSize = size;
+        }
+    }
+
+    private static int length(final byte[] data) {
+        return data != null ? data.length : 0;
+    }
+
+    private static int length(final String data) {
+        return data != null ? data.length() : 0;
+    }
+
+    public static void setResponse(final PreparedStatement stmt, final int idx, final Serializer serializer, final boolean binary, final Response<?> response) throws Exception {
+        if (binary) {
+            stmt.setBytes(idx, ((BinarySerializer) serializer).serializeResponseBinary(response));
+        } else {
+            stmt.setString(idx, serializer.serializeResponse(response));
+        }
+    }
+
+    /**
+     * @return the deserialized response or <code>null</code>, if the column is NULL
+     */
+    public static Response<?> getResponse(final ResultSet rs, final int idx, final Serializer serializer, final boolean binary) throws Exception {
+        if (binary) {
+            final byte[] data = rs.getBytes(idx);
+            return data != null ? ((BinarySerializer) serializer).deserializeResponseBinary(data) : null;
+        } else {
+            final String data = rs.getString(idx);
+            return data != null ? serializer.deserializeResponse(data) : null;
+        }
+    }
+
+}
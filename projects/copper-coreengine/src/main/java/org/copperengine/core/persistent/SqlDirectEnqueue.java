@@ -0,0 +1,126 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.copperengine.core.Acknowledge;
+import org.copperengine.core.db.utility.JdbcUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves workflow instances into COP_QUEUE as soon as their wait condition is fulfilled by the responses in
+ * COP_RESPONSE. Used by the notify and register callback batch commands in direct enqueue mode, within their own
+ * transaction, so that the workflow instances are ready for dequeue when the batch is committed.
+ * Timeouts are not handled here, they are still detected by {@link AbstractSqlDialect#updateQueueState(int, Connection)}.
+ */
+class SqlDirectEnqueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(SqlDirectEnqueue.class);
+
+    private static final int CHUNK_SIZE = 100;
+
+    /**
+     * @param acks
+     *        acknowledges of the commands the correlation ids belong to. The processor pools of the inserted workflow
+     *        instances are added to the first {@link DirectEnqueueAcknowledge} among them, so that each pool is
+     *        signalled once when the transaction has been committed.
+     * @return the number of workflow instances inserted into COP_QUEUE
+     */
+    static int enqueueReadyWorkflows(final Connection con, final Collection<String> correlationIds, final Collection<Acknowledge> acks) throws SQLException {
+        if (correlationIds.isEmpty())
+            return 0;
+
+        final List<String> cids = new ArrayList<String>(new LinkedHashSet<String>(correlationIds));
+        final Timestamp now = new Timestamp(System.currentTimeMillis());
+        int rowcount = 0;
+        final Set<String> ppoolIds = new HashSet<String>();
+        PreparedStatement updStmt = null;
+        PreparedStatement insStmt = null;
+        try {
+            for (int offset = 0; offset < cids.size(); offset += CHUNK_SIZE) {
+                final List<String> chunk = cids.subList(offset, Math.min(cids.size(), offset + CHUNK_SIZE));
+                final PreparedStatement queryStmt = con.prepareStatement(createQuery(chunk.size()));
+                try {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        queryStmt.setString(i + 1, chunk.get(i));
+                    }
+                    final ResultSet rs = queryStmt.executeQuery();
+                    while (rs.next()) {
+                        final String wfiId = rs.getString(1);
+                        final String ppoolId = rs.getString(2);
+                        final int prio = rs.getInt(3);
+
+                        if (updStmt == null) {
+                            updStmt = con.prepareStatement("update COP_WAIT set state=1, timeout_ts=timeout_ts where WORKFLOW_INSTANCE_ID=? and state=0");
+                            insStmt = con.prepareStatement("INSERT INTO COP_QUEUE (PPOOL_ID, PRIORITY, LAST_MOD_TS, WORKFLOW_INSTANCE_ID) VALUES (?,?,?,?)");
+                        }
+                        // only the transaction that switches the state of the waits inserts the queue entry
+                        updStmt.setString(1, wfiId);
+                        if (updStmt.executeUpdate() == 0)
+                            continue;
+
+                        insStmt.setString(1, ppoolId);
+                        insStmt.setInt(2, prio);
+                        insStmt.setTimestamp(3, now);
+                        insStmt.setString(4, wfiId);
+                        insStmt.executeUpdate();
+                        rowcount++;
+                        ppoolIds.add(ppoolId);
+                        logger.debug("Inserting {} into COP_QUEUE", wfiId);
+                    }
+                    rs.close();
+                } finally {
+                    JdbcUtils.closeStatement(queryStmt);
+                }
+            }
+            if (rowcount > 0) {
+                for (Acknowledge ack : acks) {
+                    if (ack instanceof DirectEnqueueAcknowledge) {
+                        ((DirectEnqueueAcknowledge) ack).addEnqueuedPpoolIds(ppoolIds);
+                        break;
+                    }
+                }
+            }
+            return rowcount;
+        } finally {
+            JdbcUtils.closeStatement(insStmt);
+            JdbcUtils.closeStatement(updStmt);
+        }
+    }
+
+    private static String createQuery(int numberOfCorrelationIds) {
+        final StringBuilder sql = new StringBuilder(450 + 2 * numberOfCorrelationIds);
+        sql.append("SELECT w.WORKFLOW_INSTANCE_ID, min(w.PPOOL_ID), min(w.PRIORITY) FROM COP_WAIT w WHERE w.STATE=0 AND w.WORKFLOW_INSTANCE_ID IN (SELECT WORKFLOW_INSTANCE_ID FROM COP_WAIT WHERE CORRELATION_ID IN (");
+        for (int i = 0; i < numberOfCorrelationIds; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(")) AND EXISTS (SELECT * FROM COP_RESPONSE r WHERE r.CORRELATION_ID = w.CORRELATION_ID) GROUP BY w.WORKFLOW_INSTANCE_ID HAVING count(*) >= min(w.MIN_NUMB_OF_RESP)");
+        return sql.toString();
+    }
+
+}
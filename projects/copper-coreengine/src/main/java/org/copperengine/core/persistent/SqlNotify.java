@@ -18,7 +18,9 @@ package org.copperengine.core.persistent;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.copperengine.core.Acknowledge;
 import org.copperengine.core.Response;
@@ -33,13 +35,19 @@ class SqlNotify {
 
         final Response<?> response;
         final Serializer serializer;
+        final boolean binary;
         final long defaultStaleResponseRemovalTimeout;
+        final boolean directEnqueue;
+        final Acknowledge ack;
 
-        public Command(Response<?> response, Serializer serializer, long defaultStaleResponseRemovalTimeout, final long targetTime, Acknowledge ack) {
+        public Command(Response<?> response, Serializer serializer, boolean binary, long defaultStaleResponseRemovalTimeout, boolean directEnqueue, final long targetTime, Acknowledge ack) {
             super(new AcknowledgeCallbackWrapper<Command>(ack), targetTime);
             this.response = response;
             this.serializer = serializer;
+            this.binary = binary;
             this.defaultStaleResponseRemovalTimeout = defaultStaleResponseRemovalTimeout;
+            this.directEnqueue = directEnqueue;
+            this.ack = ack;
         }
 
         @Override
@@ -66,20 +74,26 @@ class SqlNotify {
         @Override
         public void doExec(final Collection<BatchCommand<Executor, Command>> commands, final Connection con) throws Exception {
             final Timestamp now = new Timestamp(System.currentTimeMillis());
+            final List<String> directEnqueueCids = new ArrayList<String>();
+            final List<Acknowledge> directEnqueueAcks = new ArrayList<Acknowledge>();
             try (PreparedStatement stmt = con.prepareStatement("INSERT INTO COP_RESPONSE (CORRELATION_ID, RESPONSE_TS, RESPONSE, RESPONSE_TIMEOUT, RESPONSE_META_DATA, RESPONSE_ID) VALUES (?,?,?,?,?,?)")) {
                 for (BatchCommand<Executor, Command> _cmd : commands) {
                     Command cmd = (Command) _cmd;
                     stmt.setString(1, cmd.response.getCorrelationId());
                     stmt.setTimestamp(2, now);
-                    String payload = cmd.serializer.serializeResponse(cmd.response);
-                    stmt.setString(3, payload);
+                    SerializationUtil.setResponse(stmt, 3, cmd.serializer, cmd.binary, cmd.response);
                     stmt.setTimestamp(4, TimeoutProcessor.processTimout(cmd.response.getInternalProcessingTimeout(), cmd.defaultStaleResponseRemovalTimeout));
                     stmt.setString(5, cmd.response.getMetaData());
                     stmt.setString(6, cmd.response.getResponseId());
                     stmt.addBatch();
+                    if (cmd.directEnqueue) {
+                        directEnqueueCids.add(cmd.response.getCorrelationId());
+                        directEnqueueAcks.add(cmd.ack);
+                    }
                 }
                 stmt.executeBatch();
             }
+            SqlDirectEnqueue.enqueueReadyWorkflows(con, directEnqueueCids, directEnqueueAcks);
         }
     }
 
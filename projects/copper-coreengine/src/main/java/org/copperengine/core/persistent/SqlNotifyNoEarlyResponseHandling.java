@@ -20,7 +20,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.copperengine.core.Acknowledge;
 import org.copperengine.core.Response;
@@ -40,13 +42,19 @@ class SqlNotifyNoEarlyResponseHandling {
 
         final Response<?> response;
         final Serializer serializer;
+        final boolean binary;
         final long defaultStaleResponseRemovalTimeout;
+        final boolean directEnqueue;
+        final Acknowledge ack;
 
-        public Command(Response<?> response, Serializer serializer, long defaultStaleResponseRemovalTimeout, final long targetTime, Acknowledge ack) {
+        public Command(Response<?> response, Serializer serializer, boolean binary, long defaultStaleResponseRemovalTimeout, boolean directEnqueue, final long targetTime, Acknowledge ack) {
             super(new AcknowledgeCallbackWrapper<Command>(ack), targetTime);
             this.response = response;
             this.serializer = serializer;
+            this.binary = binary;
             this.defaultStaleResponseRemovalTimeout = defaultStaleResponseRemovalTimeout;
+            this.directEnqueue = directEnqueue;
+            this.ack = ack;
         }
 
         @Override
@@ -79,6 +87,8 @@ class SqlNotifyNoEarlyResponseHandling {
             try {
                 final Timestamp now = new Timestamp(System.currentTimeMillis());
                 int counter = 0;
+                final List<String> directEnqueueCids = new ArrayList<String>();
+                final List<Acknowledge> directEnqueueAcks = new ArrayList<Acknowledge>();
                 for (BatchCommand<Executor, Command> _cmd : commands) {
                     Command cmd = (Command) _cmd;
                     selectStmt.clearParameters();
@@ -91,16 +101,21 @@ class SqlNotifyNoEarlyResponseHandling {
                     if (c == 1) {
                         insertStmt.setString(1, cmd.response.getCorrelationId());
                         insertStmt.setTimestamp(2, now);
-                        insertStmt.setString(3, cmd.serializer.serializeResponse(cmd.response));
+                        SerializationUtil.setResponse(insertStmt, 3, cmd.serializer, cmd.binary, cmd.response);
                         insertStmt.setTimestamp(4, TimeoutProcessor.processTimout(cmd.response.getInternalProcessingTimeout(), cmd.defaultStaleResponseRemovalTimeout));
                         insertStmt.setString(5, cmd.response.getMetaData());
                         insertStmt.setString(6, cmd.response.getResponseId());
                         insertStmt.addBatch();
                         counter++;
+                        if (cmd.directEnqueue) {
+                            directEnqueueCids.add(cmd.response.getCorrelationId());
+                            directEnqueueAcks.add(cmd.ack);
+                        }
                     }
                 }
                 if (counter > 0) {
                     insertStmt.executeBatch();
+                    SqlDirectEnqueue.enqueueReadyWorkflows(con, directEnqueueCids, directEnqueueAcks);
                 }
             } catch (SQLException e) {
                 logger.error("doExec failed", e);
@@ -32,6 +32,7 @@ import org.copperengine.core.batcher.AbstractBatchCommand;
 import org.copperengine.core.batcher.BatchCommand;
 import org.copperengine.core.batcher.BatchExecutor;
 import org.copperengine.core.batcher.CommandCallback;
+import org.copperengine.core.batcher.SizedBatchCommand;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,13 +40,16 @@ class SqlRegisterCallback {
 
     private static final Logger logger = LoggerFactory.getLogger(SqlRegisterCallback.class);
 
-    static final class Command extends AbstractBatchCommand<Executor, Command> {
+    static final class Command extends AbstractBatchCommand<Executor, Command> implements SizedBatchCommand {
 
         private final RegisterCall registerCall;
         private final Serializer serializer;
+        private final boolean binary;
         private final WorkflowPersistencePlugin workflowPersistencePlugin;
+        private final boolean directEnqueue;
+        private final Acknowledge ack;
 
-        public Command(final RegisterCall registerCall, final Serializer serializer, final ScottyDBStorageInterface dbStorage, final long targetTime, final WorkflowPersistencePlugin workflowPersistencePlugin, final Acknowledge ack) {
+        public Command(final RegisterCall registerCall, final Serializer serializer, final boolean binary, final ScottyDBStorageInterface dbStorage, final long targetTime, final WorkflowPersistencePlugin workflowPersistencePlugin, final boolean directEnqueue, final Acknowledge ack) {
             super(new CommandCallback<Command>() {
                 @Override
                 public void commandCompleted() {
@@ -61,7 +65,10 @@ class SqlRegisterCallback {
             }, targetTime);
             this.registerCall = registerCall;
             this.serializer = serializer;
+            this.binary = binary;
             this.workflowPersistencePlugin = workflowPersistencePlugin;
+            this.directEnqueue = directEnqueue;
+            this.ack = ack;
         }
 
         @Override
@@ -69,6 +76,15 @@ class SqlRegisterCallback {
             return Executor.INSTANCE;
         }
 
+        /**
+         * @return the size of the workflow instance when it was serialized the last time, i.e. when it was read from or
+         *         written to the database
+         */
+        @Override
+        public int getEstimatedSize() {
+            return ((PersistentWorkflow<?>) registerCall.workflow).serializedSize;
+        }
+
     }
 
     static final class Executor extends BatchExecutor<Executor, Command> {
@@ -87,6 +103,8 @@ class SqlRegisterCallback {
                 final Timestamp now = new Timestamp(System.currentTimeMillis());
                 boolean doWaitDeletes = false;
                 boolean doResponseDeletes = false;
+                final List<String> directEnqueueCids = new ArrayList<String>();
+                final List<Acknowledge> directEnqueueAcks = new ArrayList<Acknowledge>();
                 HashMap<WorkflowPersistencePlugin, ArrayList<PersistentWorkflow<?>>> wfs = new HashMap<WorkflowPersistencePlugin, ArrayList<PersistentWorkflow<?>>>();
                 for (BatchCommand<Executor, Command> _cmd : commands) {
                     Command cmd = (Command) _cmd;
@@ -108,15 +126,18 @@ class SqlRegisterCallback {
                         insertWaitStmt.setInt(6, rc.workflow.getPriority());
                         insertWaitStmt.setString(7, rc.workflow.getProcessorPoolId());
                         insertWaitStmt.addBatch();
+                        if (cmd.directEnqueue)
+                            directEnqueueCids.add(cid);
                     }
+                    if (cmd.directEnqueue)
+                        directEnqueueAcks.add(cmd.ack);
                     int idx = 1;
-                    SerializedWorkflow sw = cmd.serializer.serializeWorkflow(rc.workflow);
                     updateWfiStmt.setInt(idx++, DBProcessingState.WAITING.ordinal());
                     updateWfiStmt.setInt(idx++, rc.workflow.getPriority());
                     updateWfiStmt.setTimestamp(idx++, now);
                     updateWfiStmt.setString(idx++, rc.workflow.getProcessorPoolId());
-                    updateWfiStmt.setString(idx++, sw.getData());
-                    updateWfiStmt.setString(idx++, sw.getObjectState());
+                    SerializationUtil.setWorkflow(updateWfiStmt, idx, idx + 1, cmd.serializer, cmd.binary, rc.workflow);
+                    idx += 2;
                     updateWfiStmt.setInt(idx++, rc.waitMode.ordinal());
                     updateWfiStmt.setInt(idx++, rc.waitMode == WaitMode.FIRST ? 1 : rc.correlationIds.length);
                     updateWfiStmt.setInt(idx++, rc.correlationIds.length);
@@ -155,6 +176,9 @@ class SqlRegisterCallback {
                 updateWfiStmt.executeBatch();
                 stmtDelQueue.executeBatch();
 
+                // responses that arrived before the wait was registered
+                SqlDirectEnqueue.enqueueReadyWorkflows(con, directEnqueueCids, directEnqueueAcks);
+
                 for (BatchCommand<Executor, Command> _cmd : commands) {
                     Command cmd = (Command) _cmd;
                     RegisterCall rc = cmd.registerCall;
@@ -18,6 +18,7 @@ package org.copperengine.core.persistent;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -27,18 +28,30 @@ import java.util.zip.Deflater;
 import org.copperengine.core.Response;
 import org.copperengine.core.Workflow;
 import org.copperengine.core.common.WorkflowRepository;
+import org.copperengine.core.monitoring.NullRuntimeStatisticsCollector;
+import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
+import org.copperengine.core.persistent.compression.CompressionCodec;
+import org.copperengine.core.persistent.compression.CompressionCodecs;
+import org.copperengine.core.persistent.compression.CompressionStatistics;
+import org.copperengine.core.persistent.compression.DeflateCodec;
 import org.copperengine.core.util.Base64;
 
 /**
  * Implementation of the {@link Serializer} interface using java's standard object serialization.
  * If compression is enabled, the serialized objects are compressed if the size of the corresponding
  * byte array is larger than a configured threshold.
+ * <p>
+ * Compression is done by a {@link CompressionCodec}, by default {@link DeflateCodec} with
+ * {@link #DEFAULT_COMPRESSION_LEVEL}. The serialized text starts with 'U' for uncompressed data, 'C' for deflated
+ * data or 'Z' followed by the two digit hex id of any other codec. So data remains readable when the codec is
+ * changed.
  *
  * @author austermann
  */
 public class StandardJavaSerializer implements Serializer {
 
     public static final boolean DEFAULT_COMPRESS = true;
+    public static final int DEFAULT_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
 
     private static final String COPPER_3_PACKAGE_PREFIX = "org.copperengine.core.";
     private static final String COPPER_2X_PACKAGE_PREFIX = "de.scoopgmbh.copper.";
@@ -49,31 +62,69 @@ public class StandardJavaSerializer implements Serializer {
     private int compressThresholdSize = 250;
     private int compressorMaxSize = 128 * 1024;
 
-    private ThreadLocal<Compressor> compressorTL = new ThreadLocal<Compressor>() {
-        @Override
-        protected Compressor initialValue() {
-            return new Compressor(Deflater.BEST_COMPRESSION, compressorMaxSize);
-        }
-    };
+    private CompressionCodec compressionCodec = new DeflateCodec(DEFAULT_COMPRESSION_LEVEL);
+    private CompressionStatistics compressionStatistics = new CompressionStatistics(new NullRuntimeStatisticsCollector());
 
     public void setCompress(boolean compress) {
         this.compress = compress;
     }
 
+    /**
+     * Serialized objects larger than this size are stored uncompressed
+     */
     public void setCompressorMaxSize(int compressorMaxSize) {
         this.compressorMaxSize = compressorMaxSize;
-        compressorTL = new ThreadLocal<Compressor>() {
-            @Override
-            protected Compressor initialValue() {
-                return new Compressor(Deflater.BEST_COMPRESSION, StandardJavaSerializer.this.compressorMaxSize);
-            }
-        };
+    }
+
+    public int getCompressorMaxSize() {
+        return compressorMaxSize;
+    }
+
+    /**
+     * Sets the codec used for compression, e.g. {@link org.copperengine.core.persistent.compression.Lz4Codec}.
+     * The codec is registered at {@link CompressionCodecs}, so data written by it can be read later on.
+     */
+    public void setCompressionCodec(CompressionCodec compressionCodec) {
+        if (compressionCodec == null)
+            throw new NullPointerException();
+        CompressionCodecs.register(compressionCodec);
+        this.compressionCodec = compressionCodec;
+    }
+
+    public CompressionCodec getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    /**
+     * Shortcut for using a {@link DeflateCodec} with the specified level, see {@link Deflater}.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        setCompressionCodec(new DeflateCodec(compressionLevel));
+    }
+
+    /**
+     * Sets the collector for the compression statistics, see {@link CompressionStatistics}
+     */
+    public void setRuntimeStatisticsCollector(RuntimeStatisticsCollector runtimeStatisticsCollector) {
+        this.compressionStatistics = new CompressionStatistics(runtimeStatisticsCollector);
+    }
+
+    protected CompressionStatistics getCompressionStatistics() {
+        return compressionStatistics;
     }
 
     public void setCompressThresholdSize(int compressThresholdSize) {
         this.compressThresholdSize = compressThresholdSize;
     }
 
+    public boolean isCompress() {
+        return compress;
+    }
+
+    public int getCompressThresholdSize() {
+        return compressThresholdSize;
+    }
+
     private String serialize(final Object o) throws IOException {
         if (o == null)
             return null;
@@ -83,40 +134,81 @@ public class StandardJavaSerializer implements Serializer {
         oos.close();
         baos.close();
         byte[] data = baos.toByteArray();
-        boolean isCompressed = false;
+        CompressionCodec codec = null;
         if (compress && compressThresholdSize <= data.length && data.length <= compressorMaxSize) {
-            data = compressorTL.get().compress(data);
-            isCompressed = true;
+            codec = compressionCodec;
+            baos.reset();
+            compressionStatistics.compress(codec, data, 0, data.length, baos);
+            data = baos.toByteArray();
         }
         final String encoded = Base64.encode(data);
         final StringBuilder sb = new StringBuilder(encoded.length() + 4);
-        sb.append(isCompressed ? 'C' : 'U').append(encoded);
+        if (codec == null) {
+            sb.append('U');
+        } else if (codec.getId() == DeflateCodec.ID) {
+            sb.append('C');
+        } else {
+            sb.append('Z').append(Character.forDigit((codec.getId() >> 4) & 0xF, 16)).append(Character.forDigit(codec.getId() & 0xF, 16));
+        }
+        sb.append(encoded);
         return sb.toString();
     }
 
+    /**
+     * Deserializes the 'C', 'U' or 'Z' prefixed Base64 text written by this serializer.
+     */
+    protected Serializable deserializeBase64(String _data, final WorkflowRepository wfRepo) throws IOException, ClassNotFoundException, DataFormatException {
+        return deserialize(_data, wfRepo);
+    }
+
     private Serializable deserialize(String _data, final WorkflowRepository wfRepo) throws IOException, ClassNotFoundException, DataFormatException {
         if (_data == null)
             return null;
-        boolean isCompressed = _data.charAt(0) == 'C';
-        byte[] data = Base64.decode(_data.substring(1));
-        if (isCompressed) {
-            data = compressorTL.get().uncompress(data);
+        final char format = _data.charAt(0);
+        byte[] data;
+        if (format == 'C') {
+            data = Base64.decode(_data.substring(1));
+            data = compressionStatistics.uncompress(getCodec(DeflateCodec.ID), data, 0, data.length);
+        } else if (format == 'Z') {
+            data = Base64.decode(_data.substring(3));
+            data = compressionStatistics.uncompress(getCodec((byte) Integer.parseInt(_data.substring(1, 3), 16)), data, 0, data.length);
+        } else {
+            data = Base64.decode(_data.substring(1));
         }
-        ByteArrayInputStream bais = new ByteArrayInputStream(data);
-        ObjectInputStream ois = wfRepo != null ? new ObjectInputStream(bais) {
+        ObjectInputStream ois = createObjectInputStream(new ByteArrayInputStream(data), wfRepo);
+        Serializable o = (Serializable) ois.readObject();
+        ois.close();
+        return o;
+    }
+
+    /**
+     * Returns the codec for the id recorded in serialized data.
+     */
+    protected CompressionCodec getCodec(byte id) throws IOException {
+        if (compressionCodec.getId() == id)
+            return compressionCodec;
+        final CompressionCodec codec = CompressionCodecs.get(id);
+        if (codec == null)
+            throw new IOException("unknown compression codec " + (id & 0xFF));
+        return codec;
+    }
+
+    /**
+     * Creates the {@link ObjectInputStream} used for deserialization. Classes are resolved via the workflow
+     * repository, if one is given, and are subject to the {@link #classnameReplacement(String) classname replacement}.
+     */
+    protected ObjectInputStream createObjectInputStream(final InputStream in, final WorkflowRepository wfRepo) throws IOException {
+        return wfRepo != null ? new ObjectInputStream(in) {
             @Override
             protected java.lang.Class<?> resolveClass(java.io.ObjectStreamClass desc) throws java.io.IOException, ClassNotFoundException {
                 return wfRepo.resolveClass(classnameReplacement(desc.getName()));
             }
-        } : new ObjectInputStream(bais) {
+        } : new ObjectInputStream(in) {
             @Override
             protected java.lang.Class<?> resolveClass(java.io.ObjectStreamClass desc) throws java.io.IOException, ClassNotFoundException {
                 return Class.forName(classnameReplacement(desc.getName()));
             }
         };
-        Serializable o = (Serializable) ois.readObject();
-        ois.close();
-        return o;
     }
 
     /**
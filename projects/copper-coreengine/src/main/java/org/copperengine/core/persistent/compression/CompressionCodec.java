@@ -0,0 +1,51 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * A compression algorithm used by the serializers to compress serialized workflow instances and responses.
+ * The {@link #getId() id} of the codec is stored together with the compressed data, so that data is readable
+ * independent of the codec the reading serializer is configured with, see {@link CompressionCodecs}.
+ * <p>
+ * Implementations must be thread safe.
+ */
+public interface CompressionCodec {
+
+    /**
+     * @return the unique id of this codec, recorded in the header of the serialized data
+     */
+    public byte getId();
+
+    /**
+     * @return the name of this codec, used e.g. for runtime statistics
+     */
+    public String getName();
+
+    /**
+     * Compresses <code>length</code> bytes of <code>data</code>, starting at <code>offset</code>, and appends
+     * the result to <code>out</code>.
+     */
+    public void compress(byte[] data, int offset, int length, ByteArrayOutputStream out);
+
+    /**
+     * Uncompresses <code>length</code> bytes of <code>data</code>, starting at <code>offset</code>.
+     */
+    public byte[] uncompress(byte[] data, int offset, int length) throws IOException;
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.compression;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.Deflater;
+
+/**
+ * Registry of the known {@link CompressionCodec}s, used to find the codec for the id recorded in serialized data.
+ * {@link DeflateCodec} and {@link Lz4Codec} are registered by default, custom codecs have to be registered before
+ * data written by them is read.
+ */
+public final class CompressionCodecs {
+
+    private static final AtomicReferenceArray<CompressionCodec> codecs = new AtomicReferenceArray<CompressionCodec>(256);
+
+    static {
+        register(new DeflateCodec(Deflater.DEFAULT_COMPRESSION));
+        register(new Lz4Codec());
+    }
+
+    private CompressionCodecs() {
+    }
+
+    /**
+     * Registers a codec. The ids 0x00 and 0x01 as well as the characters 'C', 'U' and 'Z' are reserved, because they
+     * mark uncompressed data and data in the text format of {@link org.copperengine.core.persistent.StandardJavaSerializer}.
+     *
+     * @throws IllegalArgumentException
+     *         if the id is reserved or if a different codec is already registered with this id
+     */
+    public static void register(CompressionCodec codec) {
+        final int id = codec.getId() & 0xFF;
+        if (id == 0x00 || id == 0x01 || id == 'C' || id == 'U' || id == 'Z')
+            throw new IllegalArgumentException("codec id " + id + " is reserved");
+        if (!codecs.compareAndSet(id, null, codec)) {
+            final CompressionCodec existing = codecs.get(id);
+            if (existing.getClass() != codec.getClass())
+                throw new IllegalArgumentException("codec id " + id + " is already used by " + existing.getName());
+        }
+    }
+
+    /**
+     * @return the codec registered with this id or <code>null</code>
+     */
+    public static CompressionCodec get(byte id) {
+        return codecs.get(id & 0xFF);
+    }
+
+    /**
+     * @return the registered codec with this name, e.g. "deflate" or "lz4", or <code>null</code>
+     */
+    public static CompressionCodec get(String name) {
+        for (int i = 0; i < codecs.length(); i++) {
+            final CompressionCodec codec = codecs.get(i);
+            if (codec != null && codec.getName().equals(name))
+                return codec;
+        }
+        return null;
+    }
+
+}
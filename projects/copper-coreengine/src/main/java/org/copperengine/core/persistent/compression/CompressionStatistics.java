@@ -0,0 +1,70 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.monitoring.NullRuntimeStatisticsCollector;
+import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
+
+/**
+ * Invokes {@link CompressionCodec}s and submits their runtime statistics to a {@link RuntimeStatisticsCollector}.
+ * Per codec there are three measure points, each counting bytes as elements:
+ * <ul>
+ * <li><code>Compression.&lt;codec&gt;.compress.in</code> - uncompressed bytes and time of compression</li>
+ * <li><code>Compression.&lt;codec&gt;.compress.out</code> - compressed bytes and time of compression, so the
+ * compression ratio is <code>#elements(out) / #elements(in)</code></li>
+ * <li><code>Compression.&lt;codec&gt;.uncompress</code> - uncompressed bytes and time of uncompression</li>
+ * </ul>
+ */
+public class CompressionStatistics {
+
+    private final RuntimeStatisticsCollector runtimeStatisticsCollector;
+    private final boolean enabled;
+
+    public CompressionStatistics(RuntimeStatisticsCollector runtimeStatisticsCollector) {
+        if (runtimeStatisticsCollector == null)
+            throw new NullPointerException();
+        this.runtimeStatisticsCollector = runtimeStatisticsCollector;
+        this.enabled = !(runtimeStatisticsCollector instanceof NullRuntimeStatisticsCollector);
+    }
+
+    public void compress(CompressionCodec codec, byte[] data, int offset, int length, ByteArrayOutputStream out) {
+        if (!enabled) {
+            codec.compress(data, offset, length, out);
+            return;
+        }
+        final int sizeBefore = out.size();
+        final long startTS = System.nanoTime();
+        codec.compress(data, offset, length, out);
+        final long et = System.nanoTime() - startTS;
+        runtimeStatisticsCollector.submit("Compression." + codec.getName() + ".compress.in", length, et, TimeUnit.NANOSECONDS);
+        runtimeStatisticsCollector.submit("Compression." + codec.getName() + ".compress.out", out.size() - sizeBefore, et, TimeUnit.NANOSECONDS);
+    }
+
+    public byte[] uncompress(CompressionCodec codec, byte[] data, int offset, int length) throws IOException {
+        if (!enabled) {
+            return codec.uncompress(data, offset, length);
+        }
+        final long startTS = System.nanoTime();
+        final byte[] result = codec.uncompress(data, offset, length);
+        runtimeStatisticsCollector.submit("Compression." + codec.getName() + ".uncompress", result.length, System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link CompressionCodec} using {@link Deflater} with a configurable compression level. The compressed data is
+ * a plain zlib stream, i.e. the format that {@link org.copperengine.core.persistent.Compressor} produces.
+ * Data is readable independent of the compression level it was written with.
+ * <p>
+ * The {@link Deflater}s and {@link Inflater}s are cached per thread and shared by all codec instances, so
+ * replacing a codec, e.g. via {@link org.copperengine.core.persistent.StandardJavaSerializer#setCompressionLevel(int)},
+ * does not leave native zlib streams behind.
+ */
+public class DeflateCodec implements CompressionCodec {
+
+    public static final byte ID = 0x02;
+    public static final String NAME = "deflate";
+
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    private final int level;
+
+    private static final ThreadLocal<Deflater[]> deflaterTL = new ThreadLocal<Deflater[]>() {
+        @Override
+        protected Deflater[] initialValue() {
+            // one slot per level, DEFAULT_COMPRESSION (-1) up to BEST_COMPRESSION (9)
+            return new Deflater[Deflater.BEST_COMPRESSION + 2];
+        }
+    };
+
+    private static final ThreadLocal<Inflater> inflaterTL = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private static final ThreadLocal<byte[]> chunkTL = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[CHUNK_SIZE];
+        }
+    };
+
+    /**
+     * @param level
+     *        compression level, see {@link Deflater}
+     */
+    public DeflateCodec(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("invalid compression level " + level);
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void compress(byte[] data, int offset, int length, ByteArrayOutputStream out) {
+        final Deflater deflater = getDeflater();
+        final byte[] chunk = chunkTL.get();
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                final int n = deflater.deflate(chunk);
+                out.write(chunk, 0, n);
+            }
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private Deflater getDeflater() {
+        final Deflater[] deflaters = deflaterTL.get();
+        Deflater deflater = deflaters[level + 1];
+        if (deflater == null) {
+            deflater = new Deflater(level);
+            deflaters[level + 1] = deflater;
+        }
+        return deflater;
+    }
+
+    @Override
+    public byte[] uncompress(byte[] data, int offset, int length) throws IOException {
+        final Inflater inflater = inflaterTL.get();
+        try {
+            inflater.setInput(data, offset, length);
+            byte[] result = new byte[Math.max(CHUNK_SIZE, length * 4)];
+            int count = 0;
+            while (!inflater.finished()) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, result.length << 1);
+                }
+                final int n = inflater.inflate(result, count, result.length - count);
+                if (n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("truncated deflate data");
+                }
+                count += n;
+            }
+            return count == result.length ? result : Arrays.copyOf(result, count);
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+}
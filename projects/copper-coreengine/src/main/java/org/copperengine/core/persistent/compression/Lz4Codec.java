@@ -0,0 +1,213 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fast {@link CompressionCodec} implemented in pure java. The compressed data consists of the uncompressed
+ * length (four bytes, big endian) followed by one block in the LZ4 block format. The compressor uses a single
+ * hash probe per position, which trades compression ratio for speed, similar to LZ4's fast mode.
+ */
+public class Lz4Codec implements CompressionCodec {
+
+    public static final byte ID = 0x03;
+    public static final String NAME = "lz4";
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int RUN_MASK = 0x0F;
+    private static final int HASH_LOG = 14;
+    // a literal run or match length is encoded with at least one byte per 255 bytes of output
+    private static final int MAX_EXPANSION = 255;
+
+    /**
+     * Hash table of a thread. The table stores positions relative to <code>base</code>, which is advanced by the
+     * length of the input after each call. Entries below <code>base</code> are left over from earlier calls, so the
+     * table has to be cleared only when <code>base</code> wraps around.
+     */
+    private static final class HashTable {
+        final int[] positions = new int[1 << HASH_LOG];
+        int base = 1;
+    }
+
+    private static final ThreadLocal<HashTable> hashTableTL = new ThreadLocal<HashTable>() {
+        @Override
+        protected HashTable initialValue() {
+            return new HashTable();
+        }
+    };
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void compress(final byte[] data, final int offset, final int length, final ByteArrayOutputStream out) {
+        writeInt(out, length);
+
+        final int end = offset + length;
+        final int matchLimit = end - LAST_LITERALS;
+        final int mfLimit = end - MF_LIMIT;
+        final HashTable ht = hashTableTL.get();
+        if (ht.base > Integer.MAX_VALUE - length) {
+            Arrays.fill(ht.positions, 0);
+            ht.base = 1;
+        }
+        final int[] hashTable = ht.positions;
+        final int base = ht.base;
+        final int delta = base - offset;
+        ht.base = base + length;
+
+        int anchor = offset;
+        int ip = offset;
+        while (ip < mfLimit) {
+            final int h = hash(readInt(data, ip));
+            final int stored = hashTable[h];
+            int ref = stored - delta;
+            hashTable[h] = ip + delta;
+            if (stored < base || ip - ref > MAX_DISTANCE || readInt(data, ref) != readInt(data, ip)) {
+                ip++;
+                continue;
+            }
+            while (ip > anchor && ref > offset && data[ip - 1] == data[ref - 1]) {
+                ip--;
+                ref--;
+            }
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < matchLimit && data[ref + matchLength] == data[ip + matchLength]) {
+                matchLength++;
+            }
+            writeSequence(out, data, anchor, ip - anchor, ip - ref, matchLength);
+            ip += matchLength;
+            anchor = ip;
+        }
+        writeLastLiterals(out, data, anchor, end - anchor);
+    }
+
+    @Override
+    public byte[] uncompress(final byte[] data, final int offset, final int length) throws IOException {
+        if (length < 5)
+            throw new IOException("truncated lz4 data");
+        final int end = offset + length;
+        final int uncompressedLength = readInt(data, offset);
+        if (uncompressedLength < 0 || uncompressedLength > (long) (length - 4) * MAX_EXPANSION)
+            throw new IOException("corrupt lz4 data: invalid uncompressed length " + uncompressedLength);
+        final byte[] result = new byte[uncompressedLength];
+        int ip = offset + 4;
+        int op = 0;
+        try {
+            while (true) {
+                final int token = data[ip++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = data[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 0xFF);
+                }
+                System.arraycopy(data, ip, result, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip >= end)
+                    break;
+
+                final int distance = (data[ip++] & 0xFF) | ((data[ip++] & 0xFF) << 8);
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = data[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 0xFF);
+                }
+                matchLength += MIN_MATCH;
+                int ref = op - distance;
+                if (distance == 0 || ref < 0)
+                    throw new IOException("corrupt lz4 data: invalid match distance " + distance);
+                // the match may overlap the bytes it is producing, so copy byte by byte
+                final int matchEnd = op + matchLength;
+                if (matchEnd > result.length)
+                    throw new IOException("corrupt lz4 data: output overflow");
+                while (op < matchEnd) {
+                    result[op++] = result[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("corrupt lz4 data", e);
+        }
+        if (op != result.length)
+            throw new IOException("corrupt lz4 data: expected " + result.length + " bytes, got " + op);
+        return result;
+    }
+
+    private static int hash(int value) {
+        return (value * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] data, int i) {
+        return ((data[i] & 0xFF) << 24) | ((data[i + 1] & 0xFF) << 16) | ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeLength(ByteArrayOutputStream out, int length) {
+        while (length >= 0xFF) {
+            out.write(0xFF);
+            length -= 0xFF;
+        }
+        out.write(length);
+    }
+
+    private static void writeSequence(ByteArrayOutputStream out, byte[] data, int literalOffset, int literalLength, int distance, int matchLength) {
+        final int ml = matchLength - MIN_MATCH;
+        out.write((Math.min(literalLength, RUN_MASK) << 4) | Math.min(ml, RUN_MASK));
+        if (literalLength >= RUN_MASK) {
+            writeLength(out, literalLength - RUN_MASK);
+        }
+        out.write(data, literalOffset, literalLength);
+        out.write(distance);
+        out.write(distance >>> 8);
+        if (ml >= RUN_MASK) {
+            writeLength(out, ml - RUN_MASK);
+        }
+    }
+
+    private static void writeLastLiterals(ByteArrayOutputStream out, byte[] data, int literalOffset, int literalLength) {
+        out.write(Math.min(literalLength, RUN_MASK) << 4);
+        if (literalLength >= RUN_MASK) {
+            writeLength(out, literalLength - RUN_MASK);
+        }
+        out.write(data, literalOffset, literalLength);
+    }
+
+}
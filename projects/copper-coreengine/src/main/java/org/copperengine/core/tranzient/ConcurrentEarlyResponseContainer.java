@@ -0,0 +1,314 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.tranzient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.copperengine.core.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Concurrent implementation of the {@link EarlyResponseContainer} interface.
+ * <p>
+ * In contrast to the {@link DefaultEarlyResponseContainer}, <code>put</code> and <code>get</code> only synchronize on
+ * the responses of a single correlation id, and every early response is additionally kept in an index ordered by its
+ * expiry time. Housekeeping takes the expired responses from the head of this index, so its cost is proportional to
+ * the number of responses that actually expire, not to the size of the container.
+ * <p>
+ * The size bound counts responses, not correlation ids. Once the container holds more than
+ * <code>upperBorderNumberOfResponses</code> responses, the ones closest to their expiry are evicted until
+ * <code>lowerBorderNumberOfResponses</code> is reached. The number of expired and evicted responses is available for
+ * monitoring.
+ */
+public class ConcurrentEarlyResponseContainer implements EarlyResponseContainer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrentEarlyResponseContainer.class);
+
+    static final class EarlyResponse implements Comparable<EarlyResponse> {
+        final long ts;
+        final long seqNo;
+        final Response<?> response;
+
+        EarlyResponse(final Response<?> response, final long minHoldBackTime, final long seqNo) {
+            this.response = response;
+            this.seqNo = seqNo;
+            long ts = System.currentTimeMillis() + minHoldBackTime;
+            if (ts <= 0) {
+                ts = Long.MAX_VALUE;
+            }
+            this.ts = ts;
+        }
+
+        @Override
+        public int compareTo(EarlyResponse o) {
+            if (ts != o.ts)
+                return ts < o.ts ? -1 : 1;
+            if (seqNo != o.seqNo)
+                return seqNo < o.seqNo ? -1 : 1;
+            return 0;
+        }
+    }
+
+    /**
+     * The early responses of one correlation id. Once removed from the map, an entry is never used again.
+     */
+    private static final class Entry {
+        final List<EarlyResponse> responses = new ArrayList<EarlyResponse>(3);
+        boolean removed;
+    }
+
+    private final ConcurrentMap<String, Entry> responseMap = new ConcurrentHashMap<String, Entry>(5000);
+    private final ConcurrentSkipListSet<EarlyResponse> expiryIndex = new ConcurrentSkipListSet<EarlyResponse>();
+    private final AtomicLong seqNoFactory = new AtomicLong();
+    private final AtomicInteger numberOfResponses = new AtomicInteger();
+    private final AtomicLong numberOfExpiredResponses = new AtomicLong();
+    private final AtomicLong numberOfEvictedResponses = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+
+    private int lowerBorderNumberOfResponses = 25000;
+    private int upperBorderNumberOfResponses = 26000;
+    private long minHoldBackTime = 30000;
+    private int checkInterval = 250;
+    private Thread thread;
+    private volatile boolean shutdown = false;
+
+    @Override
+    public void put(final Response<?> response) {
+        if (response == null)
+            throw new NullPointerException();
+
+        final EarlyResponse er = new EarlyResponse(response, response.getInternalProcessingTimeout() == null ? minHoldBackTime : response.getInternalProcessingTimeout(), seqNoFactory.incrementAndGet());
+        for (;;) {
+            Entry entry = responseMap.get(response.getCorrelationId());
+            if (entry == null) {
+                final Entry newEntry = new Entry();
+                entry = responseMap.putIfAbsent(response.getCorrelationId(), newEntry);
+                if (entry == null) {
+                    entry = newEntry;
+                }
+            }
+            synchronized (entry) {
+                if (entry.removed) {
+                    // concurrently taken by get or housekeeping - try again with a fresh entry
+                    continue;
+                }
+                entry.responses.add(er);
+                expiryIndex.add(er);
+            }
+            break;
+        }
+
+        if (numberOfResponses.incrementAndGet() > upperBorderNumberOfResponses) {
+            evict();
+        }
+    }
+
+    @Override
+    public List<Response<?>> get(final String correlationId) {
+        if (correlationId == null)
+            throw new NullPointerException();
+        if (correlationId.length() == 0)
+            throw new IllegalArgumentException();
+
+        final Entry entry = responseMap.remove(correlationId);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+        synchronized (entry) {
+            entry.removed = true;
+            if (entry.responses.isEmpty()) {
+                return Collections.emptyList();
+            }
+            final List<Response<?>> rv = new ArrayList<Response<?>>(entry.responses.size());
+            for (EarlyResponse earlyResponse : entry.responses) {
+                expiryIndex.remove(earlyResponse);
+                rv.add(earlyResponse.response);
+            }
+            numberOfResponses.addAndGet(-entry.responses.size());
+            entry.responses.clear();
+            return rv;
+        }
+    }
+
+    /**
+     * Removes the given early response, if it is still in the container.
+     */
+    private boolean remove(final EarlyResponse er) {
+        final String correlationId = er.response.getCorrelationId();
+        final Entry entry = responseMap.get(correlationId);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            if (entry.removed || !entry.responses.remove(er)) {
+                return false;
+            }
+            if (entry.responses.isEmpty()) {
+                entry.removed = true;
+                responseMap.remove(correlationId, entry);
+            }
+        }
+        numberOfResponses.decrementAndGet();
+        return true;
+    }
+
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            // some other thread is already evicting
+            return;
+        }
+        try {
+            while (numberOfResponses.get() > lowerBorderNumberOfResponses) {
+                final EarlyResponse er = expiryIndex.pollFirst();
+                if (er == null) {
+                    break;
+                }
+                if (remove(er)) {
+                    numberOfEvictedResponses.incrementAndGet();
+                    logger.info("Evicted early response with correlationId {} and responseId {}", er.response.getCorrelationId(), er.response.getResponseId());
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private void removeExpired() {
+        final long now = System.currentTimeMillis();
+        final Iterator<EarlyResponse> iterator = expiryIndex.iterator();
+        while (iterator.hasNext()) {
+            final EarlyResponse er = iterator.next();
+            if (er.ts >= now) {
+                // all remaining responses expire even later
+                return;
+            }
+            iterator.remove();
+            if (remove(er)) {
+                numberOfExpiredResponses.incrementAndGet();
+                logger.info("Removed early response with correlationId {} and responseId {}", er.response.getCorrelationId(), er.response.getResponseId());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void startup() {
+        if (thread != null)
+            throw new IllegalStateException();
+        thread = new Thread("EarlyResponseManager") {
+            @Override
+            public void run() {
+                doHousekeeping();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+        thread.interrupt();
+        thread = null;
+    }
+
+    private void doHousekeeping() {
+        logger.info("started");
+        while (!shutdown) {
+            try {
+                removeExpired();
+                Thread.sleep(checkInterval);
+            } catch (InterruptedException e) {
+                // ignore
+            } catch (Exception e) {
+                logger.error("Unexpected exception:", e);
+            }
+        }
+        logger.info("stopped");
+    }
+
+    public void setUpperBorderNumberOfResponses(int upperBorderNumberOfResponses) {
+        if (upperBorderNumberOfResponses <= lowerBorderNumberOfResponses)
+            throw new IllegalArgumentException();
+        this.upperBorderNumberOfResponses = upperBorderNumberOfResponses;
+    }
+
+    public void setLowerBorderNumberOfResponses(int lowerBorderNumberOfResponses) {
+        if (lowerBorderNumberOfResponses <= 0)
+            throw new IllegalArgumentException();
+        this.lowerBorderNumberOfResponses = lowerBorderNumberOfResponses;
+    }
+
+    public int getLowerBorderNumberOfResponses() {
+        return lowerBorderNumberOfResponses;
+    }
+
+    public int getUpperBorderNumberOfResponses() {
+        return upperBorderNumberOfResponses;
+    }
+
+    public void setMinHoldBackTime(long minHoldBackTime) {
+        if (minHoldBackTime <= 0)
+            throw new IllegalArgumentException();
+        this.minHoldBackTime = minHoldBackTime;
+    }
+
+    public long getMinHoldBackTime() {
+        return minHoldBackTime;
+    }
+
+    public void setCheckInterval(int checkInterval) {
+        if (checkInterval <= 0)
+            throw new IllegalArgumentException();
+        this.checkInterval = checkInterval;
+    }
+
+    public int getCheckInterval() {
+        return checkInterval;
+    }
+
+    /**
+     * @return the number of early responses currently held in this container
+     */
+    public int getNumberOfResponses() {
+        return numberOfResponses.get();
+    }
+
+    /**
+     * @return the number of early responses removed by the housekeeping since startup, because their hold back time
+     *         expired
+     */
+    public long getNumberOfExpiredResponses() {
+        return numberOfExpiredResponses.get();
+    }
+
+    /**
+     * @return the number of early responses removed before their hold back time expired, because the container exceeded
+     *         <code>upperBorderNumberOfResponses</code>
+     */
+    public long getNumberOfEvictedResponses() {
+        return numberOfEvictedResponses.get();
+    }
+}
@@ -34,6 +34,7 @@ class CorrelationSet {
     private List<String> missingCorrelationIds;
     private WaitMode mode;
     private Long timeoutTS;
+    private boolean completed;
 
     public CorrelationSet(Workflow<?> workflow, List<String> missingCorrelationIds, WaitMode mode, Long timeoutTS) {
         this.workflowId = workflow.getId();
@@ -74,4 +75,15 @@ class CorrelationSet {
         return correlationIds;
     }
 
+    /**
+     * @return true, if the set has received the responses it was waiting for and the workflow is about to be resumed
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted() {
+        this.completed = true;
+    }
+
 }
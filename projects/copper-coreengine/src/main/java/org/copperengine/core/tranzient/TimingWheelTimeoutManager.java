@@ -0,0 +1,351 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.tranzient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.copperengine.core.Acknowledge;
+import org.copperengine.core.ProcessingEngine;
+import org.copperengine.core.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hierarchical timing wheel implementation of the {@link TimeoutManager} interface.
+ * <p>
+ * In contrast to the {@link DefaultTimeoutManager}, registering and unregistering a timeout does not contend on a
+ * single monitor. Registrations are handed over to the ticking thread through a lock free queue, unregistrations
+ * cancel the timeout entry via a concurrent (and thereby lock striped) index on the correlation id. Both operations are
+ * O(1). The wheel itself is owned exclusively by the ticking thread, which fires all correlation ids expired within a
+ * tick as one batch into {@link ProcessingEngine#notify(Response, Acknowledge)}.
+ * <p>
+ * The wheel has four levels with a resolution of 25 msec on the lowest level, covering about 12.8 seconds, 13.6
+ * minutes, 14.5 hours and 38.8 days. Timeouts that are even further in the future are parked in the highest level and
+ * cascaded again once their bucket comes up.
+ */
+public final class TimingWheelTimeoutManager extends Thread implements TimeoutManager {
+
+    private final static Logger logger = LoggerFactory.getLogger(TimeoutManager.class);
+    private final static long SLOT_INTERVAL = 25;
+    private final static int[] LEVEL_BITS = { 9, 6, 6, 6 };
+
+    private static final int ACTIVE = 0;
+    private static final int CANCELLED = 1;
+    private static final int FIRED = 2;
+
+    static final class TimeoutEntry extends AtomicInteger {
+        private static final long serialVersionUID = 1L;
+
+        final String correlationId;
+        final long timeoutTS;
+        final long deadlineTick;
+
+        TimeoutEntry(String correlationId, long timeoutTS, long deadlineTick) {
+            super(ACTIVE);
+            this.correlationId = correlationId;
+            this.timeoutTS = timeoutTS;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    private final long slotInterval;
+    private final int[] levelShift = new int[LEVEL_BITS.length];
+    private final int[] levelMask = new int[LEVEL_BITS.length];
+    private final List<List<TimeoutEntry>>[] wheel;
+    private final Queue<TimeoutEntry> pending = new ConcurrentLinkedQueue<TimeoutEntry>();
+    private final ConcurrentMap<String, TimeoutEntry> index;
+    private final AtomicInteger cancelledCount = new AtomicInteger();
+    private int entriesInWheel;
+    private long currentTick;
+    private volatile boolean idle;
+    private volatile boolean shutdown = false;
+    private ProcessingEngine engine;
+
+    public TimingWheelTimeoutManager() {
+        this(16);
+    }
+
+    /**
+     * @param concurrencyLevel
+     *        estimated number of threads concurrently registering or unregistering timeouts, used to size the lock
+     *        striping of the correlation id index
+     */
+    public TimingWheelTimeoutManager(int concurrencyLevel) {
+        this(concurrencyLevel, SLOT_INTERVAL);
+    }
+
+    /**
+     * @param slotInterval
+     *        resolution of the lowest level in msec
+     */
+    @SuppressWarnings("unchecked")
+    TimingWheelTimeoutManager(int concurrencyLevel, long slotInterval) {
+        super("copper.Timeoutmanager");
+        this.slotInterval = slotInterval;
+        this.index = new ConcurrentHashMap<String, TimeoutEntry>(4096, 0.75f, concurrencyLevel);
+        this.wheel = new List[LEVEL_BITS.length];
+        int shift = 0;
+        for (int level = 0; level < LEVEL_BITS.length; level++) {
+            final int size = 1 << LEVEL_BITS[level];
+            levelShift[level] = shift;
+            levelMask[level] = size - 1;
+            wheel[level] = new ArrayList<List<TimeoutEntry>>(size);
+            for (int i = 0; i < size; i++) {
+                wheel[level].add(new ArrayList<TimeoutEntry>(0));
+            }
+            shift += LEVEL_BITS[level];
+        }
+    }
+
+    private TimeoutEntry createEntry(String correlationId, long timeoutTS) {
+        final long deadlineTick = timeoutTS / slotInterval + 1;
+        return new TimeoutEntry(correlationId, deadlineTick * slotInterval, deadlineTick);
+    }
+
+    private long processSlot(long timeoutTS) {
+        return (timeoutTS / slotInterval + 1) * slotInterval;
+    }
+
+    public synchronized void startup() {
+        if (engine == null)
+            throw new NullPointerException();
+        currentTick = System.currentTimeMillis() / slotInterval;
+        this.setDaemon(true);
+        this.start();
+    }
+
+    public synchronized void shutdown() {
+        if (shutdown)
+            return;
+        shutdown = true;
+        LockSupport.unpark(this);
+    }
+
+    @Override
+    public void setEngine(ProcessingEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public void registerTimeout(long timeoutTS, String correlationId) {
+        add(createEntry(correlationId, timeoutTS));
+        wakeupIfIdle();
+    }
+
+    @Override
+    public void registerTimeout(long timeoutTS, List<String> correlationIds) {
+        for (String correlationId : correlationIds) {
+            add(createEntry(correlationId, timeoutTS));
+        }
+        wakeupIfIdle();
+    }
+
+    /**
+     * Adds the entry, an entry registered before for the same correlation id is replaced, so it does not fire again
+     */
+    private void add(TimeoutEntry entry) {
+        final TimeoutEntry previous = index.put(entry.correlationId, entry);
+        if (previous != null && previous.compareAndSet(ACTIVE, CANCELLED)) {
+            cancelledCount.incrementAndGet();
+        }
+        pending.add(entry);
+    }
+
+    @Override
+    public void unregisterTimeout(long timeoutTS, String correlationId) {
+        final long slot = processSlot(timeoutTS);
+        final TimeoutEntry entry = index.get(correlationId);
+        if (entry != null && entry.timeoutTS == slot && index.remove(correlationId, entry) && entry.compareAndSet(ACTIVE, CANCELLED)) {
+            cancelledCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void unregisterTimeout(long timeoutTS, List<String> correlationIds) {
+        for (String correlationId : correlationIds) {
+            unregisterTimeout(timeoutTS, correlationId);
+        }
+    }
+
+    /**
+     * @return the number of currently registered timeouts that have neither expired nor been unregistered
+     */
+    public int size() {
+        return index.size();
+    }
+
+    private void wakeupIfIdle() {
+        if (idle) {
+            LockSupport.unpark(this);
+        }
+    }
+
+    public void run() {
+        logger.info("started");
+        final List<String> expiredCorrelationIds = new ArrayList<String>(256);
+        while (!shutdown) {
+            try {
+                final long nowTick = System.currentTimeMillis() / slotInterval;
+                if (entriesInWheel == 0) {
+                    currentTick = Math.max(currentTick, nowTick);
+                }
+                transferPending(expiredCorrelationIds);
+                while (currentTick < nowTick) {
+                    currentTick++;
+                    advance(expiredCorrelationIds);
+                    transferPending(expiredCorrelationIds);
+                }
+                if (!expiredCorrelationIds.isEmpty()) {
+                    fire(expiredCorrelationIds);
+                    expiredCorrelationIds.clear();
+                }
+                if (cancelledCount.get() > Math.max(1024, entriesInWheel / 2)) {
+                    purgeCancelled();
+                }
+                waitForNextTick();
+            } catch (Exception e) {
+                logger.error("Unexpected exception:", e);
+            }
+        }
+        logger.info("stopped");
+    }
+
+    private void waitForNextTick() {
+        if (entriesInWheel == 0) {
+            idle = true;
+            if (pending.isEmpty() && !shutdown) {
+                logger.debug("There are currently no timeouts - waiting indefinitely...");
+                LockSupport.park(this);
+            }
+            idle = false;
+        } else {
+            final long delay = (currentTick + 1) * slotInterval - System.currentTimeMillis();
+            if (delay > 0) {
+                LockSupport.parkNanos(this, delay * 1000000L);
+            }
+        }
+    }
+
+    private void transferPending(List<String> expiredCorrelationIds) {
+        TimeoutEntry entry;
+        while ((entry = pending.poll()) != null) {
+            insert(entry, expiredCorrelationIds);
+        }
+    }
+
+    private void insert(TimeoutEntry entry, List<String> expiredCorrelationIds) {
+        if (entry.get() != ACTIVE) {
+            cancelledCount.decrementAndGet();
+            return;
+        }
+        final long delta = entry.deadlineTick - currentTick;
+        if (delta <= 0) {
+            expire(entry, expiredCorrelationIds);
+            return;
+        }
+        int level = 0;
+        while (level < LEVEL_BITS.length - 1 && delta >= (1L << levelShift[level + 1])) {
+            level++;
+        }
+        long tick = entry.deadlineTick;
+        if (delta >= (1L << (levelShift[level] + LEVEL_BITS[level]))) {
+            // beyond the range of the highest level - park it in the most distant bucket, it is cascaded again later
+            tick = currentTick + (1L << (levelShift[level] + LEVEL_BITS[level])) - 1;
+        }
+        final int bucket = (int) ((tick >>> levelShift[level]) & levelMask[level]);
+        wheel[level].get(bucket).add(entry);
+        entriesInWheel++;
+    }
+
+    private void advance(List<String> expiredCorrelationIds) {
+        for (int level = LEVEL_BITS.length - 1; level > 0; level--) {
+            if ((currentTick & ((1L << levelShift[level]) - 1)) == 0) {
+                final int bucket = (int) ((currentTick >>> levelShift[level]) & levelMask[level]);
+                final List<TimeoutEntry> entries = drain(level, bucket);
+                for (TimeoutEntry entry : entries) {
+                    insert(entry, expiredCorrelationIds);
+                }
+            }
+        }
+        final List<TimeoutEntry> entries = drain(0, (int) (currentTick & levelMask[0]));
+        for (TimeoutEntry entry : entries) {
+            if (entry.get() != ACTIVE) {
+                cancelledCount.decrementAndGet();
+            } else {
+                expire(entry, expiredCorrelationIds);
+            }
+        }
+    }
+
+    private List<TimeoutEntry> drain(int level, int bucket) {
+        final List<TimeoutEntry> entries = wheel[level].get(bucket);
+        if (entries.isEmpty()) {
+            return entries;
+        }
+        wheel[level].set(bucket, new ArrayList<TimeoutEntry>(0));
+        entriesInWheel -= entries.size();
+        return entries;
+    }
+
+    private void expire(TimeoutEntry entry, List<String> expiredCorrelationIds) {
+        if (entry.compareAndSet(ACTIVE, FIRED)) {
+            index.remove(entry.correlationId, entry);
+            expiredCorrelationIds.add(entry.correlationId);
+        } else {
+            cancelledCount.decrementAndGet();
+        }
+    }
+
+    private void purgeCancelled() {
+        logger.debug("Purging cancelled timeouts...");
+        int purged = 0;
+        for (List<List<TimeoutEntry>> level : wheel) {
+            for (List<TimeoutEntry> bucket : level) {
+                for (int i = bucket.size() - 1; i >= 0; i--) {
+                    if (bucket.get(i).get() != ACTIVE) {
+                        // swap with the last element, order within a bucket is irrelevant
+                        final int last = bucket.size() - 1;
+                        bucket.set(i, bucket.get(last));
+                        bucket.remove(last);
+                        purged++;
+                    }
+                }
+            }
+        }
+        entriesInWheel -= purged;
+        cancelledCount.addAndGet(-purged);
+        if (logger.isDebugEnabled())
+            logger.debug("Purged " + purged + " cancelled timeouts");
+    }
+
+    private void fire(List<String> expiredCorrelationIds) {
+        if (logger.isDebugEnabled())
+            logger.debug("Firing " + expiredCorrelationIds.size() + " expired timeouts at: " + System.currentTimeMillis());
+        for (String cid : expiredCorrelationIds) {
+            @SuppressWarnings("rawtypes")
+            Response<?> r = new Response(cid);
+            engine.notify(r, new Acknowledge.BestEffortAcknowledge());
+        }
+    }
+
+}
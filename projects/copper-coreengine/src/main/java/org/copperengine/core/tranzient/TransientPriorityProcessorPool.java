@@ -55,6 +55,11 @@ public class TransientPriorityProcessorPool extends PriorityProcessorPool implem
         if (wf == null)
             throw new NullPointerException();
         WorkflowAccessor.setProcessingState(wf, ProcessingState.ENQUEUED);
+        if (isMultiLevelQueue()) {
+            // lock-free, the queue wakes up a waiting processor
+            queue.add(wf);
+            return;
+        }
         synchronized (queue) {
             queue.add(wf);
             if (!queue.isSuspended()) {
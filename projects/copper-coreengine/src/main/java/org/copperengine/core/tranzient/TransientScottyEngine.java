@@ -18,12 +18,13 @@ package org.copperengine.core.tranzient;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.copperengine.core.Acknowledge;
 import org.copperengine.core.CopperRuntimeException;
@@ -62,7 +63,17 @@ public class TransientScottyEngine extends AbstractProcessingEngine implements P
 
     private static final Logger logger = LoggerFactory.getLogger(TransientScottyEngine.class);
 
-    private final Map<String, CorrelationSet> correlationMap = new HashMap<String, CorrelationSet>(50000);
+    private static final int CORRELATION_LOCK_STRIPES = 256;
+
+    /*
+     * The correlation map itself is a concurrent map, completed correlation sets are removed from it without further
+     * locking. The striped locks make the lookup of a correlation id in notify and the registration of that
+     * correlation id in registerCallbacks mutually atomic, so that a response is either delivered to a waiting workflow
+     * or put into the early response container, but never lost in between. The state of a CorrelationSet is guarded by
+     * its own monitor, because its correlation ids may belong to different stripes.
+     */
+    private final ConcurrentMap<String, CorrelationSet> correlationMap = new ConcurrentHashMap<String, CorrelationSet>(50000);
+    private final ReentrantLock[] correlationLocks = new ReentrantLock[CORRELATION_LOCK_STRIPES];
     private final Map<String, Workflow<?>> workflowMap = new ConcurrentHashMap<String, Workflow<?>>(50000);
     private ProcessorPoolManager<TransientProcessorPool> poolManager;
     private TimeoutManager timeoutManager;
@@ -71,6 +82,12 @@ public class TransientScottyEngine extends AbstractProcessingEngine implements P
     private RuntimeStatisticsCollector statisticsCollector = new NullRuntimeStatisticsCollector();
     private final AtomicLong sequenceIdFactory = new AtomicLong(System.currentTimeMillis() * 10000L);
 
+    public TransientScottyEngine() {
+        for (int i = 0; i < correlationLocks.length; i++) {
+            correlationLocks[i] = new ReentrantLock();
+        }
+    }
+
     @Override
     public void setStatisticsCollector(RuntimeStatisticsCollector statisticsCollector) {
         this.statisticsCollector = statisticsCollector;
@@ -116,42 +133,60 @@ public class TransientScottyEngine extends AbstractProcessingEngine implements P
             // ignore
         }
 
-        synchronized (correlationMap) {
-            final CorrelationSet cs = correlationMap.get(response.getCorrelationId());
+        final String correlationId = response.getCorrelationId();
+        final ReentrantLock lock = correlationLocks[stripe(correlationId)];
+        Workflow<?> wf = null;
+        CorrelationSet cs;
+        lock.lock();
+        try {
+            cs = correlationMap.get(correlationId);
+            if (cs != null) {
+                synchronized (cs) {
+                    if (cs.isCompleted()) {
+                        // another response completed this set concurrently - it is about to be removed from the map
+                        cs = null;
+                    } else {
+                        wf = workflowMap.get(cs.getWorkflowId());
+                        if (wf == null) {
+                            logger.error("Workflow with id " + cs.getWorkflowId() + " not found");
+                            return;
+                        }
+                        cs.getMissingCorrelationIds().remove(correlationId);
+                        if (cs.getTimeoutTS() != null && !response.isTimeout())
+                            timeoutManager.unregisterTimeout(cs.getTimeoutTS(), correlationId);
+                        wf.putResponse(response);
+
+                        if (cs.getMode() == WaitMode.FIRST) {
+                            if (!cs.getMissingCorrelationIds().isEmpty() && cs.getTimeoutTS() != null && !response.isTimeout()) {
+                                timeoutManager.unregisterTimeout(cs.getTimeoutTS(), cs.getMissingCorrelationIds());
+                            }
+                            cs.setCompleted();
+                        }
+
+                        if (cs.getMissingCorrelationIds().isEmpty()) {
+                            cs.setCompleted();
+                        }
+                        if (!cs.isCompleted()) {
+                            wf = null;
+                        }
+                    }
+                }
+            }
             if (cs == null) {
                 if (response.isEarlyResponseHandling()) {
                     earlyResponseContainer.put(response);
                 }
                 return;
             }
-            final Workflow<?> wf = workflowMap.get(cs.getWorkflowId());
-            if (wf == null) {
-                logger.error("Workflow with id " + cs.getWorkflowId() + " not found");
-                return;
-            }
-            cs.getMissingCorrelationIds().remove(response.getCorrelationId());
-            if (cs.getTimeoutTS() != null && !response.isTimeout())
-                timeoutManager.unregisterTimeout(cs.getTimeoutTS(), response.getCorrelationId());
-            wf.putResponse(response);
-
-            boolean doEnqueue = false;
-            if (cs.getMode() == WaitMode.FIRST) {
-                if (!cs.getMissingCorrelationIds().isEmpty() && cs.getTimeoutTS() != null && !response.isTimeout()) {
-                    timeoutManager.unregisterTimeout(cs.getTimeoutTS(), cs.getMissingCorrelationIds());
-                }
-                doEnqueue = true;
-            }
-
-            if (cs.getMissingCorrelationIds().isEmpty()) {
-                doEnqueue = true;
-            }
+        } finally {
+            lock.unlock();
+        }
 
-            if (doEnqueue) {
-                for (String correlationId : cs.getCorrelationIds()) {
-                    correlationMap.remove(correlationId);
-                }
-                enqueue(wf);
+        if (wf != null) {
+            for (String cid : cs.getCorrelationIds()) {
+                correlationMap.remove(cid, cs);
             }
+            enqueue(wf);
         }
         ack.onSuccess();
     }
@@ -196,6 +231,33 @@ public class TransientScottyEngine extends AbstractProcessingEngine implements P
         }
     }
 
+    private static int stripe(String correlationId) {
+        final int h = correlationId.hashCode();
+        return (h ^ (h >>> 16)) & (CORRELATION_LOCK_STRIPES - 1);
+    }
+
+    /**
+     * returns the distinct lock stripes of the given correlation ids in ascending order, so that locking them one after
+     * the other cannot deadlock with a concurrent call.
+     */
+    private static int[] stripes(String... correlationIds) {
+        final int[] stripes = new int[correlationIds.length];
+        for (int i = 0; i < correlationIds.length; i++) {
+            stripes[i] = stripe(correlationIds[i]);
+        }
+        if (stripes.length == 1) {
+            return stripes;
+        }
+        Arrays.sort(stripes);
+        int n = 1;
+        for (int i = 1; i < stripes.length; i++) {
+            if (stripes[i] != stripes[n - 1]) {
+                stripes[n++] = stripes[i];
+            }
+        }
+        return n == stripes.length ? stripes : Arrays.copyOf(stripes, n);
+    }
+
     private void enqueue(Workflow<?> w) {
         TransientProcessorPool pool = poolManager.getProcessorPool(w.getProcessorPoolId());
         if (pool == null) {
@@ -248,7 +310,11 @@ public class TransientScottyEngine extends AbstractProcessingEngine implements P
         
         boolean doEnqueue = false;
         CorrelationSet cs = new CorrelationSet(w, correlationIds, mode, timeoutMsec > 0 ? System.currentTimeMillis() + timeoutMsec : null);
-        synchronized (correlationMap) {
+        final int[] stripes = stripes(correlationIds);
+        for (int i = 0; i < stripes.length; i++) {
+            correlationLocks[stripes[i]].lock();
+        }
+        try {
             for (String cid : correlationIds) {
                 List<Response<?>> earlyResponses = earlyResponseContainer.get(cid);
                 if (earlyResponses != null && !earlyResponses.isEmpty()) {
@@ -271,6 +337,10 @@ public class TransientScottyEngine extends AbstractProcessingEngine implements P
                         timeoutManager.registerTimeout(cs.getTimeoutTS().longValue(), cs.getMissingCorrelationIds());
                 }
             }
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                correlationLocks[stripes[i]].unlock();
+            }
         }
         if (doEnqueue) {
             enqueue(w);
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DeflatePostProcessorTest {
+
+    private static String createMessage(int i) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><order xmlns=\"http://example.org/order\"><orderId>" + i + "</orderId>"
+                + "<customer><name>Customer " + i + "</name><country>DE</country></customer>"
+                + "<status>CONFIRMED</status><amount currency=\"EUR\">" + (i * 17) + ".00</amount></order>";
+    }
+
+    @Test
+    public void testSimple() {
+        final DeflatePostProcessor processor = new DeflatePostProcessor();
+        for (String msg : new String[] { "", "1", "1234567890", createMessage(1), "\u00e4\u00f6\u00fc \u20ac " + createMessage(2) }) {
+            assertEquals(msg, processor.deserialize(processor.serialize(msg)));
+        }
+        assertTrue(processor.serialize("1234567890").startsWith("U"));
+        assertTrue(processor.serialize(createMessage(1)).startsWith("D"));
+    }
+
+    @Test
+    public void testNull() {
+        final DeflatePostProcessor processor = new DeflatePostProcessor();
+        assertNull(processor.serialize(null));
+        assertNull(processor.deserialize(null));
+    }
+
+    @Test
+    public void testLargeMessage() {
+        final DeflatePostProcessor processor = new DeflatePostProcessor();
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append(createMessage(i));
+        }
+        final String msg = sb.toString();
+        final String serialized = processor.serialize(msg);
+        assertTrue(serialized.length() < msg.length() / 4);
+        assertEquals(msg, processor.deserialize(serialized));
+    }
+
+    @Test
+    public void testSmallerThanCompressedBase64() {
+        final String msg = createMessage(4711);
+        final String deflated = new DeflatePostProcessor().serialize(msg);
+        final String compressedBase64 = new CompressedBase64PostProcessor().serialize(msg);
+        assertTrue(deflated.length() + " < " + compressedBase64.length(), deflated.length() < compressedBase64.length());
+    }
+
+    @Test
+    public void testTrainedDictionary() {
+        final List<String> samples = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            samples.add(createMessage(i));
+        }
+        final byte[] dictionary = DeflatePostProcessor.createDictionary(samples, 4096);
+        assertTrue(dictionary.length > 0 && dictionary.length <= 4096);
+
+        final DeflatePostProcessor defaultProcessor = new DeflatePostProcessor();
+        final DeflatePostProcessor trainedProcessor = new DeflatePostProcessor();
+        trainedProcessor.setDictionary(dictionary);
+        final String msg = createMessage(4711);
+        final String trained = trainedProcessor.serialize(msg);
+        assertTrue(trained.length() < defaultProcessor.serialize(msg).length());
+        assertEquals(msg, trainedProcessor.deserialize(trained));
+
+        try {
+            defaultProcessor.deserialize(trained);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWithoutDictionary() {
+        final DeflatePostProcessor processor = new DeflatePostProcessor();
+        processor.setDictionary(null);
+        final String msg = createMessage(1) + createMessage(2);
+        assertEquals(msg, processor.deserialize(processor.serialize(msg)));
+    }
+
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentedFileAuditTrailTest {
+
+    /**
+     * Collects the drained events, fails while <code>available</code> is <code>false</code> and always for events with
+     * the message <code>rejectedMessage</code>
+     */
+    private static final class TargetAuditTrail extends MockAuditTrail {
+        final List<AuditTrailEvent> events = new ArrayList<AuditTrailEvent>();
+        final AtomicInteger numbOfRejections = new AtomicInteger();
+        volatile boolean available = true;
+        volatile String rejectedMessage;
+
+        @Override
+        public void asynchLog(AuditTrailEvent e, AuditTrailCallback cb) {
+            if (e.getMessage().equals(rejectedMessage)) {
+                numbOfRejections.incrementAndGet();
+                cb.error(new RuntimeException("rejected"));
+            } else if (available) {
+                synchronized (events) {
+                    events.add(e);
+                }
+                cb.done();
+            } else {
+                cb.error(new RuntimeException("not available"));
+            }
+        }
+
+        int size() {
+            synchronized (events) {
+                return events.size();
+            }
+        }
+    }
+
+    private static final class ExtendedEvent extends AuditTrailEvent {
+        private static final long serialVersionUID = 1L;
+
+        ExtendedEvent(int logLevel, Date occurrence, String conversationId, String context) {
+            super(logLevel, occurrence, conversationId, context, null, null, null, null, null);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static AuditTrailEvent createEvent(int i) {
+        return new AuditTrailEvent(1, new Date(), "conversationId" + i, "context", "instanceId", "correlationId", "transactionId", "message" + i, "messageType", null);
+    }
+
+    private SegmentedFileAuditTrail createAuditTrail(TargetAuditTrail target) throws Exception {
+        return createAuditTrail(target, 0);
+    }
+
+    private SegmentedFileAuditTrail createAuditTrail(TargetAuditTrail target, int maxDrainAttempts) throws Exception {
+        final SegmentedFileAuditTrail auditTrail = new SegmentedFileAuditTrail();
+        auditTrail.setMaxDrainAttempts(maxDrainAttempts);
+        auditTrail.setTarget(target);
+        auditTrail.setDirectory(folder.getRoot());
+        auditTrail.setSegmentSize(4096);
+        auditTrail.setMaxSegmentAgeMSec(50);
+        auditTrail.setDrainRetryDelayMSec(10);
+        auditTrail.setDrainChunkSize(7);
+        auditTrail.startup();
+        return auditTrail;
+    }
+
+    private static void waitFor(TargetAuditTrail target, int numbOfEvents) throws InterruptedException {
+        final long until = System.currentTimeMillis() + 10000;
+        while (target.size() < numbOfEvents && System.currentTimeMillis() < until) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testDrain() throws Exception {
+        final TargetAuditTrail target = new TargetAuditTrail();
+        final SegmentedFileAuditTrail auditTrail = createAuditTrail(target);
+        try {
+            for (int i = 0; i < 200; i++) {
+                auditTrail.asynchLog(createEvent(i));
+            }
+            auditTrail.synchLog(createEvent(200));
+            waitFor(target, 201);
+            Assert.assertEquals(201, target.size());
+            for (int i = 0; i <= 200; i++) {
+                Assert.assertEquals("conversationId" + i, target.events.get(i).getConversationId());
+                Assert.assertEquals("message" + i, target.events.get(i).getMessage());
+            }
+        } finally {
+            auditTrail.shutdown();
+        }
+        Assert.assertEquals(0, auditTrail.getNumberOfPendingSegments());
+        Assert.assertEquals(0, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        final TargetAuditTrail target = new TargetAuditTrail();
+        target.available = false;
+        SegmentedFileAuditTrail auditTrail = createAuditTrail(target);
+        try {
+            for (int i = 0; i < 100; i++) {
+                auditTrail.synchLog(createEvent(i));
+            }
+        } finally {
+            auditTrail.shutdown();
+        }
+        Assert.assertEquals(0, target.size());
+        Assert.assertTrue(folder.getRoot().listFiles().length > 0);
+
+        target.available = true;
+        auditTrail = createAuditTrail(target);
+        try {
+            auditTrail.synchLog(createEvent(100));
+            waitFor(target, 101);
+            Assert.assertEquals(101, target.size());
+            for (int i = 0; i <= 100; i++) {
+                Assert.assertEquals("conversationId" + i, target.events.get(i).getConversationId());
+            }
+        } finally {
+            auditTrail.shutdown();
+        }
+    }
+
+    @Test
+    public void testPoisonEventIsDeadLettered() throws Exception {
+        final TargetAuditTrail target = new TargetAuditTrail();
+        target.rejectedMessage = "message3";
+        final SegmentedFileAuditTrail auditTrail = createAuditTrail(target, 3);
+        try {
+            for (int i = 0; i < 20; i++) {
+                auditTrail.asynchLog(createEvent(i));
+            }
+            auditTrail.synchLog(createEvent(20));
+            waitFor(target, 20);
+            Thread.sleep(100);
+            // the other events of the chunk are written once
+            Assert.assertEquals(20, target.size());
+            for (int i = 0, j = 0; i <= 20; i++) {
+                if (i != 3) {
+                    Assert.assertEquals("conversationId" + i, target.events.get(j++).getConversationId());
+                }
+            }
+            Assert.assertEquals(3, target.numbOfRejections.get());
+        } finally {
+            auditTrail.shutdown();
+        }
+        Assert.assertEquals(0, auditTrail.getNumberOfPendingSegments());
+
+        final File deadLetterDirectory = new File(folder.getRoot(), SegmentedFileAuditTrail.DEAD_LETTER_DIRECTORY);
+        Assert.assertEquals(1, folder.getRoot().listFiles().length);
+        final File[] files = deadLetterDirectory.listFiles();
+        Assert.assertEquals(1, files.length);
+        final AuditTrailSegment segment = AuditTrailSegment.open(files[0]);
+        try {
+            final List<byte[]> records = new ArrayList<byte[]>();
+            segment.read(records, 10);
+            Assert.assertEquals(1, records.size());
+            Assert.assertEquals("conversationId3", AuditTrailEventCodec.decode(records.get(0)).getConversationId());
+        } finally {
+            segment.close();
+        }
+    }
+
+    @Test
+    public void testTornRecord() throws Exception {
+        final AuditTrailSegment segment = AuditTrailSegment.create(folder.getRoot(), 1, 4096);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(segment.append(AuditTrailEventCodec.encode(createEvent(i))));
+        }
+        segment.force();
+        segment.close();
+
+        // corrupt the data of the last record, as if the write had been interrupted
+        final RandomAccessFile raf = new RandomAccessFile(new File(folder.getRoot(), AuditTrailSegment.fileName(1)), "rw");
+        try {
+            final long end = findEnd(raf);
+            raf.seek(end - 1);
+            raf.write(0xFF);
+        } finally {
+            raf.close();
+        }
+
+        final TargetAuditTrail target = new TargetAuditTrail();
+        final SegmentedFileAuditTrail auditTrail = createAuditTrail(target);
+        try {
+            waitFor(target, 2);
+            Thread.sleep(100);
+            Assert.assertEquals(2, target.size());
+        } finally {
+            auditTrail.shutdown();
+        }
+        Assert.assertEquals(0, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void testUnreadableSegmentIsRetried() throws Exception {
+        // segment 1 is not readable yet, segment 2 is drained meanwhile
+        final File unreadable = new File(folder.getRoot(), AuditTrailSegment.fileName(1));
+        final RandomAccessFile raf = new RandomAccessFile(unreadable, "rw");
+        try {
+            raf.write(new byte[AuditTrailSegment.HEADER_SIZE]);
+        } finally {
+            raf.close();
+        }
+        final AuditTrailSegment segment2 = AuditTrailSegment.create(folder.getRoot(), 2, 4096);
+        Assert.assertTrue(segment2.append(AuditTrailEventCodec.encode(createEvent(2))));
+        segment2.force();
+        segment2.close();
+
+        final TargetAuditTrail target = new TargetAuditTrail();
+        final SegmentedFileAuditTrail auditTrail = createAuditTrail(target);
+        try {
+            waitFor(target, 1);
+            Assert.assertEquals(1, target.size());
+            Assert.assertEquals(1, auditTrail.getNumberOfPendingSegments());
+
+            final File tmp = folder.newFolder();
+            final AuditTrailSegment segment1 = AuditTrailSegment.create(tmp, 1, 4096);
+            Assert.assertTrue(segment1.append(AuditTrailEventCodec.encode(createEvent(1))));
+            segment1.force();
+            segment1.close();
+            Assert.assertTrue(new File(tmp, AuditTrailSegment.fileName(1)).renameTo(unreadable));
+
+            waitFor(target, 2);
+            Assert.assertEquals(2, target.size());
+            Assert.assertEquals("conversationId1", target.events.get(1).getConversationId());
+        } finally {
+            auditTrail.shutdown();
+        }
+        Assert.assertEquals(0, auditTrail.getNumberOfPendingSegments());
+        Assert.assertFalse(unreadable.exists());
+    }
+
+    private static long findEnd(RandomAccessFile raf) throws Exception {
+        long pos = AuditTrailSegment.HEADER_SIZE;
+        raf.seek(pos);
+        int length;
+        while ((length = raf.readInt()) > 0) {
+            pos += AuditTrailSegment.RECORD_OVERHEAD + length;
+            raf.seek(pos);
+        }
+        return pos;
+    }
+
+    @Test
+    public void testCodec() throws Exception {
+        final AuditTrailEvent e = new AuditTrailEvent(3, new Date(), "conversationId", "context", null, "correlationId", null, "\u00e4\u00f6\u00fc", null, 4711L);
+        final AuditTrailEvent d = AuditTrailEventCodec.decode(AuditTrailEventCodec.encode(e));
+        Assert.assertEquals(e.toString(), d.toString());
+
+        final AuditTrailEvent s = new ExtendedEvent(3, new Date(), "conversationId", "context");
+        Assert.assertEquals(s.toString(), AuditTrailEventCodec.decode(AuditTrailEventCodec.encode(s)).toString());
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.batcher;
+
+import org.copperengine.core.batcher.RetryingTxnBatchRunnerTest.TestCommand;
+import org.copperengine.core.batcher.RetryingTxnBatchRunnerTest.TestExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveBatchCutPolicyTest {
+
+    private static final class SizedTestCommand implements BatchCommand<TestExecutor, TestCommand>, SizedBatchCommand {
+        private final int size;
+
+        SizedTestCommand(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int getEstimatedSize() {
+            return size;
+        }
+
+        @Override
+        public CommandCallback<TestCommand> callback() {
+            return null;
+        }
+
+        @Override
+        public TestExecutor executor() {
+            return null;
+        }
+
+        @Override
+        public long targetTime() {
+            return 0;
+        }
+    }
+
+    private static AdaptiveBatchCutPolicy createPolicy() {
+        final AdaptiveBatchCutPolicy.Factory factory = new AdaptiveBatchCutPolicy.Factory();
+        factory.setTargetLatencyMSec(100);
+        return (AdaptiveBatchCutPolicy) factory.create(new TestExecutor());
+    }
+
+    @Test
+    public void testInitialValues() {
+        final AdaptiveBatchCutPolicy policy = createPolicy();
+        Assert.assertEquals(256, policy.preferredBatchSize());
+        Assert.assertEquals(100, policy.maxWaitMSec());
+        Assert.assertEquals(Long.MAX_VALUE, policy.preferredBatchBytes());
+        Assert.assertEquals(Long.MAX_VALUE, policy.maximumBatchBytes());
+    }
+
+    @Test
+    public void testSizeOf() {
+        final AdaptiveBatchCutPolicy policy = createPolicy();
+        Assert.assertEquals(4711, policy.sizeOf(new SizedTestCommand(4711)));
+        Assert.assertEquals(0, policy.sizeOf(new TestCommand(new TestExecutor(), false)));
+    }
+
+    @Test
+    public void testSlowExecution() {
+        final AdaptiveBatchCutPolicy policy = createPolicy();
+        for (int i = 0; i < 10; i++) {
+            policy.batchExecuted(256, 70, 0);
+        }
+        Assert.assertEquals(70, policy.getExecTimePercentile());
+        Assert.assertEquals(30, policy.maxWaitMSec());
+        Assert.assertTrue(policy.preferredBatchSize() < 256);
+        for (int i = 0; i < 100; i++) {
+            policy.batchExecuted(1, 200, 0);
+        }
+        Assert.assertEquals(0, policy.maxWaitMSec());
+        Assert.assertEquals(1, policy.preferredBatchSize());
+    }
+
+    @Test
+    public void testFastExecutionWithBacklog() {
+        final AdaptiveBatchCutPolicy policy = createPolicy();
+        for (int i = 0; i < 100; i++) {
+            policy.batchExecuted(256, 5, 10000);
+        }
+        Assert.assertEquals(95, policy.maxWaitMSec());
+        // bounded by the maximum batch size of the executor
+        Assert.assertEquals(512, policy.preferredBatchSize());
+    }
+
+    @Test
+    public void testFastExecutionWithoutBacklog() {
+        final AdaptiveBatchCutPolicy policy = createPolicy();
+        for (int i = 0; i < 100; i++) {
+            policy.batchExecuted(10, 5, 10);
+        }
+        Assert.assertEquals(256, policy.preferredBatchSize());
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.batcher;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RetryingTxnBatchRunnerTest {
+
+    static final class TestCommand implements BatchCommand<TestExecutor, TestCommand> {
+        final TestExecutor executor;
+        final boolean poisoned;
+        int completed;
+        int failed;
+
+        TestCommand(TestExecutor executor, boolean poisoned) {
+            this.executor = executor;
+            this.poisoned = poisoned;
+        }
+
+        @Override
+        public CommandCallback<TestCommand> callback() {
+            return new CommandCallback<TestCommand>() {
+                @Override
+                public void commandCompleted() {
+                    completed++;
+                }
+
+                @Override
+                public void unhandledException(Exception e) {
+                    failed++;
+                }
+            };
+        }
+
+        @Override
+        public TestExecutor executor() {
+            return executor;
+        }
+
+        @Override
+        public long targetTime() {
+            return 0;
+        }
+    }
+
+    static final class TestExecutor extends BatchExecutor<TestExecutor, TestCommand> {
+        int numbOfExecutions;
+
+        @Override
+        public void doExec(Collection<BatchCommand<TestExecutor, TestCommand>> commands, Connection connection) throws Exception {
+            numbOfExecutions++;
+            for (BatchCommand<TestExecutor, TestCommand> cmd : commands) {
+                if (((TestCommand) cmd).poisoned)
+                    throw new Exception("poisoned command");
+            }
+        }
+
+        @Override
+        public int maximumBatchSize() {
+            return 512;
+        }
+
+        @Override
+        public int preferredBatchSize() {
+            return 256;
+        }
+
+        @Override
+        public String id() {
+            return "TestExecutor";
+        }
+    }
+
+    static final class CountingStatisticsCollector implements RuntimeStatisticsCollector {
+        final ConcurrentHashMap<String, AtomicInteger> counters = new ConcurrentHashMap<String, AtomicInteger>();
+
+        @Override
+        public void submit(String measurePointId, int elementCount, long elapsedTime, TimeUnit timeUnit) {
+            counters.putIfAbsent(measurePointId, new AtomicInteger());
+            counters.get(measurePointId).incrementAndGet();
+        }
+
+        int get(String measurePointId) {
+            final AtomicInteger counter = counters.get(measurePointId);
+            return counter == null ? 0 : counter.get();
+        }
+    }
+
+    private static List<BatchCommand<TestExecutor, TestCommand>> createBatch(TestExecutor executor, int size, int... poisoned) {
+        final List<BatchCommand<TestExecutor, TestCommand>> batch = new ArrayList<BatchCommand<TestExecutor, TestCommand>>();
+        for (int i = 0; i < size; i++) {
+            boolean p = false;
+            for (int x : poisoned) {
+                p |= x == i;
+            }
+            batch.add(new TestCommand(executor, p));
+        }
+        return batch;
+    }
+
+    private static void assertCallbacks(List<BatchCommand<TestExecutor, TestCommand>> batch) {
+        for (BatchCommand<TestExecutor, TestCommand> cmd : batch) {
+            final TestCommand c = (TestCommand) cmd;
+            Assert.assertEquals(c.poisoned ? 0 : 1, c.completed);
+            Assert.assertEquals(c.poisoned ? 1 : 0, c.failed);
+        }
+    }
+
+    @Test
+    public void testSuccess() {
+        final TestExecutor executor = new TestExecutor();
+        final List<BatchCommand<TestExecutor, TestCommand>> batch = createBatch(executor, 500);
+        new RetryingTxnBatchRunner<TestExecutor, TestCommand>().run(batch, executor);
+        Assert.assertEquals(1, executor.numbOfExecutions);
+        assertCallbacks(batch);
+    }
+
+    @Test
+    public void testBisect() {
+        final TestExecutor executor = new TestExecutor();
+        final CountingStatisticsCollector statisticsCollector = new CountingStatisticsCollector();
+        final RetryingTxnBatchRunner<TestExecutor, TestCommand> runner = new RetryingTxnBatchRunner<TestExecutor, TestCommand>();
+        runner.setStatisticsCollector(statisticsCollector);
+        final List<BatchCommand<TestExecutor, TestCommand>> batch = createBatch(executor, 512, 77);
+        runner.run(batch, executor);
+        // the initial batch plus two halves for each of the 9 splits
+        Assert.assertEquals(1 + 2 * 9, executor.numbOfExecutions);
+        Assert.assertEquals(9, statisticsCollector.get("TestExecutor.split"));
+        Assert.assertEquals(1, statisticsCollector.get("TestExecutor.isolatedFailure"));
+        assertCallbacks(batch);
+    }
+
+    @Test
+    public void testBisectMultipleFailures() {
+        final TestExecutor executor = new TestExecutor();
+        final List<BatchCommand<TestExecutor, TestCommand>> batch = createBatch(executor, 500, 0, 1, 250, 499);
+        new RetryingTxnBatchRunner<TestExecutor, TestCommand>().run(batch, executor);
+        Assert.assertTrue(executor.numbOfExecutions < 100);
+        assertCallbacks(batch);
+    }
+
+    @Test
+    public void testBisectFloor() {
+        final TestExecutor executor = new TestExecutor();
+        final RetryingTxnBatchRunner<TestExecutor, TestCommand> runner = new RetryingTxnBatchRunner<TestExecutor, TestCommand>();
+        runner.setBisectFloor(16);
+        final List<BatchCommand<TestExecutor, TestCommand>> batch = createBatch(executor, 512, 77);
+        runner.run(batch, executor);
+        // 5 splits down to 16 commands, then 16 single command executions
+        Assert.assertEquals(1 + 2 * 5 + 16, executor.numbOfExecutions);
+        assertCallbacks(batch);
+    }
+
+    @Test
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void testRunAll() {
+        final TestExecutor executor1 = new TestExecutor();
+        final TestExecutor executor2 = new TestExecutor();
+        final List batch1 = createBatch(executor1, 10);
+        final List batch2 = createBatch(executor2, 20);
+        new RetryingTxnBatchRunner<TestExecutor, TestCommand>().runAll(Arrays.<List<BatchCommand<?, ?>>> asList(batch1, batch2));
+        Assert.assertEquals(1, executor1.numbOfExecutions);
+        Assert.assertEquals(1, executor2.numbOfExecutions);
+        assertCallbacks(batch1);
+        assertCallbacks(batch2);
+    }
+
+    @Test
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void testRunAllFailure() {
+        final TestExecutor executor1 = new TestExecutor();
+        final TestExecutor executor2 = new TestExecutor();
+        final List batch1 = createBatch(executor1, 10);
+        final List batch2 = createBatch(executor2, 20, 5);
+        new RetryingTxnBatchRunner<TestExecutor, TestCommand>().runAll(Arrays.<List<BatchCommand<?, ?>>> asList(batch1, batch2));
+        // batch1 is executed again in a transaction of its own, batch2 is split
+        Assert.assertEquals(2, executor1.numbOfExecutions);
+        Assert.assertTrue(executor2.numbOfExecutions > 2);
+        assertCallbacks(batch1);
+        assertCallbacks(batch2);
+    }
+
+    @Test
+    public void testNoBisect() {
+        final TestExecutor executor = new TestExecutor();
+        final RetryingTxnBatchRunner<TestExecutor, TestCommand> runner = new RetryingTxnBatchRunner<TestExecutor, TestCommand>();
+        runner.setBisectFloor(Integer.MAX_VALUE);
+        final List<BatchCommand<TestExecutor, TestCommand>> batch = createBatch(executor, 100, 7);
+        runner.run(batch, executor);
+        Assert.assertEquals(1 + 100, executor.numbOfExecutions);
+        assertCallbacks(batch);
+    }
+
+}
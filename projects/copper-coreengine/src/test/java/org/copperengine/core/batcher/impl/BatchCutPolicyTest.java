@@ -0,0 +1,151 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.batcher.impl;
+
+import java.util.List;
+
+import org.copperengine.core.batcher.BatchCommand;
+import org.copperengine.core.batcher.BatchCutPolicy;
+import org.copperengine.core.batcher.BatchExecutorBase;
+import org.copperengine.core.batcher.impl.BatcherImplTest.TestBatchCommand;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchCutPolicyTest {
+
+    private static final class TestPolicy implements BatchCutPolicy {
+        final long maxWaitMSec;
+
+        TestPolicy(long maxWaitMSec) {
+            this.maxWaitMSec = maxWaitMSec;
+        }
+
+        @Override
+        public int sizeOf(BatchCommand<?, ?> cmd) {
+            return 100;
+        }
+
+        @Override
+        public int preferredBatchSize() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public long preferredBatchBytes() {
+            return 1000;
+        }
+
+        @Override
+        public long maximumBatchBytes() {
+            return 2500;
+        }
+
+        @Override
+        public long maxWaitMSec() {
+            return maxWaitMSec;
+        }
+
+        @Override
+        public void batchExecuted(int numbOfCommands, long execMSec, int queueDepth) {
+        }
+    }
+
+    private static BatchCommandQueue createQueue(boolean lockFree, final long maxWaitMSec) {
+        final BatchCommandQueue queue = lockFree ? new LaneBatcherQueue() : new BatcherQueue();
+        queue.setBatchCutPolicyFactory(new BatchCutPolicy.Factory() {
+            @Override
+            public BatchCutPolicy create(BatchExecutorBase<?, ?> executor) {
+                return new TestPolicy(maxWaitMSec);
+            }
+        });
+        return queue;
+    }
+
+    private static void submit(BatchCommandQueue queue, int numbOfCommands, long targetTime) {
+        for (int i = 0; i < numbOfCommands; i++) {
+            final TestBatchCommand cmd = new TestBatchCommand("Test#" + i);
+            cmd.targetTime = targetTime;
+            queue.submitBatchCommand(cmd);
+        }
+    }
+
+    @Test
+    public void testPreferredBytes() throws Exception {
+        testPreferredBytes(false);
+        testPreferredBytes(true);
+    }
+
+    private void testPreferredBytes(boolean lockFree) throws Exception {
+        final BatchCommandQueue queue = createQueue(lockFree, 60000);
+        submit(queue, 9, System.currentTimeMillis() + 60000);
+        Assert.assertNull(queue.pollDue());
+        submit(queue, 1, System.currentTimeMillis() + 60000);
+        final List<BatchCommand<?, ?>> batch = queue.pollDue();
+        Assert.assertNotNull(batch);
+        Assert.assertEquals(10, batch.size());
+        Assert.assertNotNull(queue.getBatchCutPolicy(BatcherImplTest.TestBatchExecutor.INSTANCE));
+    }
+
+    @Test
+    public void testMaximumBytes() throws Exception {
+        testMaximumBytes(false);
+        testMaximumBytes(true);
+    }
+
+    private void testMaximumBytes(boolean lockFree) throws Exception {
+        final BatchCommandQueue queue = createQueue(lockFree, 60000);
+        submit(queue, 30, System.currentTimeMillis() + 60000);
+        Assert.assertEquals(25, queue.poll().size());
+        // 500 bytes left, below the preferred bytes
+        Assert.assertNull(queue.pollDue());
+        Assert.assertEquals(5, queue.size());
+    }
+
+    @Test
+    public void testMaxWait() throws Exception {
+        testMaxWait(false);
+        testMaxWait(true);
+    }
+
+    private void testMaxWait(boolean lockFree) throws Exception {
+        final BatchCommandQueue queue = createQueue(lockFree, 200);
+        final long startTS = System.currentTimeMillis();
+        submit(queue, 3, startTS + 60000);
+        Assert.assertEquals(3, queue.poll().size());
+        final long et = System.currentTimeMillis() - startTS;
+        Assert.assertTrue("batch returned after " + et + " msec", et >= 150 && et < 5000);
+    }
+
+    @Test
+    public void testMaxWaitAfterPartialDrain() throws Exception {
+        testMaxWaitAfterPartialDrain(false);
+        testMaxWaitAfterPartialDrain(true);
+    }
+
+    private void testMaxWaitAfterPartialDrain(boolean lockFree) throws Exception {
+        final BatchCommandQueue queue = createQueue(lockFree, 500);
+        final long startTS = System.currentTimeMillis();
+        submit(queue, 30, startTS + 60000);
+        Thread.sleep(300);
+        Assert.assertEquals(25, queue.poll().size());
+        Assert.assertEquals(5, queue.size(BatcherImplTest.TestBatchExecutor.INSTANCE));
+        // the maximum wait time of the remaining commands counts from their submission, not from the drain
+        Assert.assertEquals(5, queue.poll().size());
+        final long et = System.currentTimeMillis() - startTS;
+        Assert.assertTrue("batch returned after " + et + " msec", et >= 450 && et < 750);
+    }
+
+}
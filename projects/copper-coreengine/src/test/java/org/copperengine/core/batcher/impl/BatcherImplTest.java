@@ -16,13 +16,21 @@
 package org.copperengine.core.batcher.impl;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.copperengine.core.batcher.BatchCommand;
 import org.copperengine.core.batcher.BatchExecutor;
 import org.copperengine.core.batcher.CommandCallback;
 import org.copperengine.core.batcher.NullCallback;
 import org.copperengine.core.batcher.RetryingTxnBatchRunner;
+import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
+import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +42,7 @@ public class BatcherImplTest {
     static final class TestBatchCommand implements BatchCommand<TestBatchExecutor, TestBatchCommand> {
 
         long targetTime = System.currentTimeMillis() + 1000;
+        TestBatchExecutor executor = TestBatchExecutor.INSTANCE;
         String data;
 
         public TestBatchCommand(String data) {
@@ -47,7 +56,7 @@ public class BatcherImplTest {
 
         @Override
         public TestBatchExecutor executor() {
-            return TestBatchExecutor.INSTANCE;
+            return executor;
         }
 
         @Override
@@ -96,4 +105,74 @@ public class BatcherImplTest {
         }
     }
 
+    @SuppressWarnings("rawtypes")
+    @Test
+    public final void testSubmitBatchCommandLockFreeQueue() throws InterruptedException {
+        BatcherImpl batcher = new BatcherImpl(2);
+        batcher.setLockFreeQueue(true);
+        batcher.setBatchRunner(new RetryingTxnBatchRunner());
+        batcher.startup();
+        try {
+            for (int i = 0; i < 100; i++) {
+                batcher.submitBatchCommand(new TestBatchCommand("Test#" + i));
+            }
+            Thread.sleep(2000);
+            Assert.assertEquals(0, batcher.queue.size());
+        } finally {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    public final void testMaxBatchesPerTransaction() throws InterruptedException {
+        testMaxBatchesPerTransaction(false);
+        testMaxBatchesPerTransaction(true);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private void testMaxBatchesPerTransaction(boolean lockFreeQueue) throws InterruptedException {
+        final TestBatchExecutor[] executors = { new TestBatchExecutor(), new TestBatchExecutor(), new TestBatchExecutor() };
+        final List<Integer> transactions = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicLong reportedMSec = new AtomicLong();
+        BatcherImpl batcher = new BatcherImpl(1);
+        batcher.setLockFreeQueue(lockFreeQueue);
+        batcher.setMaxBatchesPerTransaction(2);
+        batcher.setStatisticsCollector(new RuntimeStatisticsCollector() {
+            @Override
+            public void submit(String measurePointId, int elementCount, long elapsedTime, TimeUnit timeUnit) {
+                reportedMSec.addAndGet(timeUnit.toMillis(elapsedTime));
+            }
+        });
+        batcher.setBatchRunner(new RetryingTxnBatchRunner() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public void runAll(List batches) {
+                transactions.add(batches.size());
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.runAll(batches);
+            }
+        });
+        batcher.startup();
+        try {
+            final long targetTime = System.currentTimeMillis() + 200;
+            for (int i = 0; i < 30; i++) {
+                final TestBatchCommand cmd = new TestBatchCommand("Test#" + i);
+                cmd.executor = executors[i % executors.length];
+                cmd.targetTime = targetTime;
+                batcher.submitBatchCommand(cmd);
+            }
+            Thread.sleep(1000);
+            Assert.assertEquals(0, batcher.queue.size());
+            Assert.assertEquals(Arrays.asList(2, 1), transactions);
+            // the time of a transaction is reported once, not once per executor
+            Assert.assertTrue("reported " + reportedMSec.get() + " msec", reportedMSec.get() >= 400 && reportedMSec.get() < 550);
+        } finally {
+            batcher.shutdown();
+        }
+    }
+
 }
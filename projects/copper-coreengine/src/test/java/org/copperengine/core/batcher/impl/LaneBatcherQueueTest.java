@@ -0,0 +1,143 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.batcher.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copperengine.core.batcher.BatchCommand;
+import org.copperengine.core.batcher.impl.BatcherImplTest.TestBatchCommand;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LaneBatcherQueueTest {
+
+    private static final int MAXIMUM_BATCH_SIZE = BatcherImplTest.TestBatchExecutor.INSTANCE.maximumBatchSize();
+
+    private static TestBatchCommand createCommand(String data, long targetTime) {
+        final TestBatchCommand cmd = new TestBatchCommand(data);
+        cmd.targetTime = targetTime;
+        return cmd;
+    }
+
+    @Test
+    public void testTargetTime() throws Exception {
+        final LaneBatcherQueue queue = new LaneBatcherQueue();
+        final long startTS = System.currentTimeMillis();
+        queue.submitBatchCommand(createCommand("a", startTS + 300));
+        queue.submitBatchCommand(createCommand("b", startTS + 200));
+        final List<BatchCommand<?, ?>> batch = queue.poll();
+        final long et = System.currentTimeMillis() - startTS;
+        Assert.assertEquals(2, batch.size());
+        Assert.assertTrue("batch returned after " + et + " msec", et >= 200 && et < 300);
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testPreferredBatchSize() throws Exception {
+        final LaneBatcherQueue queue = new LaneBatcherQueue();
+        final long targetTime = System.currentTimeMillis() + 60000;
+        for (int i = 0; i < 120; i++) {
+            queue.submitBatchCommand(createCommand("#" + i, targetTime - i));
+        }
+        final List<BatchCommand<?, ?>> batch = queue.poll();
+        Assert.assertEquals(MAXIMUM_BATCH_SIZE, batch.size());
+        Assert.assertEquals(20, queue.size());
+    }
+
+    @Test
+    public void testWakeUpWaitingWorker() throws Exception {
+        final LaneBatcherQueue queue = new LaneBatcherQueue();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread worker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    if (queue.poll().size() == 1) {
+                        latch.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        };
+        worker.start();
+        Thread.sleep(100);
+        queue.submitBatchCommand(createCommand("a", System.currentTimeMillis()));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        worker.join();
+    }
+
+    @Test
+    public void testConcurrentSubmitAndStop() throws Exception {
+        final int NUMB_PRODUCERS = 8;
+        final int NUMB_PER_PRODUCER = 20000;
+        final LaneBatcherQueue queue = new LaneBatcherQueue();
+        final ConcurrentHashMap<BatchCommand<?, ?>, Boolean> received = new ConcurrentHashMap<BatchCommand<?, ?>, Boolean>();
+        final AtomicInteger duplicates = new AtomicInteger();
+
+        final List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < 3; i++) {
+            final Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        List<BatchCommand<?, ?>> batch;
+                        while ((batch = queue.poll()) != null) {
+                            Assert.assertTrue(batch.size() <= MAXIMUM_BATCH_SIZE);
+                            for (BatchCommand<?, ?> cmd : batch) {
+                                if (received.put(cmd, Boolean.TRUE) != null) {
+                                    duplicates.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+            };
+            t.start();
+            workers.add(t);
+        }
+        final List<Thread> producers = new ArrayList<Thread>();
+        for (int i = 0; i < NUMB_PRODUCERS; i++) {
+            final Thread t = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < NUMB_PER_PRODUCER; j++) {
+                        queue.submitBatchCommand(createCommand("x", System.currentTimeMillis() + 10));
+                    }
+                }
+            };
+            t.start();
+            producers.add(t);
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+        queue.stop();
+        for (Thread t : workers) {
+            t.join(10000);
+            Assert.assertFalse(t.isAlive());
+        }
+        Assert.assertEquals(0, duplicates.get());
+        Assert.assertEquals(NUMB_PRODUCERS * NUMB_PER_PRODUCER, received.size());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copperengine.core.Interrupt;
+import org.copperengine.core.Workflow;
+import org.copperengine.core.instrument.Transformed;
+import org.copperengine.core.internal.SuspendableQueue;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WfMultiLevelQueueTest {
+
+    @Transformed
+    private static class TestWorkflow extends Workflow<Object> {
+        private static final long serialVersionUID = 1L;
+
+        TestWorkflow(int priority) {
+            setPriority(priority);
+        }
+
+        @Override
+        public void main() throws Interrupt {
+        }
+    }
+
+    @Test
+    public void testOrder() {
+        final WfMultiLevelQueue queue = new WfMultiLevelQueue();
+        final List<Workflow<?>> wfs = new ArrayList<Workflow<?>>();
+        for (int prio : new int[] { 5, 1, 5, 3, 1, 100, -1 }) {
+            final Workflow<?> wf = new TestWorkflow(prio);
+            wfs.add(wf);
+            queue.add(wf);
+        }
+        Assert.assertEquals(7, queue.size());
+        Assert.assertSame(wfs.get(6), queue.peek());
+        Assert.assertSame(wfs.get(6), queue.poll());
+        Assert.assertSame(wfs.get(1), queue.poll());
+        Assert.assertSame(wfs.get(4), queue.poll());
+        Assert.assertSame(wfs.get(3), queue.poll());
+        Assert.assertSame(wfs.get(0), queue.poll());
+        Assert.assertSame(wfs.get(2), queue.poll());
+        Assert.assertSame(wfs.get(5), queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testPrioritiesOutOfRange() {
+        final WfMultiLevelQueue queue = new WfMultiLevelQueue();
+        final List<Workflow<?>> wfs = new ArrayList<Workflow<?>>();
+        for (int prio : new int[] { 200, -1, 64, WfMultiLevelQueue.MAX_PRIORITY, -5, 0, 200 }) {
+            final Workflow<?> wf = new TestWorkflow(prio);
+            wfs.add(wf);
+            queue.add(wf);
+        }
+        Assert.assertEquals(7, queue.size());
+        for (int idx : new int[] { 4, 1, 5, 3, 2, 0, 6 }) {
+            Assert.assertSame(wfs.get(idx), queue.peek());
+            Assert.assertSame(wfs.get(idx), queue.poll());
+        }
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testIterator() {
+        final WfMultiLevelQueue queue = new WfMultiLevelQueue();
+        final List<Workflow<?>> wfs = new ArrayList<Workflow<?>>();
+        for (int prio : new int[] { 5, 1, 100, -1, 5 }) {
+            final Workflow<?> wf = new TestWorkflow(prio);
+            wfs.add(wf);
+            queue.add(wf);
+        }
+        final List<Workflow<?>> iterated = new ArrayList<Workflow<?>>(queue);
+        Assert.assertEquals(5, iterated.size());
+        Assert.assertSame(wfs.get(3), iterated.get(0));
+        Assert.assertSame(wfs.get(1), iterated.get(1));
+        Assert.assertSame(wfs.get(0), iterated.get(2));
+        Assert.assertSame(wfs.get(4), iterated.get(3));
+        Assert.assertSame(wfs.get(2), iterated.get(4));
+        Assert.assertTrue(queue.contains(wfs.get(2)));
+
+        Assert.assertTrue(queue.remove(wfs.get(0)));
+        Assert.assertTrue(queue.remove(wfs.get(2)));
+        Assert.assertFalse(queue.remove(wfs.get(2)));
+        Assert.assertEquals(3, queue.size());
+        Assert.assertFalse(queue.contains(wfs.get(2)));
+        Assert.assertSame(wfs.get(3), queue.poll());
+        Assert.assertSame(wfs.get(1), queue.poll());
+        Assert.assertSame(wfs.get(4), queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testAwaitSuspended() throws Exception {
+        final WfMultiLevelQueue queue = new WfMultiLevelQueue();
+        final SuspendableQueue<Workflow<?>> suspendableQueue = new SuspendableQueue<Workflow<?>>(queue);
+        suspendableQueue.setSuspended(true);
+        queue.add(new TestWorkflow(5));
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    // await may return spuriously, like LockSupport.park
+                    while (suspendableQueue.poll() == null) {
+                        queue.await(suspendableQueue);
+                    }
+                    latch.countDown();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        };
+        t.start();
+        Assert.assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+        suspendableQueue.setSuspended(false);
+        queue.signalAll();
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        t.join();
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final int NUMB_PRODUCERS = 4;
+        final int NUMB_CONSUMERS = 4;
+        final int NUMB_PER_PRODUCER = 50000;
+        final WfMultiLevelQueue queue = new WfMultiLevelQueue();
+        final ConcurrentHashMap<Workflow<?>, Boolean> consumed = new ConcurrentHashMap<Workflow<?>, Boolean>();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(NUMB_PRODUCERS * NUMB_PER_PRODUCER);
+
+        final List<Thread> consumers = new ArrayList<Thread>();
+        for (int i = 0; i < NUMB_CONSUMERS; i++) {
+            final Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (!isInterrupted()) {
+                            final Workflow<?> wf = queue.poll();
+                            if (wf == null) {
+                                queue.await(queue);
+                                continue;
+                            }
+                            if (consumed.put(wf, Boolean.TRUE) != null) {
+                                duplicates.incrementAndGet();
+                            }
+                            done.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        // stop
+                    }
+                }
+            };
+            t.start();
+            consumers.add(t);
+        }
+        for (int i = 0; i < NUMB_PRODUCERS; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < NUMB_PER_PRODUCER; j++) {
+                        queue.add(new TestWorkflow(j % 10));
+                        if (j % 1000 == 0) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            }.start();
+        }
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        for (Thread t : consumers) {
+            t.interrupt();
+            t.join();
+        }
+        Assert.assertEquals(0, duplicates.get());
+        Assert.assertEquals(NUMB_PRODUCERS * NUMB_PER_PRODUCER, consumed.size());
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(0, queue.size());
+    }
+
+}
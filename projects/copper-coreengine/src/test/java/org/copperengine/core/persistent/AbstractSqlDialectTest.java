@@ -0,0 +1,35 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AbstractSqlDialectTest {
+
+    @Test
+    public void testChunkSize() {
+        Assert.assertEquals(1, AbstractSqlDialect.chunkSize(0, 25));
+        Assert.assertEquals(1, AbstractSqlDialect.chunkSize(1, 25));
+        Assert.assertEquals(10, AbstractSqlDialect.chunkSize(2, 25));
+        Assert.assertEquals(10, AbstractSqlDialect.chunkSize(10, 25));
+        Assert.assertEquals(25, AbstractSqlDialect.chunkSize(11, 25));
+        Assert.assertEquals(25, AbstractSqlDialect.chunkSize(500, 25));
+        Assert.assertEquals(1000, AbstractSqlDialect.chunkSize(500, Integer.MAX_VALUE));
+        Assert.assertEquals(Integer.MAX_VALUE, AbstractSqlDialect.chunkSize(2000000000, Integer.MAX_VALUE));
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveDequeueControllerTest {
+
+    private static final long MSEC = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static void process(AdaptiveDequeueController controller, int n) {
+        for (int i = 0; i < n; i++) {
+            controller.incProcessed();
+        }
+    }
+
+    @Test
+    public void testSmallPool() {
+        final AdaptiveDequeueController controller = new AdaptiveDequeueController(0, 2000, 3000, 6000);
+        Assert.assertEquals(2000, controller.getDequeueBulkSize());
+
+        // 100 workflow instances per second, 10 msec per dequeue
+        process(controller, 100);
+        controller.dequeued(2000, 5, 10 * MSEC, 1000 * MSEC, 2000, 4);
+        Assert.assertEquals(100.0, controller.getAvgProcessingRate(), 0.001);
+        Assert.assertEquals(10.0, controller.getAvgRoundtripMSec(), 0.001);
+        Assert.assertEquals(AdaptiveDequeueController.MIN_DEQUEUE_BULK_SIZE, controller.getDequeueBulkSize());
+        Assert.assertEquals(6, controller.getLowerThreshold());
+        Assert.assertEquals(16, controller.getUpperThreshold());
+    }
+
+    @Test
+    public void testLargePoolWithBacklog() {
+        final AdaptiveDequeueController controller = new AdaptiveDequeueController(0, 2000, 3000, 6000);
+
+        // 50000 workflow instances per second, 20 msec per dequeue
+        process(controller, 50000);
+        controller.dequeued(10, 10, 20 * MSEC, 1000 * MSEC, 5000, 32);
+        Assert.assertEquals(2000, controller.getDequeueBulkSize());
+        Assert.assertEquals(2032, controller.getLowerThreshold());
+        Assert.assertEquals(4032, controller.getUpperThreshold());
+
+        // full bulks double the bulk size up to the configured maximum
+        process(controller, 10000);
+        controller.dequeued(2000, 2000, 20 * MSEC, 1200 * MSEC, 5000, 32);
+        Assert.assertEquals(4000, controller.getDequeueBulkSize());
+        process(controller, 10000);
+        controller.dequeued(4000, 4000, 20 * MSEC, 1400 * MSEC, 5000, 32);
+        Assert.assertEquals(5000, controller.getDequeueBulkSize());
+
+        // backlog is gone
+        process(controller, 10000);
+        controller.dequeued(5000, 100, 20 * MSEC, 1600 * MSEC, 5000, 32);
+        Assert.assertEquals(2000, controller.getDequeueBulkSize());
+
+        Assert.assertEquals(20, controller.getWaitMSec(3032, 50));
+        Assert.assertEquals(50, controller.getWaitMSec(100000, 50));
+        Assert.assertEquals(1, controller.getWaitMSec(2032, 50));
+    }
+
+    @Test
+    public void testIdlePool() {
+        final AdaptiveDequeueController controller = new AdaptiveDequeueController(0, 2000, 3000, 6000);
+        controller.dequeued(2000, 0, 5 * MSEC, 50 * MSEC, 2000, 2);
+        Assert.assertEquals(0.0, controller.getAvgProcessingRate(), 0.0);
+        Assert.assertEquals(AdaptiveDequeueController.MIN_DEQUEUE_BULK_SIZE, controller.getDequeueBulkSize());
+        Assert.assertEquals(2, controller.getLowerThreshold());
+        Assert.assertEquals(50, controller.getWaitMSec(100, 50));
+    }
+
+    @Test
+    public void testEmptyDequeueIsNoRoundtripSample() {
+        final AdaptiveDequeueController controller = new AdaptiveDequeueController(0, 2000, 3000, 6000);
+        process(controller, 1000);
+        controller.dequeued(2000, 50, 10 * MSEC, 1000 * MSEC, 2000, 4);
+        Assert.assertEquals(10.0, controller.getAvgRoundtripMSec(), 0.001);
+
+        // an empty dequeue may contain the time spent waiting for an enqueue
+        controller.dequeued(2000, 0, 500 * MSEC, 1500 * MSEC, 2000, 4);
+        Assert.assertEquals(10.0, controller.getAvgRoundtripMSec(), 0.001);
+        Assert.assertEquals(14, controller.getDequeueBulkSize());
+    }
+
+}
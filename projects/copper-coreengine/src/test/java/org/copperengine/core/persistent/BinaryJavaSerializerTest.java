@@ -0,0 +1,136 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent;
+
+import java.nio.charset.StandardCharsets;
+
+import org.copperengine.core.Response;
+import org.copperengine.core.persistent.compression.DeflateCodec;
+import org.copperengine.core.persistent.compression.Lz4Codec;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BinaryJavaSerializerTest {
+
+    private static String createPayload(int size) {
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            sb.append((char) ('a' + (i % 7)));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testSmallResponseIsNotCompressed() throws Exception {
+        BinaryJavaSerializer serializer = new BinaryJavaSerializer();
+        serializer.setCompressThresholdSize(4096);
+        Response<String> response = new Response<String>("cid", "ok", null);
+        byte[] data = serializer.serializeResponseBinary(response);
+        Assert.assertEquals(BinaryJavaSerializer.FORMAT_UNCOMPRESSED, data[0]);
+        Response<?> r = serializer.deserializeResponseBinary(data);
+        Assert.assertEquals("cid", r.getCorrelationId());
+        Assert.assertEquals("ok", r.getResponse());
+        Assert.assertEquals(response.getResponseId(), r.getResponseId());
+    }
+
+    @Test
+    public void testLargeResponseIsCompressed() throws Exception {
+        BinaryJavaSerializer serializer = new BinaryJavaSerializer();
+        serializer.setCompressorMaxSize(1024 * 1024);
+        String payload = createPayload(512 * 1024);
+        byte[] data = serializer.serializeResponseBinary(new Response<String>("cid", payload, null));
+        Assert.assertEquals(DeflateCodec.ID, data[0]);
+        Assert.assertTrue(data.length < payload.length());
+        Assert.assertEquals(payload, serializer.deserializeResponseBinary(data).getResponse());
+
+        // buffers are reused after a large payload has been released
+        Assert.assertEquals("ok", serializer.deserializeResponseBinary(serializer.serializeResponseBinary(new Response<String>("cid", "ok", null))).getResponse());
+    }
+
+    @Test
+    public void testMixedCodecs() throws Exception {
+        BinaryJavaSerializer deflateSerializer = new BinaryJavaSerializer();
+        BinaryJavaSerializer lz4Serializer = new BinaryJavaSerializer();
+        lz4Serializer.setCompressionCodec(new Lz4Codec());
+        String payload = createPayload(64 * 1024);
+
+        byte[] deflated = deflateSerializer.serializeResponseBinary(new Response<String>("cid", payload, null));
+        byte[] lz4 = lz4Serializer.serializeResponseBinary(new Response<String>("cid", payload, null));
+        Assert.assertEquals(Lz4Codec.ID, lz4[0]);
+        Assert.assertEquals(payload, lz4Serializer.deserializeResponseBinary(deflated).getResponse());
+        Assert.assertEquals(payload, deflateSerializer.deserializeResponseBinary(lz4).getResponse());
+
+        String text = lz4Serializer.serializeResponse(new Response<String>("cid", payload, null));
+        Assert.assertEquals("Z03", text.substring(0, 3));
+        Assert.assertEquals(payload, deflateSerializer.deserializeResponse(text).getResponse());
+        Assert.assertEquals(payload, deflateSerializer.deserializeResponseBinary(text.getBytes(StandardCharsets.UTF_8)).getResponse());
+    }
+
+    @Test
+    public void testCompressorMaxSize() throws Exception {
+        BinaryJavaSerializer serializer = new BinaryJavaSerializer();
+        serializer.setCompressorMaxSize(16 * 1024);
+        String payload = createPayload(32 * 1024);
+        byte[] data = serializer.serializeResponseBinary(new Response<String>("cid", payload, null));
+        Assert.assertEquals(BinaryJavaSerializer.FORMAT_UNCOMPRESSED, data[0]);
+        Assert.assertEquals(payload, serializer.deserializeResponseBinary(data).getResponse());
+    }
+
+    @Test
+    public void testDialectSupport() throws Exception {
+        for (AbstractSqlDialect dialect : new AbstractSqlDialect[] { new H2Dialect(), new DerbyDbDialect(), new OracleSimpleDialect() }) {
+            dialect.setSerializer(new BinaryJavaSerializer());
+            Assert.assertFalse(dialect.getClass().getSimpleName(), dialect.isBinarySerialization());
+        }
+        for (AbstractSqlDialect dialect : new AbstractSqlDialect[] { new PostgreSQLDialect(), new MySqlDialect() }) {
+            Assert.assertFalse(dialect.isBinarySerialization());
+            dialect.setSerializer(new BinaryJavaSerializer());
+            Assert.assertTrue(dialect.getClass().getSimpleName(), dialect.isBinarySerialization());
+        }
+    }
+
+    @Test
+    public void testCompressionDisabled() throws Exception {
+        BinaryJavaSerializer serializer = new BinaryJavaSerializer();
+        serializer.setCompress(false);
+        String payload = createPayload(10 * 1024);
+        byte[] data = serializer.serializeResponseBinary(new Response<String>("cid", payload, null));
+        Assert.assertEquals(BinaryJavaSerializer.FORMAT_UNCOMPRESSED, data[0]);
+        Assert.assertEquals(payload, serializer.deserializeResponseBinary(data).getResponse());
+    }
+
+    @Test
+    public void testReadsLegacyBase64Format() throws Exception {
+        BinaryJavaSerializer serializer = new BinaryJavaSerializer();
+        String payload = createPayload(10 * 1024);
+        for (boolean compress : new boolean[] { true, false }) {
+            StandardJavaSerializer legacySerializer = new StandardJavaSerializer();
+            legacySerializer.setCompress(compress);
+            String legacy = legacySerializer.serializeResponse(new Response<String>("cid", payload, null));
+            Assert.assertEquals(compress ? 'C' : 'U', legacy.charAt(0));
+            Response<?> r = serializer.deserializeResponseBinary(legacy.getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(payload, r.getResponse());
+        }
+    }
+
+    @Test
+    public void testNull() throws Exception {
+        BinaryJavaSerializer serializer = new BinaryJavaSerializer();
+        Assert.assertNull(serializer.serializeResponseBinary(null));
+        Assert.assertNull(serializer.deserializeResponseBinary(null));
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompressionCodecTest {
+
+    private static byte[] createCompressible(int size) {
+        final byte[] words = "workflow instance response correlation id ".getBytes();
+        final Random random = new Random(4711);
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = random.nextInt(100) == 0 ? (byte) random.nextInt(256) : words[(i * 7 + i / 13) % words.length];
+        }
+        return data;
+    }
+
+    private static byte[] createRandom(int size) {
+        final byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    private static void assertRoundtrip(CompressionCodec codec, byte[] data) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x7F);
+        codec.compress(data, 0, data.length, out);
+        final byte[] compressed = out.toByteArray();
+        Assert.assertArrayEquals(codec.getName(), data, codec.uncompress(compressed, 1, compressed.length - 1));
+    }
+
+    @Test
+    public void testRoundtrip() throws Exception {
+        for (CompressionCodec codec : new CompressionCodec[] { new Lz4Codec(), new DeflateCodec(Deflater.BEST_SPEED), new DeflateCodec(Deflater.BEST_COMPRESSION) }) {
+            for (int size : new int[] { 0, 1, 5, 12, 13, 100, 70000, 300000 }) {
+                assertRoundtrip(codec, createCompressible(size));
+                assertRoundtrip(codec, createRandom(size));
+            }
+            byte[] zeros = new byte[100000];
+            assertRoundtrip(codec, zeros);
+        }
+    }
+
+    @Test
+    public void testLz4Compresses() throws Exception {
+        final byte[] data = createCompressible(100000);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Lz4Codec().compress(data, 0, data.length, out);
+        Assert.assertTrue(out.size() < data.length / 2);
+    }
+
+    @Test
+    public void testLz4RejectsCorruptData() throws Exception {
+        final byte[] data = createCompressible(1000);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Lz4Codec().compress(data, 0, data.length, out);
+        final byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() / 2);
+        try {
+            new Lz4Codec().uncompress(truncated, 0, truncated.length);
+            Assert.fail("IOException expected");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLz4RejectsInvalidLength() throws Exception {
+        final byte[] data = { 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x10, 0x41 };
+        try {
+            new Lz4Codec().uncompress(data, 0, data.length);
+            Assert.fail("IOException expected");
+        } catch (java.io.IOException e) {
+            Assert.assertTrue(e.getMessage().contains("invalid uncompressed length"));
+        }
+    }
+
+    @Test
+    public void testLz4IgnoresPositionsOfPreviousInput() throws Exception {
+        final Lz4Codec codec = new Lz4Codec();
+        final byte[] first = createCompressible(50000);
+        final byte[] second = createCompressible(20000);
+        second[0] = 'x';
+        assertRoundtrip(codec, first);
+        assertRoundtrip(codec, second);
+        assertRoundtrip(codec, createRandom(1000));
+        assertRoundtrip(codec, first);
+    }
+
+    @Test
+    public void testRegistry() {
+        Assert.assertEquals(DeflateCodec.NAME, CompressionCodecs.get(DeflateCodec.ID).getName());
+        Assert.assertEquals(Lz4Codec.ID, CompressionCodecs.get(Lz4Codec.NAME).getId());
+        try {
+            CompressionCodecs.register(new Lz4Codec() {
+                @Override
+                public byte getId() {
+                    return DeflateCodec.ID;
+                }
+            });
+            Assert.fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        final Map<String, Long> elements = new HashMap<String, Long>();
+        final CompressionStatistics statistics = new CompressionStatistics(new RuntimeStatisticsCollector() {
+            @Override
+            public void submit(String measurePointId, int elementCount, long elapsedTime, TimeUnit timeUnit) {
+                elements.put(measurePointId, (long) elementCount);
+            }
+        });
+        final byte[] data = createCompressible(10000);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        statistics.compress(new Lz4Codec(), data, 0, data.length, out);
+        statistics.uncompress(new Lz4Codec(), out.toByteArray(), 0, out.size());
+        Assert.assertEquals(Long.valueOf(data.length), elements.get("Compression.lz4.compress.in"));
+        Assert.assertEquals(Long.valueOf(out.size()), elements.get("Compression.lz4.compress.out"));
+        Assert.assertEquals(Long.valueOf(data.length), elements.get("Compression.lz4.uncompress"));
+    }
+
+}
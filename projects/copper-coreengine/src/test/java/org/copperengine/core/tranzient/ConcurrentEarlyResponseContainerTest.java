@@ -0,0 +1,69 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.tranzient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.copperengine.core.Response;
+import org.junit.Test;
+
+public class ConcurrentEarlyResponseContainerTest {
+
+    @Test
+    public void testPutGet() {
+        ConcurrentEarlyResponseContainer container = new ConcurrentEarlyResponseContainer();
+        container.put(new Response<String>("a", "1", null));
+        container.put(new Response<String>("a", "2", null));
+        container.put(new Response<String>("b", "3", null));
+        assertEquals(3, container.getNumberOfResponses());
+        assertEquals(2, container.get("a").size());
+        assertTrue(container.get("a").isEmpty());
+        assertEquals(1, container.getNumberOfResponses());
+    }
+
+    @Test
+    public void testEvictionCountsResponses() {
+        ConcurrentEarlyResponseContainer container = new ConcurrentEarlyResponseContainer();
+        container.setLowerBorderNumberOfResponses(5);
+        container.setUpperBorderNumberOfResponses(10);
+        for (int i = 0; i < 11; i++) {
+            // all responses share one correlation id, so a bound on the number of map keys would never trigger
+            container.put(new Response<String>("a", Integer.toString(i), null));
+        }
+        assertEquals(5, container.getNumberOfResponses());
+        assertEquals(6, container.getNumberOfEvictedResponses());
+        assertEquals(5, container.get("a").size());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        ConcurrentEarlyResponseContainer container = new ConcurrentEarlyResponseContainer();
+        container.setCheckInterval(10);
+        container.startup();
+        try {
+            container.put(new Response<String>("a", "1", null, false, null, 50L, null));
+            container.put(new Response<String>("b", "2", null));
+            Thread.sleep(300);
+            assertEquals(1, container.getNumberOfExpiredResponses());
+            assertTrue(container.get("a").isEmpty());
+            assertEquals(1, container.get("b").size());
+        } finally {
+            container.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.tranzient;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.copperengine.core.Acknowledge;
+import org.copperengine.core.ProcessingEngine;
+import org.copperengine.core.Response;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TimingWheelTimeoutManagerTest {
+
+    private final List<String> fired = Collections.synchronizedList(new ArrayList<String>());
+    private TimingWheelTimeoutManager timeoutManager;
+
+    private void startup(long slotInterval) {
+        final ProcessingEngine engine = Mockito.mock(ProcessingEngine.class);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                fired.add(((Response<?>) invocation.getArguments()[0]).getCorrelationId());
+                return null;
+            }
+        }).when(engine).notify(Mockito.any(Response.class), Mockito.any(Acknowledge.class));
+
+        timeoutManager = new TimingWheelTimeoutManager(16, slotInterval);
+        timeoutManager.setEngine(engine);
+        timeoutManager.startup();
+    }
+
+    @After
+    public void shutdown() {
+        timeoutManager.shutdown();
+    }
+
+    private List<String> sortedFired() {
+        synchronized (fired) {
+            final List<String> sorted = new ArrayList<String>(fired);
+            Collections.sort(sorted);
+            return sorted;
+        }
+    }
+
+    @Test
+    public void testFireAndUnregister() throws Exception {
+        startup(5);
+        final long now = System.currentTimeMillis();
+        timeoutManager.registerTimeout(now + 100, "a");
+        timeoutManager.registerTimeout(now + 300, Arrays.asList("b", "c"));
+        // beyond the 2.56 seconds covered by the lowest level
+        timeoutManager.registerTimeout(now + 5000, "far");
+        timeoutManager.unregisterTimeout(now + 300, "c");
+        assertEquals(3, timeoutManager.size());
+
+        Thread.sleep(600);
+        assertEquals(Arrays.asList("a", "b"), sortedFired());
+        assertEquals(1, timeoutManager.size());
+
+        timeoutManager.unregisterTimeout(now + 5000, "far");
+        assertEquals(0, timeoutManager.size());
+    }
+
+    @Test
+    public void testCascade() throws Exception {
+        startup(1);
+        // 512 msec is the range of the lowest level, so this one has to be cascaded down before it fires
+        final long timeoutTS = System.currentTimeMillis() + 700;
+        timeoutManager.registerTimeout(timeoutTS, "x");
+        Thread.sleep(500);
+        assertEquals(0, fired.size());
+        while (System.currentTimeMillis() < timeoutTS) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(Arrays.asList("x"), sortedFired());
+        assertEquals(0, timeoutManager.size());
+    }
+
+    @Test
+    public void testRegisterTwice() throws Exception {
+        startup(5);
+        final long now = System.currentTimeMillis();
+        timeoutManager.registerTimeout(now + 100, "a");
+        timeoutManager.registerTimeout(now + 200, "a");
+        timeoutManager.registerTimeout(now + 100, "b");
+        timeoutManager.registerTimeout(now + 150, Arrays.asList("b"));
+        timeoutManager.registerTimeout(now + 100, "c");
+        timeoutManager.registerTimeout(now + 200, "c");
+        timeoutManager.unregisterTimeout(now + 200, "c");
+        assertEquals(2, timeoutManager.size());
+
+        Thread.sleep(400);
+        assertEquals(Arrays.asList("a", "b"), sortedFired());
+        assertEquals(0, timeoutManager.size());
+    }
+
+}
@@ -23,4 +23,8 @@ public interface BatcherMXBean {
 
     public void setNumThreads(int numThreads);
 
+    public int getMaxBatchesPerTransaction();
+
+    public void setMaxBatchesPerTransaction(int maxBatchesPerTransaction);
+
 }
@@ -37,6 +37,40 @@ public interface PersistentPriorityProcessorPoolMXBean extends ProcessorPoolMXBe
 
     public void setDequeueBulkSize(int dequeueBulkSize);
 
+    /**
+     * Enables or disables the adaptive dequeue mode. In adaptive mode, dequeue bulk size and thresholds are computed
+     * from the measured processing rate and dequeue round trip time of this pool, the configured dequeue bulk size
+     * is used as upper bound.
+     */
+    public void setAdaptiveDequeue(boolean adaptiveDequeue);
+
+    public boolean isAdaptiveDequeue();
+
+    /**
+     * @return the lower threshold currently in use, i.e. the computed one in adaptive dequeue mode
+     */
+    public int getEffectiveLowerThreshold();
+
+    /**
+     * @return the upper threshold currently in use, i.e. the computed one in adaptive dequeue mode
+     */
+    public int getEffectiveUpperThreshold();
+
+    /**
+     * @return the dequeue bulk size currently in use, i.e. the computed one in adaptive dequeue mode
+     */
+    public int getEffectiveDequeueBulkSize();
+
+    /**
+     * @return the average number of workflow instances processed per second, measured in adaptive dequeue mode only
+     */
+    public double getAvgProcessingRate();
+
+    /**
+     * @return the average duration of a dequeue in milliseconds, measured in adaptive dequeue mode only
+     */
+    public double getAvgDequeueRoundtripMSec();
+
     /**
      * Suspends dequeuing of workflow instances from the storage.
      * Workflow instances that already reside in the transient queue are still processed, i.e.
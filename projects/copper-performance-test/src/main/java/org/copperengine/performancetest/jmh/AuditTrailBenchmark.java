@@ -0,0 +1,165 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.copperengine.core.audit.AuditTrail;
+import org.copperengine.core.audit.AuditTrailCallback;
+import org.copperengine.core.audit.AuditTrailEvent;
+import org.copperengine.core.audit.BatchingAuditTrail;
+import org.copperengine.core.audit.SegmentedFileAuditTrail;
+import org.copperengine.core.batcher.RetryingTxnBatchRunner;
+import org.copperengine.core.batcher.impl.BatcherImpl;
+import org.copperengine.core.persistent.H2Dialect;
+import org.copperengine.performancetest.main.ConfigParameter;
+import org.copperengine.performancetest.main.DataSourceFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * Compares the rows per second written by {@link BatchingAuditTrail} using JDBC batches of single row inserts against
+ * the bulk insert, see {@link BatchingAuditTrail#setBulkInsert(boolean)}. Each operation writes one audit trail event,
+ * the events are logged asynchronously in chunks of {@value #EVENTS_PER_INVOCATION} and the benchmark waits until all
+ * of them are committed. Mode <code>file</code> measures the {@link SegmentedFileAuditTrail} in front of the batch
+ * insert, an event counts as written as soon as it is durably stored in the local segment file.
+ * <p>
+ * The database is configured with the same system properties as the end-to-end tests, e.g.
+ * <code>-Dds.jdbcURL=jdbc:postgresql://...</code>, the COPPER schema has to exist. Without <code>ds.jdbcURL</code> an
+ * in-memory H2 database is used.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuditTrailBenchmark {
+
+    private static final int EVENTS_PER_INVOCATION = 1000;
+
+    @State(Scope.Benchmark)
+    public static class AuditTrailState {
+        @Param({ "batch", "bulk", "file" })
+        String insertMode;
+
+        ComboPooledDataSource dataSource;
+        BatcherImpl batcher;
+        AuditTrail auditTrail;
+        SegmentedFileAuditTrail fileAuditTrail;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            final Properties props = new Properties();
+            props.putAll(System.getProperties());
+            if (props.getProperty(ConfigParameter.DS_JDBC_URL.getKey()) == null) {
+                props.setProperty(ConfigParameter.DS_JDBC_URL.getKey(), "jdbc:h2:mem:copperAuditTrailBenchmark;DB_CLOSE_DELAY=-1");
+                props.setProperty(ConfigParameter.DS_DRIVER_CLASS.getKey(), "org.h2.Driver");
+                dataSource = DataSourceFactory.createDataSource(props);
+                H2Dialect.checkAndCreateSchema(dataSource);
+            } else {
+                dataSource = DataSourceFactory.createDataSource(props);
+            }
+
+            batcher = new BatcherImpl(Runtime.getRuntime().availableProcessors());
+            batcher.setBatchRunner(new RetryingTxnBatchRunner<>(dataSource));
+            batcher.startup();
+
+            final BatchingAuditTrail batchingAuditTrail = new BatchingAuditTrail();
+            batchingAuditTrail.setBatcher(batcher);
+            batchingAuditTrail.setDataSource(dataSource);
+            batchingAuditTrail.setBulkInsert("bulk".equals(insertMode));
+            batchingAuditTrail.startup();
+            auditTrail = batchingAuditTrail;
+
+            if ("file".equals(insertMode)) {
+                final File directory = File.createTempFile("copperAuditTrailBenchmark", "");
+                if (!directory.delete() || !directory.mkdir())
+                    throw new IOException("Unable to create directory " + directory);
+                fileAuditTrail = new SegmentedFileAuditTrail();
+                fileAuditTrail.setTarget(batchingAuditTrail);
+                fileAuditTrail.setDirectory(directory);
+                fileAuditTrail.startup();
+                auditTrail = fileAuditTrail;
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (fileAuditTrail != null) {
+                fileAuditTrail.shutdown();
+            }
+            batcher.shutdown();
+            dataSource.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_INVOCATION)
+    public void log(AuditTrailState state) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(EVENTS_PER_INVOCATION);
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        final AuditTrailCallback callback = new AuditTrailCallback() {
+            @Override
+            public void done() {
+                latch.countDown();
+            }
+
+            @Override
+            public void error(Exception e) {
+                error.set(e);
+                latch.countDown();
+            }
+        };
+        final Date now = new Date();
+        for (int i = 0; i < EVENTS_PER_INVOCATION; i++) {
+            final AuditTrailEvent e = new AuditTrailEvent(1, now, "conversationId", "context", "instanceId", "correlationId", "transactionId", "message #" + i, "messageType", null);
+            state.auditTrail.asynchLog(e, callback);
+        }
+        latch.await();
+        if (error.get() != null)
+            throw error.get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(AuditTrailBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
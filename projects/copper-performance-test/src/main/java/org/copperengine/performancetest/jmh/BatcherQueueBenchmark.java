@@ -0,0 +1,164 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.jmh;
+
+import java.sql.Connection;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copperengine.core.batcher.BatchCommand;
+import org.copperengine.core.batcher.BatchExecutor;
+import org.copperengine.core.batcher.BatchExecutorBase;
+import org.copperengine.core.batcher.BatchRunner;
+import org.copperengine.core.batcher.CommandCallback;
+import org.copperengine.core.batcher.NullCallback;
+import org.copperengine.core.batcher.impl.BatcherImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the queues of {@link BatcherImpl}: the default queue guarded by a single lock against the lock-free queue
+ * with one lane per batch executor, see {@link BatcherImpl#setLockFreeQueue(boolean)}. Each operation submits one
+ * batch command to one of {@value #NUMB_OF_EXECUTORS} executors. The batches are handed to a batch runner that does
+ * nothing, so only the hand-off from the submitting threads to the batcher worker threads is measured.
+ * <p>
+ * Run {@link #main(String[])} to measure with 8, 32 and 128 producer threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatcherQueueBenchmark {
+
+    private static final int NUMB_OF_EXECUTORS = 4;
+    private static final int NUMB_OF_BATCHER_THREADS = 2;
+
+    static final class NoopBatchExecutor extends BatchExecutor<NoopBatchExecutor, NoopBatchCommand> {
+
+        @Override
+        public void doExec(Collection<BatchCommand<NoopBatchExecutor, NoopBatchCommand>> commands, Connection connection) throws Exception {
+        }
+
+        @Override
+        public int preferredBatchSize() {
+            return 100;
+        }
+
+        @Override
+        public int maximumBatchSize() {
+            return 500;
+        }
+    }
+
+    static final class NoopBatchCommand implements BatchCommand<NoopBatchExecutor, NoopBatchCommand> {
+
+        private static final NullCallback<NoopBatchCommand> callback = new NullCallback<NoopBatchCommand>();
+
+        final NoopBatchExecutor executor;
+        final long targetTime;
+
+        NoopBatchCommand(NoopBatchExecutor executor, long targetTime) {
+            this.executor = executor;
+            this.targetTime = targetTime;
+        }
+
+        @Override
+        public CommandCallback<NoopBatchCommand> callback() {
+            return callback;
+        }
+
+        @Override
+        public NoopBatchExecutor executor() {
+            return executor;
+        }
+
+        @Override
+        public long targetTime() {
+            return targetTime;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class BatcherState {
+        @Param({ "default", "lockfree" })
+        String queueType;
+
+        final NoopBatchExecutor[] executors = new NoopBatchExecutor[NUMB_OF_EXECUTORS];
+        final AtomicInteger threadCounter = new AtomicInteger();
+        BatcherImpl batcher;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            for (int i = 0; i < executors.length; i++) {
+                executors[i] = new NoopBatchExecutor();
+            }
+            batcher = new BatcherImpl(NUMB_OF_BATCHER_THREADS);
+            batcher.setLockFreeQueue("lockfree".equals(queueType));
+            batcher.setBatchRunner(new BatchRunner<NoopBatchExecutor, NoopBatchCommand>() {
+                @Override
+                public void run(Collection<BatchCommand<NoopBatchExecutor, NoopBatchCommand>> commands, BatchExecutorBase<NoopBatchExecutor, NoopBatchCommand> base) {
+                }
+            });
+            batcher.startup();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            batcher.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ProducerState {
+        NoopBatchExecutor executor;
+
+        @Setup(Level.Trial)
+        public void setup(BatcherState batcherState) {
+            executor = batcherState.executors[batcherState.threadCounter.getAndIncrement() % NUMB_OF_EXECUTORS];
+        }
+    }
+
+    @Benchmark
+    public void submit(BatcherState batcherState, ProducerState producerState) {
+        batcherState.batcher.submitBatchCommand(new NoopBatchCommand(producerState.executor, System.currentTimeMillis() + 10));
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[] { 8, 32, 128 }) {
+            Options opt = new OptionsBuilder()
+                    .include(BatcherQueueBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(opt).run();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.jmh;
+
+import java.io.IOException;
+
+import org.copperengine.core.Workflow;
+import org.copperengine.core.WorkflowFactory;
+import org.copperengine.core.WorkflowVersion;
+import org.copperengine.core.common.WorkflowRepository;
+import org.copperengine.core.instrument.ClassInfo;
+
+/**
+ * {@link WorkflowRepository} stub for the micro benchmarks. Every workflow factory creates {@link BenchmarkWorkflow}
+ * instances, the instance created last by the calling thread is available via {@link #lastCreated()}.
+ */
+public class BenchmarkWorkflowRepository implements WorkflowRepository {
+
+    private static final ThreadLocal<BenchmarkWorkflow> lastCreated = new ThreadLocal<BenchmarkWorkflow>();
+
+    public static BenchmarkWorkflow lastCreated() {
+        return lastCreated.get();
+    }
+
+    @Override
+    public <E> WorkflowFactory<E> createWorkflowFactory(String wfName) throws ClassNotFoundException {
+        return new WorkflowFactory<E>() {
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            @Override
+            public Workflow<E> newInstance() throws InstantiationException, IllegalAccessException {
+                final BenchmarkWorkflow wf = new BenchmarkWorkflow();
+                lastCreated.set(wf);
+                return (Workflow) wf;
+            }
+        };
+    }
+
+    @Override
+    public <E> WorkflowFactory<E> createWorkflowFactory(String wfName, WorkflowVersion version) throws ClassNotFoundException {
+        return createWorkflowFactory(wfName);
+    }
+
+    @Override
+    public WorkflowVersion findLatestMajorVersion(String wfName, long majorVersion) {
+        return null;
+    }
+
+    @Override
+    public WorkflowVersion findLatestMinorVersion(String wfName, long majorVersion, long minorVersion) {
+        return null;
+    }
+
+    @Override
+    public Class<?> resolveClass(String classname) throws IOException, ClassNotFoundException {
+        return Class.forName(classname);
+    }
+
+    @Override
+    public ClassInfo getClassInfo(@SuppressWarnings("rawtypes") Class<? extends Workflow> wfClazz) throws IOException, ClassNotFoundException {
+        return null;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.jmh;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.persistent.hybrid.CorrelationIdMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the {@link CorrelationIdMap} of the hybrid Cassandra storage filled with one correlation id per waiting
+ * workflow instance. The heap used by the map itself, i.e. without the id strings, is printed during setup. The
+ * benchmarks look up and register/remove correlation ids concurrently.
+ * <p>
+ * The default of 10 million entries needs a heap of about 4 GB, use e.g. <code>-p entries=1000000</code> on smaller
+ * machines.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@Threads(4)
+@State(Scope.Benchmark)
+public class CorrelationIdMapBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(CorrelationIdMapBenchmark.class);
+
+    @Param({ "10000000" })
+    int entries;
+
+    String[] wfIds;
+    String[] correlationIds;
+    CorrelationIdMap map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        wfIds = new String[entries];
+        correlationIds = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            wfIds[i] = String.format("%032x", i);
+            correlationIds[i] = String.format("cid-%032x", i);
+        }
+        final long before = usedHeap();
+        map = new CorrelationIdMap();
+        for (int i = 0; i < entries; i++) {
+            map.addCorrelationId(wfIds[i], correlationIds[i]);
+        }
+        final long used = usedHeap() - before;
+        logger.info("{} correlation ids use {} MB heap, {} bytes per entry", entries, used >> 20, used / entries);
+    }
+
+    private static long usedHeap() {
+        final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memoryMXBean.getHeapMemoryUsage().getUsed();
+    }
+
+    @Benchmark
+    public String getWorkflowId() {
+        return map.getWorkflowId(correlationIds[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+
+    @Benchmark
+    public void addAndRemove() {
+        final int i = ThreadLocalRandom.current().nextInt(entries);
+        map.removeAll4Workflow(wfIds[i]);
+        map.addCorrelationId(wfIds[i], correlationIds[i]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(CorrelationIdMapBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
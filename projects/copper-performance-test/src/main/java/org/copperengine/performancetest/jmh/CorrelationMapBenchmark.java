@@ -0,0 +1,147 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.jmh;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copperengine.core.Acknowledge;
+import org.copperengine.core.Response;
+import org.copperengine.core.WaitMode;
+import org.copperengine.core.WorkflowInstanceDescr;
+import org.copperengine.core.common.DefaultProcessorPoolManager;
+import org.copperengine.core.common.ProcessorPoolManager;
+import org.copperengine.core.common.WorkflowRepository;
+import org.copperengine.core.tranzient.TransientEngineFactory;
+import org.copperengine.core.tranzient.TransientProcessorPool;
+import org.copperengine.core.tranzient.TransientScottyEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the wait/notify throughput of the correlation map of the {@link TransientScottyEngine}, i.e. the cost of
+ * {@link TransientScottyEngine#registerCallbacks(org.copperengine.core.Workflow, WaitMode, long, String...)} followed
+ * by the matching {@link TransientScottyEngine#notify(Response, Acknowledge)}. The workflow instances are never
+ * executed, so processor pools and workflow instrumentation do not distort the result.
+ * <p>
+ * Run {@link #main(String[])} to measure with 1 to 64 threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CorrelationMapBenchmark {
+
+    private static final int WORKFLOWS_PER_THREAD = 16;
+
+    @State(Scope.Benchmark)
+    public static class EngineState {
+        TransientScottyEngine engine;
+        final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            engine = new TransientEngineFactory() {
+                @Override
+                protected File getWorkflowSourceDirectory() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                protected WorkflowRepository createWorkflowRepository() {
+                    return new BenchmarkWorkflowRepository();
+                }
+
+                @Override
+                protected ProcessorPoolManager<TransientProcessorPool> createProcessorPoolManager() {
+                    final DefaultProcessorPoolManager<TransientProcessorPool> ppm = new DefaultProcessorPoolManager<TransientProcessorPool>();
+                    ppm.addProcessorPool(new NoopTransientProcessorPool());
+                    return ppm;
+                }
+            }.create();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            engine.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final List<BenchmarkWorkflow> workflows = new ArrayList<BenchmarkWorkflow>();
+        final Acknowledge ack = new Acknowledge.BestEffortAcknowledge();
+        String prefix;
+        long counter;
+
+        @Setup(Level.Trial)
+        public void setup(EngineState state) throws Exception {
+            prefix = "T" + state.threadCounter.incrementAndGet() + "#";
+            for (int i = 0; i < WORKFLOWS_PER_THREAD; i++) {
+                state.engine.run(new WorkflowInstanceDescr<Object>(BenchmarkWorkflow.class.getName(), null, prefix + i, null, null));
+                workflows.add(BenchmarkWorkflowRepository.lastCreated());
+            }
+        }
+    }
+
+    @Benchmark
+    public void registerAndNotify(EngineState engineState, ThreadState threadState) {
+        final long n = threadState.counter++;
+        final BenchmarkWorkflow wf = threadState.workflows.get((int) (n % WORKFLOWS_PER_THREAD));
+        final String cid = threadState.prefix + n;
+        engineState.engine.registerCallbacks(wf, WaitMode.ALL, 0, cid);
+        engineState.engine.notify(new Response<Object>(cid, null, null), threadState.ack);
+        wf.consume(cid);
+    }
+
+    @Benchmark
+    public void registerTwoAndNotifyFirst(EngineState engineState, ThreadState threadState) {
+        final long n = threadState.counter++;
+        final BenchmarkWorkflow wf = threadState.workflows.get((int) (n % WORKFLOWS_PER_THREAD));
+        final String cid1 = threadState.prefix + n + "a";
+        final String cid2 = threadState.prefix + n + "b";
+        engineState.engine.registerCallbacks(wf, WaitMode.FIRST, 0, cid1, cid2);
+        engineState.engine.notify(new Response<Object>(cid1, null, null), threadState.ack);
+        wf.consume(cid1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[] { 1, 2, 4, 8, 16, 32, 64 }) {
+            Options opt = new OptionsBuilder()
+                    .include(CorrelationMapBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(opt).run();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.audit.CompressedBase64PostProcessor;
+import org.copperengine.core.audit.DeflatePostProcessor;
+import org.copperengine.core.audit.MessagePostProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the audit trail message post processors {@link CompressedBase64PostProcessor} and
+ * {@link DeflatePostProcessor} for a typical XML message of about 1 KB. The size of the serialized message is printed
+ * during setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessagePostProcessorBenchmark {
+
+    @Param({ "compressedBase64", "deflate" })
+    String postProcessor;
+
+    MessagePostProcessor processor;
+    String message;
+    String serialized;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        processor = "deflate".equals(postProcessor) ? new DeflatePostProcessor() : new CompressedBase64PostProcessor();
+        final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><orders xmlns=\"http://example.org/order\">");
+        for (int i = 0; i < 8; i++) {
+            sb.append("<order><orderId>").append(4711 + i).append("</orderId><customer><name>Customer ").append(i)
+                    .append("</name><country>DE</country></customer><status>CONFIRMED</status><amount currency=\"EUR\">")
+                    .append(i * 17).append(".00</amount></order>");
+        }
+        message = sb.append("</orders>").toString();
+        serialized = processor.serialize(message);
+        System.out.println(postProcessor + ": " + message.length() + " chars serialized to " + serialized.length() + " chars");
+    }
+
+    @Benchmark
+    public String serialize() {
+        return processor.serialize(message);
+    }
+
+    @Benchmark
+    public String deserialize() {
+        return processor.deserialize(serialized);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(MessagePostProcessorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.jmh;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.Workflow;
+import org.copperengine.core.common.WfMultiLevelQueue;
+import org.copperengine.core.common.WfPriorityQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the run queues of the processor pools: {@link WfPriorityQueue} guarded by its monitor, as the processors
+ * and the pools use it, against the lock-free {@link WfMultiLevelQueue}. Each operation enqueues one workflow
+ * instance and dequeues one, with all threads working on the same queue, which is prefilled so that it never runs
+ * empty.
+ * <p>
+ * Run {@link #main(String[])} to measure with 1 to 64 threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RunQueueBenchmark {
+
+    private static final int NUMB_OF_PRIORITIES = 4;
+    private static final int WORKFLOWS_PER_THREAD = 64;
+
+    @State(Scope.Benchmark)
+    public static class QueueState {
+        @Param({ "priority", "multilevel" })
+        String queueType;
+
+        Queue<Workflow<?>> queue;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            queue = "multilevel".equals(queueType) ? new WfMultiLevelQueue() : new WfPriorityQueue();
+            for (int i = 0; i < 1000; i++) {
+                queue.add(createWorkflow(i));
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final Workflow<?>[] workflows = new Workflow<?>[WORKFLOWS_PER_THREAD];
+        int counter;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            for (int i = 0; i < workflows.length; i++) {
+                workflows[i] = createWorkflow(i);
+            }
+        }
+    }
+
+    private static Workflow<?> createWorkflow(int i) {
+        final BenchmarkWorkflow wf = new BenchmarkWorkflow();
+        wf.setPriority(1 + i % NUMB_OF_PRIORITIES);
+        return wf;
+    }
+
+    @Benchmark
+    public Workflow<?> enqueueDequeue(QueueState queueState, ThreadState threadState) {
+        final Queue<Workflow<?>> queue = queueState.queue;
+        final Workflow<?> wf = threadState.workflows[threadState.counter++ % WORKFLOWS_PER_THREAD];
+        if (queue instanceof WfMultiLevelQueue) {
+            queue.add(wf);
+            return queue.poll();
+        }
+        synchronized (queue) {
+            queue.add(wf);
+            queue.notify();
+        }
+        synchronized (queue) {
+            return queue.poll();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[] { 1, 2, 4, 8, 16, 32, 64 }) {
+            Options opt = new OptionsBuilder()
+                    .include(RunQueueBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(opt).run();
+        }
+    }
+}
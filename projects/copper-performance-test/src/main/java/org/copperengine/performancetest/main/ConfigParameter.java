@@ -20,14 +20,17 @@ import java.util.List;
 
 import org.copperengine.core.persistent.PersistentPriorityProcessorPool;
 import org.copperengine.core.persistent.StandardJavaSerializer;
+import org.copperengine.core.persistent.compression.DeflateCodec;
 
 public enum ConfigParameter {
 
     // common configuration parameters
     PROC_POOL_NUMB_OF_THREADS("procPool.numberOfThreads", "Number of processor threads per processor pool", Integer.valueOf(Runtime.getRuntime().availableProcessors()), ConfigParameterGroup.common),
     PROC_DEQUEUE_BULK_SIZE("procPool.dequeueBulkSize", "Max. bulk size when fetching workflow instances from the underlying DB", Integer.valueOf(PersistentPriorityProcessorPool.DEFAULT_DEQUEUE_SIZE), ConfigParameterGroup.common),
+    PROC_ADAPTIVE_DEQUEUE("procPool.adaptiveDequeue", "Compute dequeue bulk size and queue thresholds from the measured processing rate and dequeue round trip time", Boolean.FALSE, ConfigParameterGroup.common),
     MOCK_ADAPTER_NUMB_OF_THREADS("mockAdapter.numberOfThreads", "Number of processor threads in adapter mock", Integer.valueOf(Runtime.getRuntime().availableProcessors()), ConfigParameterGroup.common),
     COMPRESSION("compression", "compress workflow instances in DB?", StandardJavaSerializer.DEFAULT_COMPRESS, ConfigParameterGroup.common),
+    COMPRESSION_CODEC("compression.codec", "compression codec, e.g. deflate or lz4", DeflateCodec.NAME, ConfigParameterGroup.common),
 
     // configuration parameters used only for RDBMS, e.g. Oracle
     DS_JDBC_URL("ds.jdbcURL", "jdbc URL", null, ConfigParameterGroup.rdbms, "mandatory when testing RDBMS"),
@@ -37,6 +40,9 @@ public enum ConfigParameter {
     DS_MIN_POOL_SIZE("ds.minPoolSize", "minimum size of the connection pool", Integer.valueOf(Runtime.getRuntime().availableProcessors()), ConfigParameterGroup.rdbms),
     DS_MAX_POOL_SIZE("ds.maxPoolSize", "maximum size of the connection pool", Integer.valueOf(Runtime.getRuntime().availableProcessors() * 2), ConfigParameterGroup.rdbms),
     BATCHER_NUMB_OF_THREADS("batcher.numberOfThreads", "Number of DB batcher threads", Integer.valueOf(Runtime.getRuntime().availableProcessors()), ConfigParameterGroup.rdbms),
+    BATCHER_LOCK_FREE_QUEUE("batcher.lockFreeQueue", "Use the lock-free batcher queue with one lane per batch executor", Boolean.FALSE, ConfigParameterGroup.rdbms),
+    BATCHER_MAX_BATCHES_PER_TXN("batcher.maxBatchesPerTransaction", "Maximum number of batches of different executors, that are executed within one transaction", Integer.valueOf(1), ConfigParameterGroup.rdbms),
+    BATCHER_TARGET_LATENCY_MSEC("batcher.targetLatencyMSec", "Target commit latency of the adaptive batch cut policy, 0 to use fixed batch sizes", Integer.valueOf(0), ConfigParameterGroup.rdbms),
 
     // configuration parameters used only for Cassandra DB
     CASSANDRA_HOSTS("cassandra.hosts", "comma separated list of initial cassandra nodes", null, ConfigParameterGroup.cassandra, "mandatory when testing with Cassandra DB"),
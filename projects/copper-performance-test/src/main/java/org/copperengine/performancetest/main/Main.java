@@ -16,6 +16,7 @@
 package org.copperengine.performancetest.main;
 
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 
 public class Main {
@@ -32,6 +33,9 @@ public class Main {
             else if ("throughput".equalsIgnoreCase(args[0])) {
                 new ThroughputPerformanceTest().run();
             }
+            else if ("jmh".equalsIgnoreCase(args[0])) {
+                org.openjdk.jmh.Main.main(Arrays.copyOfRange(args, 1, args.length));
+            }
             else {
                 usage();
             }
@@ -43,9 +47,10 @@ public class Main {
     }
 
     private static void usage() {
-        System.out.println("Usage: java <parameters> -jar copper-performance-test.jar (latency|throughput)");
+        System.out.println("Usage: java <parameters> -jar copper-performance-test.jar (latency|throughput|jmh)");
         System.out.println("  latency    - measures the latency for executing resubmit/savepoints in an otherwise idle system");
         System.out.println("  throughput - executes a large amount of workflow instances, each with 10 wait/notifies, to measure the avg. number of wait/notify cycles per second");
+        System.out.println("  jmh        - runs the JMH micro benchmarks of package org.copperengine.performancetest.jmh, all further arguments are passed to JMH");
         System.out.println();
         System.out.println("  with <parameters> as follows");
         for (ConfigParameterGroup grp : ConfigParameterGroup.values()) {
@@ -36,6 +36,7 @@ import org.copperengine.core.DependencyInjector;
 import org.copperengine.core.EngineIdProvider;
 import org.copperengine.core.EngineIdProviderBean;
 import org.copperengine.core.PersistentProcessingEngine;
+import org.copperengine.core.batcher.AdaptiveBatchCutPolicy;
 import org.copperengine.core.batcher.RetryingTxnBatchRunner;
 import org.copperengine.core.batcher.impl.BatcherImpl;
 import org.copperengine.core.common.DefaultProcessorPoolManager;
@@ -58,6 +59,9 @@ import org.copperengine.core.persistent.ScottyDBStorage;
 import org.copperengine.core.persistent.ScottyDBStorageInterface;
 import org.copperengine.core.persistent.Serializer;
 import org.copperengine.core.persistent.StandardJavaSerializer;
+import org.copperengine.core.persistent.compression.CompressionCodec;
+import org.copperengine.core.persistent.compression.CompressionCodecs;
+import org.copperengine.core.persistent.compression.DeflateCodec;
 import org.copperengine.core.persistent.cassandra.CassandraSessionManagerImpl;
 import org.copperengine.core.persistent.cassandra.CassandraStorage;
 import org.copperengine.core.persistent.hybrid.DefaultTimeoutManager;
@@ -201,6 +205,16 @@ public class PerformanceTestContext implements AutoCloseable {
         boolean compression = configManager.get().getConfigBoolean(ConfigParameter.COMPRESSION);
         logger.debug("compression={}", compression);
         serializer.setCompress(compression);
+        String codecName = configManager.get().getConfigString(ConfigParameter.COMPRESSION_CODEC);
+        CompressionCodec codec = CompressionCodecs.get(codecName);
+        if (codec == null) {
+            throw new IllegalArgumentException("unknown compression codec " + codecName);
+        }
+        if (codec.getId() != DeflateCodec.ID) {
+            serializer.setCompressionCodec(codec);
+        }
+        logger.debug("compression.codec={}", codecName);
+        serializer.setRuntimeStatisticsCollector(statisticsCollector.get());
         return serializer;
     }
 
@@ -294,7 +308,17 @@ public class PerformanceTestContext implements AutoCloseable {
             transactionController = new CopperTransactionController(dataSource);
 
             final BatcherImpl batcher = new BatcherImpl(batcherNumbOfThreads);
-            batcher.setBatchRunner(new RetryingTxnBatchRunner<>(dataSource));
+            batcher.setLockFreeQueue(configManager.get().getConfigBoolean(ConfigParameter.BATCHER_LOCK_FREE_QUEUE));
+            batcher.setMaxBatchesPerTransaction(configManager.get().getConfigInt(ConfigParameter.BATCHER_MAX_BATCHES_PER_TXN));
+            final int batcherTargetLatencyMSec = configManager.get().getConfigInt(ConfigParameter.BATCHER_TARGET_LATENCY_MSEC);
+            if (batcherTargetLatencyMSec > 0) {
+                final AdaptiveBatchCutPolicy.Factory batchCutPolicyFactory = new AdaptiveBatchCutPolicy.Factory();
+                batchCutPolicyFactory.setTargetLatencyMSec(batcherTargetLatencyMSec);
+                batcher.setBatchCutPolicyFactory(batchCutPolicyFactory);
+            }
+            final RetryingTxnBatchRunner<?, ?> batchRunner = new RetryingTxnBatchRunner<>(dataSource);
+            batchRunner.setStatisticsCollector(statisticsCollector.get());
+            batcher.setBatchRunner(batchRunner);
             batcher.setStatisticsCollector(statisticsCollector.get());
             batcher.startup();
 
@@ -352,6 +376,7 @@ public class PerformanceTestContext implements AutoCloseable {
         final List<PersistentProcessorPool> pools = new ArrayList<PersistentProcessorPool>();
         final PersistentPriorityProcessorPool pool = new PersistentPriorityProcessorPool(PersistentProcessorPool.DEFAULT_POOL_ID, transactionController, procPoolNumbOfThreads);
         pool.setDequeueBulkSize(configManager.get().getConfigInt(ConfigParameter.PROC_DEQUEUE_BULK_SIZE));
+        pool.setAdaptiveDequeue(configManager.get().getConfigBoolean(ConfigParameter.PROC_ADAPTIVE_DEQUEUE));
         pools.add(pool);
         processorPoolManager.get().setProcessorPools(pools);
 
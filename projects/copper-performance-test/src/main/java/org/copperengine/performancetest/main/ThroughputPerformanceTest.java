@@ -60,6 +60,7 @@ public class ThroughputPerformanceTest {
                 logger.debug("Starting additional processor pool {} with {} threads", ppoolId, procPoolNumbOfThreads);
                 final PersistentPriorityProcessorPool pool = new PersistentPriorityProcessorPool(ppoolId, context.getTransactionController(), procPoolNumbOfThreads);
                 pool.setDequeueBulkSize(context.getConfigManager().getConfigInt(ConfigParameter.PROC_DEQUEUE_BULK_SIZE));
+                pool.setAdaptiveDequeue(context.getConfigManager().getConfigBoolean(ConfigParameter.PROC_ADAPTIVE_DEQUEUE));
                 context.getProcessorPoolManager().addProcessorPool(pool);
             }
 
@@ -19,10 +19,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -32,6 +34,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 import javax.sql.DataSource;
 
@@ -151,6 +154,110 @@ public class BatchingAuditTrailTest {
 
     }
 
+    @Test
+    public void testBulkInsert() throws Exception {
+        createCustomAuditTrailTable();
+
+        final ArrayList<Property2ColumnMapping> additionalMapping = new ArrayList<BatchingAuditTrail.Property2ColumnMapping>();
+        additionalMapping.add(new Property2ColumnMapping("customInt", "CUSTOM_INT"));
+        additionalMapping.add(new Property2ColumnMapping("customTimestamp", "CUSTOM_TIMESTAMP"));
+        additionalMapping.add(new Property2ColumnMapping("customVarchar", "CUSTOM_VARCHAR"));
+
+        final BatchingAuditTrail batchingAuditTrail = new BatchingAuditTrail();
+        batchingAuditTrail.setDataSource(ds);
+        batchingAuditTrail.setDbTable("COP_AUDIT_TRAIL_EVENT_EXTENDED");
+        batchingAuditTrail.setAuditTrailEventClass(ExtendedAutitTrailEvent.class);
+        batchingAuditTrail.setAdditionalMapping(additionalMapping);
+        batchingAuditTrail.setBulkInsert(true);
+        batchingAuditTrail.startup();
+
+        final BulkInsertIntoAuditTrail.InsertStatement insertStmt = batchingAuditTrail.getBulkInsertStmt();
+        assertFalse(insertStmt.copy);
+        assertEquals(83, insertStmt.rowsPerStmt);
+
+        // 250 events need three full statements and one for the remaining event
+        final int numbOfEvents = 250;
+        final List<BatchCommand<BulkInsertIntoAuditTrail.Executor, BulkInsertIntoAuditTrail.Command>> cmds = new ArrayList<BatchCommand<BulkInsertIntoAuditTrail.Executor, BulkInsertIntoAuditTrail.Command>>();
+        for (int i = 0; i < numbOfEvents; i++) {
+            final AuditTrailEvent e;
+            if (i % 2 == 0) {
+                e = new ExtendedAutitTrailEvent(1, new Date(), "conversationId" + i, "context", "instanceId", "correlationId", "transactionId", "message", "messageType", "TEST", i, new Timestamp(System.currentTimeMillis()));
+            } else {
+                e = new AuditTrailEvent(1, new Date(), "conversationId" + i, "context", "instanceId", "correlationId", "transactionId", "message", "messageType", null);
+            }
+            @SuppressWarnings("unchecked")
+            final BulkInsertIntoAuditTrail.Command cmd = new BulkInsertIntoAuditTrail.Command(e, insertStmt, NullCallback.instance, 0);
+            cmds.add(cmd);
+        }
+
+        final Connection con = ds.getConnection();
+        try {
+            Statement stmt = con.createStatement();
+            stmt.execute("DELETE FROM COP_AUDIT_TRAIL_EVENT_EXTENDED");
+
+            cmds.get(0).executor().doExec(cmds, con);
+            con.commit();
+
+            ResultSet rs = stmt.executeQuery("SELECT CONVERSATION_ID, CUSTOM_INT, CUSTOM_VARCHAR FROM COP_AUDIT_TRAIL_EVENT_EXTENDED ORDER BY SEQ_ID ASC");
+            for (int i = 0; i < numbOfEvents; i++) {
+                assertTrue(rs.next());
+                assertEquals("conversationId" + i, rs.getString(1));
+                if (i % 2 == 0) {
+                    assertEquals(i, rs.getInt(2));
+                    assertEquals("TEST", rs.getString(3));
+                } else {
+                    assertNull(rs.getString(3));
+                }
+            }
+            assertFalse(rs.next());
+            rs.close();
+            stmt.close();
+        } finally {
+            con.close();
+        }
+    }
+
+    @Test
+    public void testBulkInsertCustomSequenceId() throws Exception {
+        final BatchingAuditTrail batchingAuditTrail = new BatchingAuditTrail();
+        batchingAuditTrail.setDataSource(ds);
+        batchingAuditTrail.setBulkInsert(true);
+        batchingAuditTrail.startup();
+
+        final AuditTrailEvent e = new AuditTrailEvent(1, new Date(), "conversationId", "context", "instanceId", "correlationId", "transactionId", "message", "messageType", null);
+        e.setSequenceId(4711L);
+        // the command is created, the failure is reported when the batch is executed, i.e. via the callback
+        @SuppressWarnings("unchecked")
+        final BulkInsertIntoAuditTrail.Command cmd = new BulkInsertIntoAuditTrail.Command(e, batchingAuditTrail.getBulkInsertStmt(), NullCallback.instance, 0);
+        final Connection con = ds.getConnection();
+        try {
+            cmd.executor().doExec(Arrays.<BatchCommand<BulkInsertIntoAuditTrail.Executor, BulkInsertIntoAuditTrail.Command>> asList(cmd), con);
+            fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        } finally {
+            con.rollback();
+            con.close();
+        }
+    }
+
+    @Test
+    public void testCopyRowFormat() throws Exception {
+        final List<Method> getters = new ArrayList<Method>();
+        getters.add(AuditTrailEvent.class.getMethod("getLogLevel"));
+        getters.add(AuditTrailEvent.class.getMethod("getOccurrence"));
+        getters.add(ExtendedAutitTrailEvent.class.getMethod("getCustomVarchar"));
+        getters.add(AuditTrailEvent.class.getMethod("getMessage"));
+        final BulkInsertIntoAuditTrail.InsertStatement insertStmt = new BulkInsertIntoAuditTrail.InsertStatement("COP_AUDIT_TRAIL_EVENT", Arrays.asList("LOGLEVEL", "OCCURRENCE", "CUSTOM_VARCHAR", "LONG_MESSAGE"), getters, true);
+        assertEquals("COPY COP_AUDIT_TRAIL_EVENT (LOGLEVEL,OCCURRENCE,CUSTOM_VARCHAR,LONG_MESSAGE) FROM STDIN", insertStmt.copyStmt);
+
+        final Timestamp ts = Timestamp.valueOf("2015-03-01 12:30:45.123");
+        final AuditTrailEvent e = new AuditTrailEvent(3, ts, "conversationId", "context", "instanceId", "correlationId", "transactionId", "a\\b\tc\r\nd", "messageType", null);
+        final StringBuilder sb = new StringBuilder();
+        BulkInsertIntoAuditTrail.appendCopyRow(sb, insertStmt, e);
+        assertEquals("3\t2015-03-01 12:30:45.123\t\\N\ta\\\\b\\tc\\r\\nd\n", sb.toString());
+    }
+
     private void createCustomAuditTrailTable() throws IOException, SQLException {
         final StringBuilder sql = new StringBuilder();
         final BufferedReader r = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("extendedAuditTrail.sql")));
@@ -26,6 +26,11 @@ public class DerbyDbPersistentWorkflowTest extends SpringlessBasePersistentWorkf
         super.testAsynchResponse(DS_CONTEXT);
     }
 
+    @Test
+    public void testAsynchResponseMultiLevelQueue() throws Exception {
+        super.testAsynchResponseMultiLevelQueue(DS_CONTEXT);
+    }
+
     @Test
     public void testAsynchResponseLargeData() throws Exception {
         super.testAsynchResponseLargeData(DS_CONTEXT, 10000);
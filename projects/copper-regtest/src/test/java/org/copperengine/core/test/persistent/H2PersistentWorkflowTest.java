@@ -40,6 +40,16 @@ public class H2PersistentWorkflowTest extends SpringlessBasePersistentWorkflowTe
         super.testAsynchResponse(DS_CONTEXT);
     }
 
+    @Test
+    public void testAsynchResponseEventDrivenEnqueue() throws Exception {
+        super.testAsynchResponseEventDrivenEnqueue(DS_CONTEXT);
+    }
+
+    @Test
+    public void testAsynchResponseMultiLevelQueue() throws Exception {
+        super.testAsynchResponseMultiLevelQueue(DS_CONTEXT);
+    }
+
     @Test
     public void testAsynchResponseLargeData() throws Exception {
         super.testAsynchResponseLargeData(DS_CONTEXT, 10000);
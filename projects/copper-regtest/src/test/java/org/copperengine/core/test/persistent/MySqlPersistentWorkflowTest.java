@@ -43,6 +43,11 @@ public class MySqlPersistentWorkflowTest extends SpringlessBasePersistentWorkflo
         super.testAsynchResponse(DS_CONTEXT);
     }
 
+    @Test
+    public void testAsynchResponseEventDrivenEnqueue() throws Exception {
+        super.testAsynchResponseEventDrivenEnqueue(DS_CONTEXT);
+    }
+
     @Test
     public void testAsynchResponseLargeData() throws Exception {
         super.testAsynchResponseLargeData(DS_CONTEXT, 65536);
@@ -127,6 +132,11 @@ public class MySqlPersistentWorkflowTest extends SpringlessBasePersistentWorkflo
     public void testMultipleEngines() throws Exception {
         super.testMultipleEngines(DS_CONTEXT);
     }
+
+    @Test
+    public void testMultipleEnginesSkipLocked() throws Exception {
+        super.testMultipleEnginesSkipLocked(DS_CONTEXT);
+    }
     
     @Test
     public void testJmxQueryWorkflowInstances() throws Exception {
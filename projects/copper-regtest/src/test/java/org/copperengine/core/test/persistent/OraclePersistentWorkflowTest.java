@@ -68,6 +68,11 @@ public class OraclePersistentWorkflowTest extends SpringlessBasePersistentWorkfl
         super.testMultipleEngines(DS_CONTEXT);
     }
 
+    @Test
+    public void testMultipleEnginesSkipLocked() throws Exception {
+        super.testMultipleEnginesSkipLocked(DS_CONTEXT);
+    }
+
     @Test
     public void testErrorHandlingInCoreEngine() throws Exception {
         super.testErrorHandlingInCoreEngine(DS_CONTEXT);
@@ -26,13 +26,18 @@ import org.copperengine.core.DependencyInjector;
 import org.copperengine.core.ProcessingEngine;
 import org.copperengine.core.audit.BatchingAuditTrail;
 import org.copperengine.core.batcher.impl.BatcherImpl;
+import org.copperengine.core.common.ProcessorPoolManager;
 import org.copperengine.core.common.WorkflowRepository;
 import org.copperengine.core.db.utility.RetryingTransaction;
 import org.copperengine.core.persistent.AbstractSqlDialect;
 import org.copperengine.core.persistent.DataSourceFactory;
 import org.copperengine.core.persistent.DatabaseDialect;
 import org.copperengine.core.persistent.OracleDialect;
+import org.copperengine.core.persistent.PersistentPriorityProcessorPool;
+import org.copperengine.core.persistent.PersistentProcessorPool;
 import org.copperengine.core.persistent.PersistentScottyEngine;
+import org.copperengine.core.persistent.ScottyDBStorage;
+import org.copperengine.core.persistent.ScottyDBStorageInterface;
 import org.copperengine.core.persistent.lock.PersistentLockManager;
 import org.copperengine.core.persistent.lock.PersistentLockManagerDialectSQL;
 import org.copperengine.core.persistent.lock.PersistentLockManagerImpl;
@@ -269,9 +274,31 @@ public class PersistentEngineTestContext extends TestContext {
                         throw new RuntimeException("Unexpected DatabaseDialect: " + x.getClass().getName());
                     }
                 }
+                if (isDequeueSkipLocked()) {
+                    if (x instanceof OracleDialect) {
+                        ((OracleDialect) x).setDequeueSkipLocked(true);
+                    }
+                    else {
+                        ((AbstractSqlDialect) x).setDequeueSkipLocked(true);
+                    }
+                }
                 return x;
             }
 
+            @Override
+            protected ProcessorPoolManager<PersistentProcessorPool> createProcessorPoolManager() {
+                ProcessorPoolManager<PersistentProcessorPool> processorPoolManager = super.createProcessorPoolManager();
+                ((PersistentPriorityProcessorPool) processorPoolManager.getProcessorPool(PersistentProcessorPool.DEFAULT_POOL_ID)).setMultiLevelQueue(isMultiLevelQueue());
+                return processorPoolManager;
+            }
+
+            @Override
+            protected ScottyDBStorageInterface createDBStorage() {
+                ScottyDBStorageInterface dbStorage = super.createDBStorage();
+                ((ScottyDBStorage) dbStorage).setEventDrivenEnqueue(isEventDrivenEnqueue());
+                return dbStorage;
+            }
+
             @Override
             protected TransactionController createTransactionController() {
                 CopperTransactionController txnController = new CopperTransactionController();
@@ -285,6 +312,18 @@ public class PersistentEngineTestContext extends TestContext {
         return x;
     }
 
+    protected boolean isDequeueSkipLocked() {
+        return false;
+    }
+
+    protected boolean isEventDrivenEnqueue() {
+        return false;
+    }
+
+    protected boolean isMultiLevelQueue() {
+        return false;
+    }
+
     @Override
     public void startup() {
         super.startup();
@@ -171,9 +171,38 @@ public class SpringlessBasePersistentWorkflowTest {
     public void testAsynchResponse(DataSourceType dsType) throws Exception {
         assumeFalse(skipTests());
         logger.info("running testAsynchResponse");
+        testAsynchResponse(createContext(dsType));
+    }
+
+    public void testAsynchResponseEventDrivenEnqueue(DataSourceType dsType) throws Exception {
+        assumeFalse(skipTests());
+        logger.info("running testAsynchResponseEventDrivenEnqueue");
+        final PersistentEngineTestContext context = new PersistentEngineTestContext(dsType, true) {
+            @Override
+            protected boolean isEventDrivenEnqueue() {
+                return true;
+            }
+        };
+        context.startup();
+        testAsynchResponse(context);
+    }
+
+    public void testAsynchResponseMultiLevelQueue(DataSourceType dsType) throws Exception {
+        assumeFalse(skipTests());
+        logger.info("running testAsynchResponseMultiLevelQueue");
+        final PersistentEngineTestContext context = new PersistentEngineTestContext(dsType, true) {
+            @Override
+            protected boolean isMultiLevelQueue() {
+                return true;
+            }
+        };
+        context.startup();
+        testAsynchResponse(context);
+    }
+
+    private void testAsynchResponse(final PersistentEngineTestContext context) throws Exception {
         final int NUMB = 50;
         final String DATA = createTestData(50);
-        final PersistentEngineTestContext context = createContext(dsType);
         final PersistentScottyEngine engine = context.getEngine();
         final BackChannelQueue backChannelQueue = context.getBackChannelQueue();
         try {
@@ -807,15 +836,33 @@ public class SpringlessBasePersistentWorkflowTest {
     }
 
     public void testMultipleEngines(DataSourceType dsType) throws Exception {
+        testMultipleEngines(dsType, false);
+    }
+
+    public void testMultipleEnginesSkipLocked(DataSourceType dsType) throws Exception {
+        testMultipleEngines(dsType, true);
+    }
+
+    private void testMultipleEngines(DataSourceType dsType, final boolean dequeueSkipLocked) throws Exception {
         assumeFalse(skipTests());
 
-        logger.info("running testMultipleEngines");
+        logger.info("running testMultipleEngines, dequeueSkipLocked={}", dequeueSkipLocked);
         final int NUMB = 50;
 
-        final PersistentEngineTestContext contextRed = new PersistentEngineTestContext(dsType, true, "red", true);
+        final PersistentEngineTestContext contextRed = new PersistentEngineTestContext(dsType, true, "red", true) {
+            @Override
+            protected boolean isDequeueSkipLocked() {
+                return dequeueSkipLocked;
+            }
+        };
         contextRed.startup();
 
         final PersistentEngineTestContext contextBlue = new PersistentEngineTestContext(dsType, false, "blue", true) {
+            @Override
+            protected boolean isDequeueSkipLocked() {
+                return dequeueSkipLocked;
+            }
+
             @Override
             protected DataHolder createDataHolder() {
                 return contextRed.getDataHolder();
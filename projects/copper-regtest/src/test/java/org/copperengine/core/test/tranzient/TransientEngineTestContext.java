@@ -94,11 +94,21 @@ public class TransientEngineTestContext extends TestContext {
 
     private DefaultProcessorPoolManager<TransientProcessorPool> createProcessorPoolManager() {
         DefaultProcessorPoolManager<TransientProcessorPool> processorPoolManager = new DefaultProcessorPoolManager<TransientProcessorPool>();
-        processorPoolManager.addProcessorPool(new TransientPriorityProcessorPool(PPOOL_DEFAULT, 4));
-        processorPoolManager.addProcessorPool(new TransientPriorityProcessorPool("PS47112", 4));
+        processorPoolManager.addProcessorPool(createProcessorPool(PPOOL_DEFAULT));
+        processorPoolManager.addProcessorPool(createProcessorPool("PS47112"));
         return processorPoolManager;
     }
 
+    private TransientPriorityProcessorPool createProcessorPool(String id) {
+        TransientPriorityProcessorPool processorPool = new TransientPriorityProcessorPool(id, 4);
+        processorPool.setMultiLevelQueue(isMultiLevelQueue());
+        return processorPool;
+    }
+
+    protected boolean isMultiLevelQueue() {
+        return false;
+    }
+
     @Override
     public void startup() {
         super.startup();
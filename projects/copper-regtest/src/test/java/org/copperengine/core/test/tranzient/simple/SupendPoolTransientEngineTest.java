@@ -29,7 +29,21 @@ public class SupendPoolTransientEngineTest {
 
     @Test
     public void testWorkflow() throws Exception {
-        try (TransientEngineTestContext ctx = new TransientEngineTestContext()) {
+        testWorkflow(new TransientEngineTestContext());
+    }
+
+    @Test
+    public void testWorkflowMultiLevelQueue() throws Exception {
+        testWorkflow(new TransientEngineTestContext() {
+            @Override
+            protected boolean isMultiLevelQueue() {
+                return true;
+            }
+        });
+    }
+
+    private void testWorkflow(TransientEngineTestContext context) throws Exception {
+        try (TransientEngineTestContext ctx = context) {
             ctx.startup();
             assertEquals(EngineState.STARTED, ctx.getEngine().getEngineState());
 
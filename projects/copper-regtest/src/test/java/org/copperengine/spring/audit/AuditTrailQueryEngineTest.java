@@ -0,0 +1,188 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.spring.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.copperengine.core.persistent.DataSourceFactory;
+import org.copperengine.management.model.AuditTrailInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+public class AuditTrailQueryEngineTest {
+
+    private static final int NUMB_OF_EVENTS = 25;
+
+    ComboPooledDataSource ds;
+    AuditTrailQueryEngine engine;
+    String conversationId;
+    long start;
+
+    @Before
+    public void setUp() throws Exception {
+        ds = DataSourceFactory.createH2Datasource();
+        engine = new AuditTrailQueryEngine();
+        engine.setDataSource(ds);
+
+        conversationId = UUID.randomUUID().toString();
+        start = System.currentTimeMillis() - 60000L;
+        final Connection con = ds.getConnection();
+        try {
+            con.setAutoCommit(false);
+            final PreparedStatement stmt = con.prepareStatement("INSERT INTO COP_AUDIT_TRAIL_EVENT (LOGLEVEL,OCCURRENCE,CONVERSATION_ID,CONTEXT,CORRELATION_ID,LONG_MESSAGE) VALUES (?,?,?,?,?,?)");
+            for (int i = 0; i < NUMB_OF_EVENTS; i++) {
+                stmt.setInt(1, i % 2 == 0 ? 1 : 5);
+                stmt.setTimestamp(2, new Timestamp(start + i * 1000L));
+                stmt.setString(3, conversationId);
+                stmt.setString(4, "context");
+                stmt.setString(5, "correlationId" + i);
+                stmt.setString(6, createMessage(i));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            stmt.close();
+            con.commit();
+        } finally {
+            con.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ds.close();
+    }
+
+    private static String createMessage(int i) {
+        final StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < i * 1000; j++) {
+            sb.append((char) ('a' + j % 26));
+        }
+        return "message" + i + ":" + sb;
+    }
+
+    private List<AuditTrailInfo> readAll(Integer level, Date occurredFrom, Date occurredTo, int pageSize) {
+        return readAll(conversationId, level, occurredFrom, occurredTo, pageSize);
+    }
+
+    private List<AuditTrailInfo> readAll(String conversationId, Integer level, Date occurredFrom, Date occurredTo, int pageSize) {
+        final List<AuditTrailInfo> all = new ArrayList<AuditTrailInfo>();
+        AuditTrailInfo after = null;
+        for (;;) {
+            final List<AuditTrailInfo> page = engine.getAuditTrails(null, conversationId, null, level, occurredFrom, occurredTo, after, pageSize);
+            assertTrue(page.size() <= pageSize);
+            all.addAll(page);
+            if (page.size() < pageSize)
+                return all;
+            after = page.get(page.size() - 1);
+        }
+    }
+
+    @Test
+    public void testPaging() throws Exception {
+        final List<AuditTrailInfo> all = readAll(null, null, null, 10);
+        assertEquals(NUMB_OF_EVENTS, all.size());
+        for (int i = 0; i < NUMB_OF_EVENTS; i++) {
+            assertEquals("correlationId" + i, all.get(i).getCorrelationId());
+            if (i > 0) {
+                assertTrue(all.get(i - 1).getId() < all.get(i).getId());
+            }
+        }
+        assertEquals(10, engine.getAuditTrails(null, conversationId, null, null, 10).size());
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        final List<AuditTrailInfo> level1 = readAll(1, null, null, 4);
+        assertEquals((NUMB_OF_EVENTS + 1) / 2, level1.size());
+
+        final List<AuditTrailInfo> range = readAll(null, new Date(start + 5000L), new Date(start + 15000L), 3);
+        assertEquals(10, range.size());
+        assertEquals("correlationId5", range.get(0).getCorrelationId());
+        assertEquals("correlationId14", range.get(9).getCorrelationId());
+
+        final List<AuditTrailInfo> correlated = engine.getAuditTrails(null, null, "correlationId7", null, null, null, null, 10);
+        assertTrue(correlated.size() >= 1);
+        assertEquals("correlationId7", correlated.get(correlated.size() - 1).getCorrelationId());
+    }
+
+    @Test
+    public void testPagingByOccurrence() throws Exception {
+        // groups of four events with the same occurrence, in a time range no other test uses
+        final long base = start - 365L * 24L * 60L * 60L * 1000L - (long) (Math.random() * 1000000000L);
+        final Connection con = ds.getConnection();
+        try {
+            con.setAutoCommit(false);
+            final PreparedStatement stmt = con.prepareStatement("INSERT INTO COP_AUDIT_TRAIL_EVENT (LOGLEVEL,OCCURRENCE,CONVERSATION_ID,CONTEXT,CORRELATION_ID,LONG_MESSAGE) VALUES (?,?,?,?,?,?)");
+            for (int i = 0; i < 10; i++) {
+                stmt.setInt(1, 1);
+                // descending occurrences, so that the SEQ_ID order differs from the OCCURRENCE order
+                stmt.setTimestamp(2, new Timestamp(base + (2 - i / 4) * 1000L));
+                stmt.setString(3, conversationId);
+                stmt.setString(4, "context");
+                stmt.setString(5, "occurrence" + i);
+                stmt.setString(6, createMessage(0));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            stmt.close();
+            con.commit();
+        } finally {
+            con.close();
+        }
+
+        final List<AuditTrailInfo> all = readAll(null, null, new Date(base - 1000L), new Date(base + 3000L), 3);
+        assertEquals(10, all.size());
+        final String[] expected = { "occurrence8", "occurrence9", "occurrence4", "occurrence5", "occurrence6", "occurrence7", "occurrence0", "occurrence1", "occurrence2", "occurrence3" };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], all.get(i).getCorrelationId());
+        }
+    }
+
+    @Test
+    public void testMXBeanSortOrder() throws Exception {
+        // sorted by the most specific filter column, as before the introduction of the paginated queries
+        final List<AuditTrailInfo> byLevel = engine.getAuditTrails(null, null, null, 5, 20);
+        assertEquals(20, byLevel.size());
+        for (int i = 1; i < byLevel.size(); i++) {
+            assertTrue(byLevel.get(i - 1).getLoglevel() <= byLevel.get(i).getLoglevel());
+        }
+    }
+
+    @Test
+    public void testCopyMessage() throws Exception {
+        final List<AuditTrailInfo> all = readAll(null, null, null, 100);
+        final StringWriter out = new StringWriter();
+        assertTrue(engine.copyMessage(all.get(20).getId(), out));
+        assertEquals(createMessage(20), out.toString());
+        assertEquals(createMessage(20), new String(engine.getMessage(all.get(20).getId()), "UTF-8"));
+        assertFalse(engine.copyMessage(-1L, new StringWriter()));
+    }
+
+}
@@ -18,9 +18,13 @@ package org.copperengine.spring.audit;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import org.copperengine.management.AuditTrailQueryMXBean;
@@ -29,47 +33,130 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.item.database.PagingQueryProvider;
 import org.springframework.batch.item.database.support.SqlPagingQueryProviderFactoryBean;
+import org.springframework.batch.support.DatabaseType;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
 import org.springframework.util.StringUtils;
 
+/**
+ * Queries the audit trail table COP_AUDIT_TRAIL_EVENT.
+ * <p>
+ * Large result sets should be read page by page using
+ * {@link #getAuditTrails(String, String, String, Integer, Date, Date, AuditTrailInfo, int)}. Each page continues after
+ * the last event of the previous page (keyset pagination), so reading a page costs the same regardless of its
+ * position. The pages are ordered by SEQ_ID, or by OCCURRENCE and SEQ_ID if the time range is the only selective
+ * filter. The create-schema scripts contain composite indexes on (TRANSACTION_ID, SEQ_ID), (CONVERSATION_ID, SEQ_ID),
+ * (CORRELATION_ID, SEQ_ID) and (OCCURRENCE, SEQ_ID) supporting these queries.
+ */
 public class AuditTrailQueryEngine extends JdbcDaoSupport implements AuditTrailQueryMXBean {
     private static final Logger logger = LoggerFactory.getLogger(AuditTrailQueryEngine.class);
 
+    private volatile String databaseType;
+
+    /**
+     * Sets the database type used to generate the paging queries, see {@link DatabaseType}. If not set, it is
+     * detected once from the meta data of the data source.
+     */
+    public void setDatabaseType(String databaseType) {
+        this.databaseType = databaseType;
+    }
+
+    /**
+     * Returns the first <code>maxResult</code> audit trail events, ordered by the column of the most specific filter
+     * (TRANSACTION_ID, CONVERSATION_ID, CORRELATION_ID, LOGLEVEL) or by SEQ_ID without a filter. Use
+     * {@link #getAuditTrails(String, String, String, Integer, Date, Date, AuditTrailInfo, int)} to read all events page
+     * by page.
+     */
     @Override
     public List<AuditTrailInfo> getAuditTrails(String transactionId, String conversationId, String correlationId, Integer level, int maxResult) {
+        String sortKey = "SEQ_ID";
+        if (StringUtils.hasText(transactionId)) {
+            sortKey = "TRANSACTION_ID";
+        } else if (StringUtils.hasText(conversationId)) {
+            sortKey = "CONVERSATION_ID";
+        } else if (StringUtils.hasText(correlationId)) {
+            sortKey = "CORRELATION_ID";
+        } else if (level != null) {
+            sortKey = "LOGLEVEL";
+        }
+        return getAuditTrails(transactionId, conversationId, correlationId, level, null, null, sortKey, false, null, maxResult);
+    }
+
+    /**
+     * Returns one page of audit trail events. If a time range is given but no transaction, conversation or correlation
+     * id, the events are ordered by OCCURRENCE and SEQ_ID, so that the index on (OCCURRENCE, SEQ_ID) serves the query.
+     * Otherwise they are ordered by SEQ_ID.
+     *
+     * @param occurredFrom
+     *        if not <code>null</code>, only events that occurred at or after this time are returned
+     * @param occurredTo
+     *        if not <code>null</code>, only events that occurred before this time are returned
+     * @param after
+     *        <code>null</code> for the first page, else the last event of the previous page. Only its id and
+     *        occurrence are used.
+     * @param pageSize
+     *        maximum number of events returned
+     */
+    public List<AuditTrailInfo> getAuditTrails(String transactionId, String conversationId, String correlationId, Integer level, Date occurredFrom, Date occurredTo, AuditTrailInfo after, int pageSize) {
+        final boolean byOccurrence = (occurredFrom != null || occurredTo != null) && !StringUtils.hasText(transactionId) && !StringUtils.hasText(conversationId) && !StringUtils.hasText(correlationId);
+        // the paging query providers append " ASC" to the sort key, so both columns are sorted ascending
+        final String sortKey = byOccurrence ? "OCCURRENCE, SEQ_ID" : "SEQ_ID";
+        return getAuditTrails(transactionId, conversationId, correlationId, level, occurredFrom, occurredTo, sortKey, byOccurrence, after, pageSize);
+    }
+
+    private List<AuditTrailInfo> getAuditTrails(String transactionId, String conversationId, String correlationId, Integer level, Date occurredFrom, Date occurredTo, String sortKey, boolean byOccurrence, AuditTrailInfo after, int pageSize) {
 
         SqlPagingQueryProviderFactoryBean factory = new SqlPagingQueryProviderFactoryBean();
 
-        String sortClause = "SEQ_ID";
         String whereClause = "where 1=1 ";
         List<Object> args = new ArrayList<Object>();
 
         if (level != null) {
             whereClause += " and LOGLEVEL <= ? ";
-            sortClause = "LOGLEVEL";
             args.add(level);
         }
         if (StringUtils.hasText(correlationId)) {
             whereClause += " and CORRELATION_ID = ? ";
-            sortClause = "CORRELATION_ID";
             args.add(correlationId);
         }
 
         if (StringUtils.hasText(conversationId)) {
             whereClause += " and CONVERSATION_ID = ? ";
-            sortClause = "CONVERSATION_ID";
             args.add(conversationId);
         }
 
         if (StringUtils.hasText(transactionId)) {
             whereClause += " and TRANSACTION_ID = ? ";
-            sortClause = "TRANSACTION_ID";
             args.add(transactionId);
         }
 
+        if (occurredFrom != null) {
+            whereClause += " and OCCURRENCE >= ? ";
+            args.add(new Timestamp(occurredFrom.getTime()));
+        }
+
+        if (occurredTo != null) {
+            whereClause += " and OCCURRENCE < ? ";
+            args.add(new Timestamp(occurredTo.getTime()));
+        }
+
+        if (after != null) {
+            if (byOccurrence) {
+                // same as (OCCURRENCE, SEQ_ID) > (?, ?), which is not supported by all databases
+                final Timestamp afterOccurrence = new Timestamp(after.getOccurrence());
+                whereClause += " and OCCURRENCE >= ? and (OCCURRENCE > ? or SEQ_ID > ?) ";
+                args.add(afterOccurrence);
+                args.add(afterOccurrence);
+                args.add(after.getId());
+            } else {
+                whereClause += " and SEQ_ID > ? ";
+                args.add(after.getId());
+            }
+        }
+
         String selectClause = "select "
                 + "SEQ_ID,"
                 + "TRANSACTION_ID,"
@@ -82,12 +169,13 @@ public class AuditTrailQueryEngine extends JdbcDaoSupport implements AuditTrailQ
                 + "MESSAGE_TYPE";
 
         factory.setDataSource(getDataSource());
+        factory.setDatabaseType(getDatabaseType());
         factory.setFromClause("from COP_AUDIT_TRAIL_EVENT ");
 
         factory.setSelectClause(selectClause);
 
         factory.setWhereClause(whereClause);
-        factory.setSortKey(sortClause);
+        factory.setSortKey(sortKey);
 
         PagingQueryProvider queryProvider = null;
         try {
@@ -97,7 +185,8 @@ public class AuditTrailQueryEngine extends JdbcDaoSupport implements AuditTrailQ
             return null;
         }
 
-        String query = queryProvider.generateFirstPageQuery(maxResult);
+        // the where clause already continues after the previous page
+        String query = queryProvider.generateFirstPageQuery(pageSize);
 
         // this.getJdbcTemplate().setQueryTimeout(1000);
 
@@ -147,23 +236,79 @@ public class AuditTrailQueryEngine extends JdbcDaoSupport implements AuditTrailQ
         return this.getJdbcTemplate().query(customSelect, rse, new Object[] { id });
     }
 
+    /**
+     * Copies the message of an audit trail event to <code>out</code> in chunks, without reading the whole message
+     * into memory. The message is written as stored, i.e. still serialized by the
+     * {@link org.copperengine.core.audit.MessagePostProcessor} of the audit trail.
+     *
+     * @return <code>false</code> if there is no audit trail event with this id
+     */
+    public boolean copyMessage(final long id, final Writer out) {
+        String customSelect = "select LONG_MESSAGE from COP_AUDIT_TRAIL_EVENT where SEQ_ID = ? ";
+
+        ResultSetExtractor<Boolean> rse = new ResultSetExtractor<Boolean>() {
+
+            @Override
+            public Boolean extractData(ResultSet rs) throws SQLException,
+                    DataAccessException {
+                if (!rs.next()) {
+                    return false;
+                }
+                Reader reader = rs.getCharacterStream("LONG_MESSAGE");
+                if (reader == null) {
+                    return true;
+                }
+                try {
+                    try {
+                        char[] buffer = new char[8 * 1024];
+                        int read;
+                        while ((read = reader.read(buffer)) > 0) {
+                            out.write(buffer, 0, read);
+                        }
+                    } finally {
+                        reader.close();
+                    }
+                } catch (IOException e) {
+                    throw new DataAccessResourceFailureException("Unable to copy message of audit trail event " + id, e);
+                }
+                return true;
+            }
+
+        };
+
+        return this.getJdbcTemplate().query(customSelect, rse, new Object[] { id });
+    }
+
+    private String getDatabaseType() {
+        if (databaseType == null) {
+            try {
+                databaseType = DatabaseType.fromMetaData(getDataSource()).name();
+            } catch (Exception e) {
+                throw new IllegalStateException("Unable to detect database type", e);
+            }
+        }
+        return databaseType;
+    }
+
     private byte[] convertToArray(InputStream messageStream) {
         if (messageStream == null) {
             return new byte[0];
         }
 
-        byte[] bytes = new byte[1024];
+        byte[] bytes = new byte[8 * 1024];
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         int read = 0;
-        int off = 0;
         try {
-            while ((read = messageStream.read(bytes)) > 0) {
-                out.write(bytes, off, read);
-                off += read;
+            try {
+                while ((read = messageStream.read(bytes)) > 0) {
+                    out.write(bytes, 0, read);
+                }
+            } finally {
+                messageStream.close();
             }
-            messageStream.close();
             return out.toByteArray();
         } catch (IOException e) {
+            logger.error("Unable to read message", e);
         }
         return null;
     }